@@ -0,0 +1,36 @@
+package com.javacompressor.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Scratch space for benchmark output.
+ */
+final class BenchmarkFiles {
+    private BenchmarkFiles() {
+    }
+    
+    /**
+     * Creates an empty work directory next to the corpus, so output lands on the same disk as the input.
+     */
+    static Path createWorkDirectory() throws IOException {
+        return Files.createTempDirectory(SyntheticCorpus.directory(), "work");
+    }
+    
+    /**
+     * Deletes a directory and everything in it.
+     */
+    static void deleteRecursively(Path directory) throws IOException {
+        if (directory == null || !Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
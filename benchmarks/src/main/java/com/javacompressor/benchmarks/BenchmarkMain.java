@@ -0,0 +1,58 @@
+package com.javacompressor.benchmarks;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Entry point of benchmarks.jar. Takes the usual JMH arguments, but always attaches the GC
+ * profiler (allocation rate, bytes allocated per op, GC count and time) and, unless {@code -rff}
+ * says otherwise, saves the results as JSON under {@code results/} so two commits can be
+ * compared, e.g. on jmh.morethan.io.
+ */
+public class BenchmarkMain {
+    private static final DateTimeFormatter RESULT_NAME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+    
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        if (commandLine.shouldHelp()) {
+            commandLine.showHelp();
+            return;
+        }
+        
+        if (commandLine.shouldList() || commandLine.shouldListWithParams() || commandLine.shouldListProfilers()
+                || commandLine.shouldListResultFormats()) {
+            // Let JMH's own Main handle the listing modes
+            Main.main(args);
+            return;
+        }
+        
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+        boolean hasGcProfiler = commandLine.getProfilers().stream()
+                .anyMatch(profiler -> profiler.getKlass().equals(GCProfiler.class.getName())
+                        || profiler.getKlass().equals("gc"));
+        if (!hasGcProfiler) {
+            options.addProfiler(GCProfiler.class);
+        }
+        if (!commandLine.getResult().hasValue()) {
+            options.resultFormat(ResultFormatType.JSON).result(resultFile().toString());
+        }
+        
+        new Runner(options.build()).run();
+    }
+    
+    private static Path resultFile() throws IOException {
+        Path directory = Files.createDirectories(Path.of("results"));
+        return directory.resolve(LocalDateTime.now().format(RESULT_NAME) + ".json");
+    }
+}
@@ -0,0 +1,95 @@
+package com.javacompressor.benchmarks;
+
+import com.javacompressor.compression.CompressionAlgorithm;
+import com.javacompressor.compression.CompressionOptions;
+import com.javacompressor.compression.CompressionService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compresses and decompresses a single file through {@link CompressionService}, for every
+ * algorithm, a few levels and read buffer sizes, and each {@link SyntheticCorpus.Shape}.
+ * <p>
+ * The full matrix takes over an hour. Narrow it down with {@code -p}, e.g.
+ * {@code -p algorithm=GZIP -p level=1,2,3,4,5,6,7,8,9 -p shape=TEXT}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g", "-Djavacompressor.console.level=WARN"})
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 3, time = 5)
+public class CompressionBenchmark {
+    private static final long MEGABYTE = 1024 * 1024;
+    
+    @Param({"ZIP", "GZIP", "BZIP2", "LZ4", "ZSTD", "XZ"})
+    public CompressionAlgorithm algorithm;
+    
+    @Param({"1", "5", "9"})
+    public int level;
+    
+    @Param({"65536", "1048576", "8388608"})
+    public int ioBufferSize;
+    
+    @Param({"TEXT", "RANDOM", "MEDIA"})
+    public SyntheticCorpus.Shape shape;
+    
+    @Param({"32"})
+    public int sizeMb;
+    
+    private CompressionService service;
+    private Path workDirectory;
+    private File input;
+    private File compressed;
+    private File decompressed;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        CompressionOptions options = new CompressionOptions();
+        options.setIoBufferSize(ioBufferSize);
+        service = new CompressionService(options);
+        
+        input = SyntheticCorpus.file(shape, sizeMb * MEGABYTE);
+        workDirectory = BenchmarkFiles.createWorkDirectory();
+        compressed = workDirectory.resolve("input." + algorithm.getExtension()).toFile();
+        decompressed = workDirectory.resolve("output").toFile();
+        
+        // The decompress benchmark needs something to read, made with this trial's settings
+        service.compressFile(input, compressed, algorithm, level, false, null, null);
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkFiles.deleteRecursively(workDirectory);
+    }
+    
+    @Benchmark
+    public double compress(MegabyteCounter counter) throws IOException {
+        double ratio = service.compressFile(input, compressed, algorithm, level, false, null, null);
+        counter.add(input.length());
+        return ratio;
+    }
+    
+    @Benchmark
+    public double decompress(MegabyteCounter counter) throws IOException {
+        double ratio = service.decompressFile(compressed, decompressed, algorithm, null);
+        counter.add(input.length());
+        return ratio;
+    }
+}
@@ -0,0 +1,88 @@
+package com.javacompressor.benchmarks;
+
+import com.javacompressor.compression.CompressionAlgorithm;
+import com.javacompressor.compression.CompressionOptions;
+import com.javacompressor.compression.CompressionService;
+import com.javacompressor.model.FileManifest;
+import com.javacompressor.util.DirectoryScanner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Zips and unzips a directory holding the same amount of text either as one big file or as
+ * thousands of small ones, to show the per-file overhead (scanning, entry headers, file opens).
+ * Only ZIP is measured because the other formats can't hold directories.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g", "-Djavacompressor.console.level=WARN"})
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 3, time = 5)
+public class DirectoryBenchmark {
+    private static final long MEGABYTE = 1024 * 1024;
+    
+    @Param({"ONE_BIG", "MANY_SMALL"})
+    public SyntheticCorpus.Layout layout;
+    
+    @Param({"1", "6"})
+    public int level;
+    
+    @Param({"64"})
+    public int sizeMb;
+    
+    private CompressionService service;
+    private Path workDirectory;
+    private File input;
+    private File compressed;
+    private File decompressed;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        service = new CompressionService(new CompressionOptions());
+        input = SyntheticCorpus.directory(layout, sizeMb * MEGABYTE);
+        workDirectory = BenchmarkFiles.createWorkDirectory();
+        compressed = workDirectory.resolve("input.zip").toFile();
+        decompressed = workDirectory.resolve("output").toFile();
+        service.compressFile(input, compressed, CompressionAlgorithm.ZIP, level, true, null, null);
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkFiles.deleteRecursively(workDirectory);
+    }
+    
+    /**
+     * Includes the directory scan, like a user picking the folder in the app.
+     */
+    @Benchmark
+    public double compress(MegabyteCounter counter) throws IOException {
+        FileManifest manifest = DirectoryScanner.scan(input);
+        double ratio = service.compressFile(input, compressed, CompressionAlgorithm.ZIP, level, true, manifest, null);
+        counter.add(manifest.getTotalSize());
+        return ratio;
+    }
+    
+    @Benchmark
+    public double decompress(MegabyteCounter counter) throws IOException {
+        double ratio = service.decompressFile(compressed, decompressed, CompressionAlgorithm.ZIP, null);
+        counter.add(sizeMb * MEGABYTE);
+        return ratio;
+    }
+}
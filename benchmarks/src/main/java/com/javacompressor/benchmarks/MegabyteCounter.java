@@ -0,0 +1,31 @@
+package com.javacompressor.benchmarks;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Counts the uncompressed megabytes a benchmark went through. JMH divides it by the run time,
+ * so it shows up next to ops/s as MB/s, which is comparable across input sizes.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class MegabyteCounter {
+    private static final double MEGABYTE = 1024.0 * 1024.0;
+    
+    public double megabytes;
+    
+    @Setup(Level.Iteration)
+    public void reset() {
+        megabytes = 0;
+    }
+    
+    /**
+     * Adds the bytes of one operation.
+     */
+    public void add(long bytes) {
+        megabytes += bytes / MEGABYTE;
+    }
+}
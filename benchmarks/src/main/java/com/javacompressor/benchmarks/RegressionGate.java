@@ -0,0 +1,412 @@
+package com.javacompressor.benchmarks;
+
+import com.javacompressor.compression.CompressionAlgorithm;
+import com.javacompressor.compression.CompressionOptions;
+import com.javacompressor.compression.CompressionService;
+import com.javacompressor.model.FileManifest;
+import com.javacompressor.util.DirectoryScanner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * End-to-end throughput gate: round-trips realistic datasets through {@link CompressionService}
+ * on real files and compares throughput and ratio against a stored baseline.
+ * <p>
+ * Record a baseline on the machine that will run the gate, then run it after every change:
+ * <pre>
+ * java -cp benchmarks.jar com.javacompressor.benchmarks.RegressionGate --record
+ * java -cp benchmarks.jar com.javacompressor.benchmarks.RegressionGate
+ * </pre>
+ * The exit code is 0 when everything is within tolerance, 1 when a metric slipped (or a round
+ * trip lost data) and 2 for bad arguments or a missing baseline, so CI can fail the build on it.
+ * Throughput is the median of several runs, since a single run on a shared disk is too noisy.
+ */
+public class RegressionGate {
+    private static final double MEGABYTE = 1024.0 * 1024.0;
+    private static final int EXIT_OK = 0;
+    private static final int EXIT_REGRESSION = 1;
+    private static final int EXIT_USAGE = 2;
+    private static final String SETTINGS_KEY = "settings";
+    
+    /**
+     * One dataset + algorithm combination. Single-file cases use the first file of the dataset,
+     * since the single-file formats can't hold directories.
+     */
+    private static final class Case {
+        private final String name;
+        private final SyntheticCorpus.Dataset dataset;
+        private final CompressionAlgorithm algorithm;
+        private final boolean singleFile;
+        
+        Case(SyntheticCorpus.Dataset dataset, CompressionAlgorithm algorithm, boolean singleFile) {
+            this.name = dataset.name().toLowerCase(Locale.ROOT) + "." + algorithm.getExtension();
+            this.dataset = dataset;
+            this.algorithm = algorithm;
+            this.singleFile = singleFile;
+        }
+    }
+    
+    private static final List<Case> CASES = List.of(
+        new Case(SyntheticCorpus.Dataset.LOGS, CompressionAlgorithm.ZIP, false),
+        new Case(SyntheticCorpus.Dataset.LOGS, CompressionAlgorithm.GZIP, true),
+        new Case(SyntheticCorpus.Dataset.LOGS, CompressionAlgorithm.BZIP2, true),
+        new Case(SyntheticCorpus.Dataset.LOGS, CompressionAlgorithm.LZ4, true),
+        new Case(SyntheticCorpus.Dataset.LOGS, CompressionAlgorithm.ZSTD, true),
+        new Case(SyntheticCorpus.Dataset.LOGS, CompressionAlgorithm.XZ, true),
+        new Case(SyntheticCorpus.Dataset.JSON, CompressionAlgorithm.ZIP, false),
+        new Case(SyntheticCorpus.Dataset.SOURCE_TREE, CompressionAlgorithm.ZIP, false),
+        new Case(SyntheticCorpus.Dataset.BLOBS, CompressionAlgorithm.ZIP, false),
+        new Case(SyntheticCorpus.Dataset.BLOBS, CompressionAlgorithm.GZIP, true)
+    );
+    
+    /**
+     * What one case measured.
+     */
+    private static final class Measurement {
+        private final double compressMbps;
+        private final double decompressMbps;
+        private final double ratio;
+        
+        Measurement(double compressMbps, double decompressMbps, double ratio) {
+            this.compressMbps = compressMbps;
+            this.decompressMbps = decompressMbps;
+            this.ratio = ratio;
+        }
+    }
+    
+    private final PrintStream out;
+    private Path baselineFile = Path.of("regression-baseline.properties");
+    private double throughputTolerance = 0.10;
+    private double ratioTolerance = 0.01;
+    private double scale = 1.0;
+    private int runs = 3;
+    private int level = 6;
+    private boolean record;
+    private Set<String> only;
+    
+    RegressionGate(PrintStream out) {
+        this.out = out;
+    }
+    
+    public static void main(String[] args) {
+        // Per-file INFO logging would only add noise (and a little time) to the measurements
+        if (System.getProperty("javacompressor.console.level") == null) {
+            System.setProperty("javacompressor.console.level", "WARN");
+        }
+        System.exit(new RegressionGate(System.out).run(args));
+    }
+    
+    /**
+     * Runs the gate.
+     *
+     * @param args Command line arguments
+     * @return The exit code
+     */
+    int run(String[] args) {
+        try {
+            parseArguments(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            printUsage();
+            return EXIT_USAGE;
+        }
+        
+        Properties baseline = new Properties();
+        if (!record) {
+            if (!Files.isRegularFile(baselineFile)) {
+                System.err.println("No baseline at " + baselineFile + ", record one with --record first");
+                return EXIT_USAGE;
+            }
+            try (InputStream in = Files.newInputStream(baselineFile)) {
+                baseline.load(in);
+            } catch (IOException e) {
+                System.err.println("Can't read baseline " + baselineFile + ": " + e.getMessage());
+                return EXIT_USAGE;
+            }
+            // Numbers from a different scale or level aren't comparable at all
+            String settings = settings();
+            if (!settings.equals(baseline.getProperty(SETTINGS_KEY))) {
+                System.err.println("Baseline was recorded with " + baseline.getProperty(SETTINGS_KEY)
+                                   + ", this run uses " + settings);
+                return EXIT_USAGE;
+            }
+        }
+        
+        Properties measured = new Properties();
+        measured.setProperty(SETTINGS_KEY, settings());
+        List<String> failures = new ArrayList<>();
+        out.printf(Locale.ROOT, "%-18s %12s %12s %8s%n", "case", "comp MB/s", "decomp MB/s", "ratio");
+        
+        for (Case testCase : CASES) {
+            if (only != null && !only.contains(testCase.name)) {
+                continue;
+            }
+            Measurement measurement;
+            try {
+                measurement = measure(testCase);
+            } catch (IOException | RuntimeException e) {
+                failures.add(testCase.name + ": round trip failed: " + e.getMessage());
+                out.printf(Locale.ROOT, "%-18s FAILED (%s)%n", testCase.name, e.getMessage());
+                continue;
+            }
+            out.printf(Locale.ROOT, "%-18s %12.1f %12.1f %8.4f%n", testCase.name, measurement.compressMbps,
+                       measurement.decompressMbps, measurement.ratio);
+            
+            measured.setProperty(testCase.name + ".compress.mbps", format(measurement.compressMbps));
+            measured.setProperty(testCase.name + ".decompress.mbps", format(measurement.decompressMbps));
+            measured.setProperty(testCase.name + ".ratio", format(measurement.ratio));
+            
+            if (!record) {
+                checkThroughput(baseline, testCase.name + ".compress.mbps", measurement.compressMbps, failures);
+                checkThroughput(baseline, testCase.name + ".decompress.mbps", measurement.decompressMbps, failures);
+                checkRatio(baseline, testCase.name + ".ratio", measurement.ratio, failures);
+            }
+        }
+        
+        if (record) {
+            if (!failures.isEmpty()) {
+                failures.forEach(failure -> out.println("FAIL " + failure));
+                out.println("Not recording a baseline from a failed run");
+                return EXIT_REGRESSION;
+            }
+            try (OutputStream baselineOut = Files.newOutputStream(baselineFile)) {
+                measured.store(baselineOut, "RegressionGate baseline");
+            } catch (IOException e) {
+                System.err.println("Can't write baseline " + baselineFile + ": " + e.getMessage());
+                return EXIT_USAGE;
+            }
+            out.println("Baseline recorded in " + baselineFile);
+            return EXIT_OK;
+        }
+        
+        if (failures.isEmpty()) {
+            out.println("All cases within tolerance of " + baselineFile);
+            return EXIT_OK;
+        }
+        failures.forEach(failure -> out.println("FAIL " + failure));
+        return EXIT_REGRESSION;
+    }
+    
+    /**
+     * Round-trips one case: one untimed run that also checks the output matches the input, then
+     * the timed runs.
+     */
+    private Measurement measure(Case testCase) throws IOException {
+        File datasetDirectory = SyntheticCorpus.dataset(testCase.dataset, scale);
+        FileManifest manifest = DirectoryScanner.scan(datasetDirectory);
+        File input = testCase.singleFile ? manifest.getEntries().get(0).getPath().toFile() : datasetDirectory;
+        long inputBytes = testCase.singleFile ? input.length() : manifest.getTotalSize();
+        
+        CompressionService service = new CompressionService(new CompressionOptions());
+        Path workDirectory = BenchmarkFiles.createWorkDirectory();
+        try {
+            File archive = workDirectory.resolve("archive." + testCase.algorithm.getExtension()).toFile();
+            File output = workDirectory.resolve("output").toFile();
+            
+            double ratio = compress(service, testCase, input, archive);
+            decompress(service, testCase, archive, output);
+            verify(testCase, manifest, input, output);
+            
+            double[] compressMbps = new double[runs];
+            double[] decompressMbps = new double[runs];
+            for (int run = 0; run < runs; run++) {
+                long start = System.nanoTime();
+                compress(service, testCase, input, archive);
+                compressMbps[run] = megabytesPerSecond(inputBytes, System.nanoTime() - start);
+                
+                BenchmarkFiles.deleteRecursively(output.toPath());
+                start = System.nanoTime();
+                decompress(service, testCase, archive, output);
+                decompressMbps[run] = megabytesPerSecond(inputBytes, System.nanoTime() - start);
+            }
+            return new Measurement(median(compressMbps), median(decompressMbps), ratio);
+        } finally {
+            BenchmarkFiles.deleteRecursively(workDirectory);
+        }
+    }
+    
+    private double compress(CompressionService service, Case testCase, File input, File archive) throws IOException {
+        // Scanning is part of what a user waits for, so it's timed too
+        FileManifest manifest = testCase.singleFile ? null : DirectoryScanner.scan(input);
+        return service.compressFile(input, archive, testCase.algorithm, level, false, manifest, null);
+    }
+    
+    private static void decompress(CompressionService service, Case testCase, File archive, File output)
+            throws IOException {
+        service.decompressFile(archive, output, testCase.algorithm, null);
+    }
+    
+    /**
+     * Checks every file came back with the same size and CRC.
+     */
+    private static void verify(Case testCase, FileManifest manifest, File input, File output) throws IOException {
+        if (testCase.singleFile) {
+            compareFiles(input.toPath(), output.toPath());
+            return;
+        }
+        for (FileManifest.Entry entry : manifest.getEntries()) {
+            compareFiles(entry.getPath(), output.toPath().resolve(entry.getRelativeName()));
+        }
+    }
+    
+    private static void compareFiles(Path expected, Path actual) throws IOException {
+        if (!Files.isRegularFile(actual)) {
+            throw new IOException("Missing after round trip: " + actual);
+        }
+        if (Files.size(expected) != Files.size(actual) || crc(expected) != crc(actual)) {
+            throw new IOException("Content differs after round trip: " + actual);
+        }
+    }
+    
+    private static long crc(Path path) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(path)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+            }
+        }
+        return crc.getValue();
+    }
+    
+    private void checkThroughput(Properties baseline, String key, double value, List<String> failures) {
+        Double expected = baselineValue(baseline, key, failures);
+        if (expected != null && value < expected * (1 - throughputTolerance)) {
+            failures.add(String.format(Locale.ROOT, "%s: %.1f MB/s is %.1f%% below the baseline of %.1f MB/s",
+                                       key, value, (1 - value / expected) * 100, expected));
+        }
+    }
+    
+    // Lower is better for the ratio (output / input)
+    private void checkRatio(Properties baseline, String key, double value, List<String> failures) {
+        Double expected = baselineValue(baseline, key, failures);
+        if (expected != null && value > expected * (1 + ratioTolerance)) {
+            failures.add(String.format(Locale.ROOT, "%s: %.4f is worse than the baseline of %.4f", key, value, expected));
+        }
+    }
+    
+    private static Double baselineValue(Properties baseline, String key, List<String> failures) {
+        String value = baseline.getProperty(key);
+        if (value == null) {
+            failures.add(key + ": not in the baseline, record a new one");
+            return null;
+        }
+        return Double.valueOf(value);
+    }
+    
+    private String settings() {
+        return String.format(Locale.ROOT, "scale=%s level=%d", scale, level);
+    }
+    
+    private static double megabytesPerSecond(long bytes, long nanos) {
+        return bytes / MEGABYTE / (Math.max(1, nanos) / 1e9);
+    }
+    
+    private static double median(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int middle = sorted.length / 2;
+        return sorted.length % 2 == 1 ? sorted[middle] : (sorted[middle - 1] + sorted[middle]) / 2;
+    }
+    
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.4f", value);
+    }
+    
+    private void parseArguments(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--record":
+                    record = true;
+                    break;
+                case "--baseline":
+                    baselineFile = Path.of(value(args, ++i, arg));
+                    break;
+                case "--tolerance":
+                    throughputTolerance = fraction(value(args, ++i, arg), arg);
+                    break;
+                case "--ratio-tolerance":
+                    ratioTolerance = fraction(value(args, ++i, arg), arg);
+                    break;
+                case "--scale":
+                    scale = positive(value(args, ++i, arg), arg);
+                    break;
+                case "--runs":
+                    runs = (int) positive(value(args, ++i, arg), arg);
+                    break;
+                case "--level":
+                    level = (int) positive(value(args, ++i, arg), arg);
+                    if (level > 9) {
+                        throw new IllegalArgumentException("--level must be 1-9");
+                    }
+                    break;
+                case "--only":
+                    only = new HashSet<>(Arrays.asList(value(args, ++i, arg).split(",")));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument: " + arg);
+            }
+        }
+        if (runs < 1) {
+            throw new IllegalArgumentException("--runs must be at least 1");
+        }
+    }
+    
+    private static String value(String[] args, int index, String option) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException(option + " needs a value");
+        }
+        return args[index];
+    }
+    
+    private static double fraction(String text, String option) {
+        double value = number(text, option);
+        if (value < 0 || value >= 1) {
+            throw new IllegalArgumentException(option + " must be between 0 and 1, e.g. 0.1 for 10%");
+        }
+        return value;
+    }
+    
+    private static double positive(String text, String option) {
+        double value = number(text, option);
+        if (!(value > 0)) {
+            throw new IllegalArgumentException(option + " must be positive");
+        }
+        return value;
+    }
+    
+    private static double number(String text, String option) {
+        try {
+            return Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(option + " needs a number, got " + text);
+        }
+    }
+    
+    private static void printUsage() {
+        System.err.println("Usage: RegressionGate [--record] [--baseline file] [--tolerance 0.10]");
+        System.err.println("                      [--ratio-tolerance 0.01] [--scale 1.0] [--runs 3] [--level 6]");
+        System.err.println("                      [--only logs.zip,json.zip,...]");
+        StringBuilder names = new StringBuilder();
+        for (Case testCase : CASES) {
+            names.append(names.length() == 0 ? "" : ", ").append(testCase.name);
+        }
+        System.err.println("Cases: " + names);
+    }
+}
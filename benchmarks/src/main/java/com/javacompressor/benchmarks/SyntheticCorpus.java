@@ -0,0 +1,400 @@
+package com.javacompressor.benchmarks;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+/**
+ * Generates benchmark inputs from a fixed seed, so every run (and every commit) compresses
+ * exactly the same bytes.
+ * <p>
+ * Generated files are cached under {@code javacompressor.corpus.dir} (default: a folder in the
+ * temp dir) and reused as long as the name matches, since writing a few hundred MB of test data
+ * would otherwise take longer than some of the benchmarks.
+ */
+public final class SyntheticCorpus {
+    /** Bump this whenever a generator changes, so stale cached files aren't mixed with new ones. */
+    private static final int VERSION = 1;
+    private static final long SEED = 0x5EED_C0DEL;
+    private static final int CHUNK_SIZE = 64 * 1024;
+    
+    private static final String[] WORDS = {
+        "the", "of", "and", "to", "in", "is", "for", "on", "with", "as", "request", "response", "user",
+        "file", "stream", "buffer", "block", "server", "client", "error", "warning", "timeout", "retry",
+        "session", "cache", "index", "value", "status", "connection", "thread", "queue", "worker",
+        "compressed", "archive", "checksum", "offset", "length", "payload", "handler", "started",
+        "finished", "failed", "accepted", "rejected", "scheduled", "id", "count", "total", "elapsed"
+    };
+    
+    /**
+     * The kinds of data a single-file benchmark can run on.
+     */
+    public enum Shape {
+        /** Log-like English text, compresses about 3-4x. */
+        TEXT,
+        /** Uniformly random bytes, can't be compressed at all. */
+        RANDOM,
+        /** Deflated data, standing in for JPEG/MP4/ZIP files that are already compressed. */
+        MEDIA
+    }
+    
+    /**
+     * How a directory's bytes are split into files.
+     */
+    public enum Layout {
+        /** A single big file. */
+        ONE_BIG,
+        /** Lots of 16 KB files spread over subfolders. */
+        MANY_SMALL
+    }
+    
+    /**
+     * Realistic directory trees for the end-to-end {@link RegressionGate}.
+     */
+    public enum Dataset {
+        /** Rotated application logs, 8 MB each. */
+        LOGS(16),
+        /** 16 KB JSON documents, like an API dump. */
+        JSON(4096),
+        /** Small source files in nested packages, about 150 MB for 100k files. */
+        SOURCE_TREE(100_000),
+        /** Large binary files, half random and half fixed-size records. */
+        BLOBS(4);
+        
+        private final int fileCount;
+        
+        Dataset(int fileCount) {
+            this.fileCount = fileCount;
+        }
+        
+        /**
+         * Gets the number of files at scale 1.
+         */
+        public int getFileCount() {
+            return fileCount;
+        }
+    }
+    
+    private static final int SMALL_FILE_SIZE = 16 * 1024;
+    private static final int FILES_PER_FOLDER = 256;
+    private static final long LOG_FILE_SIZE = 8L * 1024 * 1024;
+    private static final int JSON_FILE_SIZE = 16 * 1024;
+    private static final long BLOB_FILE_SIZE = 32L * 1024 * 1024;
+    private static final int RECORD_SIZE = 32;
+    
+    private static final String[] IDENTIFIERS = {
+        "buffer", "count", "entry", "file", "index", "item", "key", "length", "name", "node", "offset",
+        "result", "size", "source", "state", "target", "task", "value", "config", "handler", "listener"
+    };
+    
+    private SyntheticCorpus() {
+    }
+    
+    /**
+     * Gets the directory the corpus is cached in.
+     */
+    public static Path directory() throws IOException {
+        String configured = System.getProperty("javacompressor.corpus.dir");
+        Path dir = configured != null
+                ? Path.of(configured)
+                : Path.of(System.getProperty("java.io.tmpdir"), "javacompressor-corpus");
+        return Files.createDirectories(dir);
+    }
+    
+    /**
+     * Gets a file of the given shape and size, generating it on first use.
+     *
+     * @param shape The kind of data
+     * @param size The file size in bytes
+     * @return The file
+     */
+    public static File file(Shape shape, long size) throws IOException {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Size must be positive: " + size);
+        }
+        Path target = directory().resolve(String.format("v%d-%s-%d.bin", VERSION, shape.name().toLowerCase(), size));
+        if (Files.isRegularFile(target) && Files.size(target) == size) {
+            return target.toFile();
+        }
+        
+        // Write next to the target and move it in, so an interrupted run never leaves a half file behind
+        Path temp = Files.createTempFile(target.getParent(), "corpus", ".tmp");
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp), CHUNK_SIZE)) {
+            Random random = new Random(SEED ^ shape.ordinal());
+            switch (shape) {
+                case TEXT:
+                    writeText(out, random, size);
+                    break;
+                case RANDOM:
+                    writeRandom(out, random, size);
+                    break;
+                case MEDIA:
+                    writeMedia(out, random, size);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown shape: " + shape);
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return target.toFile();
+    }
+    
+    /**
+     * Gets a directory of text files adding up to the given size, generating it on first use.
+     *
+     * @param layout How the bytes are split into files
+     * @param totalSize The combined size of all files
+     * @return The directory
+     */
+    public static File directory(Layout layout, long totalSize) throws IOException {
+        if (totalSize <= 0) {
+            throw new IllegalArgumentException("Size must be positive: " + totalSize);
+        }
+        Path target = directory().resolve(String.format("v%d-%s-%d", VERSION, layout.name().toLowerCase(), totalSize));
+        Path done = completionMarker(target);
+        if (Files.exists(done)) {
+            return target.toFile();
+        }
+        
+        BenchmarkFiles.deleteRecursively(target);
+        Files.createDirectories(target);
+        Random random = new Random(SEED ^ (layout.ordinal() + 100));
+        if (layout == Layout.ONE_BIG) {
+            writeFile(target.resolve("data.txt"), random, totalSize);
+        } else {
+            long remaining = totalSize;
+            for (int index = 0; remaining > 0; index++) {
+                long size = Math.min(SMALL_FILE_SIZE, remaining);
+                Path folder = Files.createDirectories(target.resolve(String.format("dir%04d", index / FILES_PER_FOLDER)));
+                writeFile(folder.resolve(String.format("file%06d.txt", index)), random, size);
+                remaining -= size;
+            }
+        }
+        // The marker goes last, so an interrupted run gets regenerated instead of reused
+        Files.createFile(done);
+        return target.toFile();
+    }
+    
+    /**
+     * Gets a dataset directory, generating it on first use.
+     *
+     * @param dataset The kind of data
+     * @param scale Multiplies the number of files; 1 is the full size, smaller values make quick runs
+     * @return The directory
+     */
+    public static File dataset(Dataset dataset, double scale) throws IOException {
+        if (!(scale > 0)) {
+            throw new IllegalArgumentException("Scale must be positive: " + scale);
+        }
+        int fileCount = Math.max(1, (int) Math.round(dataset.getFileCount() * scale));
+        Path target = directory().resolve(String.format("v%d-%s-%d", VERSION, dataset.name().toLowerCase(), fileCount));
+        Path done = completionMarker(target);
+        if (Files.exists(done)) {
+            return target.toFile();
+        }
+        
+        BenchmarkFiles.deleteRecursively(target);
+        Files.createDirectories(target);
+        Random random = new Random(SEED ^ (dataset.ordinal() + 200));
+        for (int index = 0; index < fileCount; index++) {
+            switch (dataset) {
+                case LOGS:
+                    writeFile(target.resolve(String.format("app.log.%d", index)), random, LOG_FILE_SIZE);
+                    break;
+                case JSON:
+                    writeJson(folder(target, index).resolve(String.format("doc%06d.json", index)), random, index);
+                    break;
+                case SOURCE_TREE:
+                    writeSource(target, random, index);
+                    break;
+                case BLOBS:
+                    writeBlob(target.resolve(String.format("blob%02d.bin", index)), random);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown dataset: " + dataset);
+            }
+        }
+        Files.createFile(done);
+        return target.toFile();
+    }
+    
+    // Kept next to the directory, not in it, so it never ends up in an archive
+    private static Path completionMarker(Path directory) {
+        return directory.resolveSibling(directory.getFileName() + ".complete");
+    }
+    
+    private static Path folder(Path root, int index) throws IOException {
+        return Files.createDirectories(root.resolve(String.format("dir%04d", index / FILES_PER_FOLDER)));
+    }
+    
+    private static void writeFile(Path path, Random random, long size) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(path), CHUNK_SIZE)) {
+            writeText(out, random, size);
+        }
+    }
+    
+    /**
+     * Writes log lines made of words picked with a skewed distribution, like real text.
+     */
+    static void writeText(OutputStream out, Random random, long size) throws IOException {
+        StringBuilder line = new StringBuilder(160);
+        long written = 0;
+        long timestamp = 1_700_000_000_000L;
+        while (written < size) {
+            line.setLength(0);
+            timestamp += random.nextInt(2000);
+            line.append(timestamp).append(random.nextInt(10) == 0 ? " WARN " : " INFO ");
+            int words = 6 + random.nextInt(14);
+            for (int i = 0; i < words; i++) {
+                // Squaring the uniform value favours the first words, roughly like word frequencies
+                double skewed = random.nextDouble();
+                line.append(WORDS[(int) (skewed * skewed * WORDS.length)]).append(' ');
+                if (random.nextInt(8) == 0) {
+                    line.append(random.nextInt(100_000)).append(' ');
+                }
+            }
+            line.setCharAt(line.length() - 1, '\n');
+            
+            byte[] bytes = line.toString().getBytes(StandardCharsets.US_ASCII);
+            int count = (int) Math.min(bytes.length, size - written);
+            out.write(bytes, 0, count);
+            written += count;
+        }
+    }
+    
+    private static void writeRandom(OutputStream out, Random random, long size) throws IOException {
+        byte[] chunk = new byte[CHUNK_SIZE];
+        long written = 0;
+        while (written < size) {
+            random.nextBytes(chunk);
+            int count = (int) Math.min(chunk.length, size - written);
+            out.write(chunk, 0, count);
+            written += count;
+        }
+    }
+    
+    /**
+     * Writes deflated text. Like real media it's nearly incompressible but not quite random.
+     */
+    private static void writeMedia(OutputStream out, Random random, long size) throws IOException {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        ChunkOutput text = new ChunkOutput();
+        byte[] compressed = new byte[CHUNK_SIZE];
+        long written = 0;
+        try {
+            while (written < size) {
+                text.reset();
+                writeText(text, random, CHUNK_SIZE * 4L);
+                deflater.setInput(text.buffer(), 0, text.size());
+                int count;
+                do {
+                    // A full output buffer means the flush may not be done yet
+                    count = deflater.deflate(compressed, 0, compressed.length, Deflater.SYNC_FLUSH);
+                    int usable = (int) Math.min(count, size - written);
+                    out.write(compressed, 0, usable);
+                    written += usable;
+                } while ((count == compressed.length || !deflater.needsInput()) && written < size);
+            }
+        } finally {
+            deflater.end();
+        }
+    }
+    
+    /**
+     * Writes a JSON document of records, padded to roughly the same size every time.
+     */
+    private static void writeJson(Path path, Random random, int documentId) throws IOException {
+        StringBuilder json = new StringBuilder(JSON_FILE_SIZE + 512);
+        json.append("{\n  \"id\": ").append(documentId).append(",\n  \"items\": [\n");
+        for (int item = 0; json.length() < JSON_FILE_SIZE; item++) {
+            if (item > 0) {
+                json.append(",\n");
+            }
+            json.append("    {\"id\": ").append(random.nextInt(1_000_000))
+                .append(", \"name\": \"").append(IDENTIFIERS[random.nextInt(IDENTIFIERS.length)])
+                .append('-').append(random.nextInt(10_000))
+                .append("\", \"active\": ").append(random.nextBoolean())
+                .append(", \"score\": ").append(String.format(Locale.ROOT, "%.3f", random.nextDouble() * 100))
+                .append(", \"tags\": [\"").append(WORDS[random.nextInt(WORDS.length)])
+                .append("\", \"").append(WORDS[random.nextInt(WORDS.length)]).append("\"]}");
+        }
+        json.append("\n  ]\n}\n");
+        Files.write(path, json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+    
+    /**
+     * Writes one Java-like source file, a few levels deep in a package tree.
+     */
+    private static void writeSource(Path root, Random random, int index) throws IOException {
+        String packagePath = String.format("com/example/module%02d/pkg%03d", index % 37, (index / 37) % 300);
+        Path folder = Files.createDirectories(root.resolve(packagePath));
+        String className = "Class" + index;
+        
+        StringBuilder source = new StringBuilder(2048);
+        source.append("package ").append(packagePath.replace('/', '.')).append(";\n\n")
+              .append("import java.util.List;\nimport java.util.Map;\n\n")
+              .append("public class ").append(className).append(" {\n");
+        int fields = 1 + random.nextInt(5);
+        for (int i = 0; i < fields; i++) {
+            source.append("    private int ").append(IDENTIFIERS[random.nextInt(IDENTIFIERS.length)]).append(i)
+                  .append(";\n");
+        }
+        int methods = 1 + random.nextInt(6);
+        for (int i = 0; i < methods; i++) {
+            String name = IDENTIFIERS[random.nextInt(IDENTIFIERS.length)];
+            source.append("\n    public int get").append(Character.toUpperCase(name.charAt(0))).append(name.substring(1))
+                  .append(i).append("(List<String> ").append(IDENTIFIERS[random.nextInt(IDENTIFIERS.length)])
+                  .append(") {\n        if (").append(name).append(" > ").append(random.nextInt(1000))
+                  .append(") {\n            return ").append(name).append(" * ").append(1 + random.nextInt(9))
+                  .append(";\n        }\n        return ").append(random.nextInt(100)).append(";\n    }\n");
+        }
+        source.append("}\n");
+        Files.write(folder.resolve(className + ".java"), source.toString().getBytes(StandardCharsets.UTF_8));
+    }
+    
+    /**
+     * Writes a blob whose first half is random and second half is fixed-size records with
+     * slowly changing fields, like a database or telemetry dump.
+     */
+    private static void writeBlob(Path path, Random random) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(path), CHUNK_SIZE)) {
+            writeRandom(out, random, BLOB_FILE_SIZE / 2);
+            
+            ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            long timestamp = 1_700_000_000_000L;
+            for (long written = 0; written < BLOB_FILE_SIZE / 2; written += RECORD_SIZE) {
+                timestamp += random.nextInt(100);
+                record.clear();
+                record.putLong(timestamp)
+                      .putInt(random.nextInt(64))
+                      .putInt(random.nextInt(1 << 20))
+                      .putDouble(random.nextGaussian())
+                      .putLong(0);
+                out.write(record.array(), 0, RECORD_SIZE);
+            }
+        }
+    }
+    
+    /**
+     * Byte array stream that exposes its buffer.
+     */
+    private static final class ChunkOutput extends ByteArrayOutputStream {
+        byte[] buffer() {
+            return buf;
+        }
+    }
+}
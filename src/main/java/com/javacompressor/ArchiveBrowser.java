@@ -0,0 +1,194 @@
+package com.javacompressor;
+
+import com.javacompressor.compression.CompressionAlgorithm;
+import com.javacompressor.compression.CompressionService;
+import com.javacompressor.model.ArchiveEntryInfo;
+import com.javacompressor.util.FileUtils;
+import javafx.beans.property.BooleanProperty;
+import javafx.beans.property.SimpleBooleanProperty;
+import javafx.beans.property.SimpleStringProperty;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.collections.transformation.FilteredList;
+import javafx.concurrent.Task;
+import javafx.geometry.Insets;
+import javafx.scene.control.Alert;
+import javafx.scene.control.Button;
+import javafx.scene.control.ButtonType;
+import javafx.scene.control.Dialog;
+import javafx.scene.control.Label;
+import javafx.scene.control.SelectionMode;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
+import javafx.scene.control.TextField;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.VBox;
+import javafx.stage.DirectoryChooser;
+import javafx.stage.Window;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Lists the entries of a ZIP file and extracts the selected ones, without unpacking the rest.
+ * <p>
+ * The listing comes from the service's cached central directory, so opening the same archive
+ * again shows up at once, and extracting a few entries only reads those entries. TableView only
+ * builds cells for visible rows, so an archive with a million entries scrolls fine.
+ */
+class ArchiveBrowser extends Dialog<Void> {
+    private static final Logger logger = LoggerFactory.getLogger(ArchiveBrowser.class);
+    
+    private final File archive;
+    private final CompressionService service;
+    private final ObservableList<ArchiveEntryInfo> entries = FXCollections.observableArrayList();
+    private final FilteredList<ArchiveEntryInfo> filtered = new FilteredList<>(entries);
+    private final TableView<ArchiveEntryInfo> table = new TableView<>(filtered);
+    private final TextField filterField = new TextField();
+    private final Button extractButton = new Button("Extract Selected...");
+    private final Label summaryLabel = new Label("Reading the central directory...");
+    private final BooleanProperty extracting = new SimpleBooleanProperty(false);
+    
+    ArchiveBrowser(Window owner, File archive, CompressionService service) {
+        this.archive = archive;
+        this.service = service;
+        
+        initOwner(owner);
+        setTitle("Browse " + archive.getName());
+        setResizable(true);
+        getDialogPane().getButtonTypes().add(ButtonType.CLOSE);
+        
+        setupTable();
+        filterField.setPromptText("Filter by name");
+        filterField.textProperty().addListener((obs, oldText, newText) -> applyFilter(newText));
+        HBox.setHgrow(filterField, Priority.ALWAYS);
+        extractButton.disableProperty().bind(table.getSelectionModel().selectedItemProperty().isNull().or(extracting));
+        extractButton.setOnAction(event -> extractSelected());
+        
+        VBox content = new VBox(10, new HBox(10, filterField, extractButton), table, summaryLabel);
+        content.setPadding(new Insets(10));
+        content.setPrefSize(760, 480);
+        VBox.setVgrow(table, Priority.ALWAYS);
+        getDialogPane().setContent(content);
+        
+        loadEntries();
+    }
+    
+    private void setupTable() {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+        table.getColumns().add(column("Name", 340, ArchiveEntryInfo::getName));
+        table.getColumns().add(column("Size", 90, entry -> formatSize(entry.getSize())));
+        table.getColumns().add(column("Compressed", 90, entry -> formatSize(entry.getCompressedSize())));
+        table.getColumns().add(column("Ratio", 60, entry -> formatRatio(entry.getCompressedSize(), entry.getSize())));
+        table.getColumns().add(column("Modified", 130, entry -> entry.getLastModified() > 0
+                ? dateFormat.format(new Date(entry.getLastModified())) : ""));
+        table.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
+        table.setPlaceholder(new Label("No entries"));
+    }
+    
+    private static TableColumn<ArchiveEntryInfo, String> column(String title, double width,
+                                                                Function<ArchiveEntryInfo, String> text) {
+        TableColumn<ArchiveEntryInfo, String> column = new TableColumn<>(title);
+        column.setPrefWidth(width);
+        column.setCellValueFactory(cell -> new SimpleStringProperty(text.apply(cell.getValue())));
+        return column;
+    }
+    
+    /**
+     * Reads the listing in the background; a big central directory takes a moment the first time.
+     */
+    private void loadEntries() {
+        runInBackground("archive-browser", () -> service.listEntries(archive, CompressionAlgorithm.ZIP), listing -> {
+            entries.setAll(listing);
+            updateSummary();
+        }, "Failed to read archive");
+    }
+    
+    private void applyFilter(String text) {
+        String needle = text == null ? "" : text.trim().toLowerCase(Locale.ROOT);
+        filtered.setPredicate(needle.isEmpty() ? null
+                : entry -> entry.getName().toLowerCase(Locale.ROOT).contains(needle));
+        updateSummary();
+    }
+    
+    private void updateSummary() {
+        long size = 0;
+        long compressed = 0;
+        for (ArchiveEntryInfo entry : filtered) {
+            size += Math.max(0, entry.getSize());
+            compressed += Math.max(0, entry.getCompressedSize());
+        }
+        summaryLabel.setText(String.format("%d of %d entries, %s -> %s (%s)", filtered.size(), entries.size(),
+                                           FileUtils.formatFileSize(size), FileUtils.formatFileSize(compressed),
+                                           formatRatio(compressed, size)));
+    }
+    
+    /**
+     * Asks for a directory and extracts the selected entries into it, keeping their paths.
+     */
+    private void extractSelected() {
+        List<String> names = new ArrayList<>();
+        for (ArchiveEntryInfo entry : table.getSelectionModel().getSelectedItems()) {
+            names.add(entry.getName());
+        }
+        
+        DirectoryChooser chooser = new DirectoryChooser();
+        chooser.setTitle("Extract To");
+        chooser.setInitialDirectory(archive.getAbsoluteFile().getParentFile());
+        File directory = chooser.showDialog(getDialogPane().getScene().getWindow());
+        if (directory == null) {
+            return;
+        }
+        
+        extracting.set(true);
+        summaryLabel.setText("Extracting " + names.size() + " entries...");
+        runInBackground("archive-extract", () -> service.extractEntries(archive, names, directory, null), extracted -> {
+            logger.info("Extracted {} entries of {} to {}", extracted.size(), archive, directory);
+            extracting.set(false);
+            summaryLabel.setText("Extracted " + extracted.size() + " entries to " + directory);
+        }, "Failed to extract entries");
+    }
+    
+    private <T> void runInBackground(String threadName, Callable<T> work, Consumer<T> done, String errorHeader) {
+        Task<T> task = new Task<>() {
+            @Override
+            protected T call() throws Exception {
+                return work.call();
+            }
+        };
+        task.setOnSucceeded(event -> done.accept(task.getValue()));
+        task.setOnFailed(event -> {
+            logger.error(errorHeader, task.getException());
+            extracting.set(false);
+            updateSummary();
+            Alert alert = new Alert(Alert.AlertType.ERROR);
+            alert.initOwner(getDialogPane().getScene().getWindow());
+            alert.setTitle("Archive Error");
+            alert.setHeaderText(errorHeader);
+            alert.setContentText(task.getException().getMessage());
+            alert.showAndWait();
+        });
+        
+        Thread thread = new Thread(task, threadName);
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    private static String formatSize(long bytes) {
+        return bytes >= 0 ? FileUtils.formatFileSize(bytes) : "?";
+    }
+    
+    private static String formatRatio(long compressed, long size) {
+        return compressed >= 0 && size > 0 ? String.format("%.1f%%", 100.0 * compressed / size) : "?";
+    }
+}
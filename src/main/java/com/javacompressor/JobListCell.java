@@ -0,0 +1,128 @@
+package com.javacompressor;
+
+import com.javacompressor.compression.CompressionJob;
+import com.javacompressor.compression.JobScheduler;
+import javafx.beans.binding.Bindings;
+import javafx.beans.binding.StringBinding;
+import javafx.concurrent.Worker;
+import javafx.geometry.Pos;
+import javafx.scene.control.Button;
+import javafx.scene.control.ContextMenu;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.MenuItem;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.control.SeparatorMenuItem;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.VBox;
+
+/**
+ * One row of the job list: name, status line, progress bar and a cancel button.
+ * ListView only creates enough of these to fill the screen and reuses them while scrolling, so
+ * each cell unbinds from its old job before binding to the new one; thousands of queued jobs
+ * cost nothing until they're scrolled into view.
+ */
+class JobListCell extends ListCell<CompressionJob> {
+    private final JobScheduler scheduler;
+    private final Label nameLabel = new Label();
+    private final Label statusLabel = new Label();
+    private final ProgressBar progressBar = new ProgressBar(0);
+    private final Button cancelButton = new Button("Cancel");
+    private final HBox content;
+    private StringBinding statusBinding;
+    
+    JobListCell(JobScheduler scheduler) {
+        this.scheduler = scheduler;
+        
+        statusLabel.getStyleClass().add("job-status");
+        progressBar.setPrefWidth(150);
+        cancelButton.getStyleClass().add("job-cancel-button");
+        
+        VBox text = new VBox(2, nameLabel, statusLabel);
+        HBox.setHgrow(text, Priority.ALWAYS);
+        content = new HBox(10, text, progressBar, cancelButton);
+        content.setAlignment(Pos.CENTER_LEFT);
+        
+        cancelButton.setOnAction(event -> {
+            if (getItem() != null) {
+                scheduler.cancel(getItem());
+            }
+        });
+    }
+    
+    @Override
+    protected void updateItem(CompressionJob job, boolean empty) {
+        super.updateItem(job, empty);
+        unbind();
+        
+        if (empty || job == null) {
+            setGraphic(null);
+            setContextMenu(null);
+            return;
+        }
+        
+        nameLabel.setText(job.toString());
+        progressBar.progressProperty().bind(job.getTask().progressProperty());
+        cancelButton.disableProperty().bind(Bindings.createBooleanBinding(
+                () -> isFinished(job.getTask().getState()), job.getTask().stateProperty()));
+        
+        statusBinding = Bindings.createStringBinding(() -> describe(job),
+                                                     job.getTask().stateProperty(),
+                                                     job.getTask().messageProperty());
+        statusLabel.textProperty().bind(statusBinding);
+        
+        setContextMenu(createContextMenu(job));
+        setGraphic(content);
+    }
+    
+    private void unbind() {
+        progressBar.progressProperty().unbind();
+        cancelButton.disableProperty().unbind();
+        statusLabel.textProperty().unbind();
+        if (statusBinding != null) {
+            statusBinding.dispose();
+            statusBinding = null;
+        }
+    }
+    
+    private ContextMenu createContextMenu(CompressionJob job) {
+        ContextMenu menu = new ContextMenu();
+        for (CompressionJob.Priority priority : CompressionJob.Priority.values()) {
+            MenuItem item = new MenuItem(priority.getDisplayName());
+            item.setOnAction(event -> {
+                scheduler.setPriority(job, priority);
+                statusBinding.invalidate();
+            });
+            item.disableProperty().bind(job.getTask().stateProperty().isNotEqualTo(Worker.State.READY));
+            menu.getItems().add(item);
+        }
+        MenuItem cancel = new MenuItem("Cancel");
+        cancel.setOnAction(event -> scheduler.cancel(job));
+        menu.getItems().addAll(new SeparatorMenuItem(), cancel);
+        return menu;
+    }
+    
+    private static String describe(CompressionJob job) {
+        switch (job.getTask().getState()) {
+            case READY:
+            case SCHEDULED:
+                return job.getPriority() == CompressionJob.Priority.NORMAL ? "Queued"
+                        : "Queued (" + job.getPriority().getDisplayName().toLowerCase() + ")";
+            case SUCCEEDED:
+                Double ratio = job.getTask().getValue();
+                return ratio != null ? String.format("Done - ratio %.1f%%", ratio * 100) : "Done";
+            case FAILED:
+                Throwable error = job.getTask().getException();
+                return "Failed: " + (error != null ? error.getMessage() : "unknown error");
+            case CANCELLED:
+                return "Cancelled";
+            default:
+                return job.getTask().getMessage();
+        }
+    }
+    
+    private static boolean isFinished(Worker.State state) {
+        return state == Worker.State.SUCCEEDED || state == Worker.State.FAILED || state == Worker.State.CANCELLED;
+    }
+}
@@ -1,17 +1,30 @@
 package com.javacompressor;
 
+import com.javacompressor.cli.CommandLineRunner;
+
 /**
  * Launcher class that serves as the main entry point for the application.
  * This class is needed to properly set up the JavaFX application with the Maven Shade plugin.
+ * When the first argument is a command (compress, decompress, list, test) it runs headless instead,
+ * without loading any JavaFX classes.
  */
 public class Launcher {
     
     /**
-     * Main method that delegates to the JavaFX Application's main method.
+     * Main method that delegates to the command line runner or the JavaFX Application's main method.
      * 
      * @param args Command line arguments
      */
     public static void main(String[] args) {
+        if (args.length > 0 && CommandLineRunner.isCommand(args[0])) {
+            // Must be set before the first logger is created. Batch mode only logs warnings, to the console,
+            // and never to the GUI's log file in the current directory
+            if (System.getProperty("logback.configurationFile") == null) {
+                System.setProperty("logback.configurationFile", "logback-cli.xml");
+            }
+            System.exit(CommandLineRunner.run(args));
+        }
+        
         Main.main(args);
     }
-} 
\ No newline at end of file
+}
@@ -1,9 +1,14 @@
 package com.javacompressor;
 
+import com.javacompressor.compression.CompressionAdvisor;
 import com.javacompressor.compression.CompressionAlgorithm;
+import com.javacompressor.compression.CompressionJob;
+import com.javacompressor.compression.CompressionOptions;
 import com.javacompressor.compression.CompressionService;
-import com.javacompressor.compression.CompressionTask;
+import com.javacompressor.compression.JobScheduler;
+import com.javacompressor.model.CompressionAdvice;
 import com.javacompressor.model.FileInfo;
+import com.javacompressor.model.FileManifest;
 import com.javacompressor.util.FileUtils;
 
 import javafx.application.Platform;
@@ -12,6 +17,9 @@ import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.SimpleBooleanProperty;
 import javafx.beans.property.SimpleObjectProperty;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
 import javafx.fxml.FXML;
 import javafx.scene.control.*;
 import javafx.scene.input.DragEvent;
@@ -24,9 +32,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Controller class for the main view of the application.
@@ -36,7 +44,9 @@ public class MainController {
     
     @FXML private Button selectFileButton;
     @FXML private Button compressButton;
+    @FXML private Button analyzeButton;
     @FXML private Button decompressButton;
+    @FXML private Button browseButton;
     @FXML private Button cancelButton;
     @FXML private ComboBox<CompressionAlgorithm> algorithmComboBox;
     @FXML private Slider compressionLevelSlider;
@@ -49,14 +59,17 @@ public class MainController {
     @FXML private Label fileTypeLabel;
     @FXML private VBox dropZone;
     @FXML private TextArea compressionStatsArea;
+    @FXML private ListView<CompressionJob> jobListView;
+    @FXML private Button clearFinishedButton;
     
     private final ObjectProperty<FileInfo> selectedFile = new SimpleObjectProperty<>();
-    private final BooleanProperty processingActive = new SimpleBooleanProperty(false);
     private final BooleanProperty isCompressedFile = new SimpleBooleanProperty(false);
-    private final CompressionService compressionService = new CompressionService();
+    private final BooleanProperty isZipArchive = new SimpleBooleanProperty(false);
+    private final JobScheduler scheduler = new JobScheduler(new CompressionOptions());
+    private final ObservableList<CompressionJob> jobs = FXCollections.observableArrayList();
+    private final AtomicBoolean statusRefreshPending = new AtomicBoolean();
+    private final BooleanProperty analyzing = new SimpleBooleanProperty(false);
     private Stage stage;
-    private CompressionTask currentTask;
-    private final ExecutorService executorService = Executors.newSingleThreadExecutor();
     
     /**
      * Initializes the controller after FXML is loaded.
@@ -68,20 +81,27 @@ public class MainController {
         algorithmComboBox.getSelectionModel().select(CompressionAlgorithm.ZIP);
         
         // Set up compression level slider
-        compressionLevelSlider.setMin(1);
-        compressionLevelSlider.setMax(9);
         compressionLevelSlider.setValue(5);
         compressionLevelSlider.setShowTickLabels(true);
         compressionLevelSlider.setShowTickMarks(true);
-        compressionLevelSlider.setMajorTickUnit(1);
-        compressionLevelSlider.setMinorTickCount(0);
         compressionLevelSlider.setSnapToTicks(true);
+        applyLevelRange(algorithmComboBox.getValue());
+        
+        // Zstandard goes up to 19, the others stop at 9
+        algorithmComboBox.valueProperty().addListener((obs, oldAlgorithm, newAlgorithm) -> applyLevelRange(newAlgorithm));
         
         // Bind compression level label to slider value
         compressionLevelLabel.textProperty().bind(
                 Bindings.format("Compression Level: %.0f", compressionLevelSlider.valueProperty())
         );
         
+        // Set up the job list; ListView only builds cells for visible rows, so long queues stay cheap
+        jobListView.setItems(jobs);
+        jobListView.setCellFactory(list -> new JobListCell(scheduler));
+        jobListView.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
+        jobListView.setPlaceholder(new Label("Queued jobs show up here"));
+        scheduler.setChangeListener(this::requestStatusRefresh);
+        
         // Set up drag and drop for files
         setupDragAndDrop();
         
@@ -96,6 +116,24 @@ public class MainController {
         progressBar.setProgress(0);
     }
     
+    /**
+     * Fits the level slider to the algorithm's range, keeping the current level where possible.
+     */
+    private void applyLevelRange(CompressionAlgorithm algorithm) {
+        if (algorithm == null) {
+            return;
+        }
+        int level = algorithm.clampLevel((int) compressionLevelSlider.getValue());
+        compressionLevelSlider.setMin(algorithm.getMinLevel());
+        compressionLevelSlider.setMax(algorithm.getMaxLevel());
+        
+        // One label per level gets crowded past 9, so label every other one and snap to the minor ticks in between
+        boolean wide = algorithm.getMaxLevel() - algorithm.getMinLevel() > 8;
+        compressionLevelSlider.setMajorTickUnit(wide ? 2 : 1);
+        compressionLevelSlider.setMinorTickCount(wide ? 1 : 0);
+        compressionLevelSlider.setValue(level);
+    }
+    
     /**
      * Sets the primary stage.
      * 
@@ -135,8 +173,7 @@ public class MainController {
         boolean success = false;
         
         if (dragboard.hasFiles() && !dragboard.getFiles().isEmpty()) {
-            File file = dragboard.getFiles().get(0);
-            handleSelectedFile(file);
+            handleSelectedFiles(dragboard.getFiles());
             success = true;
         }
         
@@ -148,52 +185,78 @@ public class MainController {
      * Sets up bindings for buttons based on selected file and task status.
      */
     private void setupButtonBindings() {
-        // Bind compress and decompress buttons based on file selection, compression status, and processing state
-        compressButton.disableProperty().bind(
-            Bindings.or(selectedFile.isNull(), 
-                        Bindings.or(isCompressedFile, processingActive))
-        );
-        
-        decompressButton.disableProperty().bind(
-            Bindings.or(selectedFile.isNull(),
-                        Bindings.or(Bindings.not(isCompressedFile), processingActive))
-        );
+        // Jobs are queued, so the buttons only depend on the selected file
+        compressButton.disableProperty().bind(Bindings.or(selectedFile.isNull(), isCompressedFile));
+        decompressButton.disableProperty().bind(Bindings.or(selectedFile.isNull(), Bindings.not(isCompressedFile)));
+        analyzeButton.disableProperty().bind(selectedFile.isNull().or(isCompressedFile).or(analyzing));
+        browseButton.disableProperty().bind(selectedFile.isNull().or(isZipArchive.not()));
         
-        // Bind compression options based on compressed file status and processing state
-        BooleanProperty optionsDisableBinding = new SimpleBooleanProperty();
-        optionsDisableBinding.bind(Bindings.or(isCompressedFile, processingActive));
+        // Bind compression options based on compressed file status
+        algorithmComboBox.disableProperty().bind(isCompressedFile);
+        compressionLevelSlider.disableProperty().bind(isCompressedFile);
+        preserveStructureCheckbox.disableProperty().bind(isCompressedFile);
         
-        algorithmComboBox.disableProperty().bind(optionsDisableBinding);
-        compressionLevelSlider.disableProperty().bind(optionsDisableBinding);
-        preserveStructureCheckbox.disableProperty().bind(optionsDisableBinding);
-        
-        // Bind cancel button to active processing state
-        cancelButton.disableProperty().bind(Bindings.not(processingActive));
+        // Cancel works on the jobs selected in the list
+        cancelButton.disableProperty().bind(Bindings.isEmpty(jobListView.getSelectionModel().getSelectedItems()));
         
         // Set up button actions
         selectFileButton.setOnAction(event -> selectFile());
         compressButton.setOnAction(event -> compressFile());
+        analyzeButton.setOnAction(event -> analyzeFile());
         decompressButton.setOnAction(event -> decompressFile());
+        browseButton.setOnAction(event -> browseArchive());
         cancelButton.setOnAction(event -> cancelTask());
-        
-        // Initially disable processing-dependent controls 
-        processingActive.set(false);
+        clearFinishedButton.setOnAction(event -> jobs.removeIf(CompressionJob::isDone));
     }
     
     /**
-     * Opens a file chooser dialog to select a file.
+     * Opens a file chooser dialog to select one or more files.
      */
     @FXML
     private void selectFile() {
         FileChooser fileChooser = new FileChooser();
-        fileChooser.setTitle("Select File");
+        fileChooser.setTitle("Select Files");
         
-        File file = fileChooser.showOpenDialog(stage);
-        if (file != null) {
-            handleSelectedFile(file);
+        List<File> files = fileChooser.showOpenMultipleDialog(stage);
+        if (files != null && !files.isEmpty()) {
+            handleSelectedFiles(files);
         }
     }
     
+    /**
+     * Handles dropped or chosen files. A single file is shown so its options can be picked;
+     * several are queued straight away with the current options.
+     * 
+     * @param files The files
+     */
+    private void handleSelectedFiles(List<File> files) {
+        if (files.size() == 1) {
+            handleSelectedFile(files.get(0));
+            return;
+        }
+        
+        CompressionAlgorithm algorithm = algorithmComboBox.getValue();
+        int compressionLevel = (int) compressionLevelSlider.getValue();
+        boolean preserveStructure = preserveStructureCheckbox.isSelected();
+        
+        List<CompressionJob> queued = new ArrayList<>(files.size());
+        for (File file : files) {
+            if (FileUtils.isCompressedFile(file)) {
+                queued.add(queueJob(false, file, new File(FileUtils.getDecompressionOutputPath(file)),
+                                    FileUtils.determineAlgorithm(file), 0, false, null));
+            } else {
+                // Directories become a tarball (.tar.gz, ...) with anything but ZIP
+                File outputFile = new File(file.getAbsoluteFile().getParentFile(),
+                                           FileUtils.getCompressedFileName(file, algorithm));
+                queued.add(queueJob(true, file, outputFile, algorithm, compressionLevel, preserveStructure, null));
+            }
+        }
+        
+        // One list change for the whole batch instead of one per file
+        jobs.addAll(queued);
+        logger.info("Queued {} jobs", queued.size());
+    }
+    
     /**
      * Processes the selected file.
      * 
@@ -208,6 +271,7 @@ public class MainController {
             // Update compressed file status
             boolean isCompressed = FileUtils.isCompressedFile(file);
             isCompressedFile.set(isCompressed);
+            isZipArchive.set(isCompressed && FileUtils.determineAlgorithm(file) == CompressionAlgorithm.ZIP);
             
             logger.info("Selected file: {}", file.getAbsolutePath());
         } catch (Exception e) {
@@ -251,16 +315,76 @@ public class MainController {
             boolean preserveStructure = preserveStructureCheckbox.isSelected();
             
             // Create output file
-            String outputPath = sourceFile.getAbsolutePath() + "." + algorithm.getExtension();
-            File outputFile = new File(outputPath);
+            File outputFile = new File(sourceFile.getAbsoluteFile().getParentFile(),
+                                       FileUtils.getCompressedFileName(sourceFile, algorithm));
             
-            startCompressionTask(true, sourceFile, outputFile, algorithm, compressionLevel, preserveStructure);
+            jobs.add(queueJob(true, sourceFile, outputFile, algorithm, compressionLevel, preserveStructure,
+                              fileInfo.getManifest()));
         } catch (Exception e) {
             logger.error("Error starting compression", e);
             showAlert(Alert.AlertType.ERROR, "Compression Error", "Failed to compress file", e.getMessage());
         }
     }
     
+    /**
+     * Tries every algorithm and level on a sample of the selected file, shows the results and
+     * selects the recommended setting. Runs in the background; it takes a couple of seconds.
+     */
+    @FXML
+    private void analyzeFile() {
+        FileInfo fileInfo = selectedFile.get();
+        if (fileInfo == null) {
+            return;
+        }
+        
+        CompressionAdvisor advisor = new CompressionAdvisor(new CompressionOptions());
+        Task<CompressionAdvice> task = new Task<>() {
+            @Override
+            protected CompressionAdvice call() throws Exception {
+                return advisor.analyze(fileInfo.getFile(), fileInfo.getManifest());
+            }
+        };
+        task.setOnSucceeded(event -> {
+            analyzing.set(false);
+            showAdvice(fileInfo, task.getValue());
+        });
+        task.setOnFailed(event -> {
+            analyzing.set(false);
+            logger.error("Analysis failed", task.getException());
+            showAlert(Alert.AlertType.ERROR, "Analysis Error", "Failed to analyze file",
+                      task.getException().getMessage());
+        });
+        
+        analyzing.set(true);
+        statusLabel.setText("Analyzing " + fileInfo.getName() + "...");
+        Thread thread = new Thread(task, "advisor");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    /**
+     * Shows the advisor's table and switches the options to the recommended setting.
+     */
+    private void showAdvice(FileInfo fileInfo, CompressionAdvice advice) {
+        refreshStatus();
+        CompressionAdvice.Trial recommended = advice.getRecommended();
+        if (recommended == null) {
+            compressionStatsArea.setText("File: " + fileInfo.getName() + "\nNothing to sample");
+            return;
+        }
+        
+        algorithmComboBox.getSelectionModel().select(recommended.getAlgorithm());
+        compressionLevelSlider.setValue(recommended.getLevel());
+        compressionStatsArea.setText(String.format(
+            "File: %s, sampled %s (speeds per core)\n%sRecommended: %s level %d",
+            fileInfo.getName(),
+            FileUtils.formatFileSize(advice.getSampleSize()),
+            advice.formatTable(false),
+            recommended.getAlgorithm().getDisplayName(),
+            recommended.getLevel()
+        ));
+    }
+    
     /**
      * Decompresses the selected file.
      */
@@ -281,7 +405,7 @@ public class MainController {
             // Determine algorithm based on file extension
             CompressionAlgorithm algorithm = FileUtils.determineAlgorithm(sourceFile);
             
-            startCompressionTask(false, sourceFile, outputFile, algorithm, 0, false);
+            jobs.add(queueJob(false, sourceFile, outputFile, algorithm, 0, false, null));
         } catch (Exception e) {
             logger.error("Error starting decompression", e);
             showAlert(Alert.AlertType.ERROR, "Decompression Error", "Failed to decompress file", e.getMessage());
@@ -289,119 +413,106 @@ public class MainController {
     }
     
     /**
-     * Starts a compression or decompression task.
+     * Shows the entries of the selected ZIP file, so single entries can be extracted without
+     * unpacking the whole archive.
+     */
+    @FXML
+    private void browseArchive() {
+        FileInfo fileInfo = selectedFile.get();
+        if (fileInfo == null) {
+            return;
+        }
+        
+        new ArchiveBrowser(stage, fileInfo.getFile(), new CompressionService()).show();
+    }
+    
+    /**
+     * Queues a compression or decompression job. The caller adds it to the job list.
      * 
-     * @param compress Whether this is a compression (true) or decompression (false) task
+     * @param compress Whether this is a compression (true) or decompression (false) job
      * @param sourceFile The source file
      * @param outputFile The output file
      * @param algorithm The compression algorithm
      * @param compressionLevel The compression level (for compression only)
      * @param preserveStructure Whether to preserve directory structure (for compression only)
+     * @param manifest The manifest of the selected directory, if any
+     * @return The queued job
      */
-    private void startCompressionTask(boolean compress, File sourceFile, File outputFile,
-                                      CompressionAlgorithm algorithm, int compressionLevel,
-                                      boolean preserveStructure) {
-        // Create and configure the task
-        currentTask = new CompressionTask(compress, sourceFile, outputFile, 
-                                         algorithm, compressionLevel, preserveStructure);
-        
-        // Bind task properties to UI
-        progressBar.progressProperty().bind(currentTask.progressProperty());
-        statusLabel.textProperty().bind(currentTask.messageProperty());
+    private CompressionJob queueJob(boolean compress, File sourceFile, File outputFile,
+                                    CompressionAlgorithm algorithm, int compressionLevel,
+                                    boolean preserveStructure, FileManifest manifest) {
+        CompressionJob job = scheduler.submit(compress, sourceFile, outputFile, algorithm, compressionLevel,
+                                              preserveStructure, manifest, CompressionJob.Priority.NORMAL);
         
-        // Set processing active state
-        processingActive.set(true);
+        // These handlers run on the FX thread
+        job.getTask().setOnSucceeded(event -> updateCompressionStats(job, job.getTask().getValue()));
+        job.getTask().setOnFailed(event -> logger.error("Job failed: {}", job, job.getTask().getException()));
+        job.getTask().setOnCancelled(event -> logger.info("Job cancelled: {}", job));
         
-        // Set up task completion handlers
-        currentTask.setOnSucceeded(event -> {
-            handleTaskCompletion(true, currentTask.getValue());
-        });
-        
-        currentTask.setOnFailed(event -> {
-            handleTaskCompletion(false, null);
-            Throwable exception = currentTask.getException();
-            logger.error("Task failed", exception);
-            
-            Platform.runLater(() -> {
-                showAlert(Alert.AlertType.ERROR, "Operation Failed", 
-                          "The operation could not be completed", 
-                          exception != null ? exception.getMessage() : "Unknown error");
-            });
-        });
-        
-        currentTask.setOnCancelled(event -> {
-            handleTaskCompletion(false, null);
-            logger.info("Task cancelled");
-            
+        return job;
+    }
+    
+    /**
+     * Asks for the overall status line to be refreshed. Called from worker threads; repeated
+     * requests are merged so a burst of tiny jobs doesn't flood the FX thread.
+     */
+    private void requestStatusRefresh() {
+        if (statusRefreshPending.compareAndSet(false, true)) {
             Platform.runLater(() -> {
-                statusLabel.setText("Operation cancelled");
+                statusRefreshPending.set(false);
+                refreshStatus();
             });
-        });
-        
-        // Start the task
-        executorService.submit(currentTask);
+        }
     }
     
     /**
-     * Handles task completion, updating UI elements and displaying results.
-     * 
-     * @param success Whether the task completed successfully
-     * @param result The task result
+     * Shows how many jobs are running, queued and done.
      */
-    private void handleTaskCompletion(boolean success, Double compressionRatio) {
-        // Unbind properties
-        progressBar.progressProperty().unbind();
-        statusLabel.textProperty().unbind();
-        
-        // Update UI
-        Platform.runLater(() -> {
-            processingActive.set(false);
-            
-            if (success && compressionRatio != null) {
-                progressBar.setProgress(1.0);
-                statusLabel.setText("Operation completed successfully");
-                
-                // Update compression stats
-                updateCompressionStats(compressionRatio);
-            } else {
-                progressBar.setProgress(0);
-                if (!statusLabel.getText().contains("cancelled")) {
-                    statusLabel.setText("Operation failed");
-                }
-            }
-        });
+    private void refreshStatus() {
+        int running = scheduler.getRunningCount();
+        int queued = scheduler.getQueuedCount();
+        long done = jobs.stream().filter(CompressionJob::isDone).count();
         
-        currentTask = null;
+        if (running == 0 && queued == 0) {
+            statusLabel.setText(jobs.isEmpty() ? "Ready" : "All jobs finished");
+        } else {
+            statusLabel.setText(String.format("%d running, %d queued, %d done", running, queued, done));
+        }
+        progressBar.setProgress(jobs.isEmpty() ? 0 : (double) done / jobs.size());
     }
     
     /**
-     * Updates the compression statistics display.
+     * Updates the compression statistics display with the job that just finished.
      * 
+     * @param job The finished job
      * @param compressionRatio The compression ratio
      */
-    private void updateCompressionStats(double compressionRatio) {
-        FileInfo fileInfo = selectedFile.get();
-        if (fileInfo != null) {
-            String stats = String.format(
-                "Original size: %s\n" +
-                "Compression ratio: %.2f%%\n" +
-                "Space saved: %.2f%%",
-                FileUtils.formatFileSize(fileInfo.getSize()),
-                compressionRatio * 100,
-                (1 - compressionRatio) * 100
-            );
-            compressionStatsArea.setText(stats);
+    private void updateCompressionStats(CompressionJob job, Double compressionRatio) {
+        if (compressionRatio == null) {
+            return;
         }
+        
+        String stats = String.format(
+            "File: %s\n" +
+            "Compression ratio: %.2f%%\n" +
+            "Space saved: %.2f%%",
+            job.getSourceFile().getName(),
+            compressionRatio * 100,
+            (1 - compressionRatio) * 100
+        );
+        compressionStatsArea.setText(stats);
     }
     
     /**
-     * Cancels the current compression/decompression task.
+     * Cancels the jobs selected in the job list.
      */
     @FXML
     private void cancelTask() {
-        if (currentTask != null && currentTask.isRunning()) {
-            currentTask.cancel();
-            logger.info("Task cancellation requested");
+        for (CompressionJob job : new ArrayList<>(jobListView.getSelectionModel().getSelectedItems())) {
+            if (!job.isDone()) {
+                scheduler.cancel(job);
+                logger.info("Cancellation requested for {}", job);
+            }
         }
     }
     
@@ -425,10 +536,6 @@ public class MainController {
      * Cleans up resources when the controller is no longer needed.
      */
     public void shutdown() {
-        if (currentTask != null && currentTask.isRunning()) {
-            currentTask.cancel();
-        }
-        
-        executorService.shutdownNow();
+        scheduler.shutdown();
     }
 } 
\ No newline at end of file
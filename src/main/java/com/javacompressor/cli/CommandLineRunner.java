@@ -0,0 +1,981 @@
+package com.javacompressor.cli;
+
+import com.javacompressor.compression.CompressionAdvisor;
+import com.javacompressor.compression.CompressionAlgorithm;
+import com.javacompressor.compression.CompressionOptions;
+import com.javacompressor.compression.CompressionService;
+import com.javacompressor.compression.DigestAlgorithm;
+import com.javacompressor.compression.ProgressListener;
+import com.javacompressor.model.ArchiveEntryInfo;
+import com.javacompressor.model.CompressionAdvice;
+import com.javacompressor.model.EntryTestResult;
+import com.javacompressor.model.FileCompressionResult;
+import com.javacompressor.model.ProgressSnapshot;
+import com.javacompressor.util.FileUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Headless command line mode: compress, decompress, list, test, analyze and index without starting JavaFX.
+ * <p>
+ * Only the service layer is used here, so no JavaFX class is ever loaded and a cron job starts
+ * in a fraction of a second. Several inputs (or glob patterns) run as parallel jobs, "-" reads
+ * from stdin and --stdout writes to stdout, so it also works inside pipelines.
+ */
+public class CommandLineRunner {
+    static final int EXIT_OK = 0;
+    static final int EXIT_FAILED = 1;
+    static final int EXIT_USAGE = 2;
+    
+    private static final Set<String> COMMANDS = Set.of("compress", "decompress", "list", "test", "analyze",
+                                                           "index");
+    private static final String STDIN = "-";
+    private static final int STREAM_BUFFER_SIZE = 1024 * 1024;
+    // Highest level any algorithm takes (zstd); each algorithm clamps it to its own range
+    private static final int MAX_LEVEL = 19;
+    
+    private final PrintStream out;
+    private final PrintStream err;
+    
+    // Parsed options
+    private String command;
+    private final List<String> inputs = new ArrayList<>();
+    private final List<String> entryPatterns = new ArrayList<>();
+    private CompressionAlgorithm algorithm;
+    private CompressionAlgorithm chunkCodec;
+    private final Set<DigestAlgorithm> digests = EnumSet.noneOf(DigestAlgorithm.class);
+    private int level = 6;
+    private File output;
+    private int jobs = 1;
+    private int threads;
+    private int targetSpeed;
+    private int checkpointMegabytes;
+    private long rangeStart;
+    private long rangeLength = -1;
+    private boolean ranged;
+    private boolean toStdout;
+    private boolean force;
+    private boolean each;
+    private boolean deleteOriginals;
+    private boolean noSkip;
+    private boolean quiet;
+    private boolean verbose;
+    
+    CommandLineRunner(PrintStream out, PrintStream err) {
+        this.out = out;
+        this.err = err;
+    }
+    
+    /**
+     * Checks if the first argument asks for the command line mode.
+     */
+    public static boolean isCommand(String argument) {
+        return COMMANDS.contains(argument) || "--help".equals(argument) || "-h".equals(argument);
+    }
+    
+    /**
+     * Runs a command.
+     *
+     * @param args The command line, starting with the command name
+     * @return The exit code: 0 if everything worked, 1 if any input failed, 2 for bad usage
+     */
+    public static int run(String[] args) {
+        return new CommandLineRunner(System.out, System.err).execute(args);
+    }
+    
+    int execute(String[] args) {
+        try {
+            if (!parse(args)) {
+                printUsage(out);
+                return EXIT_OK;
+            }
+        } catch (IllegalArgumentException e) {
+            err.println("javacompressor: " + e.getMessage());
+            printUsage(err);
+            return EXIT_USAGE;
+        }
+        
+        List<String> expanded;
+        try {
+            expanded = expandInputs();
+        } catch (IOException | IllegalArgumentException e) {
+            err.println("javacompressor: " + e.getMessage());
+            return EXIT_USAGE;
+        }
+        
+        switch (command) {
+            case "compress":
+            case "decompress":
+                return convert(expanded);
+            case "list":
+                return list(expanded);
+            case "test":
+                return test(expanded);
+            case "analyze":
+                return analyze(expanded);
+            case "index":
+                return index(expanded);
+            default:
+                throw new IllegalStateException("Unknown command: " + command);
+        }
+    }
+    
+    /**
+     * Parses the arguments into the fields above.
+     *
+     * @return false if only help was asked for
+     */
+    private boolean parse(String[] args) {
+        if (args.length == 0 || "--help".equals(args[0]) || "-h".equals(args[0])) {
+            return false;
+        }
+        command = args[0];
+        if (!COMMANDS.contains(command)) {
+            throw new IllegalArgumentException("unknown command '" + command + "'");
+        }
+        
+        boolean optionsEnded = false;
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            if (optionsEnded || !arg.startsWith("-") || arg.equals(STDIN)) {
+                inputs.add(arg);
+                continue;
+            }
+            
+            switch (arg) {
+                case "--":
+                    optionsEnded = true;
+                    break;
+                case "-a":
+                case "--algorithm":
+                    algorithm = parseAlgorithm(value(args, ++i, arg));
+                    break;
+                case "-l":
+                case "--level":
+                    level = parseInt(value(args, ++i, arg), arg, 1, MAX_LEVEL);
+                    break;
+                case "-o":
+                case "--output":
+                    output = new File(value(args, ++i, arg));
+                    break;
+                case "-j":
+                case "--jobs":
+                    jobs = parseInt(value(args, ++i, arg), arg, 1, 1024);
+                    break;
+                case "-t":
+                case "--threads":
+                    threads = parseInt(value(args, ++i, arg), arg, 1, 1024);
+                    break;
+                case "-e":
+                case "--entry":
+                    entryPatterns.add(value(args, ++i, arg));
+                    break;
+                case "--target-speed":
+                    targetSpeed = parseInt(value(args, ++i, arg), arg, 1, 100_000);
+                    break;
+                case "--chunk-codec":
+                    chunkCodec = parseAlgorithm(value(args, ++i, arg));
+                    break;
+                case "--digest":
+                    for (String name : value(args, ++i, arg).split(",")) {
+                        digests.add(DigestAlgorithm.fromName(name.trim()));
+                    }
+                    break;
+                case "--checkpoints":
+                    checkpointMegabytes = parseInt(value(args, ++i, arg), arg, 1, 1024 * 1024);
+                    break;
+                case "--range":
+                    parseRange(value(args, ++i, arg));
+                    break;
+                case "-c":
+                case "--stdout":
+                    toStdout = true;
+                    break;
+                case "-f":
+                case "--force":
+                    force = true;
+                    break;
+                case "--each":
+                    each = true;
+                    break;
+                case "--delete":
+                    deleteOriginals = true;
+                    break;
+                case "--no-skip":
+                    noSkip = true;
+                    break;
+                case "-q":
+                case "--quiet":
+                    quiet = true;
+                    break;
+                case "-v":
+                case "--verbose":
+                    verbose = true;
+                    break;
+                case "-h":
+                case "--help":
+                    return false;
+                default:
+                    // gzip-style -1 ... -9, and zstd-style up to -19
+                    if (arg.matches("-[1-9][0-9]?")) {
+                        level = parseInt(arg.substring(1), "level", 1, MAX_LEVEL);
+                    } else {
+                        throw new IllegalArgumentException("unknown option '" + arg + "'");
+                    }
+            }
+        }
+        
+        if (inputs.isEmpty()) {
+            throw new IllegalArgumentException("no input files given");
+        }
+        if (toStdout && output != null) {
+            throw new IllegalArgumentException("--stdout and --output can't be used together");
+        }
+        if (deleteOriginals && !each) {
+            throw new IllegalArgumentException("--delete only works with --each");
+        }
+        if (noSkip && !each) {
+            throw new IllegalArgumentException("--no-skip only works with --each");
+        }
+        if (each && (!command.equals("compress") || toStdout || output != null)) {
+            throw new IllegalArgumentException("--each only works with compress, next to the original files");
+        }
+        if (!entryPatterns.isEmpty() && !command.equals("decompress") && !command.equals("list")) {
+            throw new IllegalArgumentException("--entry only works with decompress and list");
+        }
+        if (chunkCodec == CompressionAlgorithm.ZIP || chunkCodec == CompressionAlgorithm.CHUNKED) {
+            throw new IllegalArgumentException("--chunk-codec must be gzip, bzip2, lz4, zstd or xz");
+        }
+        if (checkpointMegabytes > 0 && (toStdout || !command.equals("compress") && !command.equals("index"))) {
+            throw new IllegalArgumentException("--checkpoints only works with compress and index, into files");
+        }
+        if (!digests.isEmpty() && (toStdout || !command.equals("compress") || inputs.contains(STDIN))) {
+            throw new IllegalArgumentException("--digest only works with compress, from files into files");
+        }
+        if (ranged && (!command.equals("decompress") || !entryPatterns.isEmpty() || (!toStdout && output == null))) {
+            throw new IllegalArgumentException("--range only works with decompress, and needs --stdout or --output");
+        }
+        return true;
+    }
+    
+    /**
+     * Expands glob patterns (for shells that don't, like cmd.exe or quoted cron lines).
+     */
+    private List<String> expandInputs() throws IOException {
+        List<String> expanded = new ArrayList<>();
+        for (String input : inputs) {
+            if (input.equals(STDIN) || !containsGlob(input)) {
+                expanded.add(input);
+                continue;
+            }
+            
+            List<String> matches = expandGlob(input);
+            if (matches.isEmpty()) {
+                throw new IllegalArgumentException("no files match '" + input + "'");
+            }
+            expanded.addAll(matches);
+        }
+        
+        if (expanded.stream().filter(STDIN::equals).count() > 1) {
+            throw new IllegalArgumentException("stdin can only be used once");
+        }
+        return expanded;
+    }
+    
+    private static List<String> expandGlob(String pattern) throws IOException {
+        // Everything before the first segment with a wildcard is the directory to search
+        String normalized = pattern.replace('\\', '/');
+        int firstGlob = indexOfGlob(normalized);
+        int baseEnd = normalized.lastIndexOf('/', firstGlob);
+        Path base = baseEnd < 0 ? Paths.get(".") : Paths.get(baseEnd == 0 ? "/" : normalized.substring(0, baseEnd));
+        String relativePattern = normalized.substring(baseEnd + 1);
+        
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + relativePattern);
+        int depth = relativePattern.contains("**") ? Integer.MAX_VALUE : relativePattern.split("/").length;
+        if (!Files.isDirectory(base)) {
+            return List.of();
+        }
+        
+        try (Stream<Path> paths = Files.walk(base, depth)) {
+            return paths.filter(path -> !path.equals(base))
+                    .filter(path -> matcher.matches(base.relativize(path)))
+                    .map(path -> baseEnd < 0 ? base.relativize(path).toString() : path.toString())
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+    
+    private static boolean containsGlob(String input) {
+        return indexOfGlob(input) >= 0;
+    }
+    
+    private static int indexOfGlob(String input) {
+        for (int i = 0; i < input.length(); i++) {
+            if ("*?[{".indexOf(input.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Runs compress or decompress for every input, on up to {@code jobs} threads.
+     */
+    private int convert(List<String> files) {
+        boolean compress = command.equals("compress");
+        
+        // Streams written to stdout have to come out one after another
+        int jobCount = toStdout ? 1 : Math.min(jobs, files.size());
+        boolean multipleOutputs = files.size() > 1;
+        if (multipleOutputs && output != null && output.isFile()) {
+            err.println("javacompressor: --output must be a directory when there are several inputs");
+            return EXIT_USAGE;
+        }
+        
+        CompressionService service = new CompressionService(createOptions(jobCount));
+        PrintStream report = toStdout ? err : out;
+        OutputStream stdout = toStdout ? new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), STREAM_BUFFER_SIZE)
+                : null;
+        
+        long batchStart = System.nanoTime();
+        List<Result> results = runJobs(files, jobCount, input -> {
+            ProgressRecorder recorder = new ProgressRecorder(jobCount == 1 && verbose ? err : null);
+            long start = System.nanoTime();
+            String target;
+            
+            if (!entryPatterns.isEmpty()) {
+                target = extractSelected(service, input, stdout, multipleOutputs, recorder);
+            } else if (ranged) {
+                target = readRange(service, input, stdout, recorder);
+            } else if (input.equals(STDIN) || toStdout) {
+                CompressionAlgorithm streamAlgorithm = algorithm != null ? algorithm
+                        : input.equals(STDIN) ? CompressionAlgorithm.GZIP : FileUtils.determineAlgorithm(new File(input));
+                OutputStream destination = toStdout ? stdout : null;
+                if (destination == null) {
+                    if (output == null) {
+                        throw new IllegalArgumentException("reading stdin needs --stdout or --output");
+                    }
+                    destination = new BufferedOutputStream(Files.newOutputStream(checkTarget(output).toPath()),
+                                                           STREAM_BUFFER_SIZE);
+                }
+                
+                try (InputStream source = input.equals(STDIN) ? new FileInputStream(FileDescriptor.in)
+                        : new FileInputStream(input)) {
+                    if (compress) {
+                        service.compressStream(source, destination, streamAlgorithm, level, recorder);
+                    } else {
+                        service.decompressStream(source, destination, streamAlgorithm, recorder);
+                    }
+                } finally {
+                    if (destination != stdout) {
+                        destination.close();
+                    }
+                }
+                target = toStdout ? "stdout" : output.getPath();
+            } else {
+                File source = new File(input);
+                if (!source.exists()) {
+                    throw new IOException("no such file or directory");
+                }
+                
+                if (compress && each && source.isDirectory()) {
+                    CompressionAlgorithm chosen = algorithm != null ? algorithm : CompressionAlgorithm.GZIP;
+                    target = compressEach(service, source, chosen, recorder);
+                } else if (compress) {
+                    CompressionAlgorithm chosen = algorithm != null ? algorithm
+                            : source.isDirectory() ? CompressionAlgorithm.ZIP : CompressionAlgorithm.GZIP;
+                    File destination = checkTarget(outputFor(source, FileUtils.getCompressedFileName(source, chosen),
+                                                             multipleOutputs));
+                    service.compressFileWithProgress(source, destination, chosen, level, true, null, recorder);
+                    target = destination.getPath();
+                } else {
+                    CompressionAlgorithm chosen = algorithm != null ? algorithm : FileUtils.determineAlgorithm(source);
+                    File defaultTarget = new File(FileUtils.getDecompressionOutputPath(source));
+                    File destination = checkTarget(outputFor(source, defaultTarget.getName(), multipleOutputs));
+                    service.decompressFileWithProgress(source, destination, chosen, recorder);
+                    target = destination.getPath();
+                }
+            }
+            
+            recorder.done();
+            return new Result(input, target, recorder.last, System.nanoTime() - start);
+        });
+        
+        if (stdout != null) {
+            try {
+                stdout.flush();
+            } catch (IOException e) {
+                err.println("javacompressor: stdout: " + e.getMessage());
+                return EXIT_FAILED;
+            }
+        }
+        return summarize(results, System.nanoTime() - batchStart, report);
+    }
+    
+    /**
+     * Compresses every file below a directory into its own file and reports the ones that failed.
+     *
+     * @return What to show as the target
+     */
+    private String compressEach(CompressionService service, File directory, CompressionAlgorithm chosen,
+                                ProgressRecorder recorder) throws IOException {
+        List<FileCompressionResult> results = service.compressEachFile(directory, chosen, level, deleteOriginals,
+                                                                       recorder);
+        int failed = 0;
+        for (FileCompressionResult result : results) {
+            if (!result.isSuccess()) {
+                failed++;
+                err.println("javacompressor: " + result.getSourceFile() + ": " + result.getError());
+            }
+        }
+        if (failed > 0) {
+            throw new IOException(failed + " of " + results.size() + " files failed");
+        }
+        return results.size() + " separate ." + chosen.getExtension() + " files";
+    }
+    
+    /**
+     * Pulls the entries matching --entry out of a ZIP file, to stdout or below the output directory.
+     * Only those entries are read, so this is quick even in a huge archive.
+     *
+     * @return What to show as the target
+     */
+    private String extractSelected(CompressionService service, String input, OutputStream stdout,
+                                   boolean multipleOutputs, ProgressRecorder recorder) throws IOException {
+        File source = new File(input);
+        CompressionAlgorithm chosen = algorithm != null ? algorithm
+                : input.equals(STDIN) ? null : FileUtils.determineAlgorithm(source);
+        if (chosen != CompressionAlgorithm.ZIP || !source.isFile()) {
+            throw new IOException("--entry needs a ZIP file");
+        }
+        
+        if (toStdout) {
+            service.extractEntries(source, entryPatterns, stdout, recorder);
+            return "stdout";
+        }
+        File defaultTarget = new File(FileUtils.getDecompressionOutputPath(source));
+        File destination = outputFor(source, defaultTarget.getName(), multipleOutputs);
+        List<ArchiveEntryInfo> extracted = service.extractEntries(source, entryPatterns, destination, recorder);
+        return destination.getPath() + " (" + extracted.size() + (extracted.size() == 1 ? " entry)" : " entries)");
+    }
+    
+    /**
+     * Writes the --range part of a GZIP or chunked file's content, decoding from the nearest
+     * checkpoint or chunk.
+     *
+     * @return What to show as the target
+     */
+    private String readRange(CompressionService service, String input, OutputStream stdout,
+                             ProgressRecorder recorder) throws IOException {
+        File source = new File(input);
+        CompressionAlgorithm chosen = algorithm != null ? algorithm
+                : input.equals(STDIN) ? null : FileUtils.determineAlgorithm(source);
+        if ((chosen != CompressionAlgorithm.GZIP && chosen != CompressionAlgorithm.CHUNKED) || !source.isFile()) {
+            throw new IOException("--range needs a GZIP or chunked (.jcz) file");
+        }
+        
+        OutputStream destination = toStdout ? stdout : new BufferedOutputStream(
+                Files.newOutputStream(checkTarget(output).toPath()), STREAM_BUFFER_SIZE);
+        try {
+            if (chosen == CompressionAlgorithm.CHUNKED) {
+                service.readChunkedRange(source, rangeStart, rangeLength, destination, recorder);
+            } else {
+                service.readGzipRange(source, rangeStart, rangeLength, destination, recorder);
+            }
+        } finally {
+            if (destination != stdout) {
+                destination.close();
+            }
+        }
+        return toStdout ? "stdout" : output.getPath();
+    }
+    
+    private int list(List<String> files) {
+        CompressionService service = new CompressionService(createOptions(1));
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+        int exitCode = EXIT_OK;
+        
+        for (String input : files) {
+            File file = new File(input);
+            CompressionAlgorithm chosen = algorithm != null ? algorithm : FileUtils.determineAlgorithm(file);
+            try {
+                if (!entryPatterns.isEmpty() && chosen != CompressionAlgorithm.ZIP) {
+                    throw new IOException("--entry needs a ZIP file");
+                }
+                List<ArchiveEntryInfo> entries = entryPatterns.isEmpty() ? service.listEntries(file, chosen)
+                        : service.findEntries(file, entryPatterns);
+                if (files.size() > 1) {
+                    out.println(input + ":");
+                }
+                out.printf("%14s %14s %7s  %-16s  %s%n", "Size", "Compressed", "Ratio", "Modified", "Name");
+                long totalSize = 0;
+                long totalCompressed = 0;
+                for (ArchiveEntryInfo entry : entries) {
+                    totalSize += Math.max(0, entry.getSize());
+                    totalCompressed += Math.max(0, entry.getCompressedSize());
+                    out.printf("%14s %14s %7s  %-16s  %s%n",
+                               entry.getSize() >= 0 ? Long.toString(entry.getSize()) : "?",
+                               entry.getCompressedSize() >= 0 ? Long.toString(entry.getCompressedSize()) : "?",
+                               ratio(entry.getCompressedSize(), entry.getSize()),
+                               entry.getLastModified() > 0 ? dateFormat.format(new Date(entry.getLastModified())) : "",
+                               entry.getName());
+                }
+                if (entries.size() > 1) {
+                    out.printf("%14d %14d %7s  %-16s  %d entries%n", totalSize, totalCompressed,
+                               ratio(totalCompressed, totalSize), "", entries.size());
+                }
+            } catch (IOException | RuntimeException e) {
+                err.println("javacompressor: " + input + ": " + describe(input, e));
+                exitCode = EXIT_FAILED;
+            }
+        }
+        return exitCode;
+    }
+    
+    private int test(List<String> files) {
+        int jobCount = Math.min(jobs, files.size());
+        CompressionService service = new CompressionService(createOptions(jobCount));
+        
+        long batchStart = System.nanoTime();
+        List<Result> results = runJobs(files, jobCount, input -> {
+            ProgressRecorder recorder = new ProgressRecorder(jobCount == 1 && verbose ? err : null);
+            long start = System.nanoTime();
+            if (input.equals(STDIN)) {
+                CompressionAlgorithm chosen = algorithm != null ? algorithm : CompressionAlgorithm.GZIP;
+                service.decompressStream(new FileInputStream(FileDescriptor.in), OutputStream.nullOutputStream(),
+                                         chosen, recorder);
+            } else {
+                File file = new File(input);
+                CompressionAlgorithm chosen = algorithm != null ? algorithm : FileUtils.determineAlgorithm(file);
+                if (chosen == CompressionAlgorithm.ZIP) {
+                    reportEntries(input, service.testZipEntries(file, recorder));
+                } else {
+                    service.testFile(file, chosen, recorder);
+                }
+            }
+            recorder.done();
+            return new Result(input, null, recorder.last, System.nanoTime() - start);
+        });
+        
+        return summarize(results, System.nanoTime() - batchStart, out);
+    }
+    
+    /**
+     * Prints the entries of a ZIP file that failed their check (and with --verbose the ones that passed too),
+     * and fails the archive if any did.
+     */
+    private void reportEntries(String input, List<EntryTestResult> entries) throws IOException {
+        int failed = 0;
+        for (EntryTestResult entry : entries) {
+            if (!entry.isOk()) {
+                failed++;
+                err.println("javacompressor: " + input + ": " + entry.getName() + ": " + entry.getError());
+            } else if (verbose && !quiet) {
+                out.println(input + ": " + entry.getName() + ": OK, " + FileUtils.formatFileSize(entry.getSize())
+                            + String.format(", CRC %08x", entry.getCrc()));
+            }
+        }
+        if (failed > 0) {
+            throw new IOException(failed + " of " + entries.size() + " entries are corrupt");
+        }
+    }
+    
+    /**
+     * Tries every algorithm and level on a sample of each input and prints what's worth using.
+     */
+    private int analyze(List<String> files) {
+        CompressionAdvisor advisor = new CompressionAdvisor(createOptions(1));
+        int exitCode = EXIT_OK;
+        
+        for (String input : files) {
+            File file = new File(input);
+            try {
+                if (!file.exists()) {
+                    throw new IOException("no such file or directory");
+                }
+                CompressionAdvice advice = advisor.analyze(file, null);
+                if (advice.getRecommended() == null) {
+                    out.println(input + ": nothing to sample");
+                    continue;
+                }
+                out.println(input + ": " + FileUtils.formatFileSize(advice.getInputSize()) + ", sampled "
+                            + FileUtils.formatFileSize(advice.getSampleSize())
+                            + (verbose ? " (* = Pareto front, speeds per core)" : " (Pareto front, speeds per core)"));
+                out.print(advice.formatTable(verbose));
+                if (advice.getSkippedCount() > 0) {
+                    out.println(advice.getSkippedCount() + " settings skipped to stay within the time limit");
+                }
+                CompressionAdvice.Trial recommended = advice.getRecommended();
+                out.println("Recommended: -a " + recommended.getAlgorithm().name().toLowerCase() + " -l "
+                            + recommended.getLevel());
+            } catch (IOException | RuntimeException e) {
+                err.println("javacompressor: " + input + ": " + describe(input, e));
+                exitCode = EXIT_FAILED;
+            }
+        }
+        return exitCode;
+    }
+    
+    /**
+     * Builds the checkpoint index of each GZIP file, so --range can start reading anywhere in it.
+     */
+    private int index(List<String> files) {
+        CompressionService service = new CompressionService(createOptions(1));
+        long interval = checkpointMegabytes > 0 ? checkpointMegabytes * 1024L * 1024 : 0;
+        int exitCode = EXIT_OK;
+        
+        for (String input : files) {
+            File file = new File(input);
+            try {
+                CompressionAlgorithm chosen = algorithm != null ? algorithm : FileUtils.determineAlgorithm(file);
+                if (chosen != CompressionAlgorithm.GZIP || !file.isFile()) {
+                    throw new IOException("index needs a GZIP file");
+                }
+                long start = System.nanoTime();
+                int checkpoints = service.indexGzip(file, interval);
+                if (!quiet) {
+                    out.println(input + ": " + checkpoints + " checkpoints in " + seconds(System.nanoTime() - start));
+                }
+            } catch (IOException | RuntimeException e) {
+                err.println("javacompressor: " + input + ": " + describe(input, e));
+                exitCode = EXIT_FAILED;
+            }
+        }
+        return exitCode;
+    }
+    
+    /**
+     * Runs one job per input on a fixed pool and collects the results in input order.
+     */
+    private List<Result> runJobs(List<String> files, int jobCount, Job job) {
+        List<Result> results = new ArrayList<>();
+        if (jobCount <= 1) {
+            for (String input : files) {
+                results.add(runJob(input, job));
+            }
+            return results;
+        }
+        
+        ExecutorService pool = Executors.newFixedThreadPool(jobCount);
+        try {
+            List<Future<Result>> futures = new ArrayList<>();
+            for (String input : files) {
+                futures.add(pool.submit(() -> runJob(input, job)));
+            }
+            for (Future<Result> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (Exception e) {
+                    // runJob catches everything itself, so this can't really happen
+                    throw new IllegalStateException(e);
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return results;
+    }
+    
+    private Result runJob(String input, Job job) {
+        long start = System.nanoTime();
+        try {
+            return job.run(input);
+        } catch (Exception e) {
+            return new Result(input, describe(input, e), null, System.nanoTime() - start, false);
+        }
+    }
+    
+    /**
+     * Prints one line per input and a total line, and works out the exit code. The total uses the wall time of the
+     * whole batch, since with --jobs the per-file times overlap.
+     */
+    private int summarize(List<Result> results, long elapsedNanos, PrintStream report) {
+        int failed = 0;
+        long totalIn = 0;
+        long totalOut = 0;
+        
+        for (Result result : results) {
+            if (!result.success) {
+                failed++;
+                err.println("javacompressor: " + result.input + ": " + result.target);
+                continue;
+            }
+            totalIn += result.bytesIn();
+            totalOut += result.bytesOut();
+            if (!quiet) {
+                String label = command.equals("test") ? result.input + ": OK" : result.input + " -> " + result.target;
+                report.println(label + ", " + FileUtils.formatFileSize(result.bytesIn())
+                               + " -> " + FileUtils.formatFileSize(result.bytesOut())
+                               + " (" + ratio(result.bytesOut(), result.bytesIn()) + ") in " + seconds(result.nanos)
+                               + ", " + throughput(result.bytesIn(), result.nanos));
+            }
+        }
+        
+        if (!quiet && results.size() > 1) {
+            report.println(results.size() + " files, " + failed + " failed: " + FileUtils.formatFileSize(totalIn)
+                           + " -> " + FileUtils.formatFileSize(totalOut) + " in " + seconds(elapsedNanos)
+                           + ", " + throughput(totalIn, elapsedNanos));
+        }
+        return failed > 0 ? EXIT_FAILED : EXIT_OK;
+    }
+    
+    private CompressionOptions createOptions(int jobCount) {
+        CompressionOptions options = new CompressionOptions();
+        // Split the cores between the jobs unless told otherwise
+        int cores = Runtime.getRuntime().availableProcessors();
+        options.setWorkerCount(threads > 0 ? threads : Math.max(1, cores / Math.max(1, jobCount)));
+        options.setTargetMegabytesPerSecond(targetSpeed);
+        if (checkpointMegabytes > 0) {
+            options.setGzipCheckpointInterval(checkpointMegabytes * 1024L * 1024);
+        }
+        if (chunkCodec != null) {
+            options.setChunkCodec(chunkCodec);
+        }
+        options.setDigests(digests);
+        if (noSkip) {
+            options.setSkipEntropy(8);
+        }
+        return options;
+    }
+    
+    /**
+     * Works out where an output goes: next to the input, inside --output, or at --output itself.
+     */
+    private File outputFor(File source, String defaultName, boolean multipleOutputs) {
+        if (output == null) {
+            File parent = source.getAbsoluteFile().getParentFile();
+            return new File(parent, defaultName);
+        }
+        if (multipleOutputs || output.isDirectory()) {
+            output.mkdirs();
+            return new File(output, defaultName);
+        }
+        return output;
+    }
+    
+    private File checkTarget(File target) throws IOException {
+        if (target.exists() && !force && !target.isDirectory()) {
+            throw new IOException(target + " already exists (use -f to overwrite)");
+        }
+        return target;
+    }
+    
+    /**
+     * Parses "start[:length]" with optional K, M or G suffixes; a negative start counts from the end.
+     */
+    private void parseRange(String value) {
+        int colon = value.indexOf(':');
+        rangeStart = parseSize(colon >= 0 ? value.substring(0, colon) : value, "--range");
+        rangeLength = colon >= 0 ? parseSize(value.substring(colon + 1), "--range") : -1;
+        if (colon >= 0 && rangeLength < 0) {
+            throw new IllegalArgumentException("--range length can't be negative");
+        }
+        ranged = true;
+    }
+    
+    private static long parseSize(String value, String option) {
+        String digits = value.trim().toUpperCase();
+        long unit = 1;
+        if (digits.endsWith("K") || digits.endsWith("M") || digits.endsWith("G")) {
+            unit = digits.endsWith("K") ? 1024L : digits.endsWith("M") ? 1024L * 1024 : 1024L * 1024 * 1024;
+            digits = digits.substring(0, digits.length() - 1);
+        }
+        try {
+            return Math.multiplyExact(Long.parseLong(digits), unit);
+        } catch (NumberFormatException | ArithmeticException e) {
+            throw new IllegalArgumentException(option + " needs a size like 512, 64K or -10M, got '" + value + "'");
+        }
+    }
+    
+    private static CompressionAlgorithm parseAlgorithm(String value) {
+        for (CompressionAlgorithm candidate : CompressionAlgorithm.values()) {
+            if (candidate.name().equalsIgnoreCase(value) || candidate.getExtension().equalsIgnoreCase(value)) {
+                return candidate;
+            }
+        }
+        throw new IllegalArgumentException("unknown algorithm '" + value + "'");
+    }
+    
+    private static String value(String[] args, int index, String option) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException(option + " needs a value");
+        }
+        return args[index];
+    }
+    
+    private static int parseInt(String value, String option, int min, int max) {
+        try {
+            int parsed = Integer.parseInt(value);
+            if (parsed < min || parsed > max) {
+                throw new IllegalArgumentException(option + " must be between " + min + " and " + max);
+            }
+            return parsed;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(option + " needs a number, got '" + value + "'");
+        }
+    }
+    
+    private static String ratio(long compressed, long size) {
+        if (compressed < 0 || size <= 0) {
+            return "?";
+        }
+        return String.format("%.1f%%", 100.0 * compressed / size);
+    }
+    
+    private static String seconds(long nanos) {
+        return String.format("%.2f s", nanos / 1e9);
+    }
+    
+    private static String throughput(long bytes, long nanos) {
+        return nanos > 0 ? FileUtils.formatFileSize((long) (bytes * 1e9 / nanos)) + "/s" : "?";
+    }
+    
+    /**
+     * Turns an exception into the text after "javacompressor: input: ". NIO file exceptions only carry the path as
+     * their message, so those get a reason, and the path only when it isn't the input itself.
+     */
+    private static String describe(String input, Exception e) {
+        String reason = e instanceof NoSuchFileException ? "no such file or directory"
+                : e instanceof AccessDeniedException ? "permission denied"
+                : null;
+        if (reason != null) {
+            String file = ((FileSystemException) e).getFile();
+            return file == null || file.equals(input) ? reason : file + ": " + reason;
+        }
+        return e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+    }
+    
+    private static void printUsage(PrintStream stream) {
+        stream.println("Usage: java -jar java-file-compressor.jar <command> [options] <files...>");
+        stream.println();
+        stream.println("Commands:");
+        stream.println("  compress     Compress files or directories (GZIP for files, ZIP for directories by default;");
+        stream.println("               other algorithms put directories in a tarball, e.g. -a xz makes .tar.xz)");
+        stream.println("  decompress   Decompress files (the algorithm is picked from the extension)");
+        stream.println("  list         Show the entries of archives");
+        stream.println("  test         Check archives for corruption without writing anything");
+        stream.println("  analyze      Try every algorithm and level on a sample and recommend one (-v lists all)");
+        stream.println("  index        Build the random access index of GZIP files (name.gz.gzidx) for --range;");
+        stream.println("               without one every --range read indexes the whole file again in memory.");
+        stream.println("               Plain gzip output has no flush points, so --range reads it from the start");
+        stream.println();
+        stream.println("Options:");
+        stream.println("  -a, --algorithm <name>             zip, gzip, bzip2, lz4, zstd, xz or jcz (chunked, splittable)");
+        stream.println("  -l, --level <1-19>, -1 ... -19     Compression level (default 6, above 9 only for zstd)");
+        stream.println("  -o, --output <path>                Output file, or directory for several inputs");
+        stream.println("  -j, --jobs <n>                     Files to process at the same time (default 1)");
+        stream.println("  -t, --threads <n>                  Worker threads per file (default: cores / jobs)");
+        stream.println("  -e, --entry <name|glob>            ZIP: only list or extract these entries (repeatable)");
+        stream.println("      --target-speed <MB/s>          GZIP: adjust the level as it goes to keep up this speed");
+        stream.println("      --chunk-codec <name>           JCZ: what compresses each chunk (default zstd)");
+        stream.println("      --digest <list>                Write digests of what was compressed next to it (name.gz.sums): crc32c, sha256, xxh64");
+        stream.println("      --checkpoints <MB>             GZIP: write a random access index with a checkpoint every <MB>");
+        stream.println("      --range <start>[:<length>]     GZIP, JCZ: only decompress this part, e.g. -10M or 2G:64K");
+        stream.println("  -c, --stdout                       Write to stdout (all but ZIP)");
+        stream.println("  -f, --force                        Overwrite existing output files");
+        stream.println("      --each                         Compress every file of a directory on its own (a.log -> a.log.gz)");
+        stream.println("      --delete                       With --each, delete each original once its copy checks out");
+        stream.println("      --no-skip                      With --each, also compress media, office files and other data");
+        stream.println("                                     that looks compressed already (archives are always skipped)");
+        stream.println("  -q, --quiet                        Only print errors");
+        stream.println("  -v, --verbose                      Show live progress, and every ZIP entry that test checks");
+        stream.println();
+        stream.println("Use - as a file name to read from stdin. Quoted globs like 'logs/*.log' are expanded.");
+        stream.println("Exit codes: 0 success, 1 some inputs failed, 2 bad usage.");
+    }
+    
+    /**
+     * One unit of work for a single input.
+     */
+    @FunctionalInterface
+    private interface Job {
+        Result run(String input) throws Exception;
+    }
+    
+    /**
+     * Keeps the final progress numbers of a job, and optionally draws a live progress line.
+     */
+    private static final class ProgressRecorder implements ProgressListener {
+        private final PrintStream live;
+        private volatile ProgressSnapshot last;
+        
+        ProgressRecorder(PrintStream live) {
+            this.live = live;
+        }
+        
+        @Override
+        public void progressChanged(ProgressSnapshot progress) {
+            last = progress;
+            if (live != null) {
+                live.print("\r" + FileUtils.formatProgress(progress) + "   ");
+            }
+        }
+        
+        void done() {
+            if (live != null) {
+                live.println();
+            }
+        }
+    }
+    
+    /**
+     * What happened to one input.
+     */
+    private static final class Result {
+        private final String input;
+        private final String target;
+        private final ProgressSnapshot progress;
+        private final long nanos;
+        private final boolean success;
+        
+        Result(String input, String target, ProgressSnapshot progress, long nanos) {
+            this(input, target, progress, nanos, true);
+        }
+        
+        Result(String input, String target, ProgressSnapshot progress, long nanos, boolean success) {
+            this.input = input;
+            this.target = target;
+            this.progress = progress;
+            this.nanos = nanos;
+            this.success = success;
+        }
+        
+        long bytesIn() {
+            return progress != null ? progress.getBytesIn() : 0;
+        }
+        
+        long bytesOut() {
+            return progress != null ? progress.getBytesOut() : 0;
+        }
+    }
+}
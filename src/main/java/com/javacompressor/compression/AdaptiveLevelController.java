@@ -0,0 +1,136 @@
+package com.javacompressor.compression;
+
+import com.javacompressor.util.FileUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Picks the compression level block by block so that compression keeps up with a target speed,
+ * in the spirit of {@code zstd --adapt}. Easy data ends up on a high level, hard data on a low one.
+ * <p>
+ * Workers report how long each block took at its level, which gives a per-level estimate of how
+ * fast the workers together can go. The writer reports how long the output took to accept each
+ * block. After every round of blocks the level moves one step: down when the workers can't reach
+ * the target, up when there's headroom. When the output is slower than the workers anyway, the
+ * spare CPU goes into a higher level, since smaller output is the only thing that helps then.
+ */
+final class AdaptiveLevelController {
+    // Weight of the newest measurement in the running averages
+    private static final double SMOOTHING = 0.3;
+    // Go up a level only with this much room over the target, so we don't bounce between two levels
+    private static final double HEADROOM = 1.2;
+    
+    private final double targetBytesPerSecond;
+    private final int minLevel;
+    private final int maxLevel;
+    private final int parallelism;
+    // Average encode time per input byte at each level, 0 where the level hasn't been tried yet
+    private final double[] nanosPerByte;
+    private final List<long[]> path = new ArrayList<>();
+    private volatile int level;
+    private double outputNanosPerByte;
+    private int blocksSinceChange;
+    
+    /**
+     * Creates a new controller.
+     *
+     * @param targetMegabytesPerSecond The input speed to aim for
+     * @param startLevel The level to start with
+     * @param minLevel The lowest level to go down to
+     * @param maxLevel The highest level to go up to
+     * @param workerCount Number of workers encoding blocks at the same time
+     */
+    AdaptiveLevelController(double targetMegabytesPerSecond, int startLevel, int minLevel, int maxLevel,
+                            int workerCount) {
+        this.targetBytesPerSecond = targetMegabytesPerSecond * 1024 * 1024;
+        this.minLevel = minLevel;
+        this.maxLevel = maxLevel;
+        this.parallelism = Math.max(1, Math.min(workerCount, Runtime.getRuntime().availableProcessors()));
+        this.nanosPerByte = new double[maxLevel + 1];
+        this.level = Math.max(minLevel, Math.min(maxLevel, startLevel));
+    }
+    
+    /**
+     * Gets the level the next block should use. Called from worker threads.
+     */
+    int currentLevel() {
+        return level;
+    }
+    
+    /**
+     * Records how long a worker took for one block. Called from worker threads.
+     */
+    synchronized void blockEncoded(int blockLevel, int length, long nanos) {
+        if (length > 0) {
+            nanosPerByte[blockLevel] = average(nanosPerByte[blockLevel], (double) nanos / length);
+        }
+    }
+    
+    /**
+     * Records a block that has been written and moves the level if it's time to. Called on the
+     * writer's thread, in block order.
+     *
+     * @param offset Uncompressed position of the block
+     * @param length Uncompressed length of the block
+     * @param blockLevel The level it was encoded with
+     * @param writeNanos How long the output took to accept it
+     */
+    synchronized void blockWritten(long offset, int length, int blockLevel, long writeNanos) {
+        if (path.isEmpty() || path.get(path.size() - 1)[1] != blockLevel) {
+            path.add(new long[] {offset, blockLevel});
+        }
+        if (length > 0) {
+            outputNanosPerByte = average(outputNanosPerByte, (double) writeNanos / length);
+        }
+        
+        // Blocks already handed out still use the old level; wait for a full round of them
+        if (++blocksSinceChange < parallelism || nanosPerByte[level] == 0) {
+            return;
+        }
+        
+        double capacity = capacity(level);
+        boolean outputBound = outputNanosPerByte > 0 && 1e9 / outputNanosPerByte < capacity;
+        double margin = outputBound ? 1 : HEADROOM;
+        
+        if (capacity < targetBytesPerSecond && level > minLevel) {
+            changeLevel(level - 1);
+        } else if (capacity >= targetBytesPerSecond * margin && level < maxLevel
+                   && (nanosPerByte[level + 1] == 0 || capacity(level + 1) >= targetBytesPerSecond)) {
+            changeLevel(level + 1);
+        }
+    }
+    
+    /**
+     * Describes the levels used, e.g. "6 (0 B - 24 MB), 4 (24 MB - 1.2 GB)".
+     *
+     * @param totalBytes The uncompressed size of the whole stream
+     */
+    synchronized String describePath(long totalBytes) {
+        StringBuilder description = new StringBuilder();
+        for (int i = 0; i < path.size(); i++) {
+            long start = path.get(i)[0];
+            long end = i + 1 < path.size() ? path.get(i + 1)[0] : totalBytes;
+            if (description.length() > 0) {
+                description.append(", ");
+            }
+            description.append(path.get(i)[1]).append(" (").append(FileUtils.formatFileSize(start)).append(" - ")
+                    .append(FileUtils.formatFileSize(end)).append(')');
+        }
+        return description.toString();
+    }
+    
+    private void changeLevel(int newLevel) {
+        level = newLevel;
+        blocksSinceChange = 0;
+    }
+    
+    // How many input bytes per second all workers together manage at a level
+    private double capacity(int atLevel) {
+        return parallelism * 1e9 / nanosPerByte[atLevel];
+    }
+    
+    private static double average(double current, double sample) {
+        return current == 0 ? sample : current + SMOOTHING * (sample - current);
+    }
+}
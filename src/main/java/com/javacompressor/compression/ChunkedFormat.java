@@ -0,0 +1,563 @@
+package com.javacompressor.compression;
+
+import com.github.luben.zstd.Zstd;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4Exception;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.tukaani.xz.FinishableOutputStream;
+import org.tukaani.xz.FinishableWrapperOutputStream;
+import org.tukaani.xz.LZMA2InputStream;
+import org.tukaani.xz.LZMA2Options;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32C;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Our own container (.jcz) for data that should be splittable: the input is cut into fixed-size
+ * chunks, every chunk is compressed on its own with one of the other codecs and carries a CRC32C of
+ * its content, and an index at the end says where each chunk starts. Writing, reading, testing and
+ * reading a range can all work on many chunks at once, and each only ever holds a chunk or two.
+ * <p>
+ * Layout, numbers big-endian:
+ * <pre>
+ * header   "JCZ1", chunk size (int)
+ * chunk    method (byte), uncompressed length (int), compressed length (int), CRC32C (int), data
+ * ...
+ * index    0xFF, per chunk: file offset of the chunk (long), uncompressed offset (long)
+ * trailer  index offset (long), uncompressed size (long), chunk count (int), CRC32C of the index (int), "JCZ1"
+ * </pre>
+ * The method is the codec the chunk was written with (stored if that didn't make it smaller). A
+ * stream can be read front to back without ever looking at the index; a file can be opened at the
+ * trailer and read from any chunk.
+ */
+final class ChunkedFormat {
+    static final String EXTENSION = ".jcz";
+    static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+    static final int MIN_CHUNK_SIZE = 64 * 1024;
+    static final int MAX_CHUNK_SIZE = 64 * 1024 * 1024;
+    static final int HEADER_SIZE = 8;
+    private static final byte[] MAGIC = {'J', 'C', 'Z', '1'};
+    private static final int CHUNK_HEADER_SIZE = 13;
+    private static final int INDEX_ENTRY_SIZE = 16;
+    private static final int TRAILER_SIZE = 28;
+    private static final int INDEX_MARKER = 0xFF;
+    // Chunk methods; never renumber these, they're in every file
+    private static final int STORED = 0;
+    private static final int DEFLATE = 1;
+    private static final int BZIP2 = 2;
+    private static final int LZ4 = 3;
+    private static final int ZSTD = 4;
+    private static final int LZMA2 = 5;
+    private static final LZ4Factory LZ4_FACTORY = LZ4Factory.fastestInstance();
+    
+    private ChunkedFormat() {
+    }
+    
+    /**
+     * Checks that chunks can be written with a codec. ZIP and CHUNKED itself can't.
+     */
+    static void checkCodec(CompressionAlgorithm codec) {
+        if (codec == null) {
+            throw new IllegalArgumentException("No codec given for the chunks");
+        }
+        methodFor(codec);
+    }
+    
+    private static int methodFor(CompressionAlgorithm codec) {
+        switch (codec) {
+            case GZIP:
+                return DEFLATE;
+            case BZIP2:
+                return BZIP2;
+            case LZ4:
+                return LZ4;
+            case ZSTD:
+                return ZSTD;
+            case XZ:
+                return LZMA2;
+            default:
+                throw new IllegalArgumentException(codec + " can't compress chunks, use GZIP, BZIP2, LZ4, ZSTD or XZ");
+        }
+    }
+    
+    static void writeHeader(OutputStream output, int chunkSize) throws IOException {
+        DataOutputStream out = new DataOutputStream(output);
+        out.write(MAGIC);
+        out.writeInt(chunkSize);
+        out.flush();
+    }
+    
+    /**
+     * Compresses one chunk. Runs on worker threads.
+     *
+     * @param codec GZIP, BZIP2, LZ4, ZSTD or XZ
+     * @param level The level, pulled into the codec's range
+     * @param data The chunk's content
+     * @param length How much of data is used
+     * @return The chunk as it goes into the file, header included
+     */
+    static byte[] encodeChunk(CompressionAlgorithm codec, int level, byte[] data, int length) throws IOException {
+        CRC32C crc = new CRC32C();
+        crc.update(data, 0, length);
+        
+        int method = methodFor(codec);
+        byte[] compressed = compress(method, codec.clampLevel(level), data, length);
+        if (compressed == null || compressed.length >= length) {
+            method = STORED;
+            compressed = Arrays.copyOf(data, length);
+        }
+        
+        ByteBuffer chunk = ByteBuffer.allocate(CHUNK_HEADER_SIZE + compressed.length);
+        chunk.put((byte) method).putInt(length).putInt(compressed.length).putInt((int) crc.getValue());
+        chunk.put(compressed);
+        return chunk.array();
+    }
+    
+    /**
+     * Compresses a chunk's content with a codec.
+     *
+     * @return The compressed bytes, or null if they'd come out bigger than the input
+     */
+    private static byte[] compress(int method, int level, byte[] data, int length) throws IOException {
+        switch (method) {
+            case DEFLATE:
+                Deflater deflater = new Deflater(level, true);
+                try {
+                    deflater.setInput(data, 0, length);
+                    deflater.finish();
+                    byte[] deflated = new byte[length];
+                    int size = 0;
+                    while (!deflater.finished() && size < deflated.length) {
+                        size += deflater.deflate(deflated, size, deflated.length - size);
+                    }
+                    return deflater.finished() ? Arrays.copyOf(deflated, size) : null;
+                } finally {
+                    deflater.end();
+                }
+            case BZIP2:
+                ByteArrayOutputStream bzipped = new ByteArrayOutputStream(length / 4 + 64);
+                try (BZip2CompressorOutputStream bzip2Out = new BZip2CompressorOutputStream(bzipped, level)) {
+                    bzip2Out.write(data, 0, length);
+                }
+                return bzipped.toByteArray();
+            case LZ4:
+                return ParallelLz4Compressor.blockCompressor(level).compress(data, 0, length);
+            case ZSTD:
+                byte[] zstdOut = new byte[(int) Zstd.compressBound(length)];
+                long size = Zstd.compressByteArray(zstdOut, 0, zstdOut.length, data, 0, length, level);
+                if (Zstd.isError(size)) {
+                    throw new IOException("zstd failed: " + Zstd.getErrorName(size));
+                }
+                return Arrays.copyOf(zstdOut, (int) size);
+            case LZMA2:
+                // Raw LZMA2 with the dictionary capped at the chunk size; the decoder sizes its own from that
+                ByteArrayOutputStream lzma = new ByteArrayOutputStream(length / 4 + 64);
+                LZMA2Options lzma2Options = ParallelXzCompressor.lzma2Options(level, length);
+                try (FinishableOutputStream lzmaOut = lzma2Options.getOutputStream(
+                        new FinishableWrapperOutputStream(lzma))) {
+                    lzmaOut.write(data, 0, length);
+                }
+                return lzma.toByteArray();
+            default:
+                throw new IllegalStateException("Unknown chunk method " + method);
+        }
+    }
+    
+    /**
+     * Writes the index and the trailer after the last chunk.
+     *
+     * @param indexOffset Where in the file the index starts (the size of everything written so far)
+     * @param chunks File offset and uncompressed offset of every chunk
+     * @param uncompressedSize The total content size
+     */
+    static void writeIndex(OutputStream output, long indexOffset, List<long[]> chunks,
+                           long uncompressedSize) throws IOException {
+        ByteBuffer index = ByteBuffer.allocate(1 + chunks.size() * INDEX_ENTRY_SIZE);
+        index.put((byte) INDEX_MARKER);
+        for (long[] chunk : chunks) {
+            index.putLong(chunk[0]).putLong(chunk[1]);
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(index.array());
+        
+        DataOutputStream out = new DataOutputStream(output);
+        out.write(index.array());
+        out.writeLong(indexOffset);
+        out.writeLong(uncompressedSize);
+        out.writeInt(chunks.size());
+        out.writeInt((int) crc.getValue());
+        out.write(MAGIC);
+        out.flush();
+    }
+    
+    /**
+     * One chunk as read from a file or stream, not decoded yet.
+     */
+    static final class Chunk {
+        private final int method;
+        private final int uncompressedLength;
+        private final int crc;
+        private final byte[] data;
+        
+        private Chunk(int method, int uncompressedLength, int crc, byte[] data) {
+            this.method = method;
+            this.uncompressedLength = uncompressedLength;
+            this.crc = crc;
+            this.data = data;
+        }
+        
+        /**
+         * Decodes the chunk and checks it against its CRC32C. Safe to call on worker threads.
+         */
+        byte[] decode() throws IOException {
+            byte[] decoded = decompress();
+            CRC32C check = new CRC32C();
+            check.update(decoded);
+            if ((int) check.getValue() != crc) {
+                throw new IOException("Chunk checksum mismatch, the file is corrupt");
+            }
+            return decoded;
+        }
+        
+        private byte[] decompress() throws IOException {
+            if (method == STORED) {
+                checkLength(data.length);
+                return data;
+            }
+            byte[] decoded = new byte[uncompressedLength];
+            switch (method) {
+                case DEFLATE:
+                    Inflater inflater = new Inflater(true);
+                    try {
+                        inflater.setInput(data);
+                        int size = 0;
+                        while (size < decoded.length && !inflater.finished() && !inflater.needsInput()) {
+                            size += inflater.inflate(decoded, size, decoded.length - size);
+                        }
+                        checkLength(size);
+                    } catch (DataFormatException e) {
+                        throw new IOException("Corrupt deflate chunk: " + e.getMessage(), e);
+                    } finally {
+                        inflater.end();
+                    }
+                    return decoded;
+                case BZIP2:
+                    try (InputStream in = new BZip2CompressorInputStream(new ByteArrayInputStream(data))) {
+                        checkLength(in.readNBytes(decoded, 0, decoded.length));
+                    }
+                    return decoded;
+                case LZ4:
+                    try {
+                        checkLength(LZ4_FACTORY.safeDecompressor().decompress(data, 0, data.length, decoded, 0));
+                    } catch (LZ4Exception e) {
+                        throw new IOException("Corrupt LZ4 chunk: " + e.getMessage(), e);
+                    }
+                    return decoded;
+                case ZSTD:
+                    long size = Zstd.decompressByteArray(decoded, 0, decoded.length, data, 0, data.length);
+                    if (Zstd.isError(size)) {
+                        throw new IOException("Corrupt zstd chunk: " + Zstd.getErrorName(size));
+                    }
+                    checkLength(size);
+                    return decoded;
+                case LZMA2:
+                    int dictionarySize = Math.max(LZMA2Options.DICT_SIZE_MIN, uncompressedLength);
+                    try (InputStream in = new LZMA2InputStream(new ByteArrayInputStream(data), dictionarySize)) {
+                        checkLength(in.readNBytes(decoded, 0, decoded.length));
+                    }
+                    return decoded;
+                default:
+                    throw new IOException("Unknown chunk method " + method
+                                          + ", the file is corrupt or from a newer version");
+            }
+        }
+        
+        private void checkLength(long size) throws IOException {
+            if (size != uncompressedLength) {
+                throw new IOException("Chunk decoded to " + size + " bytes instead of " + uncompressedLength);
+            }
+        }
+    }
+    
+    /**
+     * Reads the chunks of a stream front to back, without the index. When the chunks run out, the
+     * index and trailer are checked against what was read.
+     */
+    static final class Reader {
+        private final DataInputStream in;
+        private final int chunkSize;
+        private long uncompressedSize;
+        private int chunkCount;
+        private boolean finished;
+        
+        /**
+         * Reads the header.
+         *
+         * @throws IOException If the stream isn't one of ours
+         */
+        Reader(InputStream input) throws IOException {
+            this.in = new DataInputStream(input);
+            byte[] magic = new byte[MAGIC.length];
+            try {
+                in.readFully(magic);
+                chunkSize = in.readInt();
+            } catch (EOFException e) {
+                throw new IOException("Not a chunked file: too short");
+            }
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Not a chunked file");
+            }
+            checkChunkSize(chunkSize);
+        }
+        
+        /**
+         * Reads the next chunk.
+         *
+         * @return The chunk, or null after the last one
+         * @throws IOException If the stream ends early or doesn't add up
+         */
+        Chunk next() throws IOException {
+            if (finished) {
+                return null;
+            }
+            try {
+                int method = in.readUnsignedByte();
+                if (method == INDEX_MARKER) {
+                    readIndex();
+                    finished = true;
+                    return null;
+                }
+                
+                int uncompressedLength = in.readInt();
+                int compressedLength = in.readInt();
+                int crc = in.readInt();
+                checkChunk(uncompressedLength, compressedLength, chunkSize);
+                byte[] data = new byte[compressedLength];
+                in.readFully(data);
+                
+                uncompressedSize += uncompressedLength;
+                chunkCount++;
+                return new Chunk(method, uncompressedLength, crc, data);
+            } catch (EOFException e) {
+                throw new IOException("Chunked file ends early, it's truncated", e);
+            }
+        }
+        
+        private void readIndex() throws IOException {
+            CRC32C crc = new CRC32C();
+            crc.update(INDEX_MARKER);
+            byte[] entry = new byte[INDEX_ENTRY_SIZE];
+            for (int i = 0; i < chunkCount; i++) {
+                in.readFully(entry);
+                crc.update(entry);
+            }
+            in.readLong();
+            long storedSize = in.readLong();
+            int storedCount = in.readInt();
+            int storedCrc = in.readInt();
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC) || storedCount != chunkCount || storedSize != uncompressedSize
+                    || storedCrc != (int) crc.getValue()) {
+                throw new IOException("The index doesn't match the chunks, the file is corrupt");
+            }
+        }
+    }
+    
+    /**
+     * Decodes a chunked stream on the reading thread, for the places that need an InputStream
+     * (tarballs, single-threaded reading).
+     */
+    static final class Decoder extends InputStream {
+        private final InputStream input;
+        private final Reader reader;
+        private byte[] chunk = new byte[0];
+        private int position;
+        
+        Decoder(InputStream input) throws IOException {
+            this.input = input;
+            this.reader = new Reader(input);
+        }
+        
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (position == chunk.length) {
+                Chunk next = reader.next();
+                if (next == null) {
+                    return -1;
+                }
+                chunk = next.decode();
+                position = 0;
+            }
+            int count = Math.min(len, chunk.length - position);
+            System.arraycopy(chunk, position, b, off, count);
+            position += count;
+            return count;
+        }
+        
+        @Override
+        public void close() throws IOException {
+            input.close();
+        }
+    }
+    
+    /**
+     * The index of a chunked file, read from its end, so any chunk can be read without the ones before it.
+     */
+    static final class Index {
+        private final long[] chunkOffsets;
+        private final long[] uncompressedOffsets;
+        private final long indexOffset;
+        private final long uncompressedSize;
+        private final int chunkSize;
+        
+        private Index(long[] chunkOffsets, long[] uncompressedOffsets, long indexOffset, long uncompressedSize,
+                      int chunkSize) {
+            this.chunkOffsets = chunkOffsets;
+            this.uncompressedOffsets = uncompressedOffsets;
+            this.indexOffset = indexOffset;
+            this.uncompressedSize = uncompressedSize;
+            this.chunkSize = chunkSize;
+        }
+        
+        /**
+         * Reads the header, trailer and index of a file.
+         *
+         * @throws IOException If the file isn't one of ours or its index is damaged
+         */
+        static Index read(FileChannel channel) throws IOException {
+            long fileSize = channel.size();
+            if (fileSize < HEADER_SIZE + 1 + TRAILER_SIZE) {
+                throw new IOException("Not a chunked file: too short");
+            }
+            ByteBuffer header = readAt(channel, 0, HEADER_SIZE);
+            ByteBuffer trailer = readAt(channel, fileSize - TRAILER_SIZE, TRAILER_SIZE);
+            byte[] headerMagic = new byte[MAGIC.length];
+            byte[] trailerMagic = new byte[MAGIC.length];
+            header.get(headerMagic);
+            int chunkSize = header.getInt();
+            long indexOffset = trailer.getLong();
+            long uncompressedSize = trailer.getLong();
+            int chunkCount = trailer.getInt();
+            int indexCrc = trailer.getInt();
+            trailer.get(trailerMagic);
+            if (!Arrays.equals(headerMagic, MAGIC)) {
+                throw new IOException("Not a chunked file");
+            }
+            if (!Arrays.equals(trailerMagic, MAGIC)) {
+                throw new IOException("The chunked file has no index at the end, it's truncated");
+            }
+            checkChunkSize(chunkSize);
+            if (chunkCount < 0 || chunkCount > (Integer.MAX_VALUE - 1) / INDEX_ENTRY_SIZE || indexOffset < HEADER_SIZE
+                    || indexOffset + 1 + (long) chunkCount * INDEX_ENTRY_SIZE + TRAILER_SIZE != fileSize) {
+                throw new IOException("The chunked file's trailer is damaged");
+            }
+            
+            ByteBuffer index = readAt(channel, indexOffset, 1 + chunkCount * INDEX_ENTRY_SIZE);
+            CRC32C crc = new CRC32C();
+            crc.update(index.array());
+            if ((int) crc.getValue() != indexCrc || index.get() != (byte) INDEX_MARKER) {
+                throw new IOException("The chunked file's index is damaged");
+            }
+            long[] chunkOffsets = new long[chunkCount];
+            long[] uncompressedOffsets = new long[chunkCount];
+            for (int i = 0; i < chunkCount; i++) {
+                chunkOffsets[i] = index.getLong();
+                uncompressedOffsets[i] = index.getLong();
+            }
+            return new Index(chunkOffsets, uncompressedOffsets, indexOffset, uncompressedSize, chunkSize);
+        }
+        
+        int getChunkCount() {
+            return chunkOffsets.length;
+        }
+        
+        long getUncompressedSize() {
+            return uncompressedSize;
+        }
+        
+        long getUncompressedOffset(int chunk) {
+            return uncompressedOffsets[chunk];
+        }
+        
+        // Where the chunk ends in the file, for progress
+        long getChunkEnd(int chunk) {
+            return chunk + 1 < chunkOffsets.length ? chunkOffsets[chunk + 1] : indexOffset;
+        }
+        
+        /**
+         * Finds the chunk an uncompressed offset falls into.
+         */
+        int chunkAt(long offset) {
+            int found = Arrays.binarySearch(uncompressedOffsets, offset);
+            return found >= 0 ? found : Math.max(0, -found - 2);
+        }
+        
+        /**
+         * Reads one chunk with positional reads. Safe to call from several threads on the same channel.
+         */
+        Chunk readChunk(FileChannel channel, int chunk) throws IOException {
+            long position = chunkOffsets[chunk];
+            ByteBuffer header = readAt(channel, position, CHUNK_HEADER_SIZE);
+            int method = header.get() & 0xFF;
+            int uncompressedLength = header.getInt();
+            int compressedLength = header.getInt();
+            int crc = header.getInt();
+            checkChunk(uncompressedLength, compressedLength, chunkSize);
+            if (position + CHUNK_HEADER_SIZE + compressedLength > getChunkEnd(chunk)) {
+                throw new IOException("Chunk " + chunk + " runs past the next one, the file is corrupt");
+            }
+            byte[] data = readAt(channel, position + CHUNK_HEADER_SIZE, compressedLength).array();
+            return new Chunk(method, uncompressedLength, crc, data);
+        }
+    }
+    
+    private static void checkChunkSize(int chunkSize) throws IOException {
+        if (chunkSize < MIN_CHUNK_SIZE || chunkSize > MAX_CHUNK_SIZE) {
+            throw new IOException("Unsupported chunk size " + chunkSize + ", the file is corrupt");
+        }
+    }
+    
+    // Chunks are never stored bigger than they are, so nothing here needs more than the chunk size
+    private static void checkChunk(int uncompressedLength, int compressedLength, int chunkSize) throws IOException {
+        if (uncompressedLength <= 0 || uncompressedLength > chunkSize || compressedLength < 0
+                || compressedLength > uncompressedLength) {
+            throw new IOException("Chunk lengths out of range, the file is corrupt");
+        }
+    }
+    
+    private static ByteBuffer readAt(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Chunked file ends early, it's truncated");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
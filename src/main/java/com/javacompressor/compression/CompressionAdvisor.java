@@ -0,0 +1,281 @@
+package com.javacompressor.compression;
+
+import com.javacompressor.model.CompressionAdvice;
+import com.javacompressor.model.FileManifest;
+import com.javacompressor.util.DirectoryScanner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Tries every algorithm and level on a sample of a file or directory and reports which settings
+ * are worth it, so picking one isn't guesswork.
+ * <p>
+ * The sample is a bounded number of evenly spaced windows, so it takes the same time on a 100 GB
+ * input as on a 100 MB one. Each trial compresses and decompresses the sample single-threaded
+ * through {@link CompressionService}, on a pool of workers; speeds are per core, the parallel
+ * paths multiply them. ZIP deflates exactly like GZIP, so the GZIP rows apply to it too.
+ */
+public class CompressionAdvisor {
+    public static final int DEFAULT_SAMPLE_SIZE = 2 * 1024 * 1024;
+    private static final Logger logger = LoggerFactory.getLogger(CompressionAdvisor.class);
+    private static final int WINDOW_SIZE = 128 * 1024;
+    private static final int WARM_UP_SIZE = 64 * 1024;
+    // Trials that haven't started by then are skipped, so the report is back in a couple of seconds
+    private static final long TIME_LIMIT_NANOS = 3_000_000_000L;
+    // The recommendation is the smallest output that still compresses at least this fast per core...
+    private static final double MIN_RECOMMENDED_SPEED = 20;
+    // ...unless a faster setting comes within 1% of it
+    private static final double RATIO_TOLERANCE = 1.01;
+    // Fastest first; trials are started in this order within each step up the level range
+    private static final CompressionAlgorithm[] TRIAL_ALGORITHMS = {
+        CompressionAlgorithm.LZ4, CompressionAlgorithm.GZIP, CompressionAlgorithm.ZSTD,
+        CompressionAlgorithm.BZIP2, CompressionAlgorithm.XZ
+    };
+    
+    private final CompressionOptions options;
+    private final int sampleSize;
+    
+    /**
+     * Creates an advisor with the default sample size.
+     *
+     * @param options The worker count is used for the trials; everything else applies to the trials themselves
+     */
+    public CompressionAdvisor(CompressionOptions options) {
+        this(options, DEFAULT_SAMPLE_SIZE);
+    }
+    
+    /**
+     * Creates an advisor.
+     *
+     * @param options The worker count is used for the trials; everything else applies to the trials themselves
+     * @param sampleSize Most bytes read from the input (at least 64 KB)
+     */
+    public CompressionAdvisor(CompressionOptions options, int sampleSize) {
+        if (sampleSize < 64 * 1024) {
+            throw new IllegalArgumentException("Sample size must be at least 64 KB");
+        }
+        this.options = options;
+        this.sampleSize = sampleSize;
+    }
+    
+    /**
+     * Samples a file or directory and runs every trial on it.
+     *
+     * @param source The file or directory
+     * @param manifest The directory's manifest, or null to scan it (ignored for files)
+     * @return The report
+     * @throws IOException If the input can't be read
+     */
+    public CompressionAdvice analyze(File source, FileManifest manifest) throws IOException {
+        List<FileManifest.Entry> files;
+        if (source.isDirectory()) {
+            files = (manifest != null ? manifest : DirectoryScanner.scan(source)).getEntries();
+        } else {
+            files = List.of(new FileManifest.Entry(source.toPath(), source.getName(), source.length(),
+                                                   source.lastModified()));
+        }
+        
+        long inputSize = 0;
+        for (FileManifest.Entry entry : files) {
+            inputSize += entry.getSize();
+        }
+        byte[] sample = readSample(files, inputSize);
+        if (sample.length == 0) {
+            return new CompressionAdvice(inputSize, 0, List.of(), null, 0);
+        }
+        
+        return runTrials(inputSize, sample);
+    }
+    
+    /**
+     * Reads evenly spaced windows from the files as if they were one long stream. Inputs that fit
+     * into the sample are read whole.
+     */
+    private byte[] readSample(List<FileManifest.Entry> files, long inputSize) throws IOException {
+        if (inputSize <= sampleSize) {
+            return readRange(files, 0, (int) inputSize);
+        }
+        
+        int windows = sampleSize / WINDOW_SIZE;
+        ByteArrayOutputStream sample = new ByteArrayOutputStream(sampleSize);
+        long lastStart = inputSize - WINDOW_SIZE;
+        for (int i = 0; i < windows; i++) {
+            long start = windows == 1 ? 0 : lastStart * i / (windows - 1);
+            sample.write(readRange(files, start, WINDOW_SIZE));
+        }
+        return sample.toByteArray();
+    }
+    
+    /**
+     * Reads a range of the concatenated files, carrying on into the next file where one ends.
+     * Files that vanished or shrank since they were listed just give fewer bytes.
+     */
+    private static byte[] readRange(List<FileManifest.Entry> files, long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        long end = offset + length;
+        long fileStart = 0;
+        for (FileManifest.Entry entry : files) {
+            long fileEnd = fileStart + entry.getSize();
+            if (fileEnd > offset) {
+                long from = Math.max(offset, fileStart);
+                readFrom(entry, from - fileStart, (int) (Math.min(end, fileEnd) - from), buffer);
+            }
+            fileStart = fileEnd;
+            if (fileStart >= end) {
+                break;
+            }
+        }
+        byte[] bytes = new byte[buffer.position()];
+        System.arraycopy(buffer.array(), 0, bytes, 0, bytes.length);
+        return bytes;
+    }
+    
+    private static void readFrom(FileManifest.Entry entry, long position, int length,
+                                 ByteBuffer buffer) throws IOException {
+        int limit = buffer.limit();
+        buffer.limit(buffer.position() + length);
+        try (FileChannel channel = FileChannel.open(entry.getPath(), StandardOpenOption.READ)) {
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position);
+                if (read <= 0) {
+                    break;
+                }
+                position += read;
+            }
+        } catch (NoSuchFileException e) {
+            logger.debug("Skipping file that no longer exists: {}", entry.getPath());
+        } finally {
+            buffer.limit(limit);
+        }
+    }
+    
+    /**
+     * Runs one trial per algorithm and level on a worker pool. Every algorithm's low levels go
+     * first and its high levels last, so when there are few cores and time runs out, what's missing
+     * is the slowest end of each range rather than whole algorithms.
+     */
+    private CompressionAdvice runTrials(long inputSize, byte[] sample) throws IOException {
+        CompressionOptions trialOptions = new CompressionOptions(options);
+        trialOptions.setParallel(false);
+        CompressionService service = new CompressionService(trialOptions);
+        
+        List<Future<CompressionAdvice.Trial>> futures = new ArrayList<>();
+        ExecutorService pool = ParallelBlockProcessor.newWorkerPool("advisor", options.getWorkerCount());
+        List<CompressionAdvice.Trial> trials = new ArrayList<>();
+        int skipped = 0;
+        try {
+            // Most codecs are Java code; timing them before the JIT got to them makes them look several times slower
+            byte[] warmUp = Arrays.copyOf(sample, Math.min(sample.length, WARM_UP_SIZE));
+            List<Future<CompressionAdvice.Trial>> warmUps = new ArrayList<>();
+            for (CompressionAlgorithm algorithm : TRIAL_ALGORITHMS) {
+                warmUps.add(pool.submit(() -> runTrial(service, algorithm, algorithm.getMinLevel(), warmUp)));
+            }
+            for (Future<CompressionAdvice.Trial> future : warmUps) {
+                ParallelBlockProcessor.awaitResult(future);
+            }
+            
+            long deadline = System.nanoTime() + TIME_LIMIT_NANOS;
+            for (int[] setting : trialOrder()) {
+                CompressionAlgorithm algorithm = TRIAL_ALGORITHMS[setting[0]];
+                int level = setting[1];
+                futures.add(pool.submit(() -> System.nanoTime() > deadline ? null
+                        : runTrial(service, algorithm, level, sample)));
+            }
+            for (Future<CompressionAdvice.Trial> future : futures) {
+                CompressionAdvice.Trial trial = ParallelBlockProcessor.awaitResult(future);
+                if (trial != null) {
+                    trials.add(trial);
+                } else {
+                    skipped++;
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        
+        CompressionAdvice.Trial recommended = recommend(trials);
+        logger.info("Tried {} settings on a {} byte sample, {} skipped; recommending {}", trials.size(),
+                   sample.length, skipped, recommended);
+        return new CompressionAdvice(inputSize, sample.length, trials, recommended, skipped);
+    }
+    
+    /**
+     * Lists every (algorithm index, level) pair, ordered by how far up its algorithm's range the level is.
+     */
+    private static List<int[]> trialOrder() {
+        List<int[]> order = new ArrayList<>();
+        for (int i = 0; i < TRIAL_ALGORITHMS.length; i++) {
+            for (int level = TRIAL_ALGORITHMS[i].getMinLevel(); level <= TRIAL_ALGORITHMS[i].getMaxLevel(); level++) {
+                order.add(new int[] {i, level});
+            }
+        }
+        order.sort(Comparator.comparingDouble(setting -> rangePosition(TRIAL_ALGORITHMS[setting[0]], setting[1])));
+        return order;
+    }
+    
+    private static double rangePosition(CompressionAlgorithm algorithm, int level) {
+        return (double) (level - algorithm.getMinLevel()) / (algorithm.getMaxLevel() - algorithm.getMinLevel());
+    }
+    
+    private static CompressionAdvice.Trial runTrial(CompressionService service, CompressionAlgorithm algorithm,
+                                                    int level, byte[] sample) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(sample.length / 2 + 1024);
+        long start = System.nanoTime();
+        service.compressStream(new ByteArrayInputStream(sample), compressed, algorithm, level, null);
+        long compressNanos = System.nanoTime() - start;
+        
+        start = System.nanoTime();
+        service.decompressStream(new ByteArrayInputStream(compressed.toByteArray()), OutputStream.nullOutputStream(),
+                                 algorithm, null);
+        long decompressNanos = System.nanoTime() - start;
+        
+        return new CompressionAdvice.Trial(algorithm, level, sample.length, compressed.size(), compressNanos,
+                                           decompressNanos);
+    }
+    
+    /**
+     * Picks the smallest output among the settings that are fast enough, then the fastest setting
+     * that comes within 1% of it. If nothing is fast enough, the fastest setting wins.
+     */
+    private static CompressionAdvice.Trial recommend(List<CompressionAdvice.Trial> trials) {
+        CompressionAdvice.Trial smallest = null;
+        CompressionAdvice.Trial fastest = null;
+        for (CompressionAdvice.Trial trial : trials) {
+            if (fastest == null || trial.getCompressMegabytesPerSecond() > fastest.getCompressMegabytesPerSecond()) {
+                fastest = trial;
+            }
+            if (trial.getCompressMegabytesPerSecond() >= MIN_RECOMMENDED_SPEED
+                    && (smallest == null || trial.getRatio() < smallest.getRatio())) {
+                smallest = trial;
+            }
+        }
+        if (smallest == null) {
+            return fastest;
+        }
+        
+        CompressionAdvice.Trial recommended = smallest;
+        for (CompressionAdvice.Trial trial : trials) {
+            if (trial.getRatio() <= smallest.getRatio() * RATIO_TOLERANCE
+                    && trial.getCompressMegabytesPerSecond() > recommended.getCompressMegabytesPerSecond()) {
+                recommended = trial;
+            }
+        }
+        return recommended;
+    }
+}
@@ -5,21 +5,29 @@ package com.javacompressor.compression;
  * Each has different tradeoffs between speed and compression quality.
  */
 public enum CompressionAlgorithm {
-    ZIP("zip", "ZIP (Standard)", "zip"),
-    GZIP("gz", "GZIP (Fast)", "gz"),
-    BZIP2("bz2", "BZIP2 (High Compression)", "bz2");
+    ZIP("zip", "ZIP (Standard)", "zip", 1, 9),
+    GZIP("gz", "GZIP (Fast)", "gz", 1, 9),
+    BZIP2("bz2", "BZIP2 (High Compression)", "bz2", 1, 9),
+    LZ4("lz4", "LZ4 (Fastest)", "lz4", 1, 9),
+    ZSTD("zst", "Zstandard (Fast + Small)", "zstd", 1, 19),
+    XZ("xz", "XZ (Smallest)", "xz", 1, 9),
+    CHUNKED("jcz", "Chunked (Splittable)", "chunked", 1, 19);
     
     private final String extension;
     private final String displayName;
     private final String identifier;
+    private final int minLevel;
+    private final int maxLevel;
     
     /**
      * Creates a new algorithm entry
      */
-    CompressionAlgorithm(String extension, String displayName, String identifier) {
+    CompressionAlgorithm(String extension, String displayName, String identifier, int minLevel, int maxLevel) {
         this.extension = extension;
         this.displayName = displayName;
         this.identifier = identifier;
+        this.minLevel = minLevel;
+        this.maxLevel = maxLevel;
     }
     
     // Gets the file extension (e.g., "zip", "gz")
@@ -37,6 +45,23 @@ public enum CompressionAlgorithm {
         return identifier;
     }
     
+    // Gets the lowest (fastest) compression level
+    public int getMinLevel() {
+        return minLevel;
+    }
+    
+    // Gets the highest (smallest output) compression level
+    public int getMaxLevel() {
+        return maxLevel;
+    }
+    
+    /**
+     * Pulls a level into this algorithm's range, so e.g. zstd's 19 becomes 9 for GZIP
+     */
+    public int clampLevel(int level) {
+        return Math.max(minLevel, Math.min(maxLevel, level));
+    }
+    
     // Shows the friendly name in UI dropdowns
     @Override
     public String toString() {
@@ -0,0 +1,78 @@
+package com.javacompressor.compression;
+
+import java.io.File;
+
+/**
+ * A queued compression or decompression, as managed by {@link JobScheduler}.
+ * The UI binds to {@link #getTask()} for progress and state; the scheduler uses the priority and
+ * submission order to decide what runs next.
+ */
+public class CompressionJob {
+    /**
+     * Jobs with a higher priority are started first; equal priorities run in submission order.
+     */
+    public enum Priority {
+        HIGH("Run first"),
+        NORMAL("Normal"),
+        LOW("Run last");
+        
+        private final String displayName;
+        
+        Priority(String displayName) {
+            this.displayName = displayName;
+        }
+        
+        public String getDisplayName() {
+            return displayName;
+        }
+    }
+    
+    private final long sequence;
+    private final CompressionTask task;
+    private volatile Priority priority;
+    
+    CompressionJob(long sequence, CompressionTask task, Priority priority) {
+        this.sequence = sequence;
+        this.task = task;
+        this.priority = priority;
+    }
+    
+    /**
+     * Gets the order in which this job was submitted.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+    
+    /**
+     * Gets the underlying task, for binding progress, message and state.
+     */
+    public CompressionTask getTask() {
+        return task;
+    }
+    
+    public Priority getPriority() {
+        return priority;
+    }
+    
+    // Only the scheduler changes this, while the job is out of its queue
+    void setPriority(Priority priority) {
+        this.priority = priority;
+    }
+    
+    public File getSourceFile() {
+        return task.getSourceFile();
+    }
+    
+    /**
+     * Checks if the job finished, failed or was cancelled. Safe to call from any thread.
+     */
+    public boolean isDone() {
+        return task.isDone();
+    }
+    
+    @Override
+    public String toString() {
+        return (task.isCompress() ? "Compress " : "Decompress ") + task.getSourceFile().getName();
+    }
+}
@@ -0,0 +1,394 @@
+package com.javacompressor.compression;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Tuning knobs for {@link CompressionService}.
+ * The defaults are sensible for a desktop machine, so most callers never need to touch this.
+ */
+public class CompressionOptions {
+    private static final int MIN_BLOCK_SIZE = 32 * 1024;
+    private static final int MIN_LZ4_FRAME_SIZE = 64 * 1024;
+    private static final int MIN_ZSTD_WINDOW_LOG = 10;
+    private static final int MAX_ZSTD_WINDOW_LOG = 31;
+    private static final int MIN_XZ_BLOCK_SIZE = 1024 * 1024;
+    private static final int MIN_IO_BUFFER_SIZE = 4 * 1024;
+    private static final int MAX_IO_BUFFER_SIZE = 64 * 1024 * 1024;
+    // A byte can't carry more than 8 bits, so at 8 nothing is skipped for looking compressed
+    private static final double MAX_ENTROPY = 8;
+    
+    private boolean parallel = true;
+    private int workerCount = Runtime.getRuntime().availableProcessors();
+    private int gzipBlockSize = 128 * 1024;
+    private int lz4FrameSize = 4 * 1024 * 1024;
+    private int zstdLongWindowLog = 27;
+    private int xzBlockSize = 0;
+    private CompressionAlgorithm chunkCodec = CompressionAlgorithm.ZSTD;
+    private int chunkSize = ChunkedFormat.DEFAULT_CHUNK_SIZE;
+    private double targetMegabytesPerSecond = 0;
+    private long gzipCheckpointInterval = 0;
+    private Set<DigestAlgorithm> digests = EnumSet.noneOf(DigestAlgorithm.class);
+    private long zipMemoryBufferLimit = 64L * 1024 * 1024;
+    private long zipDiskBufferLimit = 1024L * 1024 * 1024;
+    private boolean zipStoreIncompressible = true;
+    private double skipEntropy = ZipMethodSelector.STORE_ENTROPY;
+    private int ioBufferSize = 1024 * 1024;
+    private long memoryMapThreshold = 64L * 1024 * 1024;
+    private long progressIntervalMillis = 100;
+    private double progressStep = 0.01;
+    private int maxConcurrentJobs = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private int maxJobsPerDisk = 2;
+    
+    /**
+     * Creates options with the defaults.
+     */
+    public CompressionOptions() {
+    }
+    
+    /**
+     * Creates a copy of other options, so one setting can be changed without touching the original.
+     * 
+     * @param other The options to copy
+     */
+    public CompressionOptions(CompressionOptions other) {
+        this.parallel = other.parallel;
+        this.workerCount = other.workerCount;
+        this.gzipBlockSize = other.gzipBlockSize;
+        this.lz4FrameSize = other.lz4FrameSize;
+        this.zstdLongWindowLog = other.zstdLongWindowLog;
+        this.xzBlockSize = other.xzBlockSize;
+        this.chunkCodec = other.chunkCodec;
+        this.chunkSize = other.chunkSize;
+        this.targetMegabytesPerSecond = other.targetMegabytesPerSecond;
+        this.gzipCheckpointInterval = other.gzipCheckpointInterval;
+        this.digests = EnumSet.copyOf(other.digests);
+        this.zipMemoryBufferLimit = other.zipMemoryBufferLimit;
+        this.zipDiskBufferLimit = other.zipDiskBufferLimit;
+        this.zipStoreIncompressible = other.zipStoreIncompressible;
+        this.skipEntropy = other.skipEntropy;
+        this.ioBufferSize = other.ioBufferSize;
+        this.memoryMapThreshold = other.memoryMapThreshold;
+        this.progressIntervalMillis = other.progressIntervalMillis;
+        this.progressStep = other.progressStep;
+        this.maxConcurrentJobs = other.maxConcurrentJobs;
+        this.maxJobsPerDisk = other.maxJobsPerDisk;
+    }
+    
+    /**
+     * Whether multi-threaded compression may be used when the input is big enough.
+     */
+    public boolean isParallel() {
+        return parallel;
+    }
+    
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+    
+    /**
+     * Number of worker threads used by the parallel code paths.
+     */
+    public int getWorkerCount() {
+        return workerCount;
+    }
+    
+    public void setWorkerCount(int workerCount) {
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("Worker count must be at least 1");
+        }
+        this.workerCount = workerCount;
+    }
+    
+    /**
+     * Size of the blocks that parallel GZIP deflates independently (at least 32 KB).
+     */
+    public int getGzipBlockSize() {
+        return gzipBlockSize;
+    }
+    
+    public void setGzipBlockSize(int gzipBlockSize) {
+        if (gzipBlockSize < MIN_BLOCK_SIZE) {
+            throw new IllegalArgumentException("GZIP block size must be at least " + MIN_BLOCK_SIZE + " bytes");
+        }
+        this.gzipBlockSize = gzipBlockSize;
+    }
+    
+    /**
+     * Size of the chunks big files are cut into for parallel LZ4 (at least 64 KB). Each chunk is
+     * compressed on its own into a separate LZ4 frame, which is what lets the workers run side by side.
+     */
+    public int getLz4FrameSize() {
+        return lz4FrameSize;
+    }
+    
+    public void setLz4FrameSize(int lz4FrameSize) {
+        if (lz4FrameSize < MIN_LZ4_FRAME_SIZE) {
+            throw new IllegalArgumentException("LZ4 frame size must be at least " + MIN_LZ4_FRAME_SIZE + " bytes");
+        }
+        this.lz4FrameSize = lz4FrameSize;
+    }
+    
+    /**
+     * Window (as a power of two) for zstd long-distance matching on big inputs, or 0 to turn it off.
+     * The default of 27 (128 MB) is the largest window that plain {@code zstd -d} accepts without {@code --long}.
+     */
+    public int getZstdLongWindowLog() {
+        return zstdLongWindowLog;
+    }
+    
+    public void setZstdLongWindowLog(int zstdLongWindowLog) {
+        if (zstdLongWindowLog != 0 && (zstdLongWindowLog < MIN_ZSTD_WINDOW_LOG || zstdLongWindowLog > MAX_ZSTD_WINDOW_LOG)) {
+            throw new IllegalArgumentException("zstd window log must be 0 or between " + MIN_ZSTD_WINDOW_LOG
+                                               + " and " + MAX_ZSTD_WINDOW_LOG);
+        }
+        this.zstdLongWindowLog = zstdLongWindowLog;
+    }
+    
+    /**
+     * Size of the independent blocks XZ files are split into (at least 1 MB), or 0 for three times the
+     * level's dictionary size like {@code xz -T} does (24 MB at level 6). Smaller blocks mean more
+     * parallelism and finer seeking, at a small cost in ratio.
+     */
+    public int getXzBlockSize() {
+        return xzBlockSize;
+    }
+    
+    public void setXzBlockSize(int xzBlockSize) {
+        if (xzBlockSize != 0 && xzBlockSize < MIN_XZ_BLOCK_SIZE) {
+            throw new IllegalArgumentException("XZ block size must be 0 or at least " + MIN_XZ_BLOCK_SIZE + " bytes");
+        }
+        this.xzBlockSize = xzBlockSize;
+    }
+    
+    /**
+     * What compresses each chunk of a chunked (.jcz) file: GZIP, BZIP2, LZ4, ZSTD or XZ.
+     */
+    public CompressionAlgorithm getChunkCodec() {
+        return chunkCodec;
+    }
+    
+    public void setChunkCodec(CompressionAlgorithm chunkCodec) {
+        ChunkedFormat.checkCodec(chunkCodec);
+        this.chunkCodec = chunkCodec;
+    }
+    
+    /**
+     * Uncompressed size of the chunks of a chunked (.jcz) file (64 KB to 64 MB). Smaller chunks mean
+     * more parallelism and less to decode for a small range, bigger ones a slightly better ratio.
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+    
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize < ChunkedFormat.MIN_CHUNK_SIZE || chunkSize > ChunkedFormat.MAX_CHUNK_SIZE) {
+            throw new IllegalArgumentException("Chunk size must be between " + ChunkedFormat.MIN_CHUNK_SIZE
+                                               + " and " + ChunkedFormat.MAX_CHUNK_SIZE + " bytes");
+        }
+        this.chunkSize = chunkSize;
+    }
+    
+    /**
+     * Speed GZIP should keep up with, in MB/s of input, or 0 to always use the given level. With a target
+     * the level is only where it starts: every block is deflated at whatever level the measured speed allows.
+     */
+    public double getTargetMegabytesPerSecond() {
+        return targetMegabytesPerSecond;
+    }
+    
+    public void setTargetMegabytesPerSecond(double targetMegabytesPerSecond) {
+        if (targetMegabytesPerSecond < 0) {
+            throw new IllegalArgumentException("Target speed cannot be negative");
+        }
+        this.targetMegabytesPerSecond = targetMegabytesPerSecond;
+    }
+    
+    /**
+     * Uncompressed bytes between the checkpoints of the random access index written next to a
+     * compressed GZIP file (name.gz.gzidx), or 0 to not write one.
+     */
+    public long getGzipCheckpointInterval() {
+        return gzipCheckpointInterval;
+    }
+    
+    public void setGzipCheckpointInterval(long gzipCheckpointInterval) {
+        if (gzipCheckpointInterval != 0 && gzipCheckpointInterval < MIN_BLOCK_SIZE) {
+            throw new IllegalArgumentException("Checkpoint interval must be 0 or at least " + MIN_BLOCK_SIZE
+                                               + " bytes");
+        }
+        this.gzipCheckpointInterval = gzipCheckpointInterval;
+    }
+    
+    /**
+     * Digests worked out from the input while a file is compressed and written next to the output
+     * (name.gz.sums), one line per file or archive entry and digest. Empty to not write a manifest.
+     */
+    public Set<DigestAlgorithm> getDigests() {
+        return Collections.unmodifiableSet(digests);
+    }
+    
+    public void setDigests(Set<DigestAlgorithm> digests) {
+        if (digests == null) {
+            throw new IllegalArgumentException("Digests cannot be null, use an empty set for none");
+        }
+        this.digests = digests.isEmpty() ? EnumSet.noneOf(DigestAlgorithm.class) : EnumSet.copyOf(digests);
+    }
+    
+    /**
+     * Most bytes parallel ZIP creation keeps in memory while entries wait to be written.
+     */
+    public long getZipMemoryBufferLimit() {
+        return zipMemoryBufferLimit;
+    }
+    
+    public void setZipMemoryBufferLimit(long zipMemoryBufferLimit) {
+        if (zipMemoryBufferLimit < 0) {
+            throw new IllegalArgumentException("ZIP memory buffer limit cannot be negative");
+        }
+        this.zipMemoryBufferLimit = zipMemoryBufferLimit;
+    }
+    
+    /**
+     * Most bytes parallel ZIP creation spills to temp files while entries wait to be written.
+     */
+    public long getZipDiskBufferLimit() {
+        return zipDiskBufferLimit;
+    }
+    
+    public void setZipDiskBufferLimit(long zipDiskBufferLimit) {
+        if (zipDiskBufferLimit < 0) {
+            throw new IllegalArgumentException("ZIP disk buffer limit cannot be negative");
+        }
+        this.zipDiskBufferLimit = zipDiskBufferLimit;
+    }
+    
+    /**
+     * Whether ZIP entries that won't shrink (media, archives, high-entropy data) are STORED instead of deflated.
+     */
+    public boolean isZipStoreIncompressible() {
+        return zipStoreIncompressible;
+    }
+    
+    public void setZipStoreIncompressible(boolean zipStoreIncompressible) {
+        this.zipStoreIncompressible = zipStoreIncompressible;
+    }
+    
+    /**
+     * When compressing every file of a directory on its own, files of a known compressed type (JPEG, MP4,
+     * DOCX, ...) and files whose sampled bytes carry at least this many bits each are left alone. 8 turns
+     * both checks off; archives are skipped either way.
+     */
+    public double getSkipEntropy() {
+        return skipEntropy;
+    }
+    
+    public void setSkipEntropy(double skipEntropy) {
+        if (!(skipEntropy >= 0 && skipEntropy <= MAX_ENTROPY)) {
+            throw new IllegalArgumentException("Skip entropy must be between 0 and " + (int) MAX_ENTROPY
+                                               + " bits per byte");
+        }
+        this.skipEntropy = skipEntropy;
+    }
+    
+    /**
+     * Whether compressing files on their own skips the ones that look compressed already.
+     */
+    boolean skipsIncompressible() {
+        return skipEntropy < MAX_ENTROPY;
+    }
+    
+    /**
+     * Size of the buffers used for reading and writing files (4 KB - 64 MB).
+     */
+    public int getIoBufferSize() {
+        return ioBufferSize;
+    }
+    
+    public void setIoBufferSize(int ioBufferSize) {
+        if (ioBufferSize < MIN_IO_BUFFER_SIZE || ioBufferSize > MAX_IO_BUFFER_SIZE) {
+            throw new IllegalArgumentException("I/O buffer size must be between " + MIN_IO_BUFFER_SIZE
+                                               + " and " + MAX_IO_BUFFER_SIZE + " bytes");
+        }
+        this.ioBufferSize = ioBufferSize;
+    }
+    
+    /**
+     * Inputs at least this big are memory-mapped instead of read through a buffer (0 turns mapping off).
+     * A mapping is only released by the GC, so it's skipped when the input gets deleted afterwards.
+     */
+    public long getMemoryMapThreshold() {
+        return memoryMapThreshold;
+    }
+    
+    public void setMemoryMapThreshold(long memoryMapThreshold) {
+        if (memoryMapThreshold < 0) {
+            throw new IllegalArgumentException("Memory map threshold cannot be negative");
+        }
+        this.memoryMapThreshold = memoryMapThreshold;
+    }
+    
+    /**
+     * Longest time between two progress updates while data is moving.
+     */
+    public long getProgressIntervalMillis() {
+        return progressIntervalMillis;
+    }
+    
+    public void setProgressIntervalMillis(long progressIntervalMillis) {
+        if (progressIntervalMillis < 0) {
+            throw new IllegalArgumentException("Progress interval cannot be negative");
+        }
+        this.progressIntervalMillis = progressIntervalMillis;
+    }
+    
+    /**
+     * Progress is also published whenever it grew by this fraction (0.01 = every percent, 0 turns it off).
+     */
+    public double getProgressStep() {
+        return progressStep;
+    }
+    
+    public void setProgressStep(double progressStep) {
+        if (progressStep < 0 || progressStep > 1) {
+            throw new IllegalArgumentException("Progress step must be between 0 and 1");
+        }
+        this.progressStep = progressStep;
+    }
+    
+    /**
+     * Most jobs the scheduler runs at the same time.
+     */
+    public int getMaxConcurrentJobs() {
+        return maxConcurrentJobs;
+    }
+    
+    public void setMaxConcurrentJobs(int maxConcurrentJobs) {
+        if (maxConcurrentJobs < 1) {
+            throw new IllegalArgumentException("Max concurrent jobs must be at least 1");
+        }
+        this.maxConcurrentJobs = maxConcurrentJobs;
+    }
+    
+    /**
+     * Most jobs reading from the same disk at the same time; more than a couple just makes the disk seek.
+     */
+    public int getMaxJobsPerDisk() {
+        return maxJobsPerDisk;
+    }
+    
+    public void setMaxJobsPerDisk(int maxJobsPerDisk) {
+        if (maxJobsPerDisk < 1) {
+            throw new IllegalArgumentException("Max jobs per disk must be at least 1");
+        }
+        this.maxJobsPerDisk = maxJobsPerDisk;
+    }
+    
+    /**
+     * Checks if the parallel path is worth using for an input of this size.
+     */
+    boolean useParallel(long inputSize, long minimumSize) {
+        return parallel && workerCount > 1 && inputSize > minimumSize;
+    }
+}
@@ -1,33 +1,82 @@
 package com.javacompressor.compression;
 
+import com.javacompressor.model.ArchiveEntryInfo;
+import com.javacompressor.model.EntryTestResult;
+import com.javacompressor.model.FileCompressionResult;
+import com.javacompressor.model.FileManifest;
+import com.javacompressor.util.ChunkPipe;
+import com.javacompressor.util.CountingInputStream;
+import com.javacompressor.util.CountingOutputStream;
+import com.javacompressor.util.DirectoryScanner;
+import com.javacompressor.util.FileChannelIO;
+import com.javacompressor.util.FileUtils;
+import com.javacompressor.util.NonClosingOutputStream;
 import org.apache.commons.compress.archivers.ArchiveEntry;
 import org.apache.commons.compress.archivers.ArchiveOutputStream;
 import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
 import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
-import org.apache.commons.compress.archivers.zip.ZipFile;
 import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
 import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
 import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
 import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
 import org.apache.commons.compress.compressors.gzip.GzipParameters;
+import net.jpountz.lz4.LZ4FrameInputStream;
+import net.jpountz.lz4.LZ4FrameOutputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+import org.tukaani.xz.XZInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.Enumeration;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 /**
  * Service class that handles file compression and decompression operations.
  */
 public class CompressionService {
     private static final Logger logger = LoggerFactory.getLogger(CompressionService.class);
-    private static final int BUFFER_SIZE = 8192;
+    // Chunk handed to the compressors; the file buffers underneath are much bigger (see CompressionOptions)
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long PARALLEL_ZIP_THRESHOLD = 1024 * 1024;
+    // The tar reader/decoder thread runs up to 64 chunks of 256 KB (16 MB) ahead
+    private static final int TAR_CHUNK_SIZE = 256 * 1024;
+    private static final int TAR_CHUNKS_AHEAD = 64;
+    
+    private final CompressionOptions options;
+    
+    /**
+     * Creates a service with the default options.
+     */
+    public CompressionService() {
+        this(new CompressionOptions());
+    }
+    
+    /**
+     * Creates a service with custom options (worker count, block sizes, etc).
+     * 
+     * @param options The options to use
+     */
+    public CompressionService(CompressionOptions options) {
+        this.options = options;
+    }
     
     /**
      * Compresses a file using the specified algorithm.
@@ -35,7 +84,7 @@ public class CompressionService {
      * @param sourceFile The file to compress
      * @param outputFile The output file
      * @param algorithm The compression algorithm to use
-     * @param compressionLevel The compression level (1-9)
+     * @param compressionLevel The compression level (1-9, or 1-19 for ZSTD)
      * @param preserveStructure Whether to preserve directory structure for directories
      * @param progressCallback Callback for progress updates
      * @return The compression ratio (output size / input size)
@@ -44,27 +93,112 @@ public class CompressionService {
     public double compressFile(File sourceFile, File outputFile, CompressionAlgorithm algorithm,
                               int compressionLevel, boolean preserveStructure,
                               Consumer<Double> progressCallback) throws IOException {
+        return compressFile(sourceFile, outputFile, algorithm, compressionLevel, preserveStructure, null,
+                            progressCallback);
+    }
+    
+    /**
+     * Compresses a file using the specified algorithm, reusing a directory manifest if we already have one.
+     * 
+     * @param sourceFile The file to compress
+     * @param outputFile The output file
+     * @param algorithm The compression algorithm to use
+     * @param compressionLevel The compression level (1-9, or 1-19 for ZSTD)
+     * @param preserveStructure Whether to preserve directory structure for directories
+     * @param manifest The manifest of the source directory, or null to scan it here
+     * @param progressCallback Callback for progress updates
+     * @return The compression ratio (output size / input size)
+     * @throws IOException If an I/O error occurs
+     */
+    public double compressFile(File sourceFile, File outputFile, CompressionAlgorithm algorithm,
+                              int compressionLevel, boolean preserveStructure, FileManifest manifest,
+                              Consumer<Double> progressCallback) throws IOException {
+        return compressFileWithProgress(sourceFile, outputFile, algorithm, compressionLevel, preserveStructure,
+                                        manifest, toListener(progressCallback));
+    }
+    
+    /**
+     * Compresses a file, reporting throughput, byte counts and ETA along with the progress.
+     * If the options ask for digests, they're worked out from the same reads and written next to the
+     * output (see {@link CompressionOptions#getDigests}).
+     * 
+     * @param sourceFile The file to compress
+     * @param outputFile The output file
+     * @param algorithm The compression algorithm to use
+     * @param compressionLevel The compression level (1-9, or 1-19 for ZSTD)
+     * @param preserveStructure Whether to preserve directory structure for directories
+     * @param manifest The manifest of the source directory, or null to scan it here
+     * @param progressListener Receives rate-limited progress updates (may be null)
+     * @return The compression ratio (output size / input size)
+     * @throws IOException If an I/O error occurs
+     */
+    public double compressFileWithProgress(File sourceFile, File outputFile, CompressionAlgorithm algorithm,
+                                           int compressionLevel, boolean preserveStructure, FileManifest manifest,
+                                           ProgressListener progressListener) throws IOException {
+        if (options.getDigests().isEmpty()) {
+            return compressFile(sourceFile, outputFile, algorithm, compressionLevel, preserveStructure, manifest,
+                                progressListener, null);
+        }
+        
+        // The digests come from the same reads as the compression, worked out on threads of their own
+        try (DigestTee digests = new DigestTee(options.getDigests())) {
+            double compressionRatio = compressFile(sourceFile, outputFile, algorithm, compressionLevel,
+                                                   preserveStructure, manifest, progressListener, digests);
+            File manifestFile = DigestTee.manifestFileFor(outputFile);
+            int entryCount = digests.write(manifestFile);
+            logger.info("Wrote {} of {} entries to {}", options.getDigests(), entryCount, manifestFile.getName());
+            return compressionRatio;
+        }
+    }
+    
+    /**
+     * Compresses a file, passing everything read through the digests if there are any.
+     */
+    private double compressFile(File sourceFile, File outputFile, CompressionAlgorithm algorithm,
+                               int compressionLevel, boolean preserveStructure, FileManifest manifest,
+                               ProgressListener progressListener, DigestTee digests) throws IOException {
         logger.info("Compressing file: {} to {} using {}", sourceFile.getAbsolutePath(), 
                    outputFile.getAbsolutePath(), algorithm);
         
         // Make sure the compression level is valid
-        int level = Math.max(1, Math.min(9, compressionLevel));
+        int level = algorithm.clampLevel(compressionLevel);
         
         // Create parent directories if needed
         if (outputFile.getParentFile() != null) {
             outputFile.getParentFile().mkdirs();
         }
         
-        long inputSize = calculateTotalSize(sourceFile);
+        // Walk a directory only once; the same manifest gives us the total size and the file list
+        if (sourceFile.isDirectory() && manifest == null) {
+            manifest = DirectoryScanner.scan(sourceFile);
+        }
+        
+        // Everything but ZIP holds a single stream, so directories go in as a tar
+        if (manifest != null && algorithm != CompressionAlgorithm.ZIP) {
+            return compressDirectoryToTar(sourceFile, outputFile, algorithm, level, preserveStructure, manifest,
+                                          digests, progressListener);
+        }
+        
+        long inputSize = manifest != null ? manifest.getTotalSize() : sourceFile.length();
+        ProgressTracker progress = newTracker(progressListener, inputSize);
         
         // Choose the appropriate compression method
         switch (algorithm) {
             case ZIP:
-                return compressWithZip(sourceFile, outputFile, level, preserveStructure, inputSize, progressCallback);
+                return compressWithZip(sourceFile, outputFile, level, preserveStructure, manifest, inputSize,
+                                       digests, progress);
             case GZIP:
-                return compressWithGzip(sourceFile, outputFile, level, inputSize, progressCallback);
+                return compressWithGzip(sourceFile, outputFile, level, inputSize, digests, progress);
             case BZIP2:
-                return compressWithBzip2(sourceFile, outputFile, level, inputSize, progressCallback);
+                return compressWithBzip2(sourceFile, outputFile, level, inputSize, digests, progress);
+            case LZ4:
+                return compressWithLz4(sourceFile, outputFile, level, inputSize, digests, progress);
+            case ZSTD:
+                return compressWithZstd(sourceFile, outputFile, level, inputSize, digests, progress);
+            case XZ:
+                return compressWithXz(sourceFile, outputFile, level, inputSize, digests, progress);
+            case CHUNKED:
+                return compressWithChunked(sourceFile, outputFile, level, inputSize, digests, progress);
             default:
                 throw new IllegalArgumentException("Unsupported compression algorithm: " + algorithm);
         }
@@ -82,6 +216,21 @@ public class CompressionService {
      */
     public double decompressFile(File sourceFile, File outputPath, CompressionAlgorithm algorithm,
                                 Consumer<Double> progressCallback) throws IOException {
+        return decompressFileWithProgress(sourceFile, outputPath, algorithm, toListener(progressCallback));
+    }
+    
+    /**
+     * Decompresses a file, reporting throughput, byte counts and ETA along with the progress.
+     * 
+     * @param sourceFile The compressed file
+     * @param outputPath The output directory or file
+     * @param algorithm The compression algorithm
+     * @param progressListener Receives rate-limited progress updates (may be null)
+     * @return The decompression ratio (output size / input size)
+     * @throws IOException If an I/O error occurs
+     */
+    public double decompressFileWithProgress(File sourceFile, File outputPath, CompressionAlgorithm algorithm,
+                                             ProgressListener progressListener) throws IOException {
         logger.info("Decompressing file: {} to {} using {}", sourceFile.getAbsolutePath(), 
                    outputPath.getAbsolutePath(), algorithm);
         
@@ -91,312 +240,1394 @@ public class CompressionService {
         }
         
         long inputSize = sourceFile.length();
+        ProgressTracker progress = newTracker(progressListener, inputSize);
+        
+        // .tar.gz and friends are decoded and extracted in one pass, without a .tar in between
+        if (algorithm != CompressionAlgorithm.ZIP && FileUtils.isTarArchive(sourceFile)) {
+            return decompressTarball(sourceFile, outputPath, algorithm, inputSize, progress);
+        }
         
         // Choose the appropriate decompression method
         switch (algorithm) {
             case ZIP:
-                return decompressZip(sourceFile, outputPath, inputSize, progressCallback);
+                return decompressZip(sourceFile, outputPath, inputSize, progress);
             case GZIP:
-                return decompressGzip(sourceFile, outputPath, inputSize, progressCallback);
+                return decompressGzip(sourceFile, outputPath, inputSize, progress);
             case BZIP2:
-                return decompressBzip2(sourceFile, outputPath, inputSize, progressCallback);
+                return decompressBzip2(sourceFile, outputPath, inputSize, progress);
+            case LZ4:
+                return decompressLz4(sourceFile, outputPath, inputSize, progress);
+            case ZSTD:
+                return decompressZstd(sourceFile, outputPath, inputSize, progress);
+            case XZ:
+                return decompressXz(sourceFile, outputPath, inputSize, progress);
+            case CHUNKED:
+                return decompressChunked(sourceFile, outputPath, inputSize, progress);
             default:
                 throw new IllegalArgumentException("Unsupported compression algorithm: " + algorithm);
         }
     }
     
     /**
-     * Calculates the total size of a file or directory.
+     * Compresses a stream into another, e.g. stdin into stdout. Everything but ZIP can be streamed.
+     * The output is finished but not closed, so the caller can keep writing to it.
      * 
-     * @param file The file or directory
-     * @return The total size in bytes
-     */
-    private long calculateTotalSize(File file) {
-        if (file.isFile()) {
-            return file.length();
-        } else if (file.isDirectory()) {
-            long size = 0;
-            File[] files = file.listFiles();
-            if (files != null) {
-                for (File f : files) {
-                    size += calculateTotalSize(f);
+     * @param input The data to compress
+     * @param output Where the compressed data goes
+     * @param algorithm GZIP, BZIP2, LZ4, ZSTD, XZ or CHUNKED
+     * @param compressionLevel The compression level (1-9, or 1-19 for ZSTD)
+     * @param progressListener Receives rate-limited progress updates (may be null)
+     * @return The number of bytes read from the input
+     * @throws IOException If an I/O error occurs
+     */
+    public long compressStream(InputStream input, OutputStream output, CompressionAlgorithm algorithm,
+                               int compressionLevel, ProgressListener progressListener) throws IOException {
+        return compressStream(input, output, algorithm, algorithm.clampLevel(compressionLevel), -1,
+                              newTracker(progressListener, 0));
+    }
+    
+    /**
+     * Compresses a stream. The input size is only a hint for picking the parallel paths; an unknown
+     * size (-1) counts as big, so all workers get used whenever we're allowed to.
+     */
+    private long compressStream(InputStream input, OutputStream output, CompressionAlgorithm algorithm, int level,
+                                long inputSize, ProgressTracker progress) throws IOException {
+        CountingOutputStream out = new CountingOutputStream(output);
+        long sizeHint = inputSize < 0 ? Long.MAX_VALUE : inputSize;
+        long bytesRead;
+        switch (algorithm) {
+            case GZIP:
+                if (isAdaptive() || options.useParallel(sizeHint, options.getGzipBlockSize())) {
+                    AdaptiveLevelController adaptiveLevel = newAdaptiveLevel(algorithm, level);
+                    long start = System.nanoTime();
+                    bytesRead = newParallelGzip(level, adaptiveLevel, null).compress(
+                            input, out, bytes -> progress.update(bytes, out.getCount()));
+                    reportAdaptiveLevel(adaptiveLevel, bytesRead, System.nanoTime() - start);
+                } else {
+                    GzipParameters parameters = new GzipParameters();
+                    parameters.setCompressionLevel(level);
+                    GzipCompressorOutputStream gzipOut = new GzipCompressorOutputStream(out, parameters);
+                    bytesRead = copy(input, gzipOut, out, progress);
+                    gzipOut.finish();
                 }
-            }
-            return size;
+                break;
+            case BZIP2:
+                if (options.useParallel(sizeHint, ParallelBzip2Compressor.chunkSize(level))) {
+                    ParallelBzip2Compressor compressor = new ParallelBzip2Compressor(level, options.getWorkerCount());
+                    bytesRead = compressor.compress(input, out, bytes -> progress.update(bytes, out.getCount()));
+                } else {
+                    BZip2CompressorOutputStream bzip2Out = new BZip2CompressorOutputStream(out, level);
+                    bytesRead = copy(input, bzip2Out, out, progress);
+                    bzip2Out.finish();
+                }
+                break;
+            case LZ4:
+                if (options.useParallel(sizeHint, options.getLz4FrameSize())) {
+                    ParallelLz4Compressor compressor = new ParallelLz4Compressor(level, options.getLz4FrameSize(),
+                                                                                 options.getWorkerCount());
+                    bytesRead = compressor.compress(input, out, bytes -> progress.update(bytes, out.getCount()));
+                } else {
+                    // Closing the frame stream is the only way to finish it, so shield the caller's stream
+                    try (LZ4FrameOutputStream lz4Out = ParallelLz4Compressor.newFrameOutputStream(
+                            new NonClosingOutputStream(out), level, inputSize)) {
+                        bytesRead = copy(input, lz4Out, out, progress);
+                    }
+                }
+                break;
+            case ZSTD:
+                // zstd runs its own workers, so there's no separate parallel path
+                try (ZstdOutputStream zstdOut = ZstdStreams.newOutputStream(new NonClosingOutputStream(out), level,
+                                                                            options, inputSize)) {
+                    bytesRead = copy(input, zstdOut, out, progress);
+                }
+                break;
+            case XZ:
+                ParallelXzCompressor xzCompressor = new ParallelXzCompressor(level, options.getXzBlockSize(),
+                                                                             options.useParallel(sizeHint, 0)
+                                                                                 ? options.getWorkerCount() : 1);
+                bytesRead = xzCompressor.compress(input, out, bytes -> progress.update(bytes, out.getCount()));
+                break;
+            case CHUNKED:
+                bytesRead = newChunkedCompressor(level, sizeHint).compress(
+                        input, out, bytes -> progress.update(bytes, out.getCount()));
+                break;
+            default:
+                throw new IllegalArgumentException(algorithm
+                                                   + " can't be streamed, use GZIP, BZIP2, LZ4, ZSTD, XZ or CHUNKED");
         }
-        return 0;
+        
+        out.flush();
+        progress.finish(bytesRead, out.getCount());
+        return bytesRead;
     }
     
     /**
-     * Compresses a file or directory using ZIP compression.
+     * Decompresses a stream into another, e.g. stdin into stdout. Everything but ZIP can be streamed.
+     * Concatenated streams (as written by the parallel compressors or by cat) are read completely.
+     * 
+     * @param input The compressed data
+     * @param output Where the decompressed data goes (not closed)
+     * @param algorithm GZIP, BZIP2, LZ4, ZSTD, XZ or CHUNKED
+     * @param progressListener Receives rate-limited progress updates (may be null)
+     * @return The number of bytes written to the output
+     * @throws IOException If an I/O error occurs or the data is corrupt
      */
-    private double compressWithZip(File sourceFile, File outputFile, int level, boolean preserveStructure,
-                                   long totalSize, Consumer<Double> progressCallback) throws IOException {
-        long bytesProcessed = 0;
+    public long decompressStream(InputStream input, OutputStream output, CompressionAlgorithm algorithm,
+                                 ProgressListener progressListener) throws IOException {
+        return decompressStream(input, output, algorithm, newTracker(progressListener, 0));
+    }
+    
+    /**
+     * Checks that a compressed file decodes cleanly, without writing anything.
+     * GZIP, BZIP2, LZ4, ZSTD and XZ check their own checksums while decoding, CHUNKED checks every chunk's CRC32C;
+     * BZIP2, XZ and CHUNKED are decoded on all cores like they are when extracting. ZIP entries are checked in
+     * parallel against the CRC and size in the central directory, see {@link #testZipEntries}.
+     * 
+     * @param sourceFile The compressed file
+     * @param algorithm The compression algorithm
+     * @param progressListener Receives rate-limited progress updates (may be null)
+     * @return The number of uncompressed bytes checked
+     * @throws IOException If the file can't be read or is corrupt
+     */
+    public long testFile(File sourceFile, CompressionAlgorithm algorithm,
+                         ProgressListener progressListener) throws IOException {
+        long inputSize = sourceFile.length();
+        ProgressTracker progress = newTracker(progressListener, inputSize);
         
-        try (ZipArchiveOutputStream zipOutput = new ZipArchiveOutputStream(outputFile)) {
-            zipOutput.setLevel(level);
-            
-            if (sourceFile.isFile()) {
-                // Compress a single file
-                bytesProcessed = compressSingleFileToZip(sourceFile, zipOutput, "", totalSize, progressCallback);
-            } else if (sourceFile.isDirectory()) {
-                // Compress a directory
-                String basePath = preserveStructure ? sourceFile.getName() + File.separator : "";
-                bytesProcessed = compressDirectoryToZip(sourceFile, zipOutput, basePath, totalSize, progressCallback);
-            }
+        switch (algorithm) {
+            case ZIP:
+                List<EntryTestResult> results = testZipEntries(sourceFile, progress);
+                long bytesChecked = 0;
+                int failed = 0;
+                EntryTestResult firstFailure = null;
+                for (EntryTestResult result : results) {
+                    bytesChecked += result.getSize();
+                    if (!result.isOk()) {
+                        failed++;
+                        firstFailure = firstFailure == null ? result : firstFailure;
+                    }
+                }
+                if (firstFailure != null) {
+                    throw new IOException(failed + " of " + results.size() + " entries are corrupt, first "
+                                          + firstFailure.getName() + ": " + firstFailure.getError());
+                }
+                return bytesChecked;
+            case BZIP2:
+                if (options.useParallel(inputSize, ParallelBzip2Compressor.chunkSize(9))) {
+                    try (InputStream in = openInput(sourceFile)) {
+                        CountingOutputStream out = new CountingOutputStream(OutputStream.nullOutputStream());
+                        long bytesOut = new ParallelBzip2Decompressor(options.getWorkerCount()).decompress(
+                                in, out, compressedBytes -> progress.update(compressedBytes, out.getCount()));
+                        progress.finish(inputSize, bytesOut);
+                        return bytesOut;
+                    } catch (ParallelBzip2Decompressor.UnsplittableInputException e) {
+                        // A block that fails its CRC lands here too; the plain decoder below names the problem
+                        logger.warn("Falling back to single-threaded BZIP2 test: {}", e.getMessage());
+                    }
+                }
+                break;
+            case XZ:
+                if (options.useParallel(inputSize, 0) && ParallelXzDecompressor.blockCount(sourceFile) > 1) {
+                    CountingOutputStream out = new CountingOutputStream(OutputStream.nullOutputStream());
+                    long bytesOut = new ParallelXzDecompressor(options.getWorkerCount()).decompress(
+                            sourceFile, out, compressedBytes -> progress.update(compressedBytes, out.getCount()));
+                    progress.finish(inputSize, bytesOut);
+                    return bytesOut;
+                }
+                break;
+            default:
+                break;
         }
         
-        // Calculate compression ratio
-        double compressionRatio = (double) outputFile.length() / totalSize;
-        logger.info("Compression complete. Compression ratio: {}", compressionRatio);
-        
-        return compressionRatio;
+        // CHUNKED goes parallel in here on its own
+        try (InputStream in = openInput(sourceFile)) {
+            return decompressStream(in, OutputStream.nullOutputStream(), algorithm, progress);
+        }
     }
     
     /**
-     * Compresses a single file into a ZIP archive.
+     * Checks every file entry of a ZIP file without extracting it: each one is decoded, on all cores for
+     * big archives, and its CRC32 and size compared with the central directory. A corrupt entry doesn't
+     * stop the others from being checked.
+     * 
+     * @param sourceFile The ZIP file
+     * @param progressListener Receives rate-limited progress updates (may be null)
+     * @return One result per file entry, in archive order
+     * @throws IOException If the archive itself can't be read
      */
-    private long compressSingleFileToZip(File file, ZipArchiveOutputStream zipOutput, String basePath,
-                                        long totalSize, Consumer<Double> progressCallback) throws IOException {
-        if (file == null || !file.exists()) {
-            return 0;
+    public List<EntryTestResult> testZipEntries(File sourceFile, ProgressListener progressListener) throws IOException {
+        return testZipEntries(sourceFile, newTracker(progressListener, sourceFile.length()));
+    }
+    
+    private List<EntryTestResult> testZipEntries(File sourceFile, ProgressTracker progress) throws IOException {
+        ZipIndex index = ZipIndex.of(sourceFile);
+        long totalSize = sourceFile.length();
+        long totalUncompressedSize = index.getTotalSize();
+        int workers = options.useParallel(totalUncompressedSize, PARALLEL_ZIP_THRESHOLD)
+                && index.getEntries().size() > 1 ? options.getWorkerCount() : 1;
+        
+        List<EntryTestResult> results;
+        try (FileChannel archive = FileChannel.open(sourceFile.toPath(), StandardOpenOption.READ)) {
+            // Like extracting, the archive bytes consumed are estimated from the output
+            results = new ParallelZipExtractor(workers, options.getIoBufferSize()).test(archive, index.getEntries(),
+                    bytesDone -> progress.update(totalUncompressedSize > 0
+                            ? (long) ((double) bytesDone / totalUncompressedSize * totalSize) : 0, bytesDone));
         }
         
-        String entryName = basePath + file.getName();
-        ZipArchiveEntry entry = new ZipArchiveEntry(file, entryName);
-        zipOutput.putArchiveEntry(entry);
+        long bytesChecked = 0;
+        int failed = 0;
+        for (EntryTestResult result : results) {
+            bytesChecked += result.getSize();
+            failed += result.isOk() ? 0 : 1;
+        }
+        progress.finish(totalSize, bytesChecked);
+        logger.info("Tested {} entries of {} ({} workers): {} corrupt", results.size(), sourceFile, workers, failed);
         
-        long bytesProcessed = 0;
+        return results;
+    }
+    
+    /**
+     * Lists the entries of a compressed file. GZIP, BZIP2, LZ4, ZSTD, XZ and CHUNKED files hold a single entry; the
+     * uncompressed size of a BZIP2, LZ4 or ZSTD file isn't reliably stored, so it's reported as unknown.
+     * 
+     * @param sourceFile The compressed file
+     * @param algorithm The compression algorithm
+     * @return The entries, in archive order
+     * @throws IOException If the file can't be read
+     */
+    public List<ArchiveEntryInfo> listEntries(File sourceFile, CompressionAlgorithm algorithm) throws IOException {
+        List<ArchiveEntryInfo> entries = new ArrayList<>();
         
-        try (FileInputStream fis = new FileInputStream(file);
-             BufferedInputStream bis = new BufferedInputStream(fis)) {
-            
-            byte[] buffer = new byte[BUFFER_SIZE];
-            int read;
-            
-            while ((read = bis.read(buffer)) != -1) {
-                zipOutput.write(buffer, 0, read);
-                bytesProcessed += read;
-                
-                if (progressCallback != null && totalSize > 0) {
-                    progressCallback.accept((double) bytesProcessed / totalSize);
+        switch (algorithm) {
+            case ZIP:
+                // The central directory is cached, so listing an archive again (or extracting from it) is quick
+                for (ZipArchiveEntry entry : ZipIndex.of(sourceFile).getEntries()) {
+                    entries.add(ZipIndex.describe(entry));
                 }
-            }
+                break;
+            case GZIP:
+                String name = stripExtension(sourceFile.getName(), ".gz");
+                long modified = -1;
+                try (GzipCompressorInputStream gzipIn = new GzipCompressorInputStream(openInput(sourceFile))) {
+                    // The header is parsed when the stream is opened
+                    if (gzipIn.getMetaData().getFilename() != null) {
+                        name = gzipIn.getMetaData().getFilename();
+                    }
+                    if (gzipIn.getMetaData().getModificationTime() > 0) {
+                        modified = gzipIn.getMetaData().getModificationTime();
+                    }
+                }
+                entries.add(new ArchiveEntryInfo(name, readGzipSize(sourceFile), sourceFile.length(), modified, false));
+                break;
+            case BZIP2:
+                entries.add(new ArchiveEntryInfo(stripExtension(sourceFile.getName(), ".bz2"), -1,
+                                                 sourceFile.length(), -1, false));
+                break;
+            case LZ4:
+                entries.add(new ArchiveEntryInfo(stripExtension(sourceFile.getName(), ".lz4"), -1,
+                                                 sourceFile.length(), -1, false));
+                break;
+            case ZSTD:
+                entries.add(new ArchiveEntryInfo(stripExtension(sourceFile.getName(), ".zst"), -1,
+                                                 sourceFile.length(), -1, false));
+                break;
+            case XZ:
+                // The block index at the end of the file has the total size, no decoding needed
+                entries.add(new ArchiveEntryInfo(stripExtension(sourceFile.getName(), ".xz"),
+                                                 ParallelXzDecompressor.uncompressedSize(sourceFile),
+                                                 sourceFile.length(), -1, false));
+                break;
+            case CHUNKED:
+                // So does the chunked format's trailer
+                try (FileChannel channel = FileChannel.open(sourceFile.toPath(), StandardOpenOption.READ)) {
+                    entries.add(new ArchiveEntryInfo(stripExtension(sourceFile.getName(), ChunkedFormat.EXTENSION),
+                                                     ChunkedFormat.Index.read(channel).getUncompressedSize(),
+                                                     sourceFile.length(), -1, false));
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported compression algorithm: " + algorithm);
         }
         
-        zipOutput.closeArchiveEntry();
-        return bytesProcessed;
+        return entries;
     }
     
     /**
-     * Recursively compresses a directory into a ZIP archive.
+     * Finds the entries of a ZIP file that match any of the patterns. A pattern is an entry name (a
+     * directory name takes everything below it) or a glob like {@code conf/*.yml}, where {@code **}
+     * also crosses directories.
+     * 
+     * @param archive The ZIP file
+     * @param patterns Entry names or globs
+     * @return The matching entries, in archive order
+     * @throws IOException If the file can't be read
      */
-    private long compressDirectoryToZip(File directory, ZipArchiveOutputStream zipOutput, String basePath,
-                                       long totalSize, Consumer<Double> progressCallback) throws IOException {
-        if (directory == null || !directory.exists() || !directory.isDirectory()) {
-            return 0;
+    public List<ArchiveEntryInfo> findEntries(File archive, List<String> patterns) throws IOException {
+        List<ArchiveEntryInfo> entries = new ArrayList<>();
+        for (ZipArchiveEntry entry : ZipIndex.of(archive).find(patterns)) {
+            entries.add(ZipIndex.describe(entry));
+        }
+        return entries;
+    }
+    
+    /**
+     * Writes one entry of a ZIP file to a stream. Only that entry's bytes are read, so this takes
+     * the same time in a 40 GB archive as in a small one.
+     * 
+     * @param archive The ZIP file
+     * @param entryName The exact entry name
+     * @param output Where the content goes (not closed)
+     * @param progressListener Receives rate-limited progress updates (may be null)
+     * @return The number of bytes written
+     * @throws FileNotFoundException If the archive has no such file entry
+     * @throws IOException If the file can't be read or the entry is corrupt
+     */
+    public long extractEntry(File archive, String entryName, OutputStream output,
+                             ProgressListener progressListener) throws IOException {
+        ZipArchiveEntry entry = ZipIndex.of(archive).getEntry(entryName);
+        if (entry == null || entry.isDirectory()) {
+            throw new FileNotFoundException("No such entry: " + entryName);
+        }
+        return writeZipEntries(archive, List.of(entry), output, progressListener);
+    }
+    
+    /**
+     * Writes every file entry that matches the patterns to a stream, one after another in archive
+     * order (like unzip -p). See {@link #findEntries} for the patterns.
+     * 
+     * @param archive The ZIP file
+     * @param patterns Entry names or globs
+     * @param output Where the content goes (not closed)
+     * @param progressListener Receives rate-limited progress updates (may be null)
+     * @return The number of bytes written
+     * @throws FileNotFoundException If nothing matches
+     * @throws IOException If the file can't be read or an entry is corrupt
+     */
+    public long extractEntries(File archive, List<String> patterns, OutputStream output,
+                               ProgressListener progressListener) throws IOException {
+        List<ZipArchiveEntry> entries = ZipIndex.of(archive).find(patterns);
+        entries.removeIf(ZipArchiveEntry::isDirectory);
+        if (entries.isEmpty()) {
+            throw new FileNotFoundException("No entries match " + String.join(", ", patterns));
+        }
+        return writeZipEntries(archive, entries, output, progressListener);
+    }
+    
+    /**
+     * Extracts the entries of a ZIP file that match the patterns below a directory, keeping their
+     * paths. See {@link #findEntries} for the patterns.
+     * 
+     * @param archive The ZIP file
+     * @param patterns Entry names or globs
+     * @param outputDirectory Where to put them
+     * @param progressListener Receives rate-limited progress updates (may be null)
+     * @return The entries extracted
+     * @throws FileNotFoundException If nothing matches
+     * @throws IOException If the file can't be read or written, or an entry points outside the output directory
+     */
+    public List<ArchiveEntryInfo> extractEntries(File archive, List<String> patterns, File outputDirectory,
+                                                 ProgressListener progressListener) throws IOException {
+        List<ZipArchiveEntry> entries = ZipIndex.of(archive).find(patterns);
+        if (entries.isEmpty()) {
+            throw new FileNotFoundException("No entries match " + String.join(", ", patterns));
         }
         
-        long bytesProcessed = 0;
-        File[] files = directory.listFiles();
-        
-        if (files != null) {
-            for (File file : files) {
-                if (file.isFile()) {
-                    bytesProcessed += compressSingleFileToZip(file, zipOutput, basePath, totalSize, progressCallback);
-                } else if (file.isDirectory()) {
-                    String newBasePath = basePath + file.getName() + File.separator;
-                    bytesProcessed += compressDirectoryToZip(file, zipOutput, newBasePath, totalSize, progressCallback);
-                }
-            }
+        long compressedSize = 0;
+        List<ArchiveEntryInfo> extracted = new ArrayList<>(entries.size());
+        for (ZipArchiveEntry entry : entries) {
+            compressedSize += Math.max(0, entry.getCompressedSize());
+            extracted.add(ZipIndex.describe(entry));
         }
         
-        return bytesProcessed;
+        logger.info("Extracting {} entries of {} to {}", entries.size(), archive.getAbsolutePath(),
+                   outputDirectory.getAbsolutePath());
+        extractZipEntries(archive, entries, outputDirectory, compressedSize,
+                          newTracker(progressListener, compressedSize));
+        return extracted;
     }
     
     /**
-     * Compresses a file using GZIP compression.
+     * Builds the random access index of a GZIP file in one pass and writes it next to the file
+     * (name.gz.gzidx), for {@link #readGzipRange}. Files written by the block-wise GZIP compressor
+     * or pigz get a checkpoint about every interval; files from plain gzip only one per member.
+     * 
+     * @param gzipFile The GZIP file
+     * @param checkpointInterval Uncompressed bytes between checkpoints, or 0 for the default (8 MB)
+     * @return The number of checkpoints
+     * @throws IOException If the file can't be read or isn't valid GZIP, or the index can't be written
      */
-    private double compressWithGzip(File sourceFile, File outputFile, int level, long totalSize,
-                                   Consumer<Double> progressCallback) throws IOException {
-        if (!sourceFile.isFile()) {
-            throw new IllegalArgumentException("GZIP compression only supports single files, not directories");
+    public int indexGzip(File gzipFile, long checkpointInterval) throws IOException {
+        long start = System.nanoTime();
+        GzipIndex index = GzipIndex.scan(gzipFile, checkpointInterval > 0 ? checkpointInterval
+                : GzipIndex.DEFAULT_INTERVAL);
+        index.write(gzipFile);
+        logger.info("Indexed {} in {} ms: {} checkpoints over {} bytes", gzipFile.getAbsolutePath(),
+                   (System.nanoTime() - start) / 1_000_000, index.getCheckpointCount(), index.getUncompressedSize());
+        return index.getCheckpointCount();
+    }
+    
+    /**
+     * Reads a range of the uncompressed content of a GZIP file. Inflating starts at the nearest
+     * checkpoint of the file's index instead of at the beginning, so the end of a 30 GB log takes
+     * milliseconds. Without an up-to-date index saved by {@link #indexGzip} one is built in memory
+     * for this read only, which costs a full pass every time; nothing is written next to the file.
+     * <p>
+     * Checkpoints only go at member starts and sync flushes. A file from plain gzip is one member
+     * without any, so every range of it is inflated from byte 0, index or not.
+     * 
+     * @param gzipFile The GZIP file
+     * @param offset Where to start in the uncompressed content; negative counts back from the end
+     * @param length Most bytes to read, or -1 for everything up to the end
+     * @param output Where the bytes go (not closed)
+     * @param listener Gets the bytes written so far as both in and out (may be null)
+     * @return The number of bytes written
+     * @throws IOException If the file can't be read or is corrupt
+     */
+    public long readGzipRange(File gzipFile, long offset, long length, OutputStream output,
+                              ProgressListener listener) throws IOException {
+        GzipIndex index = GzipIndex.load(gzipFile);
+        if (index == null) {
+            long interval = options.getGzipCheckpointInterval() > 0 ? options.getGzipCheckpointInterval()
+                    : GzipIndex.DEFAULT_INTERVAL;
+            index = GzipIndex.scan(gzipFile, interval);
+            logger.info("No index next to {}, built one for this read only", gzipFile.getAbsolutePath());
+        }
+        if (index.getCheckpointCount() == 1) {
+            logger.info("{} has no checkpoints past the start, reading from the beginning",
+                       gzipFile.getAbsolutePath());
         }
         
-        // Create GzipParameters and set the compression level
-        GzipParameters parameters = new GzipParameters();
-        parameters.setCompressionLevel(level);
+        long start = offset < 0 ? Math.max(0, index.getUncompressedSize() + offset) : offset;
+        long remaining = length < 0 ? Long.MAX_VALUE : length;
+        if (start >= index.getUncompressedSize()) {
+            return 0;
+        }
         
-        try (FileInputStream fis = new FileInputStream(sourceFile);
-             BufferedInputStream bis = new BufferedInputStream(fis);
-             FileOutputStream fos = new FileOutputStream(outputFile);
-             GzipCompressorOutputStream gzipOut = new GzipCompressorOutputStream(fos, parameters)) {
-            
-            byte[] buffer = new byte[BUFFER_SIZE];
+        ProgressTracker progress = newTracker(listener, Math.min(remaining, index.getUncompressedSize() - start));
+        long bytesOut = 0;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (FileChannel channel = FileChannel.open(gzipFile.toPath(), StandardOpenOption.READ);
+             InputStream in = index.open(channel, start)) {
             int read;
-            long bytesProcessed = 0;
-            
-            while ((read = bis.read(buffer)) != -1) {
-                gzipOut.write(buffer, 0, read);
-                bytesProcessed += read;
-                
-                if (progressCallback != null && totalSize > 0) {
-                    progressCallback.accept((double) bytesProcessed / totalSize);
-                }
+            while (remaining > 0 && (read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+                output.write(buffer, 0, read);
+                bytesOut += read;
+                remaining -= read;
+                progress.update(bytesOut, bytesOut);
             }
         }
+        progress.finish(bytesOut, bytesOut);
+        logger.info("Read {} bytes of {} at offset {}", bytesOut, gzipFile.getAbsolutePath(), start);
         
-        double compressionRatio = (double) outputFile.length() / totalSize;
-        logger.info("GZIP compression complete. Compression ratio: {}", compressionRatio);
-        
-        return compressionRatio;
+        return bytesOut;
     }
     
     /**
-     * Compresses a file using BZIP2 compression.
+     * Reads a range of the uncompressed content of a chunked (.jcz) file. Only the chunks that
+     * overlap the range are read, and they're decoded on all cores.
+     * 
+     * @param chunkedFile The chunked file
+     * @param offset Where to start in the uncompressed content; negative counts back from the end
+     * @param length Most bytes to read, or -1 for everything up to the end
+     * @param output Where the bytes go (not closed)
+     * @param listener Gets the bytes written so far as both in and out (may be null)
+     * @return The number of bytes written
+     * @throws IOException If the file can't be read or is corrupt
      */
-    private double compressWithBzip2(File sourceFile, File outputFile, int level, long totalSize,
-                                    Consumer<Double> progressCallback) throws IOException {
-        if (!sourceFile.isFile()) {
-            throw new IllegalArgumentException("BZIP2 compression only supports single files, not directories");
-        }
-        
-        try (FileInputStream fis = new FileInputStream(sourceFile);
-             BufferedInputStream bis = new BufferedInputStream(fis);
-             FileOutputStream fos = new FileOutputStream(outputFile);
-             BZip2CompressorOutputStream bzip2Out = new BZip2CompressorOutputStream(fos, level)) {
+    public long readChunkedRange(File chunkedFile, long offset, long length, OutputStream output,
+                                 ProgressListener listener) throws IOException {
+        try (FileChannel channel = FileChannel.open(chunkedFile.toPath(), StandardOpenOption.READ)) {
+            ChunkedFormat.Index index = ChunkedFormat.Index.read(channel);
+            long start = offset < 0 ? Math.max(0, index.getUncompressedSize() + offset) : offset;
+            long wanted = Math.max(0, Math.min(length < 0 ? Long.MAX_VALUE : length,
+                                               index.getUncompressedSize() - start));
             
-            byte[] buffer = new byte[BUFFER_SIZE];
-            int read;
-            long bytesProcessed = 0;
+            ProgressTracker progress = newTracker(listener, wanted);
+            ParallelChunkedDecompressor decompressor = new ParallelChunkedDecompressor(
+                    options.isParallel() ? options.getWorkerCount() : 1);
+            long bytesOut = decompressor.readRange(channel, index, start, wanted, output,
+                                                   bytes -> progress.update(bytes, bytes));
+            progress.finish(bytesOut, bytesOut);
+            logger.info("Read {} bytes of {} at offset {}", bytesOut, chunkedFile.getAbsolutePath(), start);
             
-            while ((read = bis.read(buffer)) != -1) {
-                bzip2Out.write(buffer, 0, read);
-                bytesProcessed += read;
-                
-                if (progressCallback != null && totalSize > 0) {
-                    progressCallback.accept((double) bytesProcessed / totalSize);
-                }
-            }
+            return bytesOut;
         }
-        
-        double compressionRatio = (double) outputFile.length() / totalSize;
-        logger.info("BZIP2 compression complete. Compression ratio: {}", compressionRatio);
-        
-        return compressionRatio;
     }
     
     /**
-     * Decompresses a ZIP file.
+     * Copies entries of a ZIP file to a stream, one after another.
      */
-    private double decompressZip(File sourceFile, File outputPath, long totalSize,
-                                Consumer<Double> progressCallback) throws IOException {
-        long bytesProcessed = 0;
-        long totalUncompressedSize = 0;
-        
-        // First, create output directory if it doesn't exist
-        if (!outputPath.exists()) {
-            outputPath.mkdirs();
+    private long writeZipEntries(File archive, List<ZipArchiveEntry> entries, OutputStream output,
+                                 ProgressListener progressListener) throws IOException {
+        long compressedSize = 0;
+        for (ZipArchiveEntry entry : entries) {
+            compressedSize += Math.max(0, entry.getCompressedSize());
         }
+        ProgressTracker progress = newTracker(progressListener, compressedSize);
         
-        // Get total uncompressed size to calculate progress
-        try (ZipFile zipFile = new ZipFile(sourceFile)) {
-            Enumeration<ZipArchiveEntry> entries = zipFile.getEntries();
-            
-            while (entries.hasMoreElements()) {
-                ZipArchiveEntry entry = entries.nextElement();
-                totalUncompressedSize += entry.getSize();
-            }
-            
-            // Now extract all entries
-            entries = zipFile.getEntries();
-            while (entries.hasMoreElements()) {
-                ZipArchiveEntry entry = entries.nextElement();
-                File entryFile = new File(outputPath, entry.getName());
-                
-                if (entry.isDirectory()) {
-                    // Create directory
-                    entryFile.mkdirs();
-                } else {
-                    // Create parent directories if needed
-                    if (entryFile.getParentFile() != null) {
-                        entryFile.getParentFile().mkdirs();
-                    }
-                    
-                    // Extract file
-                    try (InputStream is = zipFile.getInputStream(entry);
-                         BufferedInputStream bis = new BufferedInputStream(is);
-                         FileOutputStream fos = new FileOutputStream(entryFile);
-                         BufferedOutputStream bos = new BufferedOutputStream(fos)) {
-                        
-                        byte[] buffer = new byte[BUFFER_SIZE];
-                        int read;
-                        
-                        while ((read = bis.read(buffer)) != -1) {
-                            bos.write(buffer, 0, read);
-                            bytesProcessed += read;
-                            
-                            if (progressCallback != null && totalUncompressedSize > 0) {
-                                progressCallback.accept((double) bytesProcessed / totalUncompressedSize);
-                            }
-                        }
+        long bytesIn = 0;
+        long bytesOut = 0;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (FileChannel channel = FileChannel.open(archive.toPath(), StandardOpenOption.READ)) {
+            for (ZipArchiveEntry entry : entries) {
+                try (InputStream in = ZipIndex.openEntry(channel, entry)) {
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        output.write(buffer, 0, read);
+                        bytesOut += read;
+                        progress.update(bytesIn, bytesOut);
                     }
                 }
+                bytesIn += Math.max(0, entry.getCompressedSize());
             }
         }
+        progress.finish(bytesIn, bytesOut);
+        logger.info("Wrote {} entries of {} ({} bytes) to a stream", entries.size(), archive.getAbsolutePath(),
+                   bytesOut);
         
-        double decompressionRatio = totalUncompressedSize > 0 ? (double) totalUncompressedSize / totalSize : 1.0;
-        logger.info("ZIP decompression complete. Decompression ratio: {}", decompressionRatio);
-        
-        return decompressionRatio;
+        return bytesOut;
     }
     
     /**
-     * Decompresses a GZIP file.
+     * Compresses every file below a directory into its own file next to it (app.log -> app.log.gz),
+     * several files at a time with one worker per file. The biggest files start first, so a big one
+     * doesn't start last and hold up the end of the run. Archives are skipped, and so are media, office
+     * files and anything else that looks compressed already, by type or by a sample of its bytes
+     * (see {@link CompressionOptions#getSkipEntropy}).
+     * 
+     * @param directory The directory to walk
+     * @param algorithm GZIP, BZIP2, LZ4, ZSTD or XZ
+     * @param compressionLevel The compression level (1-9, or 1-19 for ZSTD)
+     * @param deleteOriginals Whether to delete each original once its compressed copy decodes to the same CRC32;
+     *                        the files are then read without memory-mapping, so nothing holds them open
+     * @param progressListener Receives rate-limited progress for the whole run (may be null)
+     * @return One result per file, biggest first; a failed file doesn't stop the others
+     * @throws IOException If the directory can't be scanned
      */
-    private double decompressGzip(File sourceFile, File outputFile, long totalSize,
-                                 Consumer<Double> progressCallback) throws IOException {
-        // For GZIP, output path should be a file, not a directory
-        if (outputFile.exists() && outputFile.isDirectory()) {
-            // If output is a directory, create a file in that directory with source name minus .gz
-            String fileName = sourceFile.getName();
-            if (fileName.toLowerCase().endsWith(".gz")) {
-                fileName = fileName.substring(0, fileName.length() - 3);
+    public List<FileCompressionResult> compressEachFile(File directory, CompressionAlgorithm algorithm,
+                                                        int compressionLevel, boolean deleteOriginals,
+                                                        ProgressListener progressListener) throws IOException {
+        if (!directory.isDirectory()) {
+            throw new IllegalArgumentException("Not a directory: " + directory);
+        }
+        if (algorithm == CompressionAlgorithm.ZIP) {
+            throw new IllegalArgumentException("Files can't be zipped separately, use GZIP, BZIP2, LZ4, ZSTD or XZ");
+        }
+        int level = algorithm.clampLevel(compressionLevel);
+        
+        List<FileManifest.Entry> files = new ArrayList<>();
+        long totalSize = 0;
+        int skipped = 0;
+        for (FileManifest.Entry entry : DirectoryScanner.scan(directory).getEntries()) {
+            File file = entry.getPath().toFile();
+            if (FileUtils.isCompressedFile(file) || isDigestManifest(file)) {
+                continue;
             }
-            outputFile = new File(outputFile, fileName);
+            if (looksCompressed(file, entry.getSize())) {
+                skipped++;
+                continue;
+            }
+            files.add(entry);
+            totalSize += entry.getSize();
+        }
+        if (skipped > 0) {
+            logger.info("Left {} files alone that look compressed already", skipped);
         }
+        files.sort(Comparator.comparingLong(FileManifest.Entry::getSize).reversed());
         
-        // Create parent directories if needed
-        if (outputFile.getParentFile() != null) {
-            outputFile.getParentFile().mkdirs();
+        // Files are the unit of parallelism here, so each one is compressed single-threaded
+        CompressionOptions fileOptions = new CompressionOptions(options);
+        fileOptions.setParallel(false);
+        if (deleteOriginals) {
+            // A mapped file can't be deleted on Windows until the GC unmaps it, which may be never
+            fileOptions.setMemoryMapThreshold(0);
         }
+        CompressionService fileService = new CompressionService(fileOptions);
+        int workers = options.isParallel() ? Math.max(1, Math.min(options.getWorkerCount(), files.size())) : 1;
         
-        long bytesProcessed = 0;
+        ProgressTracker progress = newTracker(progressListener, totalSize);
+        AtomicLong bytesIn = new AtomicLong();
+        AtomicLong bytesOut = new AtomicLong();
+        List<Future<FileCompressionResult>> futures = new ArrayList<>(files.size());
+        List<FileCompressionResult> results = new ArrayList<>(files.size());
         
-        try (FileInputStream fis = new FileInputStream(sourceFile);
-             GzipCompressorInputStream gzipIn = new GzipCompressorInputStream(fis);
-             BufferedInputStream bis = new BufferedInputStream(gzipIn);
-             FileOutputStream fos = new FileOutputStream(outputFile);
-             BufferedOutputStream bos = new BufferedOutputStream(fos)) {
-            
-            byte[] buffer = new byte[BUFFER_SIZE];
+        ExecutorService pool = ParallelBlockProcessor.newWorkerPool("file-compressor", workers);
+        try {
+            for (FileManifest.Entry entry : files) {
+                // Each file reports its own totals; the differences add up to the run's totals
+                long[] last = new long[2];
+                ProgressListener fileListener = snapshot -> {
+                    long in = bytesIn.addAndGet(snapshot.getBytesIn() - last[0]);
+                    long out = bytesOut.addAndGet(snapshot.getBytesOut() - last[1]);
+                    last[0] = snapshot.getBytesIn();
+                    last[1] = snapshot.getBytesOut();
+                    synchronized (progress) {
+                        progress.update(in, out);
+                    }
+                };
+                futures.add(pool.submit(() -> fileService.compressSeparately(
+                        entry.getPath().toFile(), algorithm, level, deleteOriginals,
+                        fileService.newTracker(fileListener, entry.getSize()))));
+            }
+            for (Future<FileCompressionResult> future : futures) {
+                results.add(ParallelBlockProcessor.awaitResult(future));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        progress.finish(bytesIn.get(), bytesOut.get());
+        
+        long failed = results.stream().filter(result -> !result.isSuccess()).count();
+        logger.info("Compressed {} files separately with {} workers, {} failed", results.size(), workers, failed);
+        
+        return results;
+    }
+    
+    /**
+     * Checks if compressing a file on its own would only burn CPU time. A file that can't be sampled is
+     * compressed anyway, and fails there with a proper message.
+     */
+    private boolean looksCompressed(File file, long size) {
+        if (!options.skipsIncompressible()) {
+            return false;
+        }
+        try {
+            return ZipMethodSelector.isIncompressible(file, size, options.getSkipEntropy());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+    
+    /**
+     * Checks if a file is the digest manifest of a compressed file next to it, which a later run shouldn't compress.
+     */
+    private static boolean isDigestManifest(File file) {
+        String path = file.getPath();
+        int end = path.length() - DigestTee.EXTENSION.length();
+        return path.endsWith(DigestTee.EXTENSION) && FileUtils.isCompressedFile(new File(path.substring(0, end)));
+    }
+    
+    /**
+     * Compresses one file into a new file next to it and, if asked, deletes the original once the
+     * compressed copy decodes back to the same bytes. Failures are returned, not thrown.
+     */
+    private FileCompressionResult compressSeparately(File sourceFile, CompressionAlgorithm algorithm, int level,
+                                                     boolean deleteOriginal, ProgressTracker progress) {
+        File outputFile = new File(sourceFile.getPath() + "." + algorithm.getExtension());
+        long lastModified = sourceFile.lastModified();
+        long bytesRead = 0;
+        boolean created = false;
+        boolean verified = false;
+        
+        try {
+            if (outputFile.exists()) {
+                throw new IOException(outputFile.getName() + " already exists");
+            }
+            created = true;
+            
+            CRC32 crc = new CRC32();
+            try (DigestTee digests = options.getDigests().isEmpty() ? null : new DigestTee(options.getDigests());
+                 InputStream in = new CheckedInputStream(openSource(sourceFile, digests), crc);
+                 OutputStream out = openOutput(outputFile)) {
+                bytesRead = compressStream(in, out, algorithm, level, sourceFile.length(), progress);
+                if (digests != null) {
+                    digests.write(DigestTee.manifestFileFor(outputFile));
+                }
+            }
+            outputFile.setLastModified(lastModified);
+            
+            if (!deleteOriginal) {
+                return new FileCompressionResult(sourceFile, outputFile, bytesRead, outputFile.length(), false, null);
+            }
+            
+            verifyCompressedCopy(outputFile, algorithm, bytesRead, crc.getValue());
+            verified = true;
+            // A log that's still being written to would lose its new lines
+            if (sourceFile.length() != bytesRead || sourceFile.lastModified() != lastModified) {
+                throw new IOException("changed while it was being compressed, kept the original");
+            }
+            Files.delete(sourceFile.toPath());
+            return new FileCompressionResult(sourceFile, outputFile, bytesRead, outputFile.length(), true, null);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Couldn't compress {} separately: {}", sourceFile, e.toString());
+            // Only a copy that decoded fine is worth keeping
+            if (created && !verified) {
+                outputFile.delete();
+                DigestTee.manifestFileFor(outputFile).delete();
+            }
+            return new FileCompressionResult(sourceFile, outputFile, bytesRead, verified ? outputFile.length() : -1,
+                                             false, e.getMessage() != null ? e.getMessage() : e.toString());
+        }
+    }
+    
+    /**
+     * Decodes a compressed file and checks it gives back the expected length and CRC32.
+     */
+    private void verifyCompressedCopy(File compressedFile, CompressionAlgorithm algorithm, long expectedLength,
+                                      long expectedCrc) throws IOException {
+        CRC32 crc = new CRC32();
+        long length;
+        try (InputStream in = openDecoder(openInput(compressedFile), algorithm)) {
+            length = new CheckedInputStream(in, crc).transferTo(OutputStream.nullOutputStream());
+        }
+        if (length != expectedLength || crc.getValue() != expectedCrc) {
+            throw new IOException("compressed copy of " + compressedFile.getName() + " doesn't match the original");
+        }
+    }
+    
+    /**
+     * Compresses a file or directory using ZIP compression.
+     */
+    private double compressWithZip(File sourceFile, File outputFile, int level, boolean preserveStructure,
+                                   FileManifest manifest, long totalSize, DigestTee digests,
+                                   ProgressTracker progress) throws IOException {
+        long bytesProcessed = 0;
+        
+        try (ZipArchiveOutputStream zipOutput = new ZipArchiveOutputStream(outputFile)) {
+            zipOutput.setLevel(level);
+            
+            if (manifest == null) {
+                // Compress a single file
+                ZipArchiveEntry entry = new ZipArchiveEntry(sourceFile, sourceFile.getName());
+                bytesProcessed = compressSingleFileToZip(sourceFile, entry, zipOutput, level, 0, digests,
+                                                         progress);
+            } else {
+                // Compress a directory
+                String basePath = preserveStructure ? sourceFile.getName() + "/" : "";
+                if (options.useParallel(totalSize, PARALLEL_ZIP_THRESHOLD)) {
+                    bytesProcessed = compressDirectoryToZipParallel(manifest, zipOutput, basePath, level,
+                                                                    totalSize, digests, progress);
+                } else {
+                    bytesProcessed = compressDirectoryToZip(manifest, zipOutput, basePath, level, digests,
+                                                            progress);
+                }
+            }
+        }
+        
+        long outputSize = outputFile.length();
+        progress.finish(bytesProcessed, outputSize);
+        
+        // Calculate compression ratio
+        double compressionRatio = (double) outputSize / totalSize;
+        logger.info("Compression complete. Compression ratio: {}", compressionRatio);
+        
+        return compressionRatio;
+    }
+    
+    /**
+     * Compresses a directory as a tarball (.tar.gz, .tar.bz2, ...). A reader thread packs the files into
+     * the tar while the compressor works through what was already read, so lots of small files don't
+     * leave the compressor waiting on disk.
+     */
+    private double compressDirectoryToTar(File sourceDir, File outputFile, CompressionAlgorithm algorithm, int level,
+                                          boolean preserveStructure, FileManifest manifest, DigestTee digests,
+                                          ProgressListener progressListener) throws IOException {
+        String basePath = preserveStructure ? sourceDir.getName() + "/" : "";
+        int ioBufferSize = options.getIoBufferSize();
+        long tarSize = TarStreams.estimateSize(manifest);
+        ProgressTracker progress = newTracker(progressListener, tarSize);
+        
+        try (InputStream tar = ChunkPipe.start("tar-reader", TAR_CHUNK_SIZE, TAR_CHUNKS_AHEAD,
+                                               out -> TarStreams.write(manifest, basePath, out, ioBufferSize, digests));
+             OutputStream out = openOutput(outputFile)) {
+            compressStream(tar, out, algorithm, level, tarSize, progress);
+        }
+        
+        double compressionRatio = (double) outputFile.length() / manifest.getTotalSize();
+        logger.info("Compressed {} files into a {} tarball. Compression ratio: {}", manifest.getFileCount(),
+                   algorithm, compressionRatio);
+        
+        return compressionRatio;
+    }
+    
+    /**
+     * Compresses a single file into a ZIP archive.
+     * Files that disappeared since they were listed are skipped, and files that won't shrink are STORED:
+     * the ones the sample picks out straight away, and the ones whose deflated bytes turn out no smaller.
+     * Like in the parallel creator, that second check needs the entry buffered, so entries bigger than
+     * the ZIP memory buffer limit are streamed through the deflater and kept however they come out.
+     * 
+     * @param bytesBefore Bytes already written by earlier entries (for progress)
+     */
+    private long compressSingleFileToZip(File file, ZipArchiveEntry entry, ZipArchiveOutputStream zipOutput,
+                                        int level, long bytesBefore, DigestTee digests,
+                                        ProgressTracker progress) throws IOException {
+        InputStream input;
+        try {
+            input = openInput(file);
+        } catch (NoSuchFileException e) {
+            if (file.exists()) {
+                throw e;
+            }
+            logger.warn("Skipping file that no longer exists: {}", file);
+            return 0;
+        }
+        
+        if (options.isZipStoreIncompressible()) {
+            try {
+                entry.setMethod(ZipMethodSelector.select(file, entry.getSize()));
+            } catch (IOException | RuntimeException e) {
+                input.close();
+                throw e;
+            }
+        }
+        if (entry.getMethod() != ZipArchiveEntry.STORED && entry.getSize() >= 0
+                && entry.getSize() <= options.getZipMemoryBufferLimit()) {
+            return deflateBufferedToZip(input, entry, zipOutput, level, bytesBefore, digests, progress);
+        }
+        zipOutput.putArchiveEntry(entry);
+        
+        long bytesProcessed = 0;
+        
+        try (InputStream in = digests != null ? digests.wrap(entry.getName(), input) : input) {
+            
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            
+            while ((read = in.read(buffer)) != -1) {
+                zipOutput.write(buffer, 0, read);
+                bytesProcessed += read;
+                
+                progress.update(bytesBefore + bytesProcessed, zipOutput.getBytesWritten());
+            }
+        }
+        
+        zipOutput.closeArchiveEntry();
+        return bytesProcessed;
+    }
+    
+    /**
+     * Deflates an entry into memory first, so it can still be STORED if deflate didn't make it any smaller.
+     * The bytes are then inflated back out of the buffer, so the file isn't read (or digested) twice.
+     */
+    private long deflateBufferedToZip(InputStream input, ZipArchiveEntry entry, ZipArchiveOutputStream zipOutput,
+                                      int level, long bytesBefore, DigestTee digests,
+                                      ProgressTracker progress) throws IOException {
+        ByteArrayOutputStream deflatedBytes = new ByteArrayOutputStream();
+        CRC32 crc = new CRC32();
+        Deflater deflater = new Deflater(level, true);
+        long size = 0;
+        
+        try (InputStream in = digests != null ? digests.wrap(entry.getName(), input) : input;
+             DeflaterOutputStream deflated = new DeflaterOutputStream(deflatedBytes, deflater, BUFFER_SIZE)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                deflated.write(buffer, 0, read);
+                crc.update(buffer, 0, read);
+                size += read;
+                progress.update(bytesBefore + size, zipOutput.getBytesWritten());
+            }
+            deflated.finish();
+        } finally {
+            deflater.end();
+        }
+        
+        entry.setSize(size);
+        entry.setCrc(crc.getValue());
+        byte[] raw = deflatedBytes.toByteArray();
+        if (raw.length < size) {
+            entry.setMethod(ZipArchiveEntry.DEFLATED);
+            entry.setCompressedSize(raw.length);
+            zipOutput.addRawArchiveEntry(entry, new ByteArrayInputStream(raw));
+            return size;
+        }
+        
+        entry.setMethod(ZipArchiveEntry.STORED);
+        entry.setCompressedSize(size);
+        Inflater inflater = new Inflater(true);
+        try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(raw), inflater, BUFFER_SIZE)) {
+            zipOutput.addRawArchiveEntry(entry, in);
+        } finally {
+            inflater.end();
+        }
+        return size;
+    }
+    
+    /**
+     * Compresses all files of a directory manifest into a ZIP archive.
+     */
+    private long compressDirectoryToZip(FileManifest manifest, ZipArchiveOutputStream zipOutput, String basePath,
+                                       int level, DigestTee digests, ProgressTracker progress) throws IOException {
+        long bytesProcessed = 0;
+        int storedCount = 0;
+        
+        for (FileManifest.Entry entry : manifest.getEntries()) {
+            // Size and time come from the manifest, so no extra stat calls here
+            ZipArchiveEntry zipEntry = new ZipArchiveEntry(basePath + entry.getRelativeName());
+            zipEntry.setTime(entry.getLastModified());
+            zipEntry.setSize(entry.getSize());
+            bytesProcessed += compressSingleFileToZip(entry.getPath().toFile(), zipEntry, zipOutput, level,
+                                                      bytesProcessed, digests, progress);
+            if (zipEntry.getMethod() == ZipArchiveEntry.STORED) {
+                storedCount++;
+            }
+        }
+        
+        logger.info("Stored {} of {} ZIP entries without deflating", storedCount, manifest.getFileCount());
+        return bytesProcessed;
+    }
+    
+    /**
+     * Compresses a directory into a ZIP archive, deflating several entries at the same time.
+     */
+    private long compressDirectoryToZipParallel(FileManifest manifest, ZipArchiveOutputStream zipOutput,
+                                               String basePath, int level, long totalSize, DigestTee digests,
+                                               ProgressTracker progress) throws IOException {
+        List<ParallelZipCreator.Source> sources = new ArrayList<>(manifest.getFileCount());
+        for (FileManifest.Entry entry : manifest.getEntries()) {
+            sources.add(new ParallelZipCreator.Source(entry.getPath().toFile(), basePath + entry.getRelativeName(),
+                                                      entry.getSize(), entry.getLastModified()));
+        }
+        
+        ParallelZipCreator creator = new ParallelZipCreator(level, options.getWorkerCount(),
+                                                            options.getZipMemoryBufferLimit(),
+                                                            options.getZipDiskBufferLimit(),
+                                                            options.getIoBufferSize(),
+                                                            options.getMemoryMapThreshold(),
+                                                            options.isZipStoreIncompressible());
+        long bytesProcessed = creator.write(sources, zipOutput, digests,
+                                            bytesDone -> progress.update(bytesDone, zipOutput.getBytesWritten()));
+        
+        logger.info("Deflated {} ZIP entries with {} workers, stored {} without deflating",
+                   sources.size() - creator.getStoredCount(), options.getWorkerCount(), creator.getStoredCount());
+        return bytesProcessed;
+    }
+    
+    /**
+     * Compresses a file using GZIP compression.
+     */
+    private double compressWithGzip(File sourceFile, File outputFile, int level, long totalSize,
+                                   DigestTee digests, ProgressTracker progress) throws IOException {
+        if (!sourceFile.isFile()) {
+            throw new IllegalArgumentException("GZIP compression only supports single files, not directories");
+        }
+        
+        // Create GzipParameters and set the compression level
+        GzipParameters parameters = new GzipParameters();
+        parameters.setCompressionLevel(level);
+        
+        // Big files get deflated block by block on all cores, and so does everything with a target speed
+        // or an index (the blocks are where the checkpoints go)
+        if (isAdaptive() || options.getGzipCheckpointInterval() > 0
+                || options.useParallel(totalSize, options.getGzipBlockSize())) {
+            return compressWithParallelGzip(sourceFile, outputFile, level, totalSize, digests, progress);
+        }
+        
+        try (InputStream in = openSource(sourceFile, digests);
+             CountingOutputStream out = new CountingOutputStream(openOutput(outputFile));
+             GzipCompressorOutputStream gzipOut = new GzipCompressorOutputStream(out, parameters)) {
+            
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            long bytesProcessed = 0;
+            
+            while ((read = in.read(buffer)) != -1) {
+                gzipOut.write(buffer, 0, read);
+                bytesProcessed += read;
+                
+                progress.update(bytesProcessed, out.getCount());
+            }
+        }
+        
+        long outputSize = outputFile.length();
+        progress.finish(totalSize, outputSize);
+        
+        double compressionRatio = (double) outputSize / totalSize;
+        logger.info("GZIP compression complete. Compression ratio: {}", compressionRatio);
+        
+        return compressionRatio;
+    }
+    
+    /**
+     * Compresses a file into a single GZIP member using several threads.
+     */
+    private double compressWithParallelGzip(File sourceFile, File outputFile, int level, long totalSize,
+                                           DigestTee digests, ProgressTracker progress) throws IOException {
+        AdaptiveLevelController adaptiveLevel = newAdaptiveLevel(CompressionAlgorithm.GZIP, level);
+        GzipIndex checkpoints = options.getGzipCheckpointInterval() > 0
+                ? new GzipIndex(options.getGzipCheckpointInterval()) : null;
+        ParallelGzipCompressor compressor = newParallelGzip(level, adaptiveLevel, checkpoints);
+        long start = System.nanoTime();
+        
+        try (InputStream in = openSource(sourceFile, digests);
+             CountingOutputStream out = new CountingOutputStream(openOutput(outputFile))) {
+            
+            compressor.compress(in, out, bytesProcessed -> progress.update(bytesProcessed, out.getCount()));
+        }
+        reportAdaptiveLevel(adaptiveLevel, totalSize, System.nanoTime() - start);
+        if (checkpoints != null) {
+            checkpoints.write(outputFile);
+            logger.info("Wrote {} GZIP checkpoints to {}", checkpoints.getCheckpointCount(),
+                       GzipIndex.indexFileFor(outputFile).getName());
+        }
+        
+        long outputSize = outputFile.length();
+        progress.finish(totalSize, outputSize);
+        
+        double compressionRatio = (double) outputSize / totalSize;
+        logger.info("Parallel GZIP compression complete ({} workers). Compression ratio: {}",
+                   options.getWorkerCount(), compressionRatio);
+        
+        return compressionRatio;
+    }
+    
+    /**
+     * Creates the block-wise GZIP compressor. Without parallelism it still works block by block on
+     * one worker, which is what lets an adaptive level change between blocks.
+     */
+    private ParallelGzipCompressor newParallelGzip(int level, AdaptiveLevelController adaptiveLevel,
+                                                   GzipIndex checkpoints) {
+        int workerCount = options.isParallel() ? options.getWorkerCount() : 1;
+        return new ParallelGzipCompressor(level, options.getGzipBlockSize(), workerCount, adaptiveLevel,
+                                          checkpoints);
+    }
+    
+    private boolean isAdaptive() {
+        return options.getTargetMegabytesPerSecond() > 0;
+    }
+    
+    /**
+     * Creates a controller that moves the level to keep up with the target speed, or null if no target is set.
+     */
+    private AdaptiveLevelController newAdaptiveLevel(CompressionAlgorithm algorithm, int level) {
+        if (!isAdaptive()) {
+            return null;
+        }
+        int workerCount = options.isParallel() ? options.getWorkerCount() : 1;
+        return new AdaptiveLevelController(options.getTargetMegabytesPerSecond(), level, algorithm.getMinLevel(),
+                                           algorithm.getMaxLevel(), workerCount);
+    }
+    
+    private void reportAdaptiveLevel(AdaptiveLevelController adaptiveLevel, long totalBytes, long nanos) {
+        if (adaptiveLevel != null) {
+            logger.info("Adaptive level ran at {} MB/s for a {} MB/s target, levels used: {}",
+                       String.format("%.1f", nanos > 0 ? totalBytes * 1e9 / nanos / (1024 * 1024) : 0),
+                       options.getTargetMegabytesPerSecond(), adaptiveLevel.describePath(totalBytes));
+        }
+    }
+    
+    /**
+     * Compresses a file using BZIP2 compression.
+     */
+    private double compressWithBzip2(File sourceFile, File outputFile, int level, long totalSize,
+                                    DigestTee digests, ProgressTracker progress) throws IOException {
+        if (!sourceFile.isFile()) {
+            throw new IllegalArgumentException("BZIP2 compression only supports single files, not directories");
+        }
+        
+        // Big files get one BZIP2 stream per block, compressed on all cores
+        if (options.useParallel(totalSize, ParallelBzip2Compressor.chunkSize(level))) {
+            return compressWithParallelBzip2(sourceFile, outputFile, level, totalSize, digests, progress);
+        }
+        
+        try (InputStream in = openSource(sourceFile, digests);
+             CountingOutputStream out = new CountingOutputStream(openOutput(outputFile));
+             BZip2CompressorOutputStream bzip2Out = new BZip2CompressorOutputStream(out, level)) {
+            
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            long bytesProcessed = 0;
+            
+            while ((read = in.read(buffer)) != -1) {
+                bzip2Out.write(buffer, 0, read);
+                bytesProcessed += read;
+                
+                progress.update(bytesProcessed, out.getCount());
+            }
+        }
+        
+        long outputSize = outputFile.length();
+        progress.finish(totalSize, outputSize);
+        
+        double compressionRatio = (double) outputSize / totalSize;
+        logger.info("BZIP2 compression complete. Compression ratio: {}", compressionRatio);
+        
+        return compressionRatio;
+    }
+    
+    /**
+     * Compresses a file into back-to-back BZIP2 streams using several threads.
+     */
+    private double compressWithParallelBzip2(File sourceFile, File outputFile, int level, long totalSize,
+                                            DigestTee digests, ProgressTracker progress) throws IOException {
+        ParallelBzip2Compressor compressor = new ParallelBzip2Compressor(level, options.getWorkerCount());
+        
+        try (InputStream in = openSource(sourceFile, digests);
+             CountingOutputStream out = new CountingOutputStream(openOutput(outputFile))) {
+            
+            compressor.compress(in, out, bytesProcessed -> progress.update(bytesProcessed, out.getCount()));
+        }
+        
+        long outputSize = outputFile.length();
+        progress.finish(totalSize, outputSize);
+        
+        double compressionRatio = (double) outputSize / totalSize;
+        logger.info("Parallel BZIP2 compression complete ({} workers). Compression ratio: {}",
+                   options.getWorkerCount(), compressionRatio);
+        
+        return compressionRatio;
+    }
+    
+    /**
+     * Compresses a file using LZ4 compression.
+     */
+    private double compressWithLz4(File sourceFile, File outputFile, int level, long totalSize,
+                                  DigestTee digests, ProgressTracker progress) throws IOException {
+        if (!sourceFile.isFile()) {
+            throw new IllegalArgumentException("LZ4 compression only supports single files, not directories");
+        }
+        
+        // Big files get cut into independent frames, compressed on all cores
+        if (options.useParallel(totalSize, options.getLz4FrameSize())) {
+            return compressWithParallelLz4(sourceFile, outputFile, level, totalSize, digests, progress);
+        }
+        
+        try (InputStream in = openSource(sourceFile, digests);
+             CountingOutputStream out = new CountingOutputStream(openOutput(outputFile));
+             LZ4FrameOutputStream lz4Out = ParallelLz4Compressor.newFrameOutputStream(out, level, totalSize)) {
+            
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            long bytesProcessed = 0;
+            
+            while ((read = in.read(buffer)) != -1) {
+                lz4Out.write(buffer, 0, read);
+                bytesProcessed += read;
+                
+                progress.update(bytesProcessed, out.getCount());
+            }
+        }
+        
+        long outputSize = outputFile.length();
+        progress.finish(totalSize, outputSize);
+        
+        double compressionRatio = (double) outputSize / totalSize;
+        logger.info("LZ4 compression complete. Compression ratio: {}", compressionRatio);
+        
+        return compressionRatio;
+    }
+    
+    /**
+     * Compresses a file using Zstandard. Large files are spread over zstd's own worker threads
+     * and get long-distance matching, see {@link ZstdStreams}.
+     */
+    private double compressWithZstd(File sourceFile, File outputFile, int level, long totalSize,
+                                   DigestTee digests, ProgressTracker progress) throws IOException {
+        if (!sourceFile.isFile()) {
+            throw new IllegalArgumentException("Zstandard compression only supports single files, not directories");
+        }
+        
+        try (InputStream in = openSource(sourceFile, digests);
+             CountingOutputStream out = new CountingOutputStream(openOutput(outputFile));
+             ZstdOutputStream zstdOut = ZstdStreams.newOutputStream(out, level, options, totalSize)) {
+            
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            long bytesProcessed = 0;
+            
+            while ((read = in.read(buffer)) != -1) {
+                zstdOut.write(buffer, 0, read);
+                bytesProcessed += read;
+                
+                progress.update(bytesProcessed, out.getCount());
+            }
+        }
+        
+        long outputSize = outputFile.length();
+        progress.finish(totalSize, outputSize);
+        
+        double compressionRatio = (double) outputSize / totalSize;
+        logger.info("Zstandard compression complete. Compression ratio: {}", compressionRatio);
+        
+        return compressionRatio;
+    }
+    
+    /**
+     * Compresses a file using XZ. The output is always split into indexed blocks, even on one
+     * thread, so it can be decompressed in parallel (and seeked in) later.
+     */
+    private double compressWithXz(File sourceFile, File outputFile, int level, long totalSize,
+                                 DigestTee digests, ProgressTracker progress) throws IOException {
+        if (!sourceFile.isFile()) {
+            throw new IllegalArgumentException("XZ compression only supports single files, not directories");
+        }
+        
+        int workers = options.useParallel(totalSize, 0) ? options.getWorkerCount() : 1;
+        ParallelXzCompressor compressor = new ParallelXzCompressor(level, options.getXzBlockSize(), workers);
+        
+        try (InputStream in = openSource(sourceFile, digests);
+             CountingOutputStream out = new CountingOutputStream(openOutput(outputFile))) {
+            
+            compressor.compress(in, out, bytesProcessed -> progress.update(bytesProcessed, out.getCount()));
+        }
+        
+        long outputSize = outputFile.length();
+        progress.finish(totalSize, outputSize);
+        
+        double compressionRatio = (double) outputSize / totalSize;
+        logger.info("XZ compression complete ({} workers). Compression ratio: {}",
+                   compressor.getWorkerCount(), compressionRatio);
+        
+        return compressionRatio;
+    }
+    
+    /**
+     * Compresses a file into independently compressed chunks with an index at the end. The chunks
+     * are compressed on all cores whenever there's more than one of them.
+     */
+    private double compressWithChunked(File sourceFile, File outputFile, int level, long totalSize,
+                                      DigestTee digests, ProgressTracker progress) throws IOException {
+        if (!sourceFile.isFile()) {
+            throw new IllegalArgumentException("Chunked compression only supports single files, not directories");
+        }
+        
+        ParallelChunkedCompressor compressor = newChunkedCompressor(level, totalSize);
+        try (InputStream in = openSource(sourceFile, digests);
+             CountingOutputStream out = new CountingOutputStream(openOutput(outputFile))) {
+            
+            compressor.compress(in, out, bytesProcessed -> progress.update(bytesProcessed, out.getCount()));
+        }
+        
+        long outputSize = outputFile.length();
+        progress.finish(totalSize, outputSize);
+        
+        double compressionRatio = (double) outputSize / totalSize;
+        long chunkCount = (totalSize + options.getChunkSize() - 1) / options.getChunkSize();
+        logger.info("Chunked compression complete ({} chunks of {}, {} workers). Compression ratio: {}",
+                   chunkCount, options.getChunkCodec(), compressor.getWorkerCount(), compressionRatio);
+        
+        return compressionRatio;
+    }
+    
+    private ParallelChunkedCompressor newChunkedCompressor(int level, long sizeHint) {
+        int workers = options.useParallel(sizeHint, options.getChunkSize()) ? options.getWorkerCount() : 1;
+        return new ParallelChunkedCompressor(options.getChunkCodec(), level, options.getChunkSize(), workers);
+    }
+    
+    /**
+     * Compresses a file into back-to-back LZ4 frames using several threads.
+     */
+    private double compressWithParallelLz4(File sourceFile, File outputFile, int level, long totalSize,
+                                          DigestTee digests, ProgressTracker progress) throws IOException {
+        ParallelLz4Compressor compressor = new ParallelLz4Compressor(level, options.getLz4FrameSize(),
+                                                                     options.getWorkerCount());
+        
+        try (InputStream in = openSource(sourceFile, digests);
+             CountingOutputStream out = new CountingOutputStream(openOutput(outputFile))) {
+            
+            compressor.compress(in, out, bytesProcessed -> progress.update(bytesProcessed, out.getCount()));
+        }
+        
+        long outputSize = outputFile.length();
+        progress.finish(totalSize, outputSize);
+        
+        double compressionRatio = (double) outputSize / totalSize;
+        logger.info("Parallel LZ4 compression complete ({} workers). Compression ratio: {}",
+                   options.getWorkerCount(), compressionRatio);
+        
+        return compressionRatio;
+    }
+    
+    /**
+     * Decompresses a ZIP file.
+     */
+    private double decompressZip(File sourceFile, File outputPath, long totalSize,
+                                ProgressTracker progress) throws IOException {
+        ZipIndex index = ZipIndex.of(sourceFile);
+        extractZipEntries(sourceFile, index.getEntries(), outputPath, totalSize, progress);
+        
+        double decompressionRatio = index.getTotalSize() > 0 ? (double) index.getTotalSize() / totalSize : 1.0;
+        logger.info("ZIP decompression complete. Decompression ratio: {}", decompressionRatio);
+        
+        return decompressionRatio;
+    }
+    
+    /**
+     * Extracts entries of a ZIP file below a directory.
+     * 
+     * @param totalSize Archive bytes the entries take up, for the progress
+     * @return The number of bytes extracted
+     */
+    private long extractZipEntries(File sourceFile, List<ZipArchiveEntry> entries, File outputPath, long totalSize,
+                                   ProgressTracker progress) throws IOException {
+        // Refuse the whole archive before writing anything if one entry would land outside the output
+        // directory, instead of failing halfway through with other entries already written
+        for (ZipArchiveEntry entry : entries) {
+            FileUtils.resolveEntry(outputPath, entry.getName());
+        }
+        
+        // First, create output directory if it doesn't exist
+        if (!outputPath.exists()) {
+            outputPath.mkdirs();
+        }
+        
+        long totalUncompressedSize = 0;
+        for (ZipArchiveEntry entry : entries) {
+            totalUncompressedSize += Math.max(0, entry.getSize());
+        }
+        
+        // The extractor reads the entries at the index's offsets, all through this one channel
+        try (FileChannel archive = FileChannel.open(sourceFile.toPath(), StandardOpenOption.READ)) {
+            // Many small entries are latency bound, so extract on several threads
+            int workers = options.useParallel(totalUncompressedSize, PARALLEL_ZIP_THRESHOLD) && entries.size() > 1
+                    ? options.getWorkerCount() : 1;
+            ParallelZipExtractor extractor = new ParallelZipExtractor(workers, options.getIoBufferSize());
+            
+            // Entries are read out of order, so the archive bytes consumed are estimated from the output
+            long totalBytes = totalUncompressedSize;
+            long bytesProcessed = extractor.extract(archive, entries, outputPath, bytesDone -> {
+                long estimatedIn = totalBytes > 0 ? (long) ((double) bytesDone / totalBytes * totalSize) : 0;
+                progress.update(estimatedIn, bytesDone);
+            });
+            progress.finish(totalSize, bytesProcessed);
+            logger.debug("Extracted {} ZIP entries ({} bytes) with {} workers", entries.size(), bytesProcessed, workers);
+            
+            return bytesProcessed;
+        }
+    }
+    
+    /**
+     * Decompresses a GZIP file.
+     */
+    private double decompressGzip(File sourceFile, File outputFile, long totalSize,
+                                 ProgressTracker progress) throws IOException {
+        // For GZIP, output path should be a file, not a directory
+        if (outputFile.exists() && outputFile.isDirectory()) {
+            // If output is a directory, create a file in that directory with source name minus .gz
+            String fileName = sourceFile.getName();
+            if (fileName.toLowerCase().endsWith(".gz")) {
+                fileName = fileName.substring(0, fileName.length() - 3);
+            }
+            outputFile = new File(outputFile, fileName);
+        }
+        
+        // Create parent directories if needed
+        if (outputFile.getParentFile() != null) {
+            outputFile.getParentFile().mkdirs();
+        }
+        
+        long bytesProcessed = 0;
+        
+        try (FileChannelIO.ChannelInput in = openInput(sourceFile);
+             GzipCompressorInputStream gzipIn = new GzipCompressorInputStream(in, true);
+             OutputStream out = openOutput(outputFile)) {
+            
+            byte[] buffer = new byte[BUFFER_SIZE];
             int read;
             
-            while ((read = bis.read(buffer)) != -1) {
-                bos.write(buffer, 0, read);
+            while ((read = gzipIn.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
                 bytesProcessed += read;
                 
                 // Since we don't know the uncompressed size beforehand,
                 // we'll estimate progress based on input file size
-                if (progressCallback != null && totalSize > 0) {
-                    double progress = Math.min(1.0, (double) fis.getChannel().position() / totalSize);
-                    progressCallback.accept(progress);
-                }
+                progress.update(in.position(), bytesProcessed);
             }
         }
+        progress.finish(totalSize, bytesProcessed);
         
-        double decompressionRatio = (double) outputFile.length() / totalSize;
+        double decompressionRatio = (double) bytesProcessed / totalSize;
         logger.info("GZIP decompression complete. Decompression ratio: {}", decompressionRatio);
         
         return decompressionRatio;
@@ -406,7 +1637,7 @@ public class CompressionService {
      * Decompresses a BZIP2 file.
      */
     private double decompressBzip2(File sourceFile, File outputFile, long totalSize,
-                                  Consumer<Double> progressCallback) throws IOException {
+                                  ProgressTracker progress) throws IOException {
         // For BZIP2, output path should be a file, not a directory
         if (outputFile.exists() && outputFile.isDirectory()) {
             // If output is a directory, create a file in that directory with source name minus .bz2
@@ -422,33 +1653,405 @@ public class CompressionService {
             outputFile.getParentFile().mkdirs();
         }
         
+        // Big files get their blocks decoded on all cores, unless the block boundaries can't be trusted
+        if (options.useParallel(totalSize, ParallelBzip2Compressor.chunkSize(9))) {
+            try {
+                return decompressWithParallelBzip2(sourceFile, outputFile, totalSize, progress);
+            } catch (ParallelBzip2Decompressor.UnsplittableInputException e) {
+                logger.warn("Falling back to single-threaded BZIP2 decompression: {}", e.getMessage());
+            }
+        }
+        
         long bytesProcessed = 0;
         
-        try (FileInputStream fis = new FileInputStream(sourceFile);
-             BZip2CompressorInputStream bzip2In = new BZip2CompressorInputStream(fis);
-             BufferedInputStream bis = new BufferedInputStream(bzip2In);
-             FileOutputStream fos = new FileOutputStream(outputFile);
-             BufferedOutputStream bos = new BufferedOutputStream(fos)) {
+        try (FileChannelIO.ChannelInput in = openInput(sourceFile);
+             BZip2CompressorInputStream bzip2In = new BZip2CompressorInputStream(in, true);
+             OutputStream out = openOutput(outputFile)) {
             
             byte[] buffer = new byte[BUFFER_SIZE];
             int read;
             
-            while ((read = bis.read(buffer)) != -1) {
-                bos.write(buffer, 0, read);
+            while ((read = bzip2In.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
                 bytesProcessed += read;
                 
                 // Since we don't know the uncompressed size beforehand,
                 // we'll estimate progress based on input file size
-                if (progressCallback != null && totalSize > 0) {
-                    double progress = Math.min(1.0, (double) fis.getChannel().position() / totalSize);
-                    progressCallback.accept(progress);
-                }
+                progress.update(in.position(), bytesProcessed);
             }
         }
+        progress.finish(totalSize, bytesProcessed);
         
-        double decompressionRatio = (double) outputFile.length() / totalSize;
+        double decompressionRatio = (double) bytesProcessed / totalSize;
         logger.info("BZIP2 decompression complete. Decompression ratio: {}", decompressionRatio);
         
         return decompressionRatio;
     }
-} 
\ No newline at end of file
+    
+    /**
+     * Decompresses a BZIP2 file by decoding its blocks on several threads.
+     */
+    private double decompressWithParallelBzip2(File sourceFile, File outputFile, long totalSize,
+                                              ProgressTracker progress) throws IOException {
+        ParallelBzip2Decompressor decompressor = new ParallelBzip2Decompressor(options.getWorkerCount());
+        
+        try (InputStream in = openInput(sourceFile);
+             CountingOutputStream out = new CountingOutputStream(openOutput(outputFile))) {
+            
+            decompressor.decompress(in, out, compressedBytes -> progress.update(compressedBytes, out.getCount()));
+        }
+        
+        long outputSize = outputFile.length();
+        progress.finish(totalSize, outputSize);
+        
+        double decompressionRatio = (double) outputSize / totalSize;
+        logger.info("Parallel BZIP2 decompression complete ({} workers). Decompression ratio: {}",
+                   options.getWorkerCount(), decompressionRatio);
+        
+        return decompressionRatio;
+    }
+    
+    /**
+     * Decompresses an LZ4 file. Files made of several frames (from parallel compression) are read completely.
+     */
+    private double decompressLz4(File sourceFile, File outputFile, long totalSize,
+                                ProgressTracker progress) throws IOException {
+        // For LZ4, output path should be a file, not a directory
+        if (outputFile.exists() && outputFile.isDirectory()) {
+            outputFile = new File(outputFile, stripExtension(sourceFile.getName(), ".lz4"));
+        }
+        
+        // Create parent directories if needed
+        if (outputFile.getParentFile() != null) {
+            outputFile.getParentFile().mkdirs();
+        }
+        
+        long bytesProcessed = 0;
+        
+        try (FileChannelIO.ChannelInput in = openInput(sourceFile);
+             LZ4FrameInputStream lz4In = new LZ4FrameInputStream(in);
+             OutputStream out = openOutput(outputFile)) {
+            
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            
+            while ((read = lz4In.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                bytesProcessed += read;
+                
+                progress.update(in.position(), bytesProcessed);
+            }
+        }
+        progress.finish(totalSize, bytesProcessed);
+        
+        double decompressionRatio = (double) bytesProcessed / totalSize;
+        logger.info("LZ4 decompression complete. Decompression ratio: {}", decompressionRatio);
+        
+        return decompressionRatio;
+    }
+    
+    /**
+     * Decompresses a Zstandard file. Concatenated frames are read completely.
+     */
+    private double decompressZstd(File sourceFile, File outputFile, long totalSize,
+                                 ProgressTracker progress) throws IOException {
+        // For ZSTD, output path should be a file, not a directory
+        if (outputFile.exists() && outputFile.isDirectory()) {
+            outputFile = new File(outputFile, stripExtension(sourceFile.getName(), ".zst"));
+        }
+        
+        // Create parent directories if needed
+        if (outputFile.getParentFile() != null) {
+            outputFile.getParentFile().mkdirs();
+        }
+        
+        long bytesProcessed = 0;
+        
+        try (FileChannelIO.ChannelInput in = openInput(sourceFile);
+             InputStream zstdIn = ZstdStreams.newInputStream(in);
+             OutputStream out = openOutput(outputFile)) {
+            
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            
+            while ((read = zstdIn.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                bytesProcessed += read;
+                
+                progress.update(in.position(), bytesProcessed);
+            }
+        }
+        progress.finish(totalSize, bytesProcessed);
+        
+        double decompressionRatio = (double) bytesProcessed / totalSize;
+        logger.info("Zstandard decompression complete. Decompression ratio: {}", decompressionRatio);
+        
+        return decompressionRatio;
+    }
+    
+    /**
+     * Decompresses an XZ file. Files with several blocks have their blocks decoded on all cores.
+     */
+    private double decompressXz(File sourceFile, File outputFile, long totalSize,
+                               ProgressTracker progress) throws IOException {
+        // For XZ, output path should be a file, not a directory
+        if (outputFile.exists() && outputFile.isDirectory()) {
+            outputFile = new File(outputFile, stripExtension(sourceFile.getName(), ".xz"));
+        }
+        
+        // Create parent directories if needed
+        if (outputFile.getParentFile() != null) {
+            outputFile.getParentFile().mkdirs();
+        }
+        
+        if (options.useParallel(totalSize, 0) && ParallelXzDecompressor.blockCount(sourceFile) > 1) {
+            return decompressWithParallelXz(sourceFile, outputFile, totalSize, progress);
+        }
+        
+        long bytesProcessed = 0;
+        
+        try (FileChannelIO.ChannelInput in = openInput(sourceFile);
+             XZInputStream xzIn = new XZInputStream(in);
+             OutputStream out = openOutput(outputFile)) {
+            
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            
+            while ((read = xzIn.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                bytesProcessed += read;
+                
+                progress.update(in.position(), bytesProcessed);
+            }
+        }
+        progress.finish(totalSize, bytesProcessed);
+        
+        double decompressionRatio = (double) bytesProcessed / totalSize;
+        logger.info("XZ decompression complete. Decompression ratio: {}", decompressionRatio);
+        
+        return decompressionRatio;
+    }
+    
+    /**
+     * Decompresses a multi-block XZ file by decoding its blocks on several threads.
+     */
+    private double decompressWithParallelXz(File sourceFile, File outputFile, long totalSize,
+                                           ProgressTracker progress) throws IOException {
+        ParallelXzDecompressor decompressor = new ParallelXzDecompressor(options.getWorkerCount());
+        
+        try (CountingOutputStream out = new CountingOutputStream(openOutput(outputFile))) {
+            decompressor.decompress(sourceFile, out, compressedBytes -> progress.update(compressedBytes, out.getCount()));
+        }
+        
+        long outputSize = outputFile.length();
+        progress.finish(totalSize, outputSize);
+        
+        double decompressionRatio = (double) outputSize / totalSize;
+        logger.info("Parallel XZ decompression complete ({} workers). Decompression ratio: {}",
+                   options.getWorkerCount(), decompressionRatio);
+        
+        return decompressionRatio;
+    }
+    
+    /**
+     * Decompresses a chunked file, decoding its chunks on all cores.
+     */
+    private double decompressChunked(File sourceFile, File outputFile, long totalSize,
+                                    ProgressTracker progress) throws IOException {
+        // Like XZ, the output path should be a file, not a directory
+        if (outputFile.exists() && outputFile.isDirectory()) {
+            outputFile = new File(outputFile, stripExtension(sourceFile.getName(), ChunkedFormat.EXTENSION));
+        }
+        
+        // Create parent directories if needed
+        if (outputFile.getParentFile() != null) {
+            outputFile.getParentFile().mkdirs();
+        }
+        
+        ParallelChunkedDecompressor decompressor = new ParallelChunkedDecompressor(
+                options.useParallel(totalSize, 0) ? options.getWorkerCount() : 1);
+        try (InputStream in = openInput(sourceFile);
+             CountingOutputStream out = new CountingOutputStream(openOutput(outputFile))) {
+            decompressor.decompress(in, out, compressedBytes -> progress.update(compressedBytes, out.getCount()));
+        }
+        
+        long outputSize = outputFile.length();
+        progress.finish(totalSize, outputSize);
+        
+        double decompressionRatio = (double) outputSize / totalSize;
+        logger.info("Chunked decompression complete. Decompression ratio: {}", decompressionRatio);
+        
+        return decompressionRatio;
+    }
+    
+    /**
+     * Decompresses a tarball and extracts it into a directory in one pass. A decoder thread feeds the tar
+     * to the extractor, so decoding and writing out files overlap.
+     */
+    private double decompressTarball(File sourceFile, File outputDir, CompressionAlgorithm algorithm, long totalSize,
+                                     ProgressTracker progress) throws IOException {
+        // BZIP2 stays sequential here: its parallel decoder may have to start over, which a pipe can't undo
+        boolean parallelXz = algorithm == CompressionAlgorithm.XZ && options.useParallel(totalSize, 0)
+                             && ParallelXzDecompressor.blockCount(sourceFile) > 1;
+        boolean parallelChunks = algorithm == CompressionAlgorithm.CHUNKED && options.useParallel(totalSize, 0);
+        AtomicLong compressedBytes = new AtomicLong();
+        long bytesExtracted;
+        
+        try (InputStream tar = ChunkPipe.start("tar-decoder", TAR_CHUNK_SIZE, TAR_CHUNKS_AHEAD, out -> {
+            if (parallelXz) {
+                new ParallelXzDecompressor(options.getWorkerCount()).decompress(sourceFile, out, compressedBytes::set);
+                return;
+            }
+            if (parallelChunks) {
+                try (InputStream in = openInput(sourceFile)) {
+                    new ParallelChunkedDecompressor(options.getWorkerCount()).decompress(in, out, compressedBytes::set);
+                }
+                return;
+            }
+            try (FileChannelIO.ChannelInput in = openInput(sourceFile);
+                 InputStream decoder = openDecoder(in, algorithm)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = decoder.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                    compressedBytes.set(in.position());
+                }
+            }
+        })) {
+            bytesExtracted = TarStreams.extract(tar, outputDir, options.getIoBufferSize(),
+                                                bytes -> progress.update(compressedBytes.get(), bytes));
+            // Read past the end of the tar, so the decoder gets to check the stream's checksum
+            tar.transferTo(OutputStream.nullOutputStream());
+        }
+        progress.finish(totalSize, bytesExtracted);
+        
+        double decompressionRatio = (double) bytesExtracted / totalSize;
+        logger.info("{} tarball extracted to {}. Decompression ratio: {}", algorithm, outputDir, decompressionRatio);
+        
+        return decompressionRatio;
+    }
+    
+    private long decompressStream(InputStream input, OutputStream output, CompressionAlgorithm algorithm,
+                                  ProgressTracker progress) throws IOException {
+        CountingInputStream in = new CountingInputStream(input);
+        // Chunks can be decoded side by side even from a pipe
+        if (algorithm == CompressionAlgorithm.CHUNKED && options.useParallel(Long.MAX_VALUE, 0)) {
+            CountingOutputStream out = new CountingOutputStream(output);
+            long bytesWritten = new ParallelChunkedDecompressor(options.getWorkerCount()).decompress(
+                    in, out, compressedBytes -> progress.update(compressedBytes, out.getCount()));
+            progress.finish(in.getCount(), bytesWritten);
+            return bytesWritten;
+        }
+        
+        InputStream decompressed = openDecoder(in, algorithm);
+        
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long bytesWritten = 0;
+        int read;
+        while ((read = decompressed.read(buffer)) != -1) {
+            output.write(buffer, 0, read);
+            bytesWritten += read;
+            progress.update(in.getCount(), bytesWritten);
+        }
+        output.flush();
+        progress.finish(in.getCount(), bytesWritten);
+        return bytesWritten;
+    }
+    
+    /**
+     * Wraps a compressed stream in the decoder for its algorithm. Concatenated streams are read completely.
+     */
+    private static InputStream openDecoder(InputStream input, CompressionAlgorithm algorithm) throws IOException {
+        switch (algorithm) {
+            case GZIP:
+                return new GzipCompressorInputStream(input, true);
+            case BZIP2:
+                return new BZip2CompressorInputStream(input, true);
+            case LZ4:
+                return new LZ4FrameInputStream(input);
+            case ZSTD:
+                return ZstdStreams.newInputStream(input);
+            case XZ:
+                return new XZInputStream(input);
+            case CHUNKED:
+                return new ChunkedFormat.Decoder(input);
+            default:
+                throw new IllegalArgumentException(algorithm
+                                                   + " can't be streamed, use GZIP, BZIP2, LZ4, ZSTD, XZ or CHUNKED");
+        }
+    }
+    
+    /**
+     * Copies a stream into a compressor. The counter sits below the compressor, so it sees compressed bytes.
+     */
+    private long copy(InputStream input, OutputStream compressor, CountingOutputStream counter,
+                      ProgressTracker progress) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long bytesRead = 0;
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            compressor.write(buffer, 0, read);
+            bytesRead += read;
+            progress.update(bytesRead, counter.getCount());
+        }
+        return bytesRead;
+    }
+    
+    /**
+     * Reads the uncompressed size from a GZIP trailer (ISIZE, the size modulo 4 GB).
+     * Only exact for single-member files, which is what we write.
+     */
+    private static long readGzipSize(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            if (raf.length() < 18) {
+                return -1;
+            }
+            raf.seek(raf.length() - 4);
+            byte[] trailer = new byte[4];
+            raf.readFully(trailer);
+            return (trailer[0] & 0xffL) | (trailer[1] & 0xffL) << 8 | (trailer[2] & 0xffL) << 16
+                    | (trailer[3] & 0xffL) << 24;
+        }
+    }
+    
+    private static String stripExtension(String fileName, String extension) {
+        if (fileName.toLowerCase().endsWith(extension) && fileName.length() > extension.length()) {
+            return fileName.substring(0, fileName.length() - extension.length());
+        }
+        return fileName;
+    }
+    
+    private ProgressTracker newTracker(ProgressListener listener, long totalBytesIn) {
+        return new ProgressTracker(listener, totalBytesIn, options.getProgressIntervalMillis(),
+                                   options.getProgressStep());
+    }
+    
+    /**
+     * Adapts the old fraction-only callback to a progress listener.
+     */
+    private static ProgressListener toListener(Consumer<Double> progressCallback) {
+        return progressCallback == null ? null : progress -> progressCallback.accept(progress.getFraction());
+    }
+    
+    /**
+     * Opens a file for reading with the configured buffer size, memory-mapping it if it's big.
+     */
+    private FileChannelIO.ChannelInput openInput(File file) throws IOException {
+        return FileChannelIO.openInput(file, options.getIoBufferSize(), options.getMemoryMapThreshold());
+    }
+    
+    /**
+     * Opens a file that's about to be compressed, through the digests if there are any.
+     */
+    private InputStream openSource(File file, DigestTee digests) throws IOException {
+        InputStream in = openInput(file);
+        return digests != null ? digests.wrap(file.getName(), in) : in;
+    }
+    
+    /**
+     * Opens a file for writing with the configured buffer size.
+     */
+    private OutputStream openOutput(File file) throws IOException {
+        return FileChannelIO.openOutput(file, options.getIoBufferSize());
+    }
+}
\ No newline at end of file
@@ -1,5 +1,8 @@
 package com.javacompressor.compression;
 
+import com.javacompressor.model.FileManifest;
+import com.javacompressor.model.ProgressSnapshot;
+import com.javacompressor.util.FileUtils;
 import javafx.concurrent.Task;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -18,7 +21,8 @@ public class CompressionTask extends Task<Double> {
     private final CompressionAlgorithm algorithm;
     private final int compressionLevel;
     private final boolean preserveStructure;
-    private final CompressionService compressionService;
+    private final FileManifest manifest;
+    private CompressionService compressionService;
     
     /**
      * Creates a new CompressionTask.
@@ -33,15 +37,65 @@ public class CompressionTask extends Task<Double> {
     public CompressionTask(boolean compress, File sourceFile, File outputFile,
                           CompressionAlgorithm algorithm, int compressionLevel,
                           boolean preserveStructure) {
+        this(compress, sourceFile, outputFile, algorithm, compressionLevel, preserveStructure, null);
+    }
+    
+    /**
+     * Creates a new CompressionTask that reuses an existing directory manifest.
+     * 
+     * @param compress Whether this is a compression (true) or decompression (false) task
+     * @param sourceFile The source file
+     * @param outputFile The output file
+     * @param algorithm The compression algorithm
+     * @param compressionLevel The compression level (for compression only)
+     * @param preserveStructure Whether to preserve directory structure (for compression only)
+     * @param manifest The source directory's manifest, or null to scan when needed
+     */
+    public CompressionTask(boolean compress, File sourceFile, File outputFile,
+                          CompressionAlgorithm algorithm, int compressionLevel,
+                          boolean preserveStructure, FileManifest manifest) {
         this.compress = compress;
         this.sourceFile = sourceFile;
         this.outputFile = outputFile;
         this.algorithm = algorithm;
         this.compressionLevel = compressionLevel;
         this.preserveStructure = preserveStructure;
+        this.manifest = manifest;
         this.compressionService = new CompressionService();
     }
     
+    /**
+     * Swaps in a differently configured service (e.g. fewer worker threads). Must be called before the task runs.
+     */
+    void setCompressionService(CompressionService compressionService) {
+        this.compressionService = compressionService;
+    }
+    
+    /**
+     * Gets the file being compressed or decompressed.
+     */
+    public File getSourceFile() {
+        return sourceFile;
+    }
+    
+    /**
+     * Gets the file or directory being written.
+     */
+    public File getOutputFile() {
+        return outputFile;
+    }
+    
+    /**
+     * Checks if this task compresses (true) or decompresses (false).
+     */
+    public boolean isCompress() {
+        return compress;
+    }
+    
+    public CompressionAlgorithm getAlgorithm() {
+        return algorithm;
+    }
+    
     /**
      * Executes the compression or decompression task.
      * 
@@ -60,13 +114,13 @@ public class CompressionTask extends Task<Double> {
             Double result;
             if (compress) {
                 updateMessage("Compressing file...");
-                result = compressionService.compressFile(sourceFile, outputFile, algorithm, 
-                                                       compressionLevel, preserveStructure, 
-                                                       this::updateProgressInternal);
+                result = compressionService.compressFileWithProgress(sourceFile, outputFile, algorithm,
+                                                                     compressionLevel, preserveStructure, manifest,
+                                                                     this::updateProgressInternal);
             } else {
                 updateMessage("Decompressing file...");
-                result = compressionService.decompressFile(sourceFile, outputFile, algorithm,
-                                                         this::updateProgressInternal);
+                result = compressionService.decompressFileWithProgress(sourceFile, outputFile, algorithm,
+                                                                       this::updateProgressInternal);
             }
             
             updateMessage(operationType + " complete");
@@ -82,17 +136,19 @@ public class CompressionTask extends Task<Double> {
     }
     
     /**
-     * Updates the task progress and checks for cancellation.
+     * Updates the task progress and stats line, and checks for cancellation.
+     * The service already rate limits these calls, so each one can go to the FX thread.
      * 
-     * @param progress The progress value (0-1)
+     * @param progress The current progress
      */
-    private void updateProgressInternal(double progress) {
+    private void updateProgressInternal(ProgressSnapshot progress) {
         // Check if task has been cancelled
         if (isCancelled()) {
             throw new RuntimeException("Task was cancelled");
         }
         
         // Update progress
-        updateProgress(progress, 1);
+        updateProgress(progress.getFraction(), 1);
+        updateMessage((compress ? "Compressing: " : "Decompressing: ") + FileUtils.formatProgress(progress));
     }
 } 
\ No newline at end of file
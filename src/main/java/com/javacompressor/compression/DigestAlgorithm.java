@@ -0,0 +1,117 @@
+package com.javacompressor.compression;
+
+import net.jpountz.xxhash.StreamingXXHash64;
+import net.jpountz.xxhash.XXHashFactory;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.zip.CRC32C;
+
+/**
+ * Digests that can be worked out while a file is compressed and written to a manifest next to it.
+ * The names are the tags used in the manifest lines, like {@code SHA256 (name) = ...}.
+ */
+public enum DigestAlgorithm {
+    CRC32C("CRC32C"),
+    SHA256("SHA256"),
+    XXH64("XXH64");
+    
+    private final String tag;
+    
+    DigestAlgorithm(String tag) {
+        this.tag = tag;
+    }
+    
+    // Gets the name used in manifest lines
+    public String getTag() {
+        return tag;
+    }
+    
+    /**
+     * Finds a digest by its tag, ignoring case and dashes, so "sha-256" and "xxhash" work too
+     */
+    public static DigestAlgorithm fromName(String name) {
+        String key = name.toUpperCase(Locale.ROOT).replace("-", "");
+        for (DigestAlgorithm algorithm : values()) {
+            if (algorithm.tag.equals(key)) {
+                return algorithm;
+            }
+        }
+        if (key.equals("XXHASH") || key.equals("XXHASH64")) {
+            return XXH64;
+        }
+        throw new IllegalArgumentException("unknown digest '" + name + "', use crc32c, sha256 or xxh64");
+    }
+    
+    /**
+     * Starts a new running digest.
+     */
+    Hasher newHasher() {
+        switch (this) {
+            case CRC32C:
+                CRC32C crc = new CRC32C();
+                return new Hasher() {
+                    @Override
+                    public void update(byte[] data, int offset, int length) {
+                        crc.update(data, offset, length);
+                    }
+                    
+                    @Override
+                    public String finish() {
+                        return String.format("%08x", crc.getValue());
+                    }
+                };
+            case SHA256:
+                MessageDigest sha;
+                try {
+                    sha = MessageDigest.getInstance("SHA-256");
+                } catch (NoSuchAlgorithmException e) {
+                    // Every JVM has to have it
+                    throw new IllegalStateException(e);
+                }
+                return new Hasher() {
+                    @Override
+                    public void update(byte[] data, int offset, int length) {
+                        sha.update(data, offset, length);
+                    }
+                    
+                    @Override
+                    public String finish() {
+                        return HexFormat.of().formatHex(sha.digest());
+                    }
+                };
+            case XXH64:
+                // Seed 0, like the xxhsum tool
+                StreamingXXHash64 xxHash = XXHashFactory.fastestInstance().newStreamingHash64(0);
+                return new Hasher() {
+                    @Override
+                    public void update(byte[] data, int offset, int length) {
+                        xxHash.update(data, offset, length);
+                    }
+                    
+                    @Override
+                    public String finish() {
+                        String hex = String.format("%016x", xxHash.getValue());
+                        xxHash.close();
+                        return hex;
+                    }
+                };
+            default:
+                throw new IllegalStateException("No hasher for " + this);
+        }
+    }
+    
+    /**
+     * A digest being worked out. Not thread-safe; each one is only used by one digest thread.
+     */
+    interface Hasher {
+        void update(byte[] data, int offset, int length);
+        
+        /**
+         * Gets the digest as lower case hex. The hasher can't be used after this.
+         */
+        String finish();
+    }
+}
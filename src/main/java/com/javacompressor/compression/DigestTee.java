@@ -0,0 +1,346 @@
+package com.javacompressor.compression;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Works out digests of the files being compressed from the same reads the compressor does, so an
+ * audit manifest costs no second pass over the data.
+ * <p>
+ * Every source is read through {@link #wrap}, which copies what goes by into 256 KB chunks and hands
+ * them to one thread per digest through a short queue. The compressing thread only pays for the copy;
+ * SHA-256 runs next to it instead of in its way, and only holds it up if it falls more than a few MB
+ * behind. Once every digest thread is done with a chunk its array goes back on a return queue for the
+ * next one, so a long run allocates no more than what's in flight at once. Entries can be read from
+ * several threads at once (the parallel ZIP creator does), since each chunk says which entry it belongs to.
+ * <p>
+ * An entry only gets digests once it was read to the end, or its reader said it had everything it wanted
+ * with {@link Source#complete}. A source closed halfway is left out of the manifest, since a digest of
+ * part of a file would look just like a digest of all of it.
+ * <p>
+ * The manifest uses the tagged format of {@code sha256sum --tag}: one {@code SHA256 (name) = hex}
+ * line per entry and digest, sorted by name so it's the same however the threads ran.
+ */
+final class DigestTee implements AutoCloseable {
+    static final String EXTENSION = ".sums";
+    private static final int CHUNK_SIZE = 256 * 1024;
+    // Entries start with a small chunk that grows, so an archive of tiny files doesn't churn through 256 KB each
+    private static final int FIRST_CHUNK_SIZE = 16 * 1024;
+    private static final int CHUNKS_AHEAD = 16;
+    private static final long CLOSED_POLL_MILLIS = 100;
+    
+    private final DigestAlgorithm[] algorithms;
+    private final List<BlockingQueue<Chunk>> lanes = new ArrayList<>();
+    private final List<Future<?>> workers = new ArrayList<>();
+    private final List<Entry> entries = new ArrayList<>();
+    // Full-size chunk arrays the digest threads are done with; never more than were in flight at once
+    private final Queue<byte[]> spareChunks = new ConcurrentLinkedQueue<>();
+    private final ExecutorService pool;
+    private volatile boolean closed;
+    
+    /**
+     * Starts a digest thread for each algorithm.
+     *
+     * @param algorithms The digests to work out (at least one)
+     */
+    DigestTee(Set<DigestAlgorithm> algorithms) {
+        this.algorithms = algorithms.toArray(new DigestAlgorithm[0]);
+        this.pool = ParallelBlockProcessor.newWorkerPool("digest", this.algorithms.length);
+        for (int i = 0; i < this.algorithms.length; i++) {
+            BlockingQueue<Chunk> lane = new ArrayBlockingQueue<>(CHUNKS_AHEAD);
+            int slot = i;
+            lanes.add(lane);
+            workers.add(pool.submit(() -> {
+                runLane(lane, slot);
+                return null;
+            }));
+        }
+    }
+    
+    /**
+     * Gets the manifest that goes with a compressed file (name.gz.sums).
+     */
+    static File manifestFileFor(File compressedFile) {
+        return new File(compressedFile.getPath() + EXTENSION);
+    }
+    
+    /**
+     * Passes a source through the digests. The entry is done when the stream hits its end; a reader
+     * that stops at a known size (like the tar writer) calls {@link Source#complete} instead.
+     *
+     * @param name The name the source gets in the manifest
+     * @param input The source
+     * @return The stream to read the source through
+     */
+    Source wrap(String name, InputStream input) {
+        Entry entry = new Entry(name);
+        synchronized (entries) {
+            entries.add(entry);
+        }
+        return new Source(input, entry);
+    }
+    
+    /**
+     * Waits for the digest threads to catch up and writes the manifest.
+     *
+     * @param manifestFile Where the manifest goes
+     * @return The number of entries in it
+     */
+    int write(File manifestFile) throws IOException {
+        for (BlockingQueue<Chunk> lane : lanes) {
+            put(lane, Chunk.STOP);
+        }
+        for (Future<?> worker : workers) {
+            ParallelBlockProcessor.awaitResult(worker);
+        }
+        
+        List<Entry> sorted;
+        synchronized (entries) {
+            sorted = new ArrayList<>(entries);
+        }
+        sorted.sort(Comparator.comparing(entry -> entry.name));
+        
+        StringBuilder manifest = new StringBuilder();
+        for (Entry entry : sorted) {
+            for (int i = 0; i < algorithms.length; i++) {
+                if (entry.digests[i] == null) {
+                    throw new IOException(entry.name + " was never read to the end");
+                }
+                manifest.append(algorithms[i].getTag()).append(" (").append(entry.name).append(") = ")
+                        .append(entry.digests[i]).append('\n');
+            }
+        }
+        Files.write(manifestFile.toPath(), manifest.toString().getBytes(StandardCharsets.UTF_8));
+        return sorted.size();
+    }
+    
+    @Override
+    public void close() {
+        closed = true;
+        pool.shutdownNow();
+    }
+    
+    /**
+     * Feeds one digest from its queue until it's told to stop.
+     */
+    private void runLane(BlockingQueue<Chunk> lane, int slot) throws InterruptedException {
+        while (true) {
+            Chunk chunk = lane.take();
+            if (chunk == Chunk.STOP) {
+                return;
+            }
+            DigestAlgorithm.Hasher hasher = chunk.entry.hashers[slot];
+            if (chunk.length > 0) {
+                hasher.update(chunk.data, 0, chunk.length);
+            }
+            if (chunk.last) {
+                chunk.entry.digests[slot] = hasher.finish();
+            }
+            if (chunk.lanesLeft.decrementAndGet() == 0) {
+                recycle(chunk.data);
+            }
+        }
+    }
+    
+    /**
+     * Gets an array for the next full-size chunk, one that came back if there is one.
+     */
+    private byte[] takeChunk() {
+        byte[] spare = spareChunks.poll();
+        return spare != null ? spare : new byte[CHUNK_SIZE];
+    }
+    
+    /**
+     * Keeps a chunk array nobody reads any more. The small first chunks of an entry aren't worth keeping.
+     */
+    private void recycle(byte[] data) {
+        if (data != null && data.length == CHUNK_SIZE) {
+            spareChunks.offer(data);
+        }
+    }
+    
+    /**
+     * Leaves an entry that wasn't read to the end out of the manifest.
+     */
+    private void drop(Entry entry) {
+        synchronized (entries) {
+            entries.remove(entry);
+        }
+    }
+    
+    /**
+     * Queues a chunk, giving up once the tee is closed (a failed compression can leave a reader thread
+     * behind that closes its source after the digest threads are gone).
+     */
+    private void put(BlockingQueue<Chunk> lane, Chunk chunk) throws IOException {
+        try {
+            while (!lane.offer(chunk, CLOSED_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (closed) {
+                    throw new IOException("The digests were already stopped");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while handing data to the digests");
+        }
+    }
+    
+    /**
+     * One source in the manifest. Each digest thread only touches its own slot of the arrays, and the
+     * results are read after the threads were joined.
+     */
+    private final class Entry {
+        private final String name;
+        private final DigestAlgorithm.Hasher[] hashers;
+        private final String[] digests;
+        
+        Entry(String name) {
+            this.name = name;
+            this.hashers = new DigestAlgorithm.Hasher[algorithms.length];
+            this.digests = new String[algorithms.length];
+            for (int i = 0; i < algorithms.length; i++) {
+                hashers[i] = algorithms[i].newHasher();
+            }
+        }
+    }
+    
+    /**
+     * Bytes of one entry on their way to the digests. The same chunk goes to every digest thread,
+     * which only read it; the last one to finish with it hands the array back.
+     */
+    private static final class Chunk {
+        static final Chunk STOP = new Chunk(null, null, 0, true, 0);
+        
+        private final Entry entry;
+        private final byte[] data;
+        private final int length;
+        private final boolean last;
+        private final AtomicInteger lanesLeft;
+        
+        Chunk(Entry entry, byte[] data, int length, boolean last, int lanes) {
+            this.entry = entry;
+            this.data = data;
+            this.length = length;
+            this.last = last;
+            this.lanesLeft = new AtomicInteger(lanes);
+        }
+    }
+    
+    /**
+     * A source on its way through the digests. It copies everything read into chunks and sends them
+     * off once they're full.
+     */
+    final class Source extends FilterInputStream {
+        private final Entry entry;
+        private byte[] chunk = new byte[FIRST_CHUNK_SIZE];
+        private int length;
+        private boolean done;
+        
+        Source(InputStream in, Entry entry) {
+            super(in);
+            this.entry = entry;
+        }
+        
+        /**
+         * Finishes the entry's digests with what was read so far, for a reader that stops at a known
+         * size instead of reading until the end.
+         */
+        void complete() throws IOException {
+            finish();
+        }
+        
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = in.read(b, off, len);
+            if (read == -1) {
+                finish();
+                return -1;
+            }
+            // Anything past where the reader said it was complete isn't part of the entry
+            if (done) {
+                return read;
+            }
+            int copied = 0;
+            while (copied < read) {
+                int count = Math.min(read - copied, chunk.length - length);
+                System.arraycopy(b, off + copied, chunk, length, count);
+                length += count;
+                copied += count;
+                if (length == chunk.length && chunk.length < CHUNK_SIZE) {
+                    chunk = Arrays.copyOf(chunk, Math.min(chunk.length * 4, CHUNK_SIZE));
+                } else if (length == chunk.length) {
+                    send(false);
+                }
+            }
+            return read;
+        }
+        
+        // Skipped bytes still have to be digested, so they're read
+        @Override
+        public long skip(long n) throws IOException {
+            byte[] scratch = new byte[(int) Math.min(Math.max(n, 0), 8192)];
+            long skipped = 0;
+            int read;
+            while (skipped < n && (read = read(scratch, 0, (int) Math.min(scratch.length, n - skipped))) != -1) {
+                skipped += read;
+            }
+            return skipped;
+        }
+        
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+        
+        @Override
+        public void close() throws IOException {
+            if (!done) {
+                done = true;
+                drop(entry);
+                recycle(chunk);
+                chunk = null;
+            }
+            super.close();
+        }
+        
+        private void finish() throws IOException {
+            if (!done) {
+                done = true;
+                send(true);
+            }
+        }
+        
+        private void send(boolean last) throws IOException {
+            Chunk full = new Chunk(entry, chunk, length, last, lanes.size());
+            for (BlockingQueue<Chunk> lane : lanes) {
+                put(lane, full);
+            }
+            chunk = last ? null : takeChunk();
+            length = 0;
+        }
+    }
+}
@@ -0,0 +1,540 @@
+package com.javacompressor.compression;
+
+import com.javacompressor.util.CountingInputStream;
+import com.javacompressor.util.FileChannelIO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Checkpoints into a GZIP file, so reading from the middle doesn't mean inflating everything
+ * before it, in the spirit of zlib's zran.c. A checkpoint is a place in the compressed data where
+ * inflating can start over: its compressed and uncompressed offsets, plus the 32 KB of output
+ * before it that back-references may still point into. The index is kept next to the file as
+ * {@code name.gz.gzidx}, with the windows deflated.
+ * <p>
+ * zran can start at any deflate block because it primes zlib with the bits left in the last byte.
+ * Java's Inflater can't be primed like that, so checkpoints go where the data is byte-aligned: at
+ * the start of each member and right after sync flushes. The block-wise GZIP writer sync-flushes
+ * every block (pigz does too) and records checkpoints as it writes. Other files are scanned once,
+ * looking for the empty stored block a sync flush leaves behind (00 00 FF FF). Those bytes can
+ * also turn up by chance, so a spot only becomes a checkpoint once inflating from it gives the
+ * same output as the real stream. Files from plain gzip have no sync flushes, so they only get one
+ * checkpoint per member.
+ */
+final class GzipIndex {
+    static final String EXTENSION = ".gzidx";
+    static final long DEFAULT_INTERVAL = 8L * 1024 * 1024;
+    private static final Logger logger = LoggerFactory.getLogger(GzipIndex.class);
+    private static final byte[] MAGIC = "JCGZIDX1".getBytes(StandardCharsets.US_ASCII);
+    private static final int WINDOW_SIZE = 32 * 1024;
+    private static final int INPUT_CHUNK_SIZE = 64 * 1024;
+    // A candidate found by scanning must reproduce this much of the real output to count
+    private static final int VERIFY_SIZE = 16 * 1024;
+    private static final byte[] NO_WINDOW = new byte[0];
+    
+    private final long interval;
+    private final List<Checkpoint> checkpoints = new ArrayList<>();
+    private long uncompressedSize;
+    
+    /**
+     * Creates an empty index to be filled while compressing or scanning.
+     *
+     * @param interval Uncompressed bytes between checkpoints
+     */
+    GzipIndex(long interval) {
+        this.interval = interval;
+    }
+    
+    /**
+     * Gets the file an index is kept in.
+     */
+    static File indexFileFor(File gzipFile) {
+        return new File(gzipFile.getPath() + EXTENSION);
+    }
+    
+    /**
+     * Checks if a checkpoint at this uncompressed offset would be far enough from the last one.
+     */
+    boolean isDue(long uncompressedOffset) {
+        return checkpoints.isEmpty()
+                || uncompressedOffset >= checkpoints.get(checkpoints.size() - 1).uncompressedOffset + interval;
+    }
+    
+    /**
+     * Adds a checkpoint. They have to be added in stream order.
+     *
+     * @param compressedOffset Where in the file inflating can start (a deflate block, not a member header)
+     * @param uncompressedOffset How much output comes before it
+     * @param window Up to 32 KB of the output right before it (null for none)
+     */
+    void add(long compressedOffset, long uncompressedOffset, byte[] window) {
+        checkpoints.add(new Checkpoint(compressedOffset, uncompressedOffset, window != null ? window : NO_WINDOW));
+    }
+    
+    void setUncompressedSize(long uncompressedSize) {
+        this.uncompressedSize = uncompressedSize;
+    }
+    
+    long getUncompressedSize() {
+        return uncompressedSize;
+    }
+    
+    int getCheckpointCount() {
+        return checkpoints.size();
+    }
+    
+    /**
+     * Opens the uncompressed content at any offset. Inflating starts at the checkpoint before it,
+     * so at most one interval is decoded and thrown away.
+     *
+     * @param channel The GZIP file's channel (left open when the stream is closed)
+     * @param offset Uncompressed offset to start at
+     * @return The content from there to the end of the file
+     */
+    InputStream open(FileChannel channel, long offset) throws IOException {
+        Checkpoint start = checkpoints.get(0);
+        int low = 0;
+        int high = checkpoints.size() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (checkpoints.get(middle).uncompressedOffset <= offset) {
+                start = checkpoints.get(middle);
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        
+        Decoder decoder = new Decoder(channel, start.compressedOffset, start.window, start.uncompressedOffset, null);
+        try {
+            decoder.skipNBytes(offset - start.uncompressedOffset);
+        } catch (IOException | RuntimeException e) {
+            decoder.close();
+            throw e;
+        }
+        return decoder;
+    }
+    
+    /**
+     * Builds the index of a GZIP file by inflating it once.
+     *
+     * @param gzipFile The file
+     * @param interval Uncompressed bytes between checkpoints
+     * @return The index
+     * @throws IOException If the file can't be read or isn't valid GZIP
+     */
+    static GzipIndex scan(File gzipFile, long interval) throws IOException {
+        GzipIndex index = new GzipIndex(interval);
+        try (FileChannel channel = FileChannel.open(gzipFile.toPath(), StandardOpenOption.READ)) {
+            long dataStart = skipHeader(channel, 0);
+            if (dataStart < 0) {
+                throw new IOException("Not in GZIP format");
+            }
+            index.add(dataStart, 0, null);
+            
+            Scanner scanner = new Scanner(index, channel);
+            byte[] buffer = new byte[INPUT_CHUNK_SIZE];
+            long total = 0;
+            try (Decoder decoder = new Decoder(channel, dataStart, NO_WINDOW, 0, scanner)) {
+                int read;
+                while ((read = decoder.read(buffer)) != -1) {
+                    total += read;
+                }
+            }
+            scanner.verifyPending();
+            index.setUncompressedSize(total);
+        }
+        return index;
+    }
+    
+    /**
+     * Loads the index kept next to a GZIP file.
+     *
+     * @return The index, or null if there is none or it belongs to an older version of the file
+     */
+    static GzipIndex load(File gzipFile) {
+        File indexFile = indexFileFor(gzipFile);
+        if (!indexFile.isFile()) {
+            return null;
+        }
+        
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(indexFile.toPath())))) {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                logger.debug("Ignoring {}: not a GZIP index", indexFile);
+                return null;
+            }
+            if (in.readLong() != gzipFile.length() || in.readLong() != gzipFile.lastModified()) {
+                logger.debug("Ignoring {}: the GZIP file changed since it was written", indexFile);
+                return null;
+            }
+            
+            GzipIndex index = new GzipIndex(in.readLong());
+            index.setUncompressedSize(in.readLong());
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                long compressedOffset = in.readLong();
+                long uncompressedOffset = in.readLong();
+                byte[] window = new byte[in.readInt()];
+                byte[] stored = new byte[in.readInt()];
+                in.readFully(stored);
+                try (InputStream inflated = new InflaterInputStream(new ByteArrayInputStream(stored))) {
+                    if (inflated.readNBytes(window, 0, window.length) != window.length) {
+                        throw new EOFException("Short window");
+                    }
+                }
+                index.add(compressedOffset, uncompressedOffset, window);
+            }
+            return count > 0 ? index : null;
+        } catch (IOException | RuntimeException e) {
+            logger.debug("Ignoring unreadable GZIP index {}", indexFile, e);
+            return null;
+        }
+    }
+    
+    /**
+     * Writes the index next to the GZIP file. It remembers the file's size and modification time,
+     * so it's ignored once the file changes.
+     */
+    void write(File gzipFile) throws IOException {
+        File indexFile = indexFileFor(gzipFile);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(indexFile.toPath())))) {
+            out.write(MAGIC);
+            out.writeLong(gzipFile.length());
+            out.writeLong(gzipFile.lastModified());
+            out.writeLong(interval);
+            out.writeLong(uncompressedSize);
+            out.writeInt(checkpoints.size());
+            
+            ByteArrayOutputStream stored = new ByteArrayOutputStream(WINDOW_SIZE);
+            for (Checkpoint checkpoint : checkpoints) {
+                stored.reset();
+                Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+                try (DeflaterOutputStream deflated = new DeflaterOutputStream(stored, deflater)) {
+                    deflated.write(checkpoint.window);
+                } finally {
+                    deflater.end();
+                }
+                out.writeLong(checkpoint.compressedOffset);
+                out.writeLong(checkpoint.uncompressedOffset);
+                out.writeInt(checkpoint.window.length);
+                out.writeInt(stored.size());
+                stored.writeTo(out);
+            }
+        }
+    }
+    
+    /**
+     * Skips a GZIP member header.
+     *
+     * @return Where the member's deflate data starts, or -1 if there's no member at this offset
+     */
+    private static long skipHeader(FileChannel channel, long offset) throws IOException {
+        CountingInputStream in = new CountingInputStream(
+                FileChannelIO.openRange(channel, offset, channel.size() - offset, 4096));
+        int id1 = in.read();
+        int id2 = in.read();
+        int method = in.read();
+        if (id1 != 0x1f || id2 != 0x8b || method != Deflater.DEFLATED) {
+            return -1;
+        }
+        int flags = in.read();
+        // Modification time, extra flags and OS
+        in.skipNBytes(6);
+        if ((flags & 0x04) != 0) {
+            int extraLength = in.read() | in.read() << 8;
+            in.skipNBytes(extraLength);
+        }
+        // File name and comment are zero-terminated
+        for (int flag : new int[] {0x08, 0x10}) {
+            if ((flags & flag) != 0) {
+                int b;
+                do {
+                    b = in.read();
+                } while (b > 0);
+                if (b < 0) {
+                    throw new EOFException("Truncated GZIP header");
+                }
+            }
+        }
+        if ((flags & 0x02) != 0) {
+            in.skipNBytes(2);
+        }
+        return offset + in.getCount();
+    }
+    
+    /**
+     * A place where inflating can start over.
+     */
+    private static final class Checkpoint {
+        private final long compressedOffset;
+        private final long uncompressedOffset;
+        private final byte[] window;
+        
+        Checkpoint(long compressedOffset, long uncompressedOffset, byte[] window) {
+            this.compressedOffset = compressedOffset;
+            this.uncompressedOffset = uncompressedOffset;
+            this.window = window;
+        }
+    }
+    
+    /**
+     * Inflates from a checkpoint to the end of the file, carrying on through any members that follow.
+     * Reads the file with positional reads, so several can share one channel.
+     */
+    private static final class Decoder extends InputStream {
+        private final FileChannel channel;
+        private final long size;
+        private final Inflater inflater = new Inflater(true);
+        private final byte[] input = new byte[INPUT_CHUNK_SIZE];
+        private final Scanner scanner;
+        private long position;
+        private long produced;
+        private boolean fedSyncMarker;
+        private boolean endOfStream;
+        
+        Decoder(FileChannel channel, long compressedOffset, byte[] window, long uncompressedOffset,
+                Scanner scanner) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+            this.position = compressedOffset;
+            this.produced = uncompressedOffset;
+            this.scanner = scanner;
+            if (window.length > 0) {
+                inflater.setDictionary(window);
+            }
+        }
+        
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (!endOfStream) {
+                int count;
+                try {
+                    count = inflater.inflate(b, off, len);
+                } catch (DataFormatException e) {
+                    throw new IOException("Corrupt GZIP data: " + e.getMessage(), e);
+                }
+                if (count > 0) {
+                    produced += count;
+                    if (scanner != null) {
+                        scanner.output(b, off, count);
+                    }
+                    return count;
+                }
+                if (inflater.finished()) {
+                    nextMember();
+                } else if (inflater.needsInput()) {
+                    fill();
+                } else {
+                    throw new IOException("Corrupt GZIP data: inflater is stuck");
+                }
+            }
+            return -1;
+        }
+        
+        /**
+         * Feeds the next chunk of compressed data. When scanning, a chunk is cut right after the
+         * first sync marker in it. The inflater only asks for more once it has used up the chunk
+         * and output everything it could, so the next call here is exactly at the marker.
+         */
+        private void fill() throws IOException {
+            if (fedSyncMarker) {
+                scanner.syncPoint(position);
+                fedSyncMarker = false;
+            }
+            if (position >= size) {
+                throw new EOFException("Unexpected end of GZIP data");
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(input, 0, (int) Math.min(input.length, size - position));
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    break;
+                }
+            }
+            int length = buffer.position();
+            if (scanner != null) {
+                int marker = indexOfSyncMarker(input, length);
+                if (marker >= 0) {
+                    length = marker + 4;
+                }
+            }
+            inflater.setInput(input, 0, length);
+            position += length;
+            fedSyncMarker = scanner != null && length >= 4 && isSyncMarker(input, length - 4);
+        }
+        
+        /**
+         * Steps over the trailer of the member that just ended and the header of the next one.
+         * Anything after the last member that isn't a GZIP header is ignored, like gzip does.
+         */
+        private void nextMember() throws IOException {
+            long next = position - inflater.getRemaining() + 8;
+            if (next > size) {
+                throw new EOFException("Truncated GZIP trailer");
+            }
+            long dataStart = next < size ? skipHeader(channel, next) : -1;
+            if (dataStart < 0) {
+                endOfStream = true;
+                return;
+            }
+            inflater.reset();
+            position = dataStart;
+            fedSyncMarker = false;
+            if (scanner != null) {
+                scanner.memberStarted(dataStart, produced);
+            }
+        }
+        
+        @Override
+        public void close() {
+            inflater.end();
+        }
+        
+        private static int indexOfSyncMarker(byte[] data, int length) {
+            for (int i = 0; i + 4 <= length; i++) {
+                if (isSyncMarker(data, i)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        
+        private static boolean isSyncMarker(byte[] data, int i) {
+            return data[i] == 0 && data[i + 1] == 0 && data[i + 2] == (byte) 0xff && data[i + 3] == (byte) 0xff;
+        }
+    }
+    
+    /**
+     * Follows a scan: keeps the last 32 KB of output, turns sync markers into candidate
+     * checkpoints when one is due, and checks each candidate before adding it.
+     */
+    private static final class Scanner {
+        private final GzipIndex index;
+        private final FileChannel channel;
+        private final byte[] window = new byte[WINDOW_SIZE];
+        private final ByteArrayOutputStream expected = new ByteArrayOutputStream(VERIFY_SIZE);
+        private long windowFill;
+        private long produced;
+        private Checkpoint pending;
+        
+        Scanner(GzipIndex index, FileChannel channel) {
+            this.index = index;
+            this.channel = channel;
+        }
+        
+        /**
+         * Notes that the decoder stands right after a sync marker, with everything before it output.
+         */
+        void syncPoint(long compressedOffset) {
+            if (pending == null && index.isDue(produced)) {
+                pending = new Checkpoint(compressedOffset, produced, windowCopy());
+                expected.reset();
+            }
+        }
+        
+        /**
+         * Takes the next piece of output.
+         */
+        void output(byte[] b, int off, int length) throws IOException {
+            if (pending != null) {
+                expected.write(b, off, Math.min(length, VERIFY_SIZE - expected.size()));
+                if (expected.size() == VERIFY_SIZE) {
+                    verifyPending();
+                }
+            }
+            
+            for (int i = 0; i < length; ) {
+                int at = (int) (windowFill % WINDOW_SIZE);
+                int count = Math.min(length - i, WINDOW_SIZE - at);
+                System.arraycopy(b, off + i, window, at, count);
+                windowFill += count;
+                i += count;
+            }
+            produced += length;
+        }
+        
+        /**
+         * A new member starts from scratch, so no window is needed there.
+         */
+        void memberStarted(long dataStart, long uncompressedOffset) throws IOException {
+            verifyPending();
+            if (index.isDue(uncompressedOffset)) {
+                index.add(dataStart, uncompressedOffset, null);
+            }
+        }
+        
+        /**
+         * Inflates from the pending candidate and keeps it if the output is what the stream really had there.
+         */
+        void verifyPending() throws IOException {
+            Checkpoint candidate = pending;
+            pending = null;
+            if (candidate == null || expected.size() == 0) {
+                return;
+            }
+            
+            byte[] wanted = expected.toByteArray();
+            byte[] actual = new byte[wanted.length];
+            int done = 0;
+            try (Decoder decoder = new Decoder(channel, candidate.compressedOffset, candidate.window,
+                                               candidate.uncompressedOffset, null)) {
+                int read;
+                while (done < actual.length && (read = decoder.read(actual, done, actual.length - done)) != -1) {
+                    done += read;
+                }
+            } catch (IOException e) {
+                logger.trace("Sync marker candidate at {} is not a block boundary", candidate.compressedOffset);
+                return;
+            }
+            if (done == wanted.length && Arrays.equals(actual, wanted)) {
+                index.checkpoints.add(candidate);
+            }
+        }
+        
+        private byte[] windowCopy() {
+            int length = (int) Math.min(windowFill, WINDOW_SIZE);
+            byte[] copy = new byte[length];
+            int start = (int) ((windowFill - length) % WINDOW_SIZE);
+            int first = Math.min(length, WINDOW_SIZE - start);
+            System.arraycopy(window, start, copy, 0, first);
+            System.arraycopy(window, 0, copy, first, length - first);
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package com.javacompressor.compression;
+
+import com.javacompressor.model.FileManifest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs compression jobs from a priority queue with bounded parallelism.
+ * <p>
+ * At most {@link CompressionOptions#getMaxConcurrentJobs()} jobs run at once, and at most
+ * {@link CompressionOptions#getMaxJobsPerDisk()} of them read from the same disk, so a big batch
+ * on one drive doesn't turn into seek thrashing while another drive sits idle. Each job gets its
+ * share of the worker threads when it starts: a lone job uses every core, a batch splits them.
+ * Scheduling happens on the worker threads themselves, so it doesn't depend on the FX thread.
+ */
+public class JobScheduler {
+    private static final Logger logger = LoggerFactory.getLogger(JobScheduler.class);
+    private static final Object UNKNOWN_DISK = new Object();
+    
+    private static final Comparator<CompressionJob> ORDER = Comparator
+            .comparing(CompressionJob::getPriority)
+            .thenComparingLong(CompressionJob::getSequence);
+    
+    private final CompressionOptions options;
+    private final ExecutorService pool;
+    private final AtomicLong sequence = new AtomicLong();
+    
+    // Everything below is guarded by this
+    private final TreeSet<CompressionJob> queue = new TreeSet<>(ORDER);
+    private final Map<Object, Integer> runningPerDisk = new HashMap<>();
+    private final Map<Path, Object> diskByDirectory = new HashMap<>();
+    private int running;
+    private boolean shutdown;
+    
+    private volatile Runnable changeListener;
+    
+    /**
+     * Creates a scheduler.
+     * 
+     * @param options Limits for the scheduler and settings for the jobs
+     */
+    public JobScheduler(CompressionOptions options) {
+        this.options = new CompressionOptions(options);
+        this.pool = Executors.newFixedThreadPool(this.options.getMaxConcurrentJobs(), runnable -> {
+            Thread thread = new Thread(runnable, "compression-job");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    /**
+     * Queues a job. It starts as soon as a slot (and its disk) is free.
+     * 
+     * @param compress Whether this is a compression (true) or decompression (false) job
+     * @param sourceFile The source file
+     * @param outputFile The output file
+     * @param algorithm The compression algorithm
+     * @param compressionLevel The compression level (for compression only)
+     * @param preserveStructure Whether to preserve directory structure (for compression only)
+     * @param manifest The source directory's manifest, or null to scan when the job runs
+     * @param priority The job's priority
+     * @return The queued job
+     */
+    public CompressionJob submit(boolean compress, File sourceFile, File outputFile, CompressionAlgorithm algorithm,
+                                 int compressionLevel, boolean preserveStructure, FileManifest manifest,
+                                 CompressionJob.Priority priority) {
+        CompressionTask task = new CompressionTask(compress, sourceFile, outputFile, algorithm, compressionLevel,
+                                                   preserveStructure, manifest);
+        CompressionJob job = new CompressionJob(sequence.incrementAndGet(), task, priority);
+        
+        synchronized (this) {
+            if (shutdown) {
+                throw new IllegalStateException("Scheduler has been shut down");
+            }
+            queue.add(job);
+        }
+        fireChange();
+        dispatch();
+        return job;
+    }
+    
+    /**
+     * Changes the priority of a job that hasn't started yet. Running and finished jobs are left alone.
+     */
+    public void setPriority(CompressionJob job, CompressionJob.Priority priority) {
+        synchronized (this) {
+            // The queue is sorted by priority, so the job has to be taken out while it changes
+            if (queue.remove(job)) {
+                job.setPriority(priority);
+                queue.add(job);
+            }
+        }
+        fireChange();
+    }
+    
+    /**
+     * Cancels a job, whether it's queued or running.
+     */
+    public void cancel(CompressionJob job) {
+        synchronized (this) {
+            queue.remove(job);
+        }
+        // A queued task just turns CANCELLED; a running one gets interrupted
+        job.getTask().cancel();
+        fireChange();
+    }
+    
+    /**
+     * Gets the number of jobs waiting to start.
+     */
+    public synchronized int getQueuedCount() {
+        return queue.size();
+    }
+    
+    /**
+     * Gets the number of jobs running right now.
+     */
+    public synchronized int getRunningCount() {
+        return running;
+    }
+    
+    /**
+     * Sets a callback for whenever jobs are queued, started, finished or cancelled.
+     * It runs on whatever thread made the change, so UI code has to hop to the FX thread itself.
+     */
+    public void setChangeListener(Runnable changeListener) {
+        this.changeListener = changeListener;
+    }
+    
+    /**
+     * Cancels everything and stops the worker threads.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            shutdown = true;
+            for (CompressionJob job : queue) {
+                job.getTask().cancel();
+            }
+            queue.clear();
+        }
+        pool.shutdownNow();
+    }
+    
+    /**
+     * Starts queued jobs, best priority first, while there are free slots on their disks.
+     */
+    private void dispatch() {
+        boolean started = false;
+        synchronized (this) {
+            Iterator<CompressionJob> iterator = queue.iterator();
+            while (running < options.getMaxConcurrentJobs() && iterator.hasNext()) {
+                CompressionJob job = iterator.next();
+                if (job.isDone()) {
+                    // Cancelled while it was waiting
+                    iterator.remove();
+                    continue;
+                }
+                
+                Object disk = diskOf(job.getSourceFile());
+                int onDisk = runningPerDisk.getOrDefault(disk, 0);
+                if (onDisk >= options.getMaxJobsPerDisk()) {
+                    continue;
+                }
+                
+                iterator.remove();
+                running++;
+                runningPerDisk.put(disk, onDisk + 1);
+                
+                // Split the cores between what's running now and what's about to start
+                int busySlots = Math.min(options.getMaxConcurrentJobs(), running + queue.size());
+                CompressionOptions jobOptions = new CompressionOptions(options);
+                jobOptions.setWorkerCount(Math.max(1, options.getWorkerCount() / busySlots));
+                job.getTask().setCompressionService(new CompressionService(jobOptions));
+                
+                pool.execute(() -> run(job, disk));
+                started = true;
+            }
+        }
+        if (started) {
+            fireChange();
+        }
+    }
+    
+    private void run(CompressionJob job, Object disk) {
+        try {
+            job.getTask().run();
+        } catch (RuntimeException e) {
+            // Task catches everything itself; this would be a bug in the scheduler
+            logger.error("Job {} crashed", job, e);
+        } finally {
+            synchronized (this) {
+                running--;
+                runningPerDisk.merge(disk, -1, Integer::sum);
+            }
+            fireChange();
+            dispatch();
+        }
+    }
+    
+    /**
+     * Works out which disk a file is on. Looked up once per directory, so thousands of files in the
+     * same folder cost a single stat.
+     */
+    private Object diskOf(File file) {
+        Path directory = file.getAbsoluteFile().toPath().getParent();
+        if (directory == null) {
+            return UNKNOWN_DISK;
+        }
+        return diskByDirectory.computeIfAbsent(directory, dir -> {
+            try {
+                return Files.getFileStore(dir);
+            } catch (IOException e) {
+                return UNKNOWN_DISK;
+            }
+        });
+    }
+    
+    private void fireChange() {
+        Runnable listener = changeListener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+}
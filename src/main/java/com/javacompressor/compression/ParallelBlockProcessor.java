@@ -0,0 +1,224 @@
+package com.javacompressor.compression;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cuts an input stream into fixed-size blocks, encodes them on a pool of worker threads
+ * and writes the encoded blocks back in their original order.
+ * Only a couple of blocks per worker are kept in flight, so memory use stays flat
+ * no matter how big the input is.
+ */
+class ParallelBlockProcessor {
+    
+    /**
+     * Turns one block of input into its encoded bytes. Called from worker threads.
+     */
+    interface BlockEncoder {
+        byte[] encode(Block block) throws IOException;
+    }
+    
+    /**
+     * Gets told about each block right after it has been written. Called on the caller's thread.
+     */
+    interface BlockListener {
+        void blockWritten(Block block, byte[] encoded) throws IOException;
+    }
+    
+    /**
+     * A chunk of input along with where it sits in the stream.
+     */
+    static final class Block {
+        private final int index;
+        private final long offset;
+        private final byte[] data;
+        private final int length;
+        private final byte[] dictionary;
+        private final boolean last;
+        
+        Block(int index, long offset, byte[] data, int length, byte[] dictionary, boolean last) {
+            this.index = index;
+            this.offset = offset;
+            this.data = data;
+            this.length = length;
+            this.dictionary = dictionary;
+            this.last = last;
+        }
+        
+        int getIndex() {
+            return index;
+        }
+        
+        // Uncompressed position of the first byte of this block
+        long getOffset() {
+            return offset;
+        }
+        
+        byte[] getData() {
+            return data;
+        }
+        
+        int getLength() {
+            return length;
+        }
+        
+        // Tail of the previous block (null for the first block or when no dictionary was requested)
+        byte[] getDictionary() {
+            return dictionary;
+        }
+        
+        boolean isLast() {
+            return last;
+        }
+    }
+    
+    private final int blockSize;
+    private final int workerCount;
+    private final int dictionarySize;
+    
+    /**
+     * Creates a new processor.
+     *
+     * @param blockSize Size of each input block in bytes
+     * @param workerCount Number of worker threads
+     * @param dictionarySize How many trailing bytes of the previous block to hand to each block (0 for none)
+     */
+    ParallelBlockProcessor(int blockSize, int workerCount, int dictionarySize) {
+        this.blockSize = blockSize;
+        this.workerCount = Math.max(1, workerCount);
+        this.dictionarySize = dictionarySize;
+    }
+    
+    /**
+     * Reads the whole input, encodes it block by block and writes the result.
+     * An empty input still produces one (empty, last) block so encoders can write their trailers.
+     *
+     * @return The number of input bytes processed
+     */
+    long process(InputStream input, OutputStream output, BlockEncoder encoder,
+                 BlockListener listener) throws IOException {
+        ExecutorService pool = newWorkerPool("block-worker", workerCount);
+        Deque<Block> pendingBlocks = new ArrayDeque<>();
+        Deque<Future<byte[]>> pendingResults = new ArrayDeque<>();
+        int maxInFlight = workerCount * 2;
+        
+        try {
+            byte[] current = new byte[blockSize];
+            int currentLength = readFully(input, current);
+            byte[] dictionary = null;
+            long offset = 0;
+            int index = 0;
+            
+            while (true) {
+                // Read one block ahead so we know whether the current one is the last
+                byte[] next = null;
+                int nextLength = 0;
+                if (currentLength == blockSize) {
+                    next = new byte[blockSize];
+                    nextLength = readFully(input, next);
+                }
+                boolean last = nextLength == 0;
+                
+                Block block = new Block(index++, offset, current, currentLength, dictionary, last);
+                while (pendingResults.size() >= maxInFlight) {
+                    writeNext(pendingBlocks, pendingResults, output, listener);
+                }
+                pendingBlocks.add(block);
+                pendingResults.add(pool.submit(() -> encoder.encode(block)));
+                
+                offset += currentLength;
+                if (last) {
+                    break;
+                }
+                
+                if (dictionarySize > 0) {
+                    dictionary = Arrays.copyOfRange(current, Math.max(0, currentLength - dictionarySize), currentLength);
+                }
+                current = next;
+                currentLength = nextLength;
+            }
+            
+            while (!pendingResults.isEmpty()) {
+                writeNext(pendingBlocks, pendingResults, output, listener);
+            }
+            
+            return offset;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+    
+    /**
+     * Waits for the oldest block to finish encoding and writes it out.
+     */
+    private void writeNext(Deque<Block> pendingBlocks, Deque<Future<byte[]>> pendingResults,
+                           OutputStream output, BlockListener listener) throws IOException {
+        Block block = pendingBlocks.poll();
+        byte[] encoded = awaitResult(pendingResults.poll());
+        output.write(encoded);
+        if (listener != null) {
+            listener.blockWritten(block, encoded);
+        }
+    }
+    
+    /**
+     * Reads until the buffer is full or the stream ends.
+     *
+     * @return The number of bytes read
+     */
+    static int readFully(InputStream input, byte[] buffer) throws IOException {
+        int total = 0;
+        while (total < buffer.length) {
+            int read = input.read(buffer, total, buffer.length - total);
+            if (read == -1) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+    
+    /**
+     * Gets the result of a worker task, unwrapping whatever it threw.
+     */
+    static <T> T awaitResult(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a worker");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException("Worker failed", cause);
+        }
+    }
+    
+    /**
+     * Creates a fixed pool of daemon threads, so a stuck job never keeps the app alive.
+     */
+    static ExecutorService newWorkerPool(String name, int threads) {
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
@@ -0,0 +1,74 @@
+package com.javacompressor.compression;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.function.LongConsumer;
+
+/**
+ * Multi-threaded BZIP2 writer that works the same way as pbzip2.
+ * BZIP2 already compresses in independent 100-900 KB blocks, so the input is cut into chunks of
+ * exactly one block each and every chunk becomes its own complete BZIP2 stream. The streams are
+ * written back to back, which bunzip2 and {@code BZip2CompressorInputStream} (with
+ * decompressConcatenated) read as one file.
+ */
+class ParallelBzip2Compressor {
+    private static final int BLOCK_RESERVE = 20;
+    
+    private final int level;
+    private final int workerCount;
+    
+    /**
+     * Creates a new compressor.
+     *
+     * @param level The BZIP2 block size level (1-9, i.e. 100-900 KB blocks)
+     * @param workerCount Number of worker threads
+     */
+    ParallelBzip2Compressor(int level, int workerCount) {
+        this.level = level;
+        this.workerCount = workerCount;
+    }
+    
+    /**
+     * Gets the size of the chunks the input is cut into for a given level.
+     * The encoder keeps 20 bytes of each block in reserve, so we stay just under the nominal size
+     * to get exactly one block per stream (long byte runs can still spill into a second one, which is fine).
+     */
+    static int chunkSize(int level) {
+        return level * 100_000 - BLOCK_RESERVE;
+    }
+    
+    /**
+     * Compresses everything from the input into a series of BZIP2 streams.
+     *
+     * @param input The data to compress
+     * @param output Where the streams are written
+     * @param bytesWrittenCallback Called with the total input bytes done after each chunk (may be null)
+     * @return The number of input bytes compressed
+     */
+    long compress(InputStream input, OutputStream output, LongConsumer bytesWrittenCallback) throws IOException {
+        ParallelBlockProcessor processor = new ParallelBlockProcessor(chunkSize(level), workerCount, 0);
+        long totalBytes = processor.process(input, output, this::compressChunk, (block, encoded) -> {
+            if (bytesWrittenCallback != null) {
+                bytesWrittenCallback.accept(block.getOffset() + block.getLength());
+            }
+        });
+        output.flush();
+        
+        return totalBytes;
+    }
+    
+    /**
+     * Compresses one chunk into a standalone BZIP2 stream.
+     */
+    private byte[] compressChunk(ParallelBlockProcessor.Block block) throws IOException {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream(block.getLength() / 3 + 64);
+        try (BZip2CompressorOutputStream bzip2Out = new BZip2CompressorOutputStream(encoded, level)) {
+            bzip2Out.write(block.getData(), 0, block.getLength());
+        }
+        return encoded.toByteArray();
+    }
+}
@@ -0,0 +1,404 @@
+package com.javacompressor.compression;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.LongConsumer;
+
+/**
+ * Multi-threaded BZIP2 reader.
+ * BZIP2 blocks are independent, but they are not byte aligned, so the compressed data is scanned
+ * bit by bit for the 48-bit block and end-of-stream markers. Every block found is re-wrapped into a
+ * tiny stand-alone BZIP2 stream (header + block + end marker), decoded on a worker thread and
+ * written back in order.
+ * <p>
+ * The block marker can also show up by chance inside compressed data. A wrong split always makes
+ * the affected block fail its CRC check, in which case an {@link UnsplittableInputException} is
+ * thrown and the caller should fall back to decoding the file on one thread.
+ */
+class ParallelBzip2Decompressor {
+    private static final long BLOCK_MAGIC = 0x314159265359L;
+    private static final long END_OF_STREAM_MAGIC = 0x177245385090L;
+    private static final long MAGIC_MASK = 0xffffffffffffL;
+    private static final int MAGIC_BITS = 48;
+    private static final int CRC_BITS = 32;
+    private static final int STREAM_HEADER_SIZE = 4;
+    
+    // For every byte value, a bit mask of the shifts at which that byte could be part of a marker.
+    // This lets the scanner skip the full 48-bit compare for almost every byte.
+    private static final int[] CANDIDATE_SHIFTS = buildCandidateTable();
+    
+    /**
+     * Thrown when the block boundaries can't be trusted and the file should be decoded sequentially.
+     */
+    static class UnsplittableInputException extends IOException {
+        private static final long serialVersionUID = 1L;
+        
+        UnsplittableInputException(String message) {
+            super(message);
+        }
+        
+        UnsplittableInputException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+    
+    private final int workerCount;
+    
+    /**
+     * Creates a new decompressor.
+     *
+     * @param workerCount Number of worker threads
+     */
+    ParallelBzip2Decompressor(int workerCount) {
+        this.workerCount = Math.max(1, workerCount);
+    }
+    
+    /**
+     * Decompresses BZIP2 data (one or more concatenated streams) using several threads.
+     *
+     * @param input The compressed data
+     * @param output Where the decompressed data goes
+     * @param compressedBytesCallback Called with the number of compressed bytes scanned so far (may be null)
+     * @return The number of decompressed bytes written
+     * @throws UnsplittableInputException If the blocks can't be found reliably; nothing written is usable
+     */
+    long decompress(InputStream input, OutputStream output, LongConsumer compressedBytesCallback) throws IOException {
+        ExecutorService pool = ParallelBlockProcessor.newWorkerPool("bzip2-decoder", workerCount);
+        Deque<Future<byte[]>> pending = new ArrayDeque<>();
+        int maxInFlight = workerCount * 2;
+        long bytesWritten = 0;
+        
+        try {
+            BlockScanner scanner = new BlockScanner(input);
+            BlockSegment segment;
+            while ((segment = scanner.nextBlock()) != null) {
+                while (pending.size() >= maxInFlight) {
+                    bytesWritten += writeNext(pending, output);
+                }
+                BlockSegment block = segment;
+                pending.add(pool.submit(() -> decodeBlock(block)));
+                
+                if (compressedBytesCallback != null) {
+                    compressedBytesCallback.accept(scanner.getBytesScanned());
+                }
+            }
+            
+            while (!pending.isEmpty()) {
+                bytesWritten += writeNext(pending, output);
+            }
+            output.flush();
+            
+            return bytesWritten;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+    
+    /**
+     * Waits for the oldest block and writes it out.
+     */
+    private long writeNext(Deque<Future<byte[]>> pending, OutputStream output) throws IOException {
+        byte[] decoded;
+        try {
+            decoded = ParallelBlockProcessor.awaitResult(pending.poll());
+        } catch (UnsplittableInputException e) {
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            throw new UnsplittableInputException("Could not decode a BZIP2 block on its own", e);
+        }
+        output.write(decoded);
+        return decoded.length;
+    }
+    
+    /**
+     * Wraps a single block into a complete BZIP2 stream and decodes it.
+     * For a one-block stream, the stream CRC is simply the block CRC.
+     */
+    private static byte[] decodeBlock(BlockSegment block) throws IOException {
+        BitWriter writer = new BitWriter(block.bitLength / 8 + 32);
+        writer.writeBits('B', 8);
+        writer.writeBits('Z', 8);
+        writer.writeBits('h', 8);
+        writer.writeBits('0' + block.level, 8);
+        writer.copyBits(block.data, block.bitOffset, block.bitLength);
+        writer.writeBits(END_OF_STREAM_MAGIC, MAGIC_BITS);
+        writer.writeBits(block.blockCrc(), CRC_BITS);
+        
+        try (BZip2CompressorInputStream bzip2In =
+                 new BZip2CompressorInputStream(new ByteArrayInputStream(writer.toByteArray()), false)) {
+            return bzip2In.readAllBytes();
+        }
+    }
+    
+    private static int[] buildCandidateTable() {
+        int[] table = new int[256];
+        for (int shift = 0; shift < 8; shift++) {
+            // The second-newest byte in the scan register holds marker bits [8 - shift, 16 - shift)
+            table[(int) ((BLOCK_MAGIC >>> (8 - shift)) & 0xff)] |= 1 << shift;
+            table[(int) ((END_OF_STREAM_MAGIC >>> (8 - shift)) & 0xff)] |= 1 << shift;
+        }
+        return table;
+    }
+    
+    /**
+     * The raw bits of one compressed block, from its marker up to the next marker.
+     */
+    private static final class BlockSegment {
+        private final byte[] data;
+        private final int bitOffset;
+        private final int bitLength;
+        private final int level;
+        
+        BlockSegment(byte[] data, int bitOffset, int bitLength, int level) {
+            this.data = data;
+            this.bitOffset = bitOffset;
+            this.bitLength = bitLength;
+            this.level = level;
+        }
+        
+        // The 32 bits right after the block marker
+        long blockCrc() {
+            return BitWriter.readBits(data, bitOffset + MAGIC_BITS, CRC_BITS);
+        }
+    }
+    
+    /**
+     * Walks through the compressed bytes and cuts them at block markers.
+     */
+    private static final class BlockScanner {
+        private final InputStream input;
+        
+        // Bytes from the start of the current block up to what has been read so far
+        private byte[] buffer = new byte[1 << 20];
+        private int bufferLength;
+        private long bufferStartByte;
+        
+        private long bytesRead;
+        private long register;
+        private long blockStartBit = -1;
+        private long streamDataStartBit;
+        private int level;
+        private boolean inStream;
+        private boolean finished;
+        
+        BlockScanner(InputStream input) {
+            this.input = input;
+        }
+        
+        long getBytesScanned() {
+            return bytesRead;
+        }
+        
+        /**
+         * Scans forward until the current block is closed off by the next marker.
+         *
+         * @return The block, or null at the end of the input
+         */
+        BlockSegment nextBlock() throws IOException {
+            while (!finished) {
+                if (!inStream) {
+                    if (!readStreamHeader()) {
+                        finished = true;
+                        break;
+                    }
+                    continue;
+                }
+                
+                int next = input.read();
+                if (next == -1) {
+                    throw new UnsplittableInputException("BZIP2 stream ends without an end-of-stream marker");
+                }
+                append(next);
+                
+                int shifts = CANDIDATE_SHIFTS[(int) ((register >>> 8) & 0xff)];
+                if (shifts == 0) {
+                    continue;
+                }
+                
+                // Check the earliest possible match first (largest shift = ends furthest back)
+                for (int shift = 7; shift >= 0; shift--) {
+                    if ((shifts & (1 << shift)) == 0) {
+                        continue;
+                    }
+                    long candidate = (register >>> shift) & MAGIC_MASK;
+                    long markerStart = bytesRead * 8 - shift - MAGIC_BITS;
+                    if (markerStart < streamDataStartBit
+                            || (blockStartBit >= 0 && markerStart < blockStartBit + MAGIC_BITS + CRC_BITS)) {
+                        continue;
+                    }
+                    
+                    if (candidate == BLOCK_MAGIC) {
+                        BlockSegment closed = closeBlock(markerStart);
+                        blockStartBit = markerStart;
+                        if (closed != null) {
+                            return closed;
+                        }
+                        break;
+                    } else if (candidate == END_OF_STREAM_MAGIC) {
+                        BlockSegment closed = closeBlock(markerStart);
+                        skipStreamTrailer(markerStart + MAGIC_BITS + CRC_BITS);
+                        if (closed != null) {
+                            return closed;
+                        }
+                        break;
+                    }
+                }
+            }
+            return null;
+        }
+        
+        /**
+         * Reads the "BZh1".."BZh9" header at the start of each stream.
+         *
+         * @return false if the input ended cleanly instead
+         */
+        private boolean readStreamHeader() throws IOException {
+            byte[] header = new byte[STREAM_HEADER_SIZE];
+            int read = ParallelBlockProcessor.readFully(input, header);
+            if (read == 0) {
+                return false;
+            }
+            if (read < STREAM_HEADER_SIZE || header[0] != 'B' || header[1] != 'Z' || header[2] != 'h'
+                    || header[3] < '1' || header[3] > '9') {
+                throw new UnsplittableInputException("Not a BZIP2 stream header at byte " + bytesRead);
+            }
+            for (byte b : header) {
+                append(b & 0xff);
+            }
+            level = header[3] - '0';
+            streamDataStartBit = bytesRead * 8;
+            blockStartBit = -1;
+            inStream = true;
+            return true;
+        }
+        
+        /**
+         * Skips the stream CRC and the padding after an end-of-stream marker.
+         */
+        private void skipStreamTrailer(long trailerEndBit) throws IOException {
+            long streamEndByte = (trailerEndBit + 7) / 8;
+            while (bytesRead < streamEndByte) {
+                int next = input.read();
+                if (next == -1) {
+                    throw new UnsplittableInputException("BZIP2 stream trailer is truncated");
+                }
+                append(next);
+            }
+            blockStartBit = -1;
+            inStream = false;
+            discardBufferBefore(bytesRead);
+        }
+        
+        /**
+         * Cuts the open block off at the given bit and starts buffering from there.
+         */
+        private BlockSegment closeBlock(long endBit) {
+            BlockSegment segment = null;
+            if (blockStartBit >= 0) {
+                long firstByte = blockStartBit / 8;
+                long lastByte = (endBit + 7) / 8;
+                int from = (int) (firstByte - bufferStartByte);
+                int to = (int) (lastByte - bufferStartByte);
+                segment = new BlockSegment(Arrays.copyOfRange(buffer, from, to),
+                                           (int) (blockStartBit - firstByte * 8),
+                                           (int) (endBit - blockStartBit), level);
+            }
+            discardBufferBefore(endBit / 8);
+            return segment;
+        }
+        
+        private void append(int value) {
+            if (bufferLength == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            buffer[bufferLength++] = (byte) value;
+            register = (register << 8) | value;
+            bytesRead++;
+        }
+        
+        private void discardBufferBefore(long absoluteByte) {
+            int drop = (int) (absoluteByte - bufferStartByte);
+            if (drop > 0) {
+                System.arraycopy(buffer, drop, buffer, 0, bufferLength - drop);
+                bufferLength -= drop;
+                bufferStartByte = absoluteByte;
+            }
+        }
+    }
+    
+    /**
+     * Minimal MSB-first bit writer, which is the bit order BZIP2 uses.
+     */
+    private static final class BitWriter {
+        private final ByteArrayOutputStream output;
+        private long pending;
+        private int pendingBits;
+        
+        BitWriter(int expectedSize) {
+            this.output = new ByteArrayOutputStream(expectedSize);
+        }
+        
+        void writeBits(long value, int count) {
+            for (int i = count - 1; i >= 0; i--) {
+                pending = (pending << 1) | ((value >>> i) & 1);
+                if (++pendingBits == 8) {
+                    output.write((int) pending);
+                    pending = 0;
+                    pendingBits = 0;
+                }
+            }
+        }
+        
+        /**
+         * Copies a run of bits. Whole bytes are shifted in one go; only the tail goes bit by bit.
+         */
+        void copyBits(byte[] source, int bitOffset, int bitLength) {
+            int wholeBytes = bitLength / 8;
+            if (pendingBits == 0) {
+                int byteIndex = bitOffset / 8;
+                int shift = bitOffset % 8;
+                for (int i = 0; i < wholeBytes; i++, byteIndex++) {
+                    int value = (source[byteIndex] & 0xff) << shift;
+                    if (shift > 0) {
+                        value |= (source[byteIndex + 1] & 0xff) >>> (8 - shift);
+                    }
+                    output.write(value & 0xff);
+                }
+            } else {
+                for (int i = 0; i < wholeBytes; i++) {
+                    writeBits(readBits(source, bitOffset + i * 8L, 8), 8);
+                }
+            }
+            int tailBits = bitLength % 8;
+            writeBits(readBits(source, bitOffset + wholeBytes * 8L, tailBits), tailBits);
+        }
+        
+        byte[] toByteArray() {
+            if (pendingBits > 0) {
+                output.write((int) (pending << (8 - pendingBits)));
+                pending = 0;
+                pendingBits = 0;
+            }
+            return output.toByteArray();
+        }
+        
+        static long readBits(byte[] source, long bitOffset, int count) {
+            long value = 0;
+            for (int i = 0; i < count; i++) {
+                long bit = bitOffset + i;
+                value = (value << 1) | ((source[(int) (bit / 8)] >>> (7 - (bit % 8))) & 1);
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.javacompressor.compression;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+/**
+ * Writes {@link ChunkedFormat} files. Chunks are compressed on worker threads and written back in
+ * order, and the offset of each one is remembered for the index at the end. Nothing is ever
+ * written twice or seeked back to, so the output can be a pipe.
+ */
+class ParallelChunkedCompressor {
+    private final CompressionAlgorithm codec;
+    private final int level;
+    private final int chunkSize;
+    private final int workerCount;
+    
+    /**
+     * Creates a new compressor.
+     *
+     * @param codec What compresses each chunk: GZIP, BZIP2, LZ4, ZSTD or XZ
+     * @param level The compression level, pulled into the codec's range
+     * @param chunkSize Uncompressed size of each chunk
+     * @param workerCount Number of worker threads
+     */
+    ParallelChunkedCompressor(CompressionAlgorithm codec, int level, int chunkSize, int workerCount) {
+        ChunkedFormat.checkCodec(codec);
+        this.codec = codec;
+        this.level = codec.clampLevel(level);
+        this.chunkSize = chunkSize;
+        // LZMA2 encoders are big at high levels; don't run more of them than the heap holds
+        this.workerCount = codec == CompressionAlgorithm.XZ
+                ? Math.max(1, Math.min(workerCount, ParallelXzCompressor.workersThatFit(this.level, chunkSize)))
+                : Math.max(1, workerCount);
+    }
+    
+    int getWorkerCount() {
+        return workerCount;
+    }
+    
+    /**
+     * Compresses everything from the input into a chunked file.
+     *
+     * @param input The data to compress
+     * @param output Where the file is written
+     * @param bytesWrittenCallback Called with the total input bytes done after each chunk (may be null)
+     * @return The number of input bytes compressed
+     */
+    long compress(InputStream input, OutputStream output, LongConsumer bytesWrittenCallback) throws IOException {
+        List<long[]> chunks = new ArrayList<>();
+        long[] position = {ChunkedFormat.HEADER_SIZE};
+        
+        ChunkedFormat.writeHeader(output, chunkSize);
+        ParallelBlockProcessor processor = new ParallelBlockProcessor(chunkSize, workerCount, 0);
+        long totalBytes = processor.process(input, output, this::compressChunk, (block, encoded) -> {
+            if (encoded.length > 0) {
+                chunks.add(new long[] {position[0], block.getOffset()});
+                position[0] += encoded.length;
+            }
+            if (bytesWrittenCallback != null) {
+                bytesWrittenCallback.accept(block.getOffset() + block.getLength());
+            }
+        });
+        ChunkedFormat.writeIndex(output, position[0], chunks, totalBytes);
+        output.flush();
+        
+        return totalBytes;
+    }
+    
+    // An empty input still comes through as one empty block; it gets no chunk
+    private byte[] compressChunk(ParallelBlockProcessor.Block block) throws IOException {
+        if (block.getLength() == 0) {
+            return new byte[0];
+        }
+        return ChunkedFormat.encodeChunk(codec, level, block.getData(), block.getLength());
+    }
+}
@@ -0,0 +1,144 @@
+package com.javacompressor.compression;
+
+import com.javacompressor.util.CountingInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.LongConsumer;
+
+/**
+ * Reads {@link ChunkedFormat} files with several threads. The caller's thread reads the chunks
+ * (cheap, it's just copying bytes), workers decode them and check their CRC32C, and the results
+ * are written back in order with only a couple of chunks per worker in flight.
+ * <p>
+ * A whole stream is read front to back and doesn't need the index, so stdin works too. A range is
+ * read through the index: only the chunks that overlap it are read and decoded.
+ */
+class ParallelChunkedDecompressor {
+    private final int workerCount;
+    
+    /**
+     * Creates a new decompressor.
+     *
+     * @param workerCount Number of worker threads
+     */
+    ParallelChunkedDecompressor(int workerCount) {
+        this.workerCount = Math.max(1, workerCount);
+    }
+    
+    /**
+     * Decompresses a whole chunked stream. The index and trailer are checked against the chunks at the end.
+     *
+     * @param input The chunked data
+     * @param output Where the decompressed data goes (not closed)
+     * @param compressedBytesCallback Called with the compressed bytes done after each chunk (may be null)
+     * @return The number of decompressed bytes written
+     */
+    long decompress(InputStream input, OutputStream output, LongConsumer compressedBytesCallback)
+            throws IOException {
+        CountingInputStream in = new CountingInputStream(input);
+        ChunkedFormat.Reader reader = new ChunkedFormat.Reader(in);
+        
+        ExecutorService pool = ParallelBlockProcessor.newWorkerPool("chunk-decoder", workerCount);
+        Deque<Future<byte[]>> pending = new ArrayDeque<>();
+        Deque<Long> compressedEnds = new ArrayDeque<>();
+        int maxInFlight = workerCount * 2;
+        long bytesWritten = 0;
+        
+        try {
+            ChunkedFormat.Chunk chunk;
+            while ((chunk = reader.next()) != null) {
+                while (pending.size() >= maxInFlight) {
+                    bytesWritten += writeNext(pending, output, 0, Long.MAX_VALUE);
+                    reportProgress(compressedBytesCallback, compressedEnds.poll());
+                }
+                pending.add(pool.submit(chunk::decode));
+                compressedEnds.add(in.getCount());
+            }
+            
+            while (!pending.isEmpty()) {
+                bytesWritten += writeNext(pending, output, 0, Long.MAX_VALUE);
+                reportProgress(compressedBytesCallback, compressedEnds.poll());
+            }
+            output.flush();
+            
+            return bytesWritten;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+    
+    /**
+     * Decompresses part of a chunked file, decoding only the chunks it overlaps.
+     *
+     * @param channel The file's channel (left open)
+     * @param index The file's index
+     * @param offset Uncompressed offset to start at
+     * @param length Most bytes to write
+     * @param output Where the bytes go (not closed)
+     * @param bytesWrittenCallback Called with the bytes written so far after each chunk (may be null)
+     * @return The number of bytes written
+     */
+    long readRange(FileChannel channel, ChunkedFormat.Index index, long offset, long length, OutputStream output,
+                   LongConsumer bytesWrittenCallback) throws IOException {
+        if (length <= 0 || offset >= index.getUncompressedSize()) {
+            return 0;
+        }
+        long end = offset + Math.min(length, index.getUncompressedSize() - offset);
+        int first = index.chunkAt(offset);
+        int last = index.chunkAt(end - 1);
+        
+        ExecutorService pool = ParallelBlockProcessor.newWorkerPool("chunk-decoder", workerCount);
+        Deque<Future<byte[]>> pending = new ArrayDeque<>();
+        int maxInFlight = workerCount * 2;
+        int nextToWrite = first;
+        long bytesWritten = 0;
+        
+        try {
+            for (int chunk = first; chunk <= last; chunk++) {
+                while (pending.size() >= maxInFlight) {
+                    long position = index.getUncompressedOffset(nextToWrite++);
+                    bytesWritten += writeNext(pending, output, offset - position, end - position);
+                    reportProgress(bytesWrittenCallback, bytesWritten);
+                }
+                int chunkNumber = chunk;
+                pending.add(pool.submit(() -> index.readChunk(channel, chunkNumber).decode()));
+            }
+            
+            while (!pending.isEmpty()) {
+                long position = index.getUncompressedOffset(nextToWrite++);
+                bytesWritten += writeNext(pending, output, offset - position, end - position);
+                reportProgress(bytesWrittenCallback, bytesWritten);
+            }
+            output.flush();
+            
+            return bytesWritten;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+    
+    /**
+     * Waits for the oldest chunk and writes the part of it between from and to (relative to its start).
+     */
+    private static long writeNext(Deque<Future<byte[]>> pending, OutputStream output, long from,
+                                  long to) throws IOException {
+        byte[] decoded = ParallelBlockProcessor.awaitResult(pending.poll());
+        int start = (int) Math.max(0, from);
+        int stop = (int) Math.min(decoded.length, Math.max(start, to));
+        output.write(decoded, start, stop - start);
+        return stop - start;
+    }
+    
+    private static void reportProgress(LongConsumer callback, long bytes) {
+        if (callback != null) {
+            callback.accept(bytes);
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.javacompressor.compression;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongConsumer;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Multi-threaded GZIP writer that works the same way as pigz.
+ * The input is split into blocks which are deflated at the same time. Each block is primed
+ * with the last 32 KB of the block before it, so the ratio stays close to single-threaded
+ * deflate. Blocks end on a sync flush so they can simply be glued together into one
+ * ordinary GZIP member that any gunzip can read.
+ * <p>
+ * Because every block is deflated on its own, blocks don't have to share a level. With an
+ * {@link AdaptiveLevelController} each block takes whatever level the controller currently
+ * asks for, and the result is still one valid member.
+ * <p>
+ * Every block starts on a byte boundary with the previous block's tail as its only history, which
+ * is exactly what a {@link GzipIndex} checkpoint needs, so an index can be filled in as blocks are
+ * written.
+ */
+class ParallelGzipCompressor {
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final int OUTPUT_CHUNK_SIZE = 64 * 1024;
+    private static final int HEADER_SIZE = 10;
+    
+    private final int level;
+    private final int blockSize;
+    private final int workerCount;
+    private final AdaptiveLevelController adaptiveLevel;
+    private final GzipIndex checkpoints;
+    
+    /**
+     * Creates a new compressor.
+     *
+     * @param level The deflate level (1-9)
+     * @param blockSize Size of each independently deflated block
+     * @param workerCount Number of worker threads
+     */
+    ParallelGzipCompressor(int level, int blockSize, int workerCount) {
+        this(level, blockSize, workerCount, null);
+    }
+    
+    /**
+     * Creates a new compressor that can change the level from block to block.
+     *
+     * @param level The deflate level (1-9), or the starting level when adapting
+     * @param blockSize Size of each independently deflated block
+     * @param workerCount Number of worker threads
+     * @param adaptiveLevel Picks the level of each block (null for a fixed level)
+     */
+    ParallelGzipCompressor(int level, int blockSize, int workerCount, AdaptiveLevelController adaptiveLevel) {
+        this(level, blockSize, workerCount, adaptiveLevel, null);
+    }
+    
+    /**
+     * Creates a new compressor that also records checkpoints for random access.
+     *
+     * @param level The deflate level (1-9), or the starting level when adapting
+     * @param blockSize Size of each independently deflated block
+     * @param workerCount Number of worker threads
+     * @param adaptiveLevel Picks the level of each block (null for a fixed level)
+     * @param checkpoints Gets a checkpoint at every block where one is due (null for none)
+     */
+    ParallelGzipCompressor(int level, int blockSize, int workerCount, AdaptiveLevelController adaptiveLevel,
+                           GzipIndex checkpoints) {
+        this.level = level;
+        this.blockSize = blockSize;
+        this.workerCount = workerCount;
+        this.adaptiveLevel = adaptiveLevel;
+        this.checkpoints = checkpoints;
+    }
+    
+    /**
+     * Compresses everything from the input into a single GZIP member.
+     *
+     * @param input The data to compress
+     * @param output Where the GZIP stream is written
+     * @param bytesWrittenCallback Called with the total input bytes done after each block (may be null)
+     * @return The number of input bytes compressed
+     */
+    long compress(InputStream input, OutputStream output, LongConsumer bytesWrittenCallback) throws IOException {
+        CRC32 crc = new CRC32();
+        // Levels picked by the workers, keyed by block index, so the writer can tell the controller
+        Map<Integer, Integer> blockLevels = new ConcurrentHashMap<>();
+        TimedOutputStream timedOutput = new TimedOutputStream(output);
+        long[] compressedOffset = {HEADER_SIZE};
+        
+        ParallelBlockProcessor.BlockListener listener = (block, encoded) -> {
+            crc.update(block.getData(), 0, block.getLength());
+            if (checkpoints != null && checkpoints.isDue(block.getOffset())) {
+                checkpoints.add(compressedOffset[0], block.getOffset(), block.getDictionary());
+            }
+            compressedOffset[0] += encoded.length;
+            if (adaptiveLevel != null) {
+                adaptiveLevel.blockWritten(block.getOffset(), block.getLength(), blockLevels.remove(block.getIndex()),
+                                           timedOutput.takeNanos());
+            }
+            if (bytesWrittenCallback != null) {
+                bytesWrittenCallback.accept(block.getOffset() + block.getLength());
+            }
+        };
+        
+        writeHeader(output);
+        
+        ParallelBlockProcessor processor = new ParallelBlockProcessor(blockSize, workerCount, DICTIONARY_SIZE);
+        long totalBytes = processor.process(input, timedOutput, block -> deflateBlock(block, blockLevels), listener);
+        
+        writeTrailer(output, crc.getValue(), totalBytes);
+        output.flush();
+        if (checkpoints != null) {
+            checkpoints.setUncompressedSize(totalBytes);
+        }
+        
+        return totalBytes;
+    }
+    
+    /**
+     * Deflates one block as raw deflate data.
+     * Every block but the last ends with a sync flush so the next one starts on a byte boundary.
+     */
+    private byte[] deflateBlock(ParallelBlockProcessor.Block block, Map<Integer, Integer> blockLevels) {
+        int blockLevel = adaptiveLevel != null ? adaptiveLevel.currentLevel() : level;
+        blockLevels.put(block.getIndex(), blockLevel);
+        long start = System.nanoTime();
+        Deflater deflater = new Deflater(blockLevel, true);
+        try {
+            if (block.getDictionary() != null) {
+                deflater.setDictionary(block.getDictionary());
+            }
+            deflater.setInput(block.getData(), 0, block.getLength());
+            
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream(block.getLength() / 2 + 64);
+            byte[] buffer = new byte[OUTPUT_CHUNK_SIZE];
+            
+            if (block.isLast()) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int count = deflater.deflate(buffer);
+                    encoded.write(buffer, 0, count);
+                }
+            } else {
+                int count;
+                do {
+                    count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    encoded.write(buffer, 0, count);
+                } while (count == buffer.length);
+            }
+            
+            if (adaptiveLevel != null) {
+                adaptiveLevel.blockEncoded(blockLevel, block.getLength(), System.nanoTime() - start);
+            }
+            return encoded.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+    
+    /**
+     * Writes the 10-byte GZIP member header (no file name, no timestamp).
+     */
+    private void writeHeader(OutputStream output) throws IOException {
+        int extraFlags = level == 9 ? 2 : (level == 1 ? 4 : 0);
+        output.write(new byte[] {
+            (byte) 0x1f, (byte) 0x8b,  // magic
+            Deflater.DEFLATED,         // compression method
+            0,                         // flags
+            0, 0, 0, 0,                // modification time
+            (byte) extraFlags,
+            (byte) 255                 // unknown OS
+        });
+    }
+    
+    /**
+     * Writes the CRC-32 and the input size modulo 2^32, both little-endian.
+     */
+    private void writeTrailer(OutputStream output, long crc, long totalBytes) throws IOException {
+        writeIntLE(output, crc);
+        writeIntLE(output, totalBytes);
+    }
+    
+    private static void writeIntLE(OutputStream output, long value) throws IOException {
+        output.write((int) (value & 0xff));
+        output.write((int) ((value >>> 8) & 0xff));
+        output.write((int) ((value >>> 16) & 0xff));
+        output.write((int) ((value >>> 24) & 0xff));
+    }
+    
+    /**
+     * Keeps track of how long writes to the output take, so the controller can tell when the
+     * output is what holds things up.
+     */
+    private static final class TimedOutputStream extends FilterOutputStream {
+        private long nanos;
+        
+        TimedOutputStream(OutputStream out) {
+            super(out);
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            out.write(b, off, len);
+            nanos += System.nanoTime() - start;
+        }
+        
+        // Time spent writing since the last call
+        long takeNanos() {
+            long taken = nanos;
+            nanos = 0;
+            return taken;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.javacompressor.compression;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FrameOutputStream;
+import net.jpountz.xxhash.XXHashFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.function.LongConsumer;
+
+/**
+ * Multi-threaded LZ4 writer. The input is cut into frame-sized chunks, every chunk becomes its own
+ * complete LZ4 frame on a worker thread, and the frames are written back to back. The LZ4 frame
+ * format allows concatenated frames, so {@code lz4 -d} and {@code LZ4FrameInputStream} read the
+ * result as one file.
+ */
+class ParallelLz4Compressor {
+    // LZ4 is picked for speed, so most levels use the fast compressor (hundreds of MB/s per core);
+    // only 7-9 switch to LZ4 HC, which packs tighter at a tenth of the speed
+    private static final int FAST_LEVEL_LIMIT = 6;
+    private static final LZ4Factory FACTORY = LZ4Factory.fastestInstance();
+    
+    private final int level;
+    private final int frameSize;
+    private final int workerCount;
+    
+    /**
+     * Creates a new compressor.
+     *
+     * @param level The compression level (1-9)
+     * @param frameSize Size of the chunks that are compressed independently
+     * @param workerCount Number of worker threads
+     */
+    ParallelLz4Compressor(int level, int frameSize, int workerCount) {
+        this.level = level;
+        this.frameSize = frameSize;
+        this.workerCount = workerCount;
+    }
+    
+    /**
+     * Opens a stream that writes a single LZ4 frame. Blocks inside the frame never reference each
+     * other, and the frame ends with a checksum of the whole content.
+     *
+     * @param output Where the frame goes
+     * @param level The compression level (1-9)
+     * @param expectedSize How much data will be written, so small inputs get a small block buffer
+     * @return The stream; closing it finishes the frame and closes the output
+     */
+    static LZ4FrameOutputStream newFrameOutputStream(OutputStream output, int level, long expectedSize)
+            throws IOException {
+        return new LZ4FrameOutputStream(output, blockSizeFor(expectedSize), -1L, blockCompressor(level),
+                                        XXHashFactory.fastestInstance().hash32(),
+                                        LZ4FrameOutputStream.FLG.Bits.BLOCK_INDEPENDENCE,
+                                        LZ4FrameOutputStream.FLG.Bits.CONTENT_CHECKSUM);
+    }
+    
+    /**
+     * Gets the block compressor for a level: the fast one up to 6, LZ4 HC above.
+     */
+    static LZ4Compressor blockCompressor(int level) {
+        return level <= FAST_LEVEL_LIMIT ? FACTORY.fastCompressor() : FACTORY.highCompressor(level);
+    }
+    
+    /**
+     * Compresses everything from the input into a series of LZ4 frames.
+     *
+     * @param input The data to compress
+     * @param output Where the frames are written
+     * @param bytesWrittenCallback Called with the total input bytes done after each frame (may be null)
+     * @return The number of input bytes compressed
+     */
+    long compress(InputStream input, OutputStream output, LongConsumer bytesWrittenCallback) throws IOException {
+        ParallelBlockProcessor processor = new ParallelBlockProcessor(frameSize, workerCount, 0);
+        long totalBytes = processor.process(input, output, this::compressFrame, (block, encoded) -> {
+            if (bytesWrittenCallback != null) {
+                bytesWrittenCallback.accept(block.getOffset() + block.getLength());
+            }
+        });
+        output.flush();
+        
+        return totalBytes;
+    }
+    
+    /**
+     * Compresses one chunk into a standalone LZ4 frame.
+     */
+    private byte[] compressFrame(ParallelBlockProcessor.Block block) throws IOException {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream(block.getLength() / 2 + 64);
+        try (LZ4FrameOutputStream lz4Out = newFrameOutputStream(encoded, level, block.getLength())) {
+            lz4Out.write(block.getData(), 0, block.getLength());
+        }
+        return encoded.toByteArray();
+    }
+    
+    // The frame keeps one block buffer (plus one for its compressed form), so don't make it bigger than the data
+    private static LZ4FrameOutputStream.BLOCKSIZE blockSizeFor(long expectedSize) {
+        if (expectedSize >= 0) {
+            for (LZ4FrameOutputStream.BLOCKSIZE size : LZ4FrameOutputStream.BLOCKSIZE.values()) {
+                if (size.getIndicator() >= 4 && (1L << (2 * size.getIndicator() + 8)) >= expectedSize) {
+                    return size;
+                }
+            }
+        }
+        return LZ4FrameOutputStream.BLOCKSIZE.SIZE_4MB;
+    }
+}
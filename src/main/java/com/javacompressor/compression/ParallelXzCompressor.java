@@ -0,0 +1,240 @@
+package com.javacompressor.compression;
+
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.UnsupportedOptionsException;
+import org.tukaani.xz.XZ;
+import org.tukaani.xz.XZOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * Multi-block XZ writer, laid out like {@code xz -T}: the input is cut into blocks, every block is
+ * LZMA2-compressed on its own on a worker thread, and the blocks are written into a single XZ
+ * stream followed by an index of where each block starts and how big it is.
+ * <p>
+ * Each worker produces a complete one-block XZ stream, and we keep only the block out of it; the
+ * stream header, index and footer are written once for the whole file. Because the index lists
+ * every block, {@link ParallelXzDecompressor} (or any {@code SeekableXZInputStream}) can jump
+ * straight to a block and decode blocks side by side.
+ */
+class ParallelXzCompressor {
+    private static final byte[] HEADER_MAGIC = {(byte) 0xFD, '7', 'z', 'X', 'Z', 0};
+    private static final byte[] FOOTER_MAGIC = {'Y', 'Z'};
+    private static final int STREAM_HEADER_SIZE = 12;
+    private static final int STREAM_FOOTER_SIZE = 12;
+    private static final int CHECK_TYPE = XZ.CHECK_CRC64;
+    // Same default as xz itself: big enough that splitting costs almost nothing in ratio
+    private static final int DICTIONARIES_PER_BLOCK = 3;
+    private static final int MIN_BLOCK_SIZE = 1024 * 1024;
+    
+    private final int preset;
+    private final int blockSize;
+    private final int workerCount;
+    
+    /**
+     * Creates a new compressor.
+     *
+     * @param level The compression level (1-9), used as the XZ preset
+     * @param blockSize Size of the blocks compressed independently, or 0 for three times the preset's dictionary
+     * @param workerCount Most worker threads to use; fewer are used if the encoders wouldn't fit in the heap
+     */
+    ParallelXzCompressor(int level, int blockSize, int workerCount) {
+        this.preset = level;
+        this.blockSize = blockSize > 0 ? blockSize : defaultBlockSize(level);
+        this.workerCount = Math.max(1, Math.min(workerCount, workersThatFit(level, this.blockSize)));
+    }
+    
+    int getWorkerCount() {
+        return workerCount;
+    }
+    
+    /**
+     * Compresses everything from the input into one multi-block XZ stream.
+     *
+     * @param input The data to compress
+     * @param output Where the stream is written
+     * @param bytesWrittenCallback Called with the total input bytes done after each block (may be null)
+     * @return The number of input bytes compressed
+     */
+    long compress(InputStream input, OutputStream output, LongConsumer bytesWrittenCallback) throws IOException {
+        // Unpadded sizes come back from the workers, keyed by block index, since the encoded bytes don't carry them
+        Map<Integer, Long> unpaddedSizes = new ConcurrentHashMap<>();
+        List<long[]> records = new ArrayList<>();
+        
+        ParallelBlockProcessor.BlockListener listener = (block, encoded) -> {
+            if (encoded.length > 0) {
+                records.add(new long[] {unpaddedSizes.remove(block.getIndex()), block.getLength()});
+            }
+            if (bytesWrittenCallback != null) {
+                bytesWrittenCallback.accept(block.getOffset() + block.getLength());
+            }
+        };
+        
+        writeStreamHeader(output);
+        ParallelBlockProcessor processor = new ParallelBlockProcessor(blockSize, workerCount, 0);
+        long totalBytes = processor.process(input, output, block -> compressBlock(block, unpaddedSizes), listener);
+        writeIndexAndFooter(output, records);
+        output.flush();
+        
+        return totalBytes;
+    }
+    
+    /**
+     * Compresses one block into a throwaway XZ stream and cuts the block out of it.
+     */
+    private byte[] compressBlock(ParallelBlockProcessor.Block block, Map<Integer, Long> unpaddedSizes)
+            throws IOException {
+        if (block.getLength() == 0) {
+            return new byte[0];
+        }
+        
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream(block.getLength() / 3 + 1024);
+        try (XZOutputStream xzOut = new XZOutputStream(encoded, lzma2Options(preset, block.getLength()), CHECK_TYPE)) {
+            xzOut.write(block.getData(), 0, block.getLength());
+        }
+        byte[] stream = encoded.toByteArray();
+        
+        // The footer's backward size tells us where the index starts; the block sits between header and index
+        int indexSize = (int) ((readUInt32(stream, stream.length - 8) + 1) * 4);
+        int blockEnd = stream.length - STREAM_FOOTER_SIZE - indexSize;
+        
+        // Index: indicator, record count (1), unpadded size, uncompressed size
+        int[] position = {blockEnd + 1};
+        long recordCount = readVarLong(stream, position);
+        if (recordCount != 1) {
+            throw new IOException("Expected a single XZ block, got " + recordCount);
+        }
+        unpaddedSizes.put(block.getIndex(), readVarLong(stream, position));
+        
+        byte[] blockBytes = new byte[blockEnd - STREAM_HEADER_SIZE];
+        System.arraycopy(stream, STREAM_HEADER_SIZE, blockBytes, 0, blockBytes.length);
+        return blockBytes;
+    }
+    
+    /**
+     * Gets the LZMA2 settings for a preset. The dictionary never needs to be bigger than the block,
+     * since matches can't reach across blocks anyway, so small blocks get a small (cheaper) one.
+     */
+    static LZMA2Options lzma2Options(int preset, long inputSize) throws UnsupportedOptionsException {
+        LZMA2Options options = new LZMA2Options(preset);
+        if (inputSize >= 0 && inputSize < options.getDictSize()) {
+            options.setDictSize((int) Math.max(LZMA2Options.DICT_SIZE_MIN, inputSize));
+        }
+        return options;
+    }
+    
+    private static int defaultBlockSize(int preset) {
+        long size = (long) dictionarySize(preset) * DICTIONARIES_PER_BLOCK;
+        return (int) Math.max(MIN_BLOCK_SIZE, Math.min(Integer.MAX_VALUE - 8, size));
+    }
+    
+    private static int dictionarySize(int preset) {
+        try {
+            return new LZMA2Options(preset).getDictSize();
+        } catch (UnsupportedOptionsException e) {
+            throw new IllegalArgumentException("Invalid XZ preset: " + preset, e);
+        }
+    }
+    
+    /**
+     * The LZMA2 encoder at -9 needs around 650 MB, so on a small heap we run fewer of them rather than
+     * running out of memory. Each worker also holds about three blocks: in flight, in the encoder and encoded.
+     */
+    static int workersThatFit(int preset, int blockSize) {
+        long encoderMemory;
+        try {
+            encoderMemory = lzma2Options(preset, blockSize).getEncoderMemoryUsage() * 1024L;
+        } catch (UnsupportedOptionsException e) {
+            throw new IllegalArgumentException("Invalid XZ preset: " + preset, e);
+        }
+        long perWorker = encoderMemory + 3L * blockSize;
+        long budget = Runtime.getRuntime().maxMemory() / 2;
+        return (int) Math.min(Integer.MAX_VALUE, budget / perWorker);
+    }
+    
+    private static void writeStreamHeader(OutputStream output) throws IOException {
+        byte[] flags = {0, CHECK_TYPE};
+        output.write(HEADER_MAGIC);
+        output.write(flags);
+        writeUInt32(output, crc32(flags, 0, flags.length));
+    }
+    
+    /**
+     * Writes the index (one record per block) and the stream footer.
+     */
+    private static void writeIndexAndFooter(OutputStream output, List<long[]> records) throws IOException {
+        ByteArrayOutputStream index = new ByteArrayOutputStream(16 + records.size() * 8);
+        index.write(0);
+        writeVarLong(index, records.size());
+        for (long[] record : records) {
+            writeVarLong(index, record[0]);
+            writeVarLong(index, record[1]);
+        }
+        while (index.size() % 4 != 0) {
+            index.write(0);
+        }
+        byte[] indexBytes = index.toByteArray();
+        output.write(indexBytes);
+        writeUInt32(output, crc32(indexBytes, 0, indexBytes.length));
+        
+        // Backward size is the index size (including its CRC) in 4-byte units, minus one
+        long backwardSize = (indexBytes.length + 4) / 4 - 1;
+        byte[] footerFields = {
+            (byte) backwardSize, (byte) (backwardSize >>> 8), (byte) (backwardSize >>> 16), (byte) (backwardSize >>> 24),
+            0, CHECK_TYPE
+        };
+        writeUInt32(output, crc32(footerFields, 0, footerFields.length));
+        output.write(footerFields);
+        output.write(FOOTER_MAGIC);
+    }
+    
+    private static long crc32(byte[] data, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, offset, length);
+        return crc.getValue();
+    }
+    
+    private static void writeUInt32(OutputStream output, long value) throws IOException {
+        for (int i = 0; i < 4; i++) {
+            output.write((int) (value >>> (8 * i)));
+        }
+    }
+    
+    private static long readUInt32(byte[] data, int offset) {
+        long value = 0;
+        for (int i = 0; i < 4; i++) {
+            value |= (data[offset + i] & 0xffL) << (8 * i);
+        }
+        return value;
+    }
+    
+    // XZ's variable-length integers: 7 bits per byte, low bits first, high bit set on all but the last byte
+    private static void writeVarLong(OutputStream output, long value) throws IOException {
+        while (value >= 0x80) {
+            output.write((int) (value | 0x80));
+            value >>>= 7;
+        }
+        output.write((int) value);
+    }
+    
+    private static long readVarLong(byte[] data, int[] position) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 63; shift += 7) {
+            int next = data[position[0]++] & 0xff;
+            value |= (long) (next & 0x7f) << shift;
+            if ((next & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed XZ index");
+    }
+}
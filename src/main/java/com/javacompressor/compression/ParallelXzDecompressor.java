@@ -0,0 +1,130 @@
+package com.javacompressor.compression;
+
+import org.tukaani.xz.SeekableFileInputStream;
+import org.tukaani.xz.SeekableXZInputStream;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.LongConsumer;
+
+/**
+ * Multi-threaded XZ reader for files with more than one block, such as the ones
+ * {@link ParallelXzCompressor} or {@code xz -T} write.
+ * <p>
+ * The index at the end of the file says where every block starts, so each worker opens the file
+ * on its own, seeks to its block and decodes just that block. Blocks are written back in order
+ * with only a couple per worker in flight. Block checks (CRC64 by default) are verified by the
+ * decoder as usual.
+ */
+class ParallelXzDecompressor {
+    private final int workerCount;
+    
+    /**
+     * Creates a new decompressor.
+     *
+     * @param workerCount Number of worker threads
+     */
+    ParallelXzDecompressor(int workerCount) {
+        this.workerCount = Math.max(1, workerCount);
+    }
+    
+    /**
+     * Counts the blocks in an XZ file by reading its index. Single-block files gain nothing from
+     * the parallel path.
+     */
+    static int blockCount(File sourceFile) throws IOException {
+        try (SeekableXZInputStream xzIn = new SeekableXZInputStream(new SeekableFileInputStream(sourceFile))) {
+            return xzIn.getBlockCount();
+        }
+    }
+    
+    /**
+     * Gets the uncompressed size of an XZ file from its index, without decoding anything.
+     */
+    static long uncompressedSize(File sourceFile) throws IOException {
+        try (SeekableXZInputStream xzIn = new SeekableXZInputStream(new SeekableFileInputStream(sourceFile))) {
+            return xzIn.length();
+        }
+    }
+    
+    /**
+     * Decompresses an XZ file using several threads.
+     *
+     * @param sourceFile The XZ file
+     * @param output Where the decompressed data goes
+     * @param compressedBytesCallback Called with the compressed bytes done after each block (may be null)
+     * @return The number of decompressed bytes written
+     */
+    long decompress(File sourceFile, OutputStream output, LongConsumer compressedBytesCallback) throws IOException {
+        long[] compressedEnds;
+        try (SeekableXZInputStream index = new SeekableXZInputStream(new SeekableFileInputStream(sourceFile))) {
+            compressedEnds = new long[index.getBlockCount()];
+            for (int block = 0; block < compressedEnds.length; block++) {
+                compressedEnds[block] = index.getBlockCompPos(block) + index.getBlockCompSize(block);
+            }
+        }
+        
+        ExecutorService pool = ParallelBlockProcessor.newWorkerPool("xz-decoder", workerCount);
+        Deque<Future<byte[]>> pending = new ArrayDeque<>();
+        int maxInFlight = workerCount * 2;
+        long bytesWritten = 0;
+        int nextToWrite = 0;
+        
+        try {
+            for (int block = 0; block < compressedEnds.length; block++) {
+                while (pending.size() >= maxInFlight) {
+                    bytesWritten += writeNext(pending, output);
+                    reportProgress(compressedBytesCallback, compressedEnds[nextToWrite++]);
+                }
+                int blockNumber = block;
+                pending.add(pool.submit(() -> decodeBlock(sourceFile, blockNumber)));
+            }
+            
+            while (!pending.isEmpty()) {
+                bytesWritten += writeNext(pending, output);
+                reportProgress(compressedBytesCallback, compressedEnds[nextToWrite++]);
+            }
+            output.flush();
+            
+            return bytesWritten;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+    
+    private static long writeNext(Deque<Future<byte[]>> pending, OutputStream output) throws IOException {
+        byte[] decoded = ParallelBlockProcessor.awaitResult(pending.poll());
+        output.write(decoded);
+        return decoded.length;
+    }
+    
+    /**
+     * Seeks to one block and decodes it. Runs on a worker thread, with its own file handle.
+     */
+    private static byte[] decodeBlock(File sourceFile, int block) throws IOException {
+        try (SeekableXZInputStream xzIn = new SeekableXZInputStream(new SeekableFileInputStream(sourceFile))) {
+            long size = xzIn.getBlockSize(block);
+            if (size > Integer.MAX_VALUE - 8) {
+                throw new IOException("XZ block " + block + " is too big to decode in memory: " + size + " bytes");
+            }
+            xzIn.seekToBlock(block);
+            byte[] decoded = new byte[(int) size];
+            int read = ParallelBlockProcessor.readFully(xzIn, decoded);
+            if (read != decoded.length) {
+                throw new IOException("XZ block " + block + " ended after " + read + " of " + size + " bytes");
+            }
+            return decoded;
+        }
+    }
+    
+    private static void reportProgress(LongConsumer callback, long compressedBytes) {
+        if (callback != null) {
+            callback.accept(compressedBytes);
+        }
+    }
+}
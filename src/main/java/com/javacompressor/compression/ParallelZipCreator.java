@@ -0,0 +1,372 @@
+package com.javacompressor.compression;
+
+import com.javacompressor.util.FileChannelIO;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipMethod;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.LongConsumer;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Builds a ZIP archive by deflating many entries at the same time, in the spirit of
+ * commons-compress's {@code ParallelScatterZipCreator}.
+ * <p>
+ * Each entry is deflated into its own scatter buffer on a worker thread, then the buffers are
+ * copied into the archive as raw entries in the order the files were given, so the archive is
+ * the same no matter how the threads were scheduled. Buffers live in memory while the memory
+ * budget allows and spill to temp files otherwise. Once both budgets are used up we wait for the
+ * oldest entry to be written before reading more, so buffering never goes over the caps.
+ * <p>
+ * Entries that won't shrink are STORED: the worker only samples them (see {@link ZipMethodSelector})
+ * and the file is copied into the archive when its turn comes, without a scatter buffer. An entry
+ * the sample got wrong, whose deflated size is no smaller than the file, is STORED as well. Only
+ * entries too big for either budget are streamed through the deflater and kept however they come out.
+ */
+class ParallelZipCreator {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_PENDING_PER_WORKER = 16;
+    
+    /**
+     * A file to add and the name it gets inside the archive.
+     */
+    static final class Source {
+        private final File file;
+        private final String entryName;
+        private final long size;
+        private final long lastModified;
+        
+        Source(File file, String entryName, long size, long lastModified) {
+            this.file = file;
+            this.entryName = entryName;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+        
+        ZipArchiveEntry newEntry() {
+            ZipArchiveEntry entry = new ZipArchiveEntry(entryName);
+            entry.setTime(lastModified);
+            return entry;
+        }
+    }
+    
+    private final int level;
+    private final int workerCount;
+    private final int ioBufferSize;
+    private final long mapThreshold;
+    private final boolean storeIncompressible;
+    private long memoryAvailable;
+    private long diskAvailable;
+    private int storedCount;
+    private DigestTee digests;
+    
+    /**
+     * Creates a new creator.
+     *
+     * @param level The deflate level (1-9)
+     * @param workerCount Number of worker threads
+     * @param memoryLimit Most bytes kept in in-memory scatter buffers at once
+     * @param diskLimit Most bytes kept in temp-file scatter buffers at once
+     * @param ioBufferSize Largest buffer used for reading a source file
+     * @param mapThreshold Source files at least this big are memory-mapped (0 never maps)
+     * @param storeIncompressible Whether entries that won't shrink are STORED instead of deflated
+     */
+    ParallelZipCreator(int level, int workerCount, long memoryLimit, long diskLimit, int ioBufferSize,
+                       long mapThreshold, boolean storeIncompressible) {
+        this.level = level;
+        this.workerCount = Math.max(1, workerCount);
+        this.ioBufferSize = ioBufferSize;
+        this.mapThreshold = mapThreshold;
+        this.storeIncompressible = storeIncompressible;
+        this.memoryAvailable = memoryLimit;
+        this.diskAvailable = diskLimit;
+    }
+    
+    /**
+     * Deflates all files and writes them into the archive in the given order.
+     *
+     * @param sources The files to add
+     * @param zipOutput The archive being written
+     * @param digests Where every file read also goes, on the worker that reads it (may be null)
+     * @param bytesDoneCallback Called with the total input bytes written so far (may be null)
+     * @return The number of input bytes added
+     */
+    long write(List<Source> sources, ZipArchiveOutputStream zipOutput, DigestTee digests,
+               LongConsumer bytesDoneCallback) throws IOException {
+        this.digests = digests;
+        ExecutorService pool = ParallelBlockProcessor.newWorkerPool("zip-worker", workerCount);
+        Deque<PendingEntry> pending = new ArrayDeque<>();
+        int maxPending = workerCount * MAX_PENDING_PER_WORKER;
+        long bytesDone = 0;
+        storedCount = 0;
+        
+        try {
+            for (Source source : sources) {
+                long reservation = worstCaseSize(source.size);
+                
+                // Make room by writing out the oldest entries until this one fits into a budget
+                while (!pending.isEmpty() && (pending.size() >= maxPending
+                        || (reservation > memoryAvailable && reservation > diskAvailable))) {
+                    bytesDone += writeNext(pending, zipOutput);
+                    reportProgress(bytesDoneCallback, bytesDone);
+                }
+                
+                if (reservation <= memoryAvailable) {
+                    memoryAvailable -= reservation;
+                    pending.add(submit(pool, source, false, reservation));
+                } else if (reservation <= diskAvailable) {
+                    diskAvailable -= reservation;
+                    pending.add(submit(pool, source, true, reservation));
+                } else {
+                    // Too big to buffer at all: nothing is pending now, so stream it straight in
+                    bytesDone += writeDirect(source, selectMethod(source), zipOutput);
+                    reportProgress(bytesDoneCallback, bytesDone);
+                }
+            }
+            
+            while (!pending.isEmpty()) {
+                bytesDone += writeNext(pending, zipOutput);
+                reportProgress(bytesDoneCallback, bytesDone);
+            }
+            
+            return bytesDone;
+        } finally {
+            pool.shutdownNow();
+            for (PendingEntry entry : pending) {
+                entry.discard();
+            }
+        }
+    }
+    
+    /**
+     * Number of entries written as STORED by the last {@link #write} call.
+     */
+    int getStoredCount() {
+        return storedCount;
+    }
+    
+    private PendingEntry submit(ExecutorService pool, Source source, boolean onDisk, long reservation) {
+        return new PendingEntry(pool.submit(() -> deflateEntry(source, onDisk)), onDisk, reservation);
+    }
+    
+    /**
+     * Waits for the oldest entry, copies it into the archive and gives its budget back.
+     */
+    private long writeNext(Deque<PendingEntry> pending, ZipArchiveOutputStream zipOutput) throws IOException {
+        PendingEntry next = pending.poll();
+        try (ScatterBuffer buffer = ParallelBlockProcessor.awaitResult(next.result)) {
+            if (buffer.stored != null) {
+                return writeDirect(buffer.stored, ZipMethod.STORED.getCode(), zipOutput);
+            }
+            if (buffer.entry.getCompressedSize() >= buffer.entry.getSize()) {
+                return writeInflated(buffer, zipOutput);
+            }
+            try (InputStream raw = buffer.openInputStream()) {
+                zipOutput.addRawArchiveEntry(buffer.entry, raw);
+            }
+            return buffer.entry.getSize();
+        } finally {
+            if (next.onDisk) {
+                diskAvailable += next.reservation;
+            } else {
+                memoryAvailable += next.reservation;
+            }
+        }
+    }
+    
+    /**
+     * Writes a deflated entry that came out no smaller than the file as STORED instead. The bytes are
+     * inflated back out of the scatter buffer, so the file isn't read (or digested) a second time.
+     */
+    private long writeInflated(ScatterBuffer buffer, ZipArchiveOutputStream zipOutput) throws IOException {
+        buffer.entry.setMethod(ZipMethod.STORED.getCode());
+        buffer.entry.setCompressedSize(buffer.entry.getSize());
+        Inflater inflater = new Inflater(true);
+        try (InputStream raw = new InflaterInputStream(buffer.openInputStream(), inflater, BUFFER_SIZE)) {
+            zipOutput.addRawArchiveEntry(buffer.entry, raw);
+        } finally {
+            inflater.end();
+        }
+        storedCount++;
+        return buffer.entry.getSize();
+    }
+    
+    /**
+     * Deflates one file into a scatter buffer. Runs on a worker thread.
+     */
+    private ScatterBuffer deflateEntry(Source source, boolean onDisk) throws IOException {
+        if (selectMethod(source) == ZipMethod.STORED.getCode()) {
+            return new ScatterBuffer(source);
+        }
+        ScatterBuffer buffer = new ScatterBuffer(source.newEntry(), onDisk);
+        CRC32 crc = new CRC32();
+        Deflater deflater = new Deflater(level, true);
+        long size = 0;
+        
+        try (InputStream in = openSource(source);
+             DeflaterOutputStream deflated = new DeflaterOutputStream(buffer.openOutputStream(), deflater, BUFFER_SIZE)) {
+            byte[] chunk = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(chunk)) != -1) {
+                deflated.write(chunk, 0, read);
+                crc.update(chunk, 0, read);
+                size += read;
+            }
+            deflated.finish();
+            buffer.entry.setCompressedSize(deflater.getBytesWritten());
+        } catch (IOException | RuntimeException e) {
+            buffer.close();
+            throw e;
+        } finally {
+            deflater.end();
+        }
+        
+        buffer.entry.setMethod(ZipMethod.DEFLATED.getCode());
+        buffer.entry.setSize(size);
+        buffer.entry.setCrc(crc.getValue());
+        return buffer;
+    }
+    
+    /**
+     * Writes an entry through the archive itself, without buffering. STORED entries skip the deflater;
+     * the archive works out their CRC and patches it into the header afterwards.
+     */
+    private long writeDirect(Source source, int method, ZipArchiveOutputStream zipOutput) throws IOException {
+        ZipArchiveEntry entry = source.newEntry();
+        entry.setMethod(method);
+        if (method == ZipMethod.STORED.getCode()) {
+            entry.setSize(source.size);
+            storedCount++;
+        }
+        zipOutput.putArchiveEntry(entry);
+        long size = 0;
+        try (InputStream in = openSource(source)) {
+            byte[] chunk = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(chunk)) != -1) {
+                zipOutput.write(chunk, 0, read);
+                size += read;
+            }
+        }
+        zipOutput.closeArchiveEntry();
+        return size;
+    }
+    
+    private InputStream openSource(Source source) throws IOException {
+        InputStream in = FileChannelIO.openInput(source.file, ioBufferSize, mapThreshold);
+        return digests != null ? digests.wrap(source.entryName, in) : in;
+    }
+    
+    private int selectMethod(Source source) throws IOException {
+        return storeIncompressible ? ZipMethodSelector.select(source.file, source.size) : ZipMethod.DEFLATED.getCode();
+    }
+    
+    private static void reportProgress(LongConsumer callback, long bytesDone) {
+        if (callback != null) {
+            callback.accept(bytesDone);
+        }
+    }
+    
+    // Deflate can grow incompressible data by a few bytes per stored block
+    private static long worstCaseSize(long size) {
+        return size + (size >> 10) + 64;
+    }
+    
+    /**
+     * An entry that has been handed to a worker, plus the budget it holds.
+     */
+    private static final class PendingEntry {
+        private final Future<ScatterBuffer> result;
+        private final boolean onDisk;
+        private final long reservation;
+        
+        PendingEntry(Future<ScatterBuffer> result, boolean onDisk, long reservation) {
+            this.result = result;
+            this.onDisk = onDisk;
+            this.reservation = reservation;
+        }
+        
+        // Cleans up after a failed or cancelled run
+        void discard() {
+            if (!result.cancel(true) && result.isDone()) {
+                try {
+                    result.get().close();
+                } catch (Exception ignored) {
+                    // The entry failed anyway, nothing left to clean up
+                }
+            }
+        }
+    }
+    
+    /**
+     * Holds one deflated entry, either in memory or in a temp file, or just the source of an entry
+     * that is going to be STORED.
+     */
+    private static final class ScatterBuffer implements AutoCloseable {
+        private final ZipArchiveEntry entry;
+        private final MemoryBuffer memory;
+        private final Path tempFile;
+        private final Source stored;
+        
+        ScatterBuffer(ZipArchiveEntry entry, boolean onDisk) throws IOException {
+            this.entry = entry;
+            this.memory = onDisk ? null : new MemoryBuffer();
+            this.tempFile = onDisk ? Files.createTempFile("zip-scatter", ".tmp") : null;
+            this.stored = null;
+        }
+        
+        ScatterBuffer(Source stored) {
+            this.entry = null;
+            this.memory = null;
+            this.tempFile = null;
+            this.stored = stored;
+        }
+        
+        OutputStream openOutputStream() throws IOException {
+            if (memory != null) {
+                return memory;
+            }
+            return FileChannelIO.openOutput(tempFile.toFile(), BUFFER_SIZE);
+        }
+        
+        InputStream openInputStream() throws IOException {
+            if (memory != null) {
+                return memory.toInputStream();
+            }
+            return FileChannelIO.openInput(tempFile.toFile(), BUFFER_SIZE, 0);
+        }
+        
+        @Override
+        public void close() throws IOException {
+            if (tempFile != null) {
+                Files.deleteIfExists(tempFile);
+            }
+        }
+    }
+    
+    /**
+     * Byte array stream that can be read back without copying the whole array.
+     */
+    private static final class MemoryBuffer extends ByteArrayOutputStream {
+        InputStream toInputStream() {
+            return new ByteArrayInputStream(buf, 0, count);
+        }
+    }
+}
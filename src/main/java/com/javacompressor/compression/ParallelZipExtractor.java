@@ -0,0 +1,332 @@
+package com.javacompressor.compression;
+
+import com.javacompressor.model.EntryTestResult;
+import com.javacompressor.util.FileChannelIO;
+import com.javacompressor.util.FileUtils;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipMethod;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * Extracts the entries of a ZIP file on several threads, or just checks them.
+ * <p>
+ * Archives full of tiny files are limited by per-file latency rather than by inflating, so the
+ * entries are split into batches that workers extract at the same time, all reading from the
+ * same channel at the offsets in the {@link ZipIndex} (positional reads, so that's safe).
+ * Directories that were already created are remembered, so each one is only checked once, and
+ * small entries are read and written in a single call instead of going through a copy loop. Big
+ * STORED entries are copied from the archive to the output file with transferTo, so their bytes
+ * never enter the JVM.
+ * <p>
+ * Checking runs the same batches but decodes into a CRC32 instead of a file, so a nightly archive
+ * can be verified for the price of the CPU alone. A broken entry doesn't stop the others.
+ */
+class ParallelZipExtractor {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long SMALL_FILE_LIMIT = 64 * 1024;
+    private static final int MAX_BATCH_ENTRIES = 256;
+    private static final long MAX_BATCH_BYTES = 8L * 1024 * 1024;
+    private static final long PROGRESS_POLL_MILLIS = 100;
+    
+    private final int workerCount;
+    private final int ioBufferSize;
+    private final ConcurrentHashMap<File, Boolean> createdDirectories = new ConcurrentHashMap<>();
+    
+    /**
+     * Creates a new extractor.
+     *
+     * @param workerCount Number of worker threads (1 extracts on the calling thread)
+     * @param ioBufferSize Largest buffer used for writing an extracted file
+     */
+    ParallelZipExtractor(int workerCount, int ioBufferSize) {
+        this.workerCount = Math.max(1, workerCount);
+        this.ioBufferSize = ioBufferSize;
+    }
+    
+    /**
+     * Extracts the given entries below the output directory.
+     *
+     * @param archive The archive's channel
+     * @param entries The entries to extract
+     * @param outputDirectory Where to put them
+     * @param bytesDoneCallback Called on the calling thread with the total bytes extracted so far (may be null)
+     * @return The number of bytes extracted
+     */
+    long extract(FileChannel archive, List<ZipArchiveEntry> entries, File outputDirectory,
+                 LongConsumer bytesDoneCallback) throws IOException {
+        AtomicLong bytesDone = new AtomicLong();
+        createdDirectories.put(outputDirectory, Boolean.TRUE);
+        
+        if (workerCount == 1) {
+            for (ZipArchiveEntry entry : entries) {
+                extractEntry(archive, entry, outputDirectory, bytesDone, bytesDoneCallback);
+                reportProgress(bytesDoneCallback, bytesDone.get());
+            }
+            return bytesDone.get();
+        }
+        
+        ExecutorService pool = ParallelBlockProcessor.newWorkerPool("unzip-worker", workerCount);
+        try {
+            List<Future<?>> batches = new ArrayList<>();
+            for (List<ZipArchiveEntry> batch : splitIntoBatches(entries)) {
+                batches.add(pool.submit(() -> {
+                    for (ZipArchiveEntry entry : batch) {
+                        extractEntry(archive, entry, outputDirectory, bytesDone, null);
+                    }
+                    return null;
+                }));
+            }
+            
+            // Workers only bump a counter; progress is reported from here so callbacks stay on one thread
+            for (Future<?> batch : batches) {
+                awaitWithProgress(batch, bytesDone, bytesDoneCallback);
+            }
+            reportProgress(bytesDoneCallback, bytesDone.get());
+            
+            return bytesDone.get();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+    
+    /**
+     * Decodes the given entries without writing them anywhere and checks each one against the CRC and
+     * size in the central directory. Directories are skipped.
+     *
+     * @param archive The archive's channel
+     * @param entries The entries to check
+     * @param bytesDoneCallback Called on the calling thread with the total bytes decoded so far (may be null)
+     * @return One result per file entry, in the order given
+     */
+    List<EntryTestResult> test(FileChannel archive, List<ZipArchiveEntry> entries,
+                               LongConsumer bytesDoneCallback) throws IOException {
+        AtomicLong bytesDone = new AtomicLong();
+        List<EntryTestResult> results = new ArrayList<>();
+        
+        if (workerCount == 1) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            for (ZipArchiveEntry entry : entries) {
+                if (!entry.isDirectory()) {
+                    results.add(testEntry(archive, entry, buffer, bytesDone, bytesDoneCallback));
+                }
+            }
+            reportProgress(bytesDoneCallback, bytesDone.get());
+            return results;
+        }
+        
+        ExecutorService pool = ParallelBlockProcessor.newWorkerPool("unzip-tester", workerCount);
+        try {
+            List<Future<List<EntryTestResult>>> batches = new ArrayList<>();
+            for (List<ZipArchiveEntry> batch : splitIntoBatches(entries)) {
+                batches.add(pool.submit(() -> {
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    List<EntryTestResult> batchResults = new ArrayList<>(batch.size());
+                    for (ZipArchiveEntry entry : batch) {
+                        if (!entry.isDirectory()) {
+                            batchResults.add(testEntry(archive, entry, buffer, bytesDone, null));
+                        }
+                    }
+                    return batchResults;
+                }));
+            }
+            
+            for (Future<List<EntryTestResult>> batch : batches) {
+                awaitWithProgress(batch, bytesDone, bytesDoneCallback);
+                results.addAll(ParallelBlockProcessor.awaitResult(batch));
+            }
+            reportProgress(bytesDoneCallback, bytesDone.get());
+            
+            return results;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+    
+    /**
+     * Decodes one entry into a CRC32. Anything wrong with the entry goes into its result; only an
+     * interrupt is thrown.
+     */
+    private static EntryTestResult testEntry(FileChannel archive, ZipArchiveEntry entry, byte[] buffer,
+                                             AtomicLong bytesDone, LongConsumer chunkCallback)
+            throws InterruptedIOException {
+        CRC32 crc = new CRC32();
+        long size = 0;
+        try (InputStream is = ZipIndex.openEntry(archive, entry)) {
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+                size += read;
+                reportProgress(chunkCallback, bytesDone.addAndGet(read));
+            }
+        } catch (InterruptedIOException e) {
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            String message = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            return new EntryTestResult(entry.getName(), size, -1, message);
+        }
+        
+        if (entry.getSize() >= 0 && size != entry.getSize()) {
+            return new EntryTestResult(entry.getName(), size, crc.getValue(),
+                                       "Size mismatch: " + size + " bytes instead of " + entry.getSize());
+        }
+        if (entry.getCrc() != -1 && crc.getValue() != entry.getCrc()) {
+            return new EntryTestResult(entry.getName(), size, crc.getValue(),
+                                       String.format("CRC mismatch: %08x instead of %08x", crc.getValue(),
+                                                     entry.getCrc()));
+        }
+        return new EntryTestResult(entry.getName(), size, crc.getValue(), null);
+    }
+    
+    /**
+     * Extracts one entry.
+     * The chunk callback is only passed when running on the calling thread, so big entries still show progress.
+     */
+    private void extractEntry(FileChannel archive, ZipArchiveEntry entry, File outputDirectory, AtomicLong bytesDone,
+                              LongConsumer chunkCallback) throws IOException {
+        File entryFile = FileUtils.resolveEntry(outputDirectory, entry.getName()).toFile();
+        
+        if (entry.isDirectory()) {
+            ensureDirectory(entryFile);
+            return;
+        }
+        
+        if (entryFile.getParentFile() != null) {
+            ensureDirectory(entryFile.getParentFile());
+        }
+        
+        long size = entry.getSize();
+        if (size >= 0 && size <= SMALL_FILE_LIMIT) {
+            // Small file fast path: one read, one write. The size comes from the archive, so one byte
+            // more is asked for to catch an entry that inflates to more than it says
+            byte[] content;
+            try (InputStream is = ZipIndex.openEntry(archive, entry)) {
+                content = is.readNBytes((int) size + 1);
+            }
+            if (content.length != size) {
+                throw new IOException(entry.getName() + ": size mismatch, "
+                                      + (content.length > size ? "more than " + size : content.length)
+                                      + " bytes instead of " + size);
+            }
+            if (entry.getCrc() != -1) {
+                CRC32 crc = new CRC32();
+                crc.update(content);
+                if (crc.getValue() != entry.getCrc()) {
+                    throw new IOException(String.format("%s: CRC mismatch, %08x instead of %08x", entry.getName(),
+                                                        crc.getValue(), entry.getCrc()));
+                }
+            }
+            Files.write(entryFile.toPath(), content);
+            bytesDone.addAndGet(content.length);
+            return;
+        }
+        
+        if (isPlainStored(entry)) {
+            try (FileChannel target = FileChannel.open(entryFile.toPath(), StandardOpenOption.CREATE,
+                                                       StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                FileChannelIO.transfer(archive, entry.getDataOffset(), size, target);
+            }
+            reportProgress(chunkCallback, bytesDone.addAndGet(size));
+            return;
+        }
+        
+        int outputBufferSize = (int) Math.min(ioBufferSize, Math.max(BUFFER_SIZE, size));
+        try (InputStream is = ZipIndex.openEntry(archive, entry);
+             OutputStream os = FileChannelIO.openOutput(entryFile, outputBufferSize)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                os.write(buffer, 0, read);
+                reportProgress(chunkCallback, bytesDone.addAndGet(read));
+            }
+        }
+    }
+    
+    /**
+     * Checks if an entry's bytes sit in the archive exactly as they should land on disk.
+     */
+    private static boolean isPlainStored(ZipArchiveEntry entry) {
+        return entry.getMethod() == ZipMethod.STORED.getCode()
+                && !entry.getGeneralPurposeBit().usesEncryption()
+                && entry.getDataOffset() >= 0
+                && entry.getSize() == entry.getCompressedSize();
+    }
+    
+    /**
+     * Creates a directory (and its parents) unless we already did.
+     * computeIfAbsent blocks other threads asking for the same directory until it exists.
+     */
+    private void ensureDirectory(File directory) throws IOException {
+        createdDirectories.computeIfAbsent(directory, dir -> dir.mkdirs() || dir.isDirectory());
+        if (!createdDirectories.get(directory)) {
+            throw new IOException("Could not create directory: " + directory);
+        }
+    }
+    
+    /**
+     * Groups consecutive entries into batches of a bounded size.
+     */
+    private List<List<ZipArchiveEntry>> splitIntoBatches(List<ZipArchiveEntry> entries) {
+        List<List<ZipArchiveEntry>> batches = new ArrayList<>();
+        List<ZipArchiveEntry> current = new ArrayList<>();
+        long currentBytes = 0;
+        
+        for (ZipArchiveEntry entry : entries) {
+            current.add(entry);
+            currentBytes += Math.max(0, entry.getSize());
+            if (current.size() >= MAX_BATCH_ENTRIES || currentBytes >= MAX_BATCH_BYTES) {
+                batches.add(current);
+                current = new ArrayList<>();
+                currentBytes = 0;
+            }
+        }
+        if (!current.isEmpty()) {
+            batches.add(current);
+        }
+        
+        return batches;
+    }
+    
+    private void awaitWithProgress(Future<?> future, AtomicLong bytesDone,
+                                   LongConsumer bytesDoneCallback) throws IOException {
+        while (true) {
+            try {
+                future.get(PROGRESS_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                return;
+            } catch (TimeoutException e) {
+                reportProgress(bytesDoneCallback, bytesDone.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while extracting");
+            } catch (ExecutionException e) {
+                // The future is done, so the shared helper just unwraps and rethrows
+                ParallelBlockProcessor.awaitResult(future);
+                return;
+            }
+        }
+    }
+    
+    private static void reportProgress(LongConsumer callback, long bytesDone) {
+        if (callback != null) {
+            callback.accept(bytesDone);
+        }
+    }
+}
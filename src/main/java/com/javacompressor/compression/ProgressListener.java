@@ -0,0 +1,18 @@
+package com.javacompressor.compression;
+
+import com.javacompressor.model.ProgressSnapshot;
+
+/**
+ * Receives progress updates from {@link CompressionService}.
+ * Updates are rate limited (see {@link CompressionOptions#setProgressIntervalMillis}), so it's fine to
+ * do UI work here.
+ */
+@FunctionalInterface
+public interface ProgressListener {
+    /**
+     * Called with the latest progress. Always called once more with the final numbers when the operation ends.
+     * 
+     * @param progress The current progress
+     */
+    void progressChanged(ProgressSnapshot progress);
+}
@@ -0,0 +1,76 @@
+package com.javacompressor.compression;
+
+import com.javacompressor.model.ProgressSnapshot;
+
+/**
+ * Turns the byte counts of a copy loop into a bounded number of {@link ProgressListener} calls.
+ * <p>
+ * Loops can call {@link #update} for every buffer; it's just a couple of comparisons until either
+ * the time interval has passed or progress moved on by the configured step, so a 10 GB file
+ * causes a few hundred UI updates instead of a million. Not thread-safe: call it from the thread
+ * running the operation.
+ */
+class ProgressTracker {
+    private final ProgressListener listener;
+    private final long totalBytesIn;
+    private final long intervalNanos;
+    private final long stepBytes;
+    private final long startNanos;
+    private long nextPublishNanos;
+    private long nextPublishBytes;
+    
+    /**
+     * Creates a tracker.
+     * 
+     * @param listener Where to publish (may be null, then updates are ignored)
+     * @param totalBytesIn Bytes the operation is expected to read
+     * @param intervalMillis Publish at least this often while bytes are moving
+     * @param step Also publish whenever the fraction done grew by this much (0 turns this off)
+     */
+    ProgressTracker(ProgressListener listener, long totalBytesIn, long intervalMillis, double step) {
+        this.listener = listener;
+        this.totalBytesIn = totalBytesIn;
+        this.intervalNanos = intervalMillis * 1_000_000L;
+        this.stepBytes = step > 0 && totalBytesIn > 0 ? Math.max(1, (long) (totalBytesIn * step)) : Long.MAX_VALUE;
+        this.startNanos = System.nanoTime();
+        this.nextPublishNanos = startNanos + intervalNanos;
+        this.nextPublishBytes = stepBytes;
+    }
+    
+    /**
+     * Reports the current byte counts; publishes them if the rate limit allows.
+     * 
+     * @param bytesIn Bytes read so far
+     * @param bytesOut Bytes written so far
+     */
+    void update(long bytesIn, long bytesOut) {
+        if (listener == null) {
+            return;
+        }
+        if (bytesIn < nextPublishBytes) {
+            long now = System.nanoTime();
+            if (now - nextPublishNanos < 0) {
+                return;
+            }
+        }
+        publish(bytesIn, bytesOut);
+    }
+    
+    /**
+     * Publishes the final numbers, regardless of the rate limit.
+     */
+    void finish(long bytesIn, long bytesOut) {
+        if (listener != null) {
+            publish(bytesIn, bytesOut);
+        }
+    }
+    
+    private void publish(long bytesIn, long bytesOut) {
+        long now = System.nanoTime();
+        nextPublishNanos = now + intervalNanos;
+        nextPublishBytes = stepBytes == Long.MAX_VALUE ? Long.MAX_VALUE : bytesIn + stepBytes;
+        
+        double fraction = totalBytesIn > 0 ? Math.min(1.0, (double) bytesIn / totalBytesIn) : 0;
+        listener.progressChanged(new ProgressSnapshot(fraction, bytesIn, bytesOut, totalBytesIn, now - startNanos));
+    }
+}
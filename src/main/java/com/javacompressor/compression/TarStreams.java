@@ -0,0 +1,175 @@
+package com.javacompressor.compression;
+
+import com.javacompressor.model.FileManifest;
+import com.javacompressor.util.FileChannelIO;
+import com.javacompressor.util.FileUtils;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * Writes a directory as a tar stream and extracts tar streams, so GZIP, BZIP2 and the other
+ * single-stream formats can hold whole directories (.tar.gz, .tar.bz2, ...) without a temporary
+ * .tar file on disk in either direction.
+ */
+final class TarStreams {
+    private static final Logger logger = LoggerFactory.getLogger(TarStreams.class);
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int RECORD_SIZE = TarConstants.DEFAULT_RCDSIZE;
+    private static final int EXECUTABLE_MODE = 0100755;
+    
+    private TarStreams() {
+    }
+    
+    /**
+     * Roughly how many bytes the tar of a manifest takes, for progress totals: one header block per
+     * file plus the contents padded to whole records.
+     */
+    static long estimateSize(FileManifest manifest) {
+        long size = 2L * RECORD_SIZE;
+        for (FileManifest.Entry entry : manifest.getEntries()) {
+            size += RECORD_SIZE + roundUp(entry.getSize(), RECORD_SIZE);
+        }
+        return roundUp(size, TarConstants.DEFAULT_BLKSIZE);
+    }
+    
+    /**
+     * Writes every file of the manifest into a tar stream, in manifest order.
+     * Files that disappeared since the scan are skipped; files that shrank are padded with zeros
+     * and files that grew are cut at the size the header already promised.
+     *
+     * @param manifest The files to write
+     * @param basePath Prefix for all entry names (empty or ending in '/')
+     * @param output Where the tar goes; it's finished but not closed
+     * @param ioBufferSize Largest buffer used for reading a file
+     * @param digests Where every file read also goes (may be null)
+     */
+    static void write(FileManifest manifest, String basePath, OutputStream output, int ioBufferSize,
+                      DigestTee digests) throws IOException {
+        TarArchiveOutputStream tarOut = new TarArchiveOutputStream(output, StandardCharsets.UTF_8.name());
+        tarOut.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+        tarOut.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+        tarOut.setAddPaxHeadersForNonAsciiNames(true);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        
+        for (FileManifest.Entry entry : manifest.getEntries()) {
+            InputStream in;
+            try {
+                in = FileChannelIO.openInput(entry.getPath().toFile(), ioBufferSize, 0);
+            } catch (NoSuchFileException e) {
+                logger.warn("Skipping file that no longer exists: {}", entry.getPath());
+                continue;
+            }
+            
+            String name = basePath + entry.getRelativeName();
+            DigestTee.Source digested = null;
+            if (digests != null) {
+                digested = digests.wrap(name, in);
+                in = digested;
+            }
+            
+            TarArchiveEntry tarEntry = new TarArchiveEntry(name);
+            tarEntry.setSize(entry.getSize());
+            tarEntry.setModTime(entry.getLastModified());
+            if (Files.isExecutable(entry.getPath())) {
+                tarEntry.setMode(EXECUTABLE_MODE);
+            }
+            tarOut.putArchiveEntry(tarEntry);
+            
+            long remaining = entry.getSize();
+            try (InputStream fileIn = in) {
+                int read;
+                while (remaining > 0 && (read = fileIn.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+                    tarOut.write(buffer, 0, read);
+                    remaining -= read;
+                }
+                // The tar only holds the size it was given, even if the file has grown since
+                if (digested != null && remaining == 0) {
+                    digested.complete();
+                }
+            }
+            if (remaining > 0) {
+                logger.warn("{} shrank while it was being archived, padding {} bytes", entry.getPath(), remaining);
+                Arrays.fill(buffer, (byte) 0);
+                while (remaining > 0) {
+                    int count = (int) Math.min(buffer.length, remaining);
+                    tarOut.write(buffer, 0, count);
+                    remaining -= count;
+                }
+            }
+            tarOut.closeArchiveEntry();
+        }
+        tarOut.finish();
+        tarOut.flush();
+    }
+    
+    /**
+     * Extracts a tar stream below a directory. Entries that would land outside of it (absolute
+     * paths, "../") are rejected, and links and devices are skipped.
+     *
+     * @param input The uncompressed tar
+     * @param outputDirectory Where to extract to
+     * @param ioBufferSize Write buffer size for extracted files
+     * @param bytesDoneCallback Called with the total bytes extracted so far after each chunk (may be null)
+     * @return The number of bytes extracted
+     */
+    static long extract(InputStream input, File outputDirectory, int ioBufferSize,
+                        LongConsumer bytesDoneCallback) throws IOException {
+        Path root = outputDirectory.toPath().toAbsolutePath().normalize();
+        Files.createDirectories(root);
+        TarArchiveInputStream tarIn = new TarArchiveInputStream(input, StandardCharsets.UTF_8.name());
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long bytesDone = 0;
+        
+        TarArchiveEntry entry;
+        while ((entry = tarIn.getNextTarEntry()) != null) {
+            Path target = FileUtils.resolveEntry(outputDirectory, entry.getName());
+            
+            if (entry.isDirectory()) {
+                Files.createDirectories(target);
+                continue;
+            }
+            if (!entry.isFile()) {
+                logger.warn("Skipping tar entry that isn't a regular file: {}", entry.getName());
+                continue;
+            }
+            
+            Files.createDirectories(target.getParent());
+            // A file never needs a write buffer bigger than itself
+            int bufferSize = (int) Math.max(4096, Math.min(ioBufferSize, entry.getSize()));
+            try (OutputStream out = FileChannelIO.openOutput(target.toFile(), bufferSize)) {
+                int read;
+                while ((read = tarIn.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                    bytesDone += read;
+                    if (bytesDoneCallback != null) {
+                        bytesDoneCallback.accept(bytesDone);
+                    }
+                }
+            }
+            target.toFile().setLastModified(entry.getModTime().getTime());
+            if ((entry.getMode() & 0100) != 0) {
+                target.toFile().setExecutable(true);
+            }
+        }
+        return bytesDone;
+    }
+    
+    private static long roundUp(long size, int unit) {
+        return (size + unit - 1) / unit * unit;
+    }
+}
@@ -0,0 +1,243 @@
+package com.javacompressor.compression;
+
+import com.javacompressor.model.ArchiveEntryInfo;
+import com.javacompressor.util.FileChannelIO;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.compress.archivers.zip.ZipMethod;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.InvalidPathException;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The parsed central directory of a ZIP file, so single entries can be found and read without
+ * touching the rest of the archive.
+ * <p>
+ * ZipFile parses the whole central directory every time it's opened, which takes seconds for an
+ * archive with a million entries. Indexes are kept in a small LRU cache instead, so listing an
+ * archive and then pulling one file out of it only parses it once. A cached index is used as long
+ * as the file still has the size and modification time it was read with.
+ * <p>
+ * Entries are read straight from the file at the offsets in the index: STORED ones as they are,
+ * DEFLATED ones through an Inflater. Anything else (other methods, encryption) goes through a
+ * ZipArchiveInputStream started at the entry's local header, which handles or rejects it the same
+ * way it would in a full extraction.
+ */
+final class ZipIndex {
+    // An entry takes a few hundred bytes, so the cache stays well below 1 GB
+    private static final int MAX_CACHED_ARCHIVES = 16;
+    private static final long MAX_CACHED_ENTRIES = 1_000_000;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    // Raw inflating needs one byte past the end of the data to notice it's done (ZipFile does the same)
+    private static final byte[] INFLATER_PADDING = new byte[1];
+    
+    // Access order, so the first entry is always the one used longest ago
+    private static final Map<String, ZipIndex> CACHE = new LinkedHashMap<>(16, 0.75f, true);
+    private static long cachedEntries;
+    
+    private final long length;
+    private final long lastModified;
+    private final List<ZipArchiveEntry> entries;
+    private final Map<String, ZipArchiveEntry> entriesByName;
+    private final long totalSize;
+    
+    private ZipIndex(long length, long lastModified, List<ZipArchiveEntry> entries) {
+        this.length = length;
+        this.lastModified = lastModified;
+        this.entries = Collections.unmodifiableList(entries);
+        this.entriesByName = new HashMap<>(entries.size() * 2);
+        long total = 0;
+        for (ZipArchiveEntry entry : entries) {
+            // Like ZipFile, the first of two entries with the same name wins
+            entriesByName.putIfAbsent(entry.getName(), entry);
+            total += Math.max(0, entry.getSize());
+        }
+        this.totalSize = total;
+    }
+    
+    /**
+     * Gets the index of an archive, from the cache if the file hasn't changed since it was read.
+     *
+     * @param archive The ZIP file
+     * @return The index
+     * @throws IOException If the file can't be read or isn't a ZIP file
+     */
+    static ZipIndex of(File archive) throws IOException {
+        String key = archive.getCanonicalPath();
+        // Taken before parsing, so a file that changes while we read it gets parsed again next time
+        long length = archive.length();
+        long lastModified = archive.lastModified();
+        
+        synchronized (CACHE) {
+            ZipIndex cached = CACHE.get(key);
+            if (cached != null && cached.length == length && cached.lastModified == lastModified) {
+                return cached;
+            }
+        }
+        
+        List<ZipArchiveEntry> entries;
+        try (ZipFile zipFile = new ZipFile(archive)) {
+            entries = Collections.list(zipFile.getEntries());
+        }
+        ZipIndex index = new ZipIndex(length, lastModified, entries);
+        if (entries.size() <= MAX_CACHED_ENTRIES) {
+            cache(key, index);
+        }
+        return index;
+    }
+    
+    private static void cache(String key, ZipIndex index) {
+        synchronized (CACHE) {
+            ZipIndex replaced = CACHE.put(key, index);
+            if (replaced != null) {
+                cachedEntries -= replaced.entries.size();
+            }
+            cachedEntries += index.entries.size();
+            
+            Iterator<ZipIndex> eldest = CACHE.values().iterator();
+            while ((CACHE.size() > MAX_CACHED_ARCHIVES || cachedEntries > MAX_CACHED_ENTRIES) && eldest.hasNext()) {
+                ZipIndex evicted = eldest.next();
+                if (evicted != index) {
+                    cachedEntries -= evicted.entries.size();
+                    eldest.remove();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Gets all entries, in central directory order.
+     */
+    List<ZipArchiveEntry> getEntries() {
+        return entries;
+    }
+    
+    /**
+     * Gets an entry by its exact name.
+     *
+     * @return The entry, or null if there's none
+     */
+    ZipArchiveEntry getEntry(String name) {
+        return entriesByName.get(name);
+    }
+    
+    /**
+     * Gets the uncompressed size of all entries together.
+     */
+    long getTotalSize() {
+        return totalSize;
+    }
+    
+    /**
+     * Finds the entries that match any of the patterns. A pattern is an entry name (a directory
+     * name takes everything below it) or a glob like {@code conf/*.yml}, where {@code **} also
+     * crosses directories.
+     *
+     * @param patterns Names or globs
+     * @return The matching entries, in central directory order
+     */
+    List<ZipArchiveEntry> find(List<String> patterns) {
+        List<String> names = new ArrayList<>(patterns.size());
+        List<PathMatcher> matchers = new ArrayList<>(patterns.size());
+        for (String pattern : patterns) {
+            String name = stripSlash(pattern);
+            names.add(name);
+            matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + name));
+        }
+        
+        List<ZipArchiveEntry> matches = new ArrayList<>();
+        for (ZipArchiveEntry entry : entries) {
+            String entryName = stripSlash(entry.getName());
+            for (int i = 0; i < names.size(); i++) {
+                if (matches(entryName, names.get(i), matchers.get(i))) {
+                    matches.add(entry);
+                    break;
+                }
+            }
+        }
+        return matches;
+    }
+    
+    private static boolean matches(String entryName, String name, PathMatcher matcher) {
+        if (entryName.equals(name) || entryName.startsWith(name + "/")) {
+            return true;
+        }
+        try {
+            return matcher.matches(Paths.get(entryName));
+        } catch (InvalidPathException e) {
+            // A name this platform can't have as a path can still be asked for exactly
+            return false;
+        }
+    }
+    
+    private static String stripSlash(String name) {
+        return name.endsWith("/") ? name.substring(0, name.length() - 1) : name;
+    }
+    
+    /**
+     * Opens an entry for reading. Safe to call from several threads on the same channel.
+     *
+     * @param archive The archive's channel (left open when the stream is closed)
+     * @param entry An entry of this archive's index
+     * @return The entry's uncompressed content
+     */
+    static InputStream openEntry(FileChannel archive, ZipArchiveEntry entry) throws IOException {
+        boolean plain = !entry.getGeneralPurposeBit().usesEncryption() && entry.getDataOffset() >= 0
+                && entry.getCompressedSize() >= 0;
+        
+        if (plain && entry.getMethod() == ZipMethod.STORED.getCode()) {
+            return FileChannelIO.openRange(archive, entry.getDataOffset(), entry.getCompressedSize(), READ_BUFFER_SIZE);
+        }
+        if (plain && entry.getMethod() == ZipMethod.DEFLATED.getCode()) {
+            InputStream raw = FileChannelIO.openRange(archive, entry.getDataOffset(), entry.getCompressedSize(),
+                                                      READ_BUFFER_SIZE);
+            Inflater inflater = new Inflater(true);
+            return new InflaterInputStream(new SequenceInputStream(raw, new ByteArrayInputStream(INFLATER_PADDING)),
+                                           inflater, READ_BUFFER_SIZE) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        inflater.end();
+                    }
+                }
+            };
+        }
+        
+        long headerOffset = entry.getLocalHeaderOffset();
+        ZipArchiveInputStream in = new ZipArchiveInputStream(
+                FileChannelIO.openRange(archive, headerOffset, archive.size() - headerOffset, READ_BUFFER_SIZE));
+        if (in.getNextZipEntry() == null) {
+            in.close();
+            throw new IOException("No local header for entry " + entry.getName());
+        }
+        return in;
+    }
+    
+    /**
+     * Describes an entry for a listing.
+     */
+    static ArchiveEntryInfo describe(ZipArchiveEntry entry) {
+        return new ArchiveEntryInfo(entry.getName(), entry.getSize(), entry.getCompressedSize(), entry.getTime(),
+                                    entry.isDirectory());
+    }
+}
@@ -0,0 +1,58 @@
+package com.javacompressor.compression;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Sets up zstd streams the way we want them. zstd does its own multi-threading: with workers
+ * enabled it cuts the input into jobs and compresses them on native threads, so unlike GZIP and
+ * BZIP2 there's no block splitting on our side.
+ */
+final class ZstdStreams {
+    // Below this a single thread finishes before the workers would get going
+    static final long PARALLEL_THRESHOLD = 8L * 1024 * 1024;
+    // Long-distance matching only pays off when there's far-apart repetition to find
+    static final long LONG_DISTANCE_THRESHOLD = 64L * 1024 * 1024;
+    // Decoders refuse windows above 2^27 unless told otherwise; we accept anything zstd can write
+    private static final int MAX_WINDOW_LOG = 31;
+    
+    private ZstdStreams() {
+    }
+    
+    /**
+     * Opens a compressing stream. Closing it finishes the frame and closes the output.
+     *
+     * @param output Where the compressed data goes
+     * @param level The zstd level (1-19)
+     * @param options Worker count and long-distance window
+     * @param inputSize The input size, or -1 if unknown
+     * @return The stream
+     */
+    static ZstdOutputStream newOutputStream(OutputStream output, int level, CompressionOptions options,
+                                            long inputSize) throws IOException {
+        ZstdOutputStream zstdOut = new ZstdOutputStream(output, level);
+        zstdOut.setChecksum(true);
+        
+        boolean unknownSize = inputSize < 0;
+        if (options.useParallel(unknownSize ? Long.MAX_VALUE : inputSize, PARALLEL_THRESHOLD)) {
+            zstdOut.setWorkers(options.getWorkerCount());
+        }
+        if (options.getZstdLongWindowLog() > 0 && (unknownSize || inputSize >= LONG_DISTANCE_THRESHOLD)) {
+            zstdOut.setLong(options.getZstdLongWindowLog());
+        }
+        return zstdOut;
+    }
+    
+    /**
+     * Opens a decompressing stream that reads concatenated frames and large long-distance windows.
+     */
+    static ZstdInputStream newInputStream(InputStream input) throws IOException {
+        ZstdInputStream zstdIn = new ZstdInputStream(input);
+        zstdIn.setLongMax(MAX_WINDOW_LOG);
+        return zstdIn;
+    }
+}
@@ -0,0 +1,49 @@
+package com.javacompressor.model;
+
+/**
+ * One entry of an archive as shown by a listing. GZIP, BZIP2 and LZ4 files have a single entry.
+ */
+public class ArchiveEntryInfo {
+    private final String name;
+    private final long size;
+    private final long compressedSize;
+    private final long lastModified;
+    private final boolean directory;
+    
+    /**
+     * Creates a new entry.
+     * 
+     * @param name The entry name
+     * @param size The uncompressed size, or -1 if unknown
+     * @param compressedSize The compressed size, or -1 if unknown
+     * @param lastModified The modification time in milliseconds since the epoch, or -1 if unknown
+     * @param directory Whether this is a directory entry
+     */
+    public ArchiveEntryInfo(String name, long size, long compressedSize, long lastModified, boolean directory) {
+        this.name = name;
+        this.size = size;
+        this.compressedSize = compressedSize;
+        this.lastModified = lastModified;
+        this.directory = directory;
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    public long getSize() {
+        return size;
+    }
+    
+    public long getCompressedSize() {
+        return compressedSize;
+    }
+    
+    public long getLastModified() {
+        return lastModified;
+    }
+    
+    public boolean isDirectory() {
+        return directory;
+    }
+}
@@ -0,0 +1,182 @@
+package com.javacompressor.model;
+
+import com.javacompressor.compression.CompressionAlgorithm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * What the compression advisor found out: how every algorithm and level did on a sample of the
+ * input, which of them are worth considering, and the one it recommends.
+ * <p>
+ * A trial is on the Pareto front when no other trial is both smaller and faster to compress; every
+ * other trial is beaten on both counts, so there's never a reason to pick it.
+ */
+public class CompressionAdvice {
+    private final long inputSize;
+    private final long sampleSize;
+    private final List<Trial> trials;
+    private final Trial recommended;
+    private final int skippedCount;
+    
+    /**
+     * Creates a new report.
+     *
+     * @param inputSize Size of the whole input in bytes
+     * @param sampleSize Bytes in the sample the trials ran on
+     * @param trials The trials that finished
+     * @param recommended The recommended trial, or null if none finished
+     * @param skippedCount Trials left out to stay within the time limit
+     */
+    public CompressionAdvice(long inputSize, long sampleSize, List<Trial> trials, Trial recommended,
+                             int skippedCount) {
+        List<Trial> sorted = new ArrayList<>(trials);
+        sorted.sort(Comparator.comparingDouble(Trial::getRatio));
+        for (Trial trial : sorted) {
+            trial.paretoOptimal = sorted.stream().noneMatch(other -> other.dominates(trial));
+        }
+        this.inputSize = inputSize;
+        this.sampleSize = sampleSize;
+        this.trials = Collections.unmodifiableList(sorted);
+        this.recommended = recommended;
+        this.skippedCount = skippedCount;
+    }
+    
+    public long getInputSize() {
+        return inputSize;
+    }
+    
+    public long getSampleSize() {
+        return sampleSize;
+    }
+    
+    /**
+     * Gets every trial that finished, smallest output first.
+     */
+    public List<Trial> getTrials() {
+        return trials;
+    }
+    
+    /**
+     * Gets the trials on the Pareto front, smallest output first (so slowest first).
+     */
+    public List<Trial> getParetoFront() {
+        List<Trial> front = new ArrayList<>();
+        for (Trial trial : trials) {
+            if (trial.isParetoOptimal()) {
+                front.add(trial);
+            }
+        }
+        return front;
+    }
+    
+    public Trial getRecommended() {
+        return recommended;
+    }
+    
+    public int getSkippedCount() {
+        return skippedCount;
+    }
+    
+    /**
+     * Formats the trials as a text table, with the recommended one marked by an arrow.
+     *
+     * @param all Whether to list every trial instead of just the Pareto front
+     * @return The table, one line per trial plus a header
+     */
+    public String formatTable(boolean all) {
+        StringBuilder table = new StringBuilder();
+        table.append(String.format("   %-10s %5s %7s %12s %12s%n",
+                                   "Algorithm", "Level", "Ratio", "Compress", "Decompress"));
+        for (Trial trial : all ? trials : getParetoFront()) {
+            table.append(String.format("%s %-10s %5d %6.1f%% %9.1f MB/s %7.1f MB/s%n",
+                                       trial == recommended ? "->" : trial.isParetoOptimal() && all ? " *" : "  ",
+                                       trial.getAlgorithm().name(), trial.getLevel(), trial.getRatio() * 100,
+                                       trial.getCompressMegabytesPerSecond(), trial.getDecompressMegabytesPerSecond()));
+        }
+        return table.toString();
+    }
+    
+    /**
+     * One algorithm and level tried on the sample. Speeds are for a single core.
+     */
+    public static final class Trial {
+        private final CompressionAlgorithm algorithm;
+        private final int level;
+        private final long sampleSize;
+        private final long compressedSize;
+        private final long compressNanos;
+        private final long decompressNanos;
+        private boolean paretoOptimal;
+        
+        /**
+         * Creates a new trial result.
+         *
+         * @param algorithm The algorithm
+         * @param level The level
+         * @param sampleSize Bytes compressed
+         * @param compressedSize Bytes they compressed to
+         * @param compressNanos Time spent compressing
+         * @param decompressNanos Time spent decompressing
+         */
+        public Trial(CompressionAlgorithm algorithm, int level, long sampleSize, long compressedSize,
+                     long compressNanos, long decompressNanos) {
+            this.algorithm = algorithm;
+            this.level = level;
+            this.sampleSize = sampleSize;
+            this.compressedSize = compressedSize;
+            this.compressNanos = compressNanos;
+            this.decompressNanos = decompressNanos;
+        }
+        
+        public CompressionAlgorithm getAlgorithm() {
+            return algorithm;
+        }
+        
+        public int getLevel() {
+            return level;
+        }
+        
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+        
+        /**
+         * Gets the compressed size as a fraction of the original (lower is better).
+         */
+        public double getRatio() {
+            return sampleSize > 0 ? (double) compressedSize / sampleSize : 1;
+        }
+        
+        public double getCompressMegabytesPerSecond() {
+            return megabytesPerSecond(sampleSize, compressNanos);
+        }
+        
+        public double getDecompressMegabytesPerSecond() {
+            return megabytesPerSecond(sampleSize, decompressNanos);
+        }
+        
+        public boolean isParetoOptimal() {
+            return paretoOptimal;
+        }
+        
+        /**
+         * Checks if this trial is at least as small and as fast as another, and better in one of them.
+         */
+        public boolean dominates(Trial other) {
+            boolean noWorse = compressedSize <= other.compressedSize && compressNanos <= other.compressNanos;
+            return noWorse && (compressedSize < other.compressedSize || compressNanos < other.compressNanos);
+        }
+        
+        private static double megabytesPerSecond(long bytes, long nanos) {
+            return nanos > 0 ? bytes * 1e9 / nanos / (1024 * 1024) : 0;
+        }
+        
+        @Override
+        public String toString() {
+            return algorithm.name() + " " + level;
+        }
+    }
+}
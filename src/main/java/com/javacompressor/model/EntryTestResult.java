@@ -0,0 +1,46 @@
+package com.javacompressor.model;
+
+/**
+ * The outcome of checking one archive entry: it decoded cleanly and matched its stored CRC and size, or it didn't.
+ */
+public class EntryTestResult {
+    private final String name;
+    private final long size;
+    private final long crc;
+    private final String error;
+    
+    /**
+     * Creates a new result.
+     *
+     * @param name The entry name
+     * @param size The bytes the entry decoded to (as far as it got, if it failed)
+     * @param crc The CRC32 of the decoded bytes, or -1 if it failed before the end
+     * @param error What was wrong with it, or null if it checked out
+     */
+    public EntryTestResult(String name, long size, long crc, String error) {
+        this.name = name;
+        this.size = size;
+        this.crc = crc;
+        this.error = error;
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    public long getSize() {
+        return size;
+    }
+    
+    public long getCrc() {
+        return crc;
+    }
+    
+    public String getError() {
+        return error;
+    }
+    
+    public boolean isOk() {
+        return error == null;
+    }
+}
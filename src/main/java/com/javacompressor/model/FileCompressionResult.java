@@ -0,0 +1,67 @@
+package com.javacompressor.model;
+
+import java.io.File;
+
+/**
+ * The outcome for one file when every file of a directory is compressed on its own.
+ */
+public class FileCompressionResult {
+    private final File sourceFile;
+    private final File outputFile;
+    private final long originalSize;
+    private final long compressedSize;
+    private final boolean originalDeleted;
+    private final String error;
+
+    /**
+     * Creates a new result.
+     *
+     * @param sourceFile The file that was compressed
+     * @param outputFile The compressed file next to it
+     * @param originalSize The bytes read from the source
+     * @param compressedSize The size of the compressed file, or -1 if there is none
+     * @param originalDeleted Whether the source was deleted after its compressed copy checked out
+     * @param error What went wrong, or null if the file was compressed fine
+     */
+    public FileCompressionResult(File sourceFile, File outputFile, long originalSize, long compressedSize,
+                                 boolean originalDeleted, String error) {
+        this.sourceFile = sourceFile;
+        this.outputFile = outputFile;
+        this.originalSize = originalSize;
+        this.compressedSize = compressedSize;
+        this.originalDeleted = originalDeleted;
+        this.error = error;
+    }
+
+    public File getSourceFile() {
+        return sourceFile;
+    }
+
+    public File getOutputFile() {
+        return outputFile;
+    }
+
+    public long getOriginalSize() {
+        return originalSize;
+    }
+
+    public long getCompressedSize() {
+        return compressedSize;
+    }
+
+    public boolean isOriginalDeleted() {
+        return originalDeleted;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * Checks if everything worked. After a failure the compressed copy is only kept if it was
+     * deleting the original that failed.
+     */
+    public boolean isSuccess() {
+        return error == null;
+    }
+}
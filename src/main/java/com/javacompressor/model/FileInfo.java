@@ -10,6 +10,7 @@ public class FileInfo {
     private final String name;
     private final long size;
     private final String type;
+    private final FileManifest manifest;
     
     /**
      * Creates a new FileInfo instance.
@@ -20,10 +21,24 @@ public class FileInfo {
      * @param type The file type or extension
      */
     public FileInfo(File file, String name, long size, String type) {
+        this(file, name, size, type, null);
+    }
+    
+    /**
+     * Creates a new FileInfo instance for a scanned directory.
+     * 
+     * @param file The file
+     * @param name The file name
+     * @param size The file size in bytes
+     * @param type The file type or extension
+     * @param manifest The directory's file manifest, or null for plain files
+     */
+    public FileInfo(File file, String name, long size, String type, FileManifest manifest) {
         this.file = file;
         this.name = name;
         this.size = size;
         this.type = type;
+        this.manifest = manifest;
     }
     
     /**
@@ -61,4 +76,13 @@ public class FileInfo {
     public String getType() {
         return type;
     }
-} 
\ No newline at end of file
+    
+    /**
+     * Gets the manifest built when a directory was selected.
+     * 
+     * @return The manifest, or null if this is a plain file
+     */
+    public FileManifest getManifest() {
+        return manifest;
+    }
+}
\ No newline at end of file
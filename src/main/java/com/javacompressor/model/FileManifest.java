@@ -0,0 +1,114 @@
+package com.javacompressor.model;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Snapshot of every regular file below a directory, taken once when the directory is selected.
+ * Sizes, timestamps and archive entry names are all read in that one pass, so the size display,
+ * progress totals and archivers can share it instead of walking the tree again.
+ */
+public class FileManifest {
+    private final File root;
+    private final List<Entry> entries;
+    private final long totalSize;
+    
+    /**
+     * Creates a new manifest.
+     *
+     * @param root The directory that was scanned
+     * @param entries The files found, in archive order
+     */
+    public FileManifest(File root, List<Entry> entries) {
+        this.root = root;
+        this.entries = Collections.unmodifiableList(entries);
+        
+        long size = 0;
+        for (Entry entry : entries) {
+            size += entry.getSize();
+        }
+        this.totalSize = size;
+    }
+    
+    /**
+     * Gets the directory that was scanned.
+     *
+     * @return The root directory
+     */
+    public File getRoot() {
+        return root;
+    }
+    
+    /**
+     * Gets all files, in the order they should go into an archive.
+     *
+     * @return The entries (read-only)
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+    
+    /**
+     * Gets the combined size of all files.
+     *
+     * @return The total size in bytes
+     */
+    public long getTotalSize() {
+        return totalSize;
+    }
+    
+    /**
+     * Gets the number of files.
+     *
+     * @return The file count
+     */
+    public int getFileCount() {
+        return entries.size();
+    }
+    
+    /**
+     * One regular file in the manifest.
+     */
+    public static class Entry {
+        private final Path path;
+        private final String relativeName;
+        private final long size;
+        private final long lastModified;
+        
+        /**
+         * Creates a new entry.
+         *
+         * @param path The file's path
+         * @param relativeName The path relative to the root, using '/' as separator
+         * @param size The file size in bytes
+         * @param lastModified The modification time in milliseconds since the epoch
+         */
+        public Entry(Path path, String relativeName, long size, long lastModified) {
+            this.path = path;
+            this.relativeName = relativeName;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+        
+        public Path getPath() {
+            return path;
+        }
+        
+        /**
+         * Gets the name this file gets inside an archive (relative to the root, '/' separated).
+         */
+        public String getRelativeName() {
+            return relativeName;
+        }
+        
+        public long getSize() {
+            return size;
+        }
+        
+        public long getLastModified() {
+            return lastModified;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.javacompressor.model;
+
+/**
+ * Point-in-time view of a running compression or decompression.
+ * "In" is what was read (the original file when compressing, the archive when decompressing)
+ * and "out" is what was written.
+ */
+public class ProgressSnapshot {
+    private final double fraction;
+    private final long bytesIn;
+    private final long bytesOut;
+    private final long totalBytesIn;
+    private final long elapsedNanos;
+    
+    /**
+     * Creates a new snapshot.
+     * 
+     * @param fraction How much of the work is done (0-1)
+     * @param bytesIn Bytes read so far
+     * @param bytesOut Bytes written so far
+     * @param totalBytesIn Bytes that will be read in total
+     * @param elapsedNanos Time since the operation started
+     */
+    public ProgressSnapshot(double fraction, long bytesIn, long bytesOut, long totalBytesIn, long elapsedNanos) {
+        this.fraction = fraction;
+        this.bytesIn = bytesIn;
+        this.bytesOut = bytesOut;
+        this.totalBytesIn = totalBytesIn;
+        this.elapsedNanos = elapsedNanos;
+    }
+    
+    public double getFraction() {
+        return fraction;
+    }
+    
+    public long getBytesIn() {
+        return bytesIn;
+    }
+    
+    public long getBytesOut() {
+        return bytesOut;
+    }
+    
+    public long getTotalBytesIn() {
+        return totalBytesIn;
+    }
+    
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+    
+    /**
+     * Gets the average read speed since the start.
+     * 
+     * @return Bytes read per second, or 0 if it's too early to tell
+     */
+    public double getBytesPerSecond() {
+        return elapsedNanos > 0 ? bytesIn * 1_000_000_000.0 / elapsedNanos : 0;
+    }
+    
+    /**
+     * Gets the output size relative to the input size so far.
+     * 
+     * @return bytesOut / bytesIn, or 0 before anything was read
+     */
+    public double getRatio() {
+        return bytesIn > 0 ? (double) bytesOut / bytesIn : 0;
+    }
+    
+    /**
+     * Estimates the time left at the average speed so far.
+     * 
+     * @return Seconds left, or -1 if unknown
+     */
+    public long getEtaSeconds() {
+        double speed = getBytesPerSecond();
+        if (speed <= 0 || totalBytesIn <= 0) {
+            return -1;
+        }
+        return (long) Math.ceil((1.0 - fraction) * totalBytesIn / speed);
+    }
+}
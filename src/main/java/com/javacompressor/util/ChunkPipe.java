@@ -0,0 +1,204 @@
+package com.javacompressor.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Runs a producer on its own thread and hands what it writes to the caller as an input stream,
+ * so producing (e.g. reading hundreds of small files into a tar) and consuming (compressing)
+ * overlap instead of taking turns.
+ * <p>
+ * Data moves in chunks through a bounded queue, so the producer can only run a fixed amount
+ * ahead. Unlike {@link java.io.PipedInputStream} there's no 1 KB buffer and no polling. If the
+ * producer fails, the reader gets its exception once it has read everything before it; closing
+ * the reader early stops the producer.
+ */
+public class ChunkPipe {
+    private static final byte[] END = new byte[0];
+    
+    /**
+     * Writes the data that will come out of the pipe. Runs on the pipe's thread.
+     */
+    @FunctionalInterface
+    public interface Producer {
+        void writeTo(OutputStream out) throws IOException;
+    }
+    
+    private final BlockingQueue<byte[]> queue;
+    private final int chunkSize;
+    private volatile Throwable failure;
+    private volatile boolean closed;
+    private Thread thread;
+    
+    private ChunkPipe(int chunkSize, int capacity) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.chunkSize = chunkSize;
+    }
+    
+    /**
+     * Starts the producer and returns the reading end.
+     *
+     * @param threadName Name of the producer thread
+     * @param chunkSize Size of each chunk handed over
+     * @param capacity Most chunks waiting to be read, so the producer runs at most chunkSize * capacity bytes ahead
+     * @param producer Writes the data
+     * @return The stream to read the data from; close it when done
+     */
+    public static InputStream start(String threadName, int chunkSize, int capacity, Producer producer) {
+        if (chunkSize < 1 || capacity < 1) {
+            throw new IllegalArgumentException("Chunk size and capacity must be positive");
+        }
+        ChunkPipe pipe = new ChunkPipe(chunkSize, capacity);
+        pipe.thread = new Thread(() -> pipe.run(producer), threadName);
+        pipe.thread.setDaemon(true);
+        pipe.thread.start();
+        return pipe.new Reader();
+    }
+    
+    private void run(Producer producer) {
+        try (OutputStream out = new Writer()) {
+            producer.writeTo(out);
+        } catch (Throwable t) {
+            failure = t;
+        }
+        try {
+            if (!closed) {
+                queue.put(END);
+            }
+        } catch (InterruptedException e) {
+            // Only happens when the reader was closed, so nobody is waiting for the end
+        }
+    }
+    
+    /**
+     * The producer's end: fills a chunk and queues it once it's full.
+     */
+    private final class Writer extends OutputStream {
+        private byte[] chunk = new byte[chunkSize];
+        private int length;
+        
+        @Override
+        public void write(int b) throws IOException {
+            if (length == chunk.length) {
+                send();
+            }
+            chunk[length++] = (byte) b;
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (length == chunk.length) {
+                    send();
+                }
+                int count = Math.min(len, chunk.length - length);
+                System.arraycopy(b, off, chunk, length, count);
+                length += count;
+                off += count;
+                len -= count;
+            }
+        }
+        
+        @Override
+        public void close() throws IOException {
+            if (length > 0) {
+                send();
+            }
+        }
+        
+        private void send() throws IOException {
+            if (closed) {
+                throw new IOException("Pipe closed by the reader");
+            }
+            byte[] full = length == chunk.length ? chunk : Arrays.copyOf(chunk, length);
+            try {
+                queue.put(full);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Pipe closed by the reader");
+            }
+            chunk = new byte[chunkSize];
+            length = 0;
+        }
+    }
+    
+    /**
+     * The consumer's end.
+     */
+    private final class Reader extends InputStream {
+        private byte[] current;
+        private int position;
+        private boolean finished;
+        
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return current[position++] & 0xff;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int count = Math.min(len, current.length - position);
+            System.arraycopy(current, position, b, off, count);
+            position += count;
+            return count;
+        }
+        
+        @Override
+        public int available() {
+            return current != null ? current.length - position : 0;
+        }
+        
+        private boolean fill() throws IOException {
+            if (current != null && position < current.length) {
+                return true;
+            }
+            if (finished) {
+                return false;
+            }
+            try {
+                current = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for data");
+            }
+            position = 0;
+            if (current == END) {
+                finished = true;
+                current = null;
+                Throwable cause = failure;
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                } else if (cause != null) {
+                    throw new IOException("Producer failed: " + cause, cause);
+                }
+                return false;
+            }
+            return true;
+        }
+        
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            // Unblock a producer waiting for space; whatever it already queued is dropped
+            thread.interrupt();
+            queue.clear();
+        }
+    }
+}
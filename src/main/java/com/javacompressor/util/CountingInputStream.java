@@ -0,0 +1,48 @@
+package com.javacompressor.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Input stream that counts the bytes read through it, for progress on streams of unknown origin.
+ */
+public class CountingInputStream extends FilterInputStream {
+    private long count;
+    
+    public CountingInputStream(InputStream in) {
+        super(in);
+    }
+    
+    @Override
+    public int read() throws IOException {
+        int b = in.read();
+        if (b != -1) {
+            count++;
+        }
+        return b;
+    }
+    
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = in.read(b, off, len);
+        if (read > 0) {
+            count += read;
+        }
+        return read;
+    }
+    
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = in.skip(n);
+        count += skipped;
+        return skipped;
+    }
+    
+    /**
+     * Gets the number of bytes read so far.
+     */
+    public long getCount() {
+        return count;
+    }
+}
@@ -0,0 +1,36 @@
+package com.javacompressor.util;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream that counts the bytes going through it, so progress reporting doesn't need to ask
+ * the file system how big the output is.
+ */
+public class CountingOutputStream extends FilterOutputStream {
+    private long count;
+    
+    public CountingOutputStream(OutputStream out) {
+        super(out);
+    }
+    
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        count++;
+    }
+    
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        count += len;
+    }
+    
+    /**
+     * Gets the number of bytes written so far.
+     */
+    public long getCount() {
+        return count;
+    }
+}
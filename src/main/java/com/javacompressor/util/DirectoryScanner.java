@@ -0,0 +1,149 @@
+package com.javacompressor.util;
+
+import com.javacompressor.model.FileManifest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Walks a directory tree once and builds a {@link FileManifest}.
+ * <p>
+ * Each directory is listed by its own fork/join task, so sibling directories are scanned at the
+ * same time, which matters a lot on network mounts where every stat call is a round trip. Like
+ * {@code Files.walkFileTree}, each path gets a single attribute read that gives us the type,
+ * size and modification time together.
+ */
+public class DirectoryScanner {
+    private static final Logger logger = LoggerFactory.getLogger(DirectoryScanner.class);
+    
+    // Directory listing is I/O bound, so use more threads than cores
+    private static final int PARALLELISM = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+    private static final ForkJoinPool POOL = new ForkJoinPool(PARALLELISM);
+    
+    private DirectoryScanner() {
+    }
+    
+    /**
+     * Scans a directory and everything below it.
+     * Entries are sorted by name within each directory, so archives come out the same every time.
+     * Symbolic links to files are followed; links to directories are skipped to avoid cycles.
+     * Files and subdirectories that can't be read are logged and left out.
+     *
+     * @param directory The directory to scan
+     * @return The manifest of all regular files
+     * @throws IOException If the directory itself can't be listed
+     */
+    public static FileManifest scan(File directory) throws IOException {
+        if (directory == null || !directory.isDirectory()) {
+            throw new IllegalArgumentException("Not a directory: " + directory);
+        }
+        
+        long start = System.nanoTime();
+        List<FileManifest.Entry> entries;
+        try {
+            entries = POOL.invoke(new ScanTask(directory.toPath(), ""));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        
+        FileManifest manifest = new FileManifest(directory, entries);
+        logger.debug("Scanned {} files ({} bytes) in {} ms", manifest.getFileCount(), manifest.getTotalSize(),
+                    (System.nanoTime() - start) / 1_000_000);
+        return manifest;
+    }
+    
+    /**
+     * Lists one directory and forks a subtask for each child directory.
+     */
+    private static class ScanTask extends RecursiveTask<List<FileManifest.Entry>> {
+        private static final long serialVersionUID = 1L;
+        
+        private final Path directory;
+        private final String prefix;
+        
+        ScanTask(Path directory, String prefix) {
+            this.directory = directory;
+            this.prefix = prefix;
+        }
+        
+        @Override
+        protected List<FileManifest.Entry> compute() {
+            List<Path> children = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (Path child : stream) {
+                    children.add(child);
+                }
+            } catch (IOException e) {
+                // Only the directory that was asked for has to be readable; below it, one that
+                // isn't is skipped like any other unreadable path
+                if (prefix.isEmpty()) {
+                    throw new UncheckedIOException(e);
+                }
+                logger.warn("Skipping unreadable directory {}: {}", directory, e.getMessage());
+                return new ArrayList<>();
+            }
+            children.sort((a, b) -> a.getFileName().toString().compareTo(b.getFileName().toString()));
+            
+            // Keep files and subdirectories in listing order, so the merged result stays sorted
+            List<Object> parts = new ArrayList<>(children.size());
+            for (Path child : children) {
+                String name = prefix + child.getFileName();
+                BasicFileAttributes attributes = readAttributes(child);
+                if (attributes == null) {
+                    continue;
+                }
+                
+                if (attributes.isDirectory()) {
+                    ScanTask subtask = new ScanTask(child, name + "/");
+                    subtask.fork();
+                    parts.add(subtask);
+                } else if (attributes.isRegularFile()) {
+                    parts.add(new FileManifest.Entry(child, name, attributes.size(),
+                                                     attributes.lastModifiedTime().toMillis()));
+                }
+            }
+            
+            List<FileManifest.Entry> entries = new ArrayList<>();
+            for (Object part : parts) {
+                if (part instanceof ScanTask) {
+                    entries.addAll(((ScanTask) part).join());
+                } else {
+                    entries.add((FileManifest.Entry) part);
+                }
+            }
+            return entries;
+        }
+        
+        /**
+         * Reads a path's attributes in one call.
+         *
+         * @return The attributes, or null for broken links and links to directories
+         */
+        private static BasicFileAttributes readAttributes(Path path) {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class,
+                                                                      LinkOption.NOFOLLOW_LINKS);
+                if (!attributes.isSymbolicLink()) {
+                    return attributes;
+                }
+                BasicFileAttributes target = Files.readAttributes(path, BasicFileAttributes.class);
+                return target.isRegularFile() ? target : null;
+            } catch (IOException e) {
+                logger.warn("Skipping unreadable path {}: {}", path, e.getMessage());
+                return null;
+            }
+        }
+    }
+}
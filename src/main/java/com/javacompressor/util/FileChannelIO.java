@@ -0,0 +1,506 @@
+package com.javacompressor.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * File I/O built on {@link FileChannel} instead of FileInputStream + BufferedInputStream.
+ * <p>
+ * Reads and writes go through one big direct buffer, so a multi-GB file takes a few thousand
+ * syscalls instead of millions. Large inputs can be memory-mapped, which skips the kernel to
+ * buffer copy entirely, and {@link #transfer} moves bytes between files with transferTo, so
+ * data that doesn't need transforming never enters the JVM at all.
+ * <p>
+ * Direct buffers are native memory that only the GC gives back, so each thread keeps the last one
+ * it closed and hands it to its next stream instead of allocating one per file. Small buffers are
+ * plain heap buffers; the JDK copies those through a direct buffer of its own that it already caches.
+ */
+public class FileChannelIO {
+    // A single mapping can't be bigger than 2 GB, so big files are mapped piece by piece
+    private static final long MAX_MAPPING_SIZE = 1L << 30;
+    private static final int MIN_BUFFER_SIZE = 4096;
+    // Below this a heap buffer is just as fast, and isn't worth keeping around
+    private static final int DIRECT_BUFFER_THRESHOLD = 64 * 1024;
+    
+    private static final ThreadLocal<ByteBuffer> SPARE_BUFFER = new ThreadLocal<>();
+    
+    private FileChannelIO() {
+    }
+    
+    /**
+     * Input stream over a file that knows how far it has read, without asking the OS.
+     */
+    public abstract static class ChannelInput extends InputStream {
+        /**
+         * Gets the number of bytes handed out so far.
+         */
+        public abstract long position();
+    }
+    
+    /**
+     * Opens a file for reading.
+     * <p>
+     * A mapping stays in place after close until the GC gets around to it, and Windows won't delete
+     * or rename a file while it's mapped. Pass 0 for a file that's about to be deleted.
+     *
+     * @param file The file to read
+     * @param bufferSize Size of the read buffer
+     * @param mapThreshold Files at least this big are memory-mapped (0 never maps)
+     * @return The input stream
+     */
+    public static ChannelInput openInput(File file, int bufferSize, long mapThreshold) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (mapThreshold > 0 && size >= mapThreshold) {
+                return new MappedInput(channel, size);
+            }
+            // No point in a 4 MB buffer for a 3 KB file
+            int effectiveSize = (int) Math.max(MIN_BUFFER_SIZE, Math.min(bufferSize, size));
+            return new BufferedChannelInput(channel, takeBuffer(effectiveSize, bufferSize));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+    
+    /**
+     * Opens (creates or truncates) a file for writing.
+     *
+     * @param file The file to write
+     * @param bufferSize Size of the write buffer
+     * @return The output stream
+     */
+    public static OutputStream openOutput(File file, int bufferSize) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                                               StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        return new BufferedChannelOutput(channel, takeBuffer(bufferSize, bufferSize));
+    }
+    
+    /**
+     * Copies a range of one file into another with transferTo, so the kernel moves the bytes directly.
+     * Safe to call from several threads on the same source channel.
+     *
+     * @param source The channel to read from
+     * @param position Where in the source to start
+     * @param count How many bytes to copy
+     * @param target The channel to write to (at its current position)
+     * @return The number of bytes copied
+     */
+    public static long transfer(FileChannel source, long position, long count, FileChannel target) throws IOException {
+        long done = 0;
+        while (done < count) {
+            long moved = source.transferTo(position + done, count - done, target);
+            if (moved <= 0) {
+                if (position + done >= source.size()) {
+                    throw new IOException("Unexpected end of file after " + done + " of " + count + " bytes");
+                }
+                continue;
+            }
+            done += moved;
+        }
+        return done;
+    }
+    
+    /**
+     * Opens a stream over a range of a channel. It reads with positional reads and leaves the
+     * channel open, so several threads can each read their own range of the same file.
+     *
+     * @param channel The channel to read from
+     * @param position Where the range starts
+     * @param length How long it is; reading stops early at the end of the file
+     * @param bufferSize Size of the read buffer
+     * @return The input stream
+     */
+    public static InputStream openRange(FileChannel channel, long position, long length, int bufferSize) {
+        int effectiveSize = (int) Math.max(MIN_BUFFER_SIZE, Math.min(bufferSize, length));
+        return new RangeInput(channel, position, position + length, effectiveSize);
+    }
+    
+    /**
+     * Gets a cleared buffer limited to this size. Direct buffers are always allocated at the full
+     * buffer size, so the thread's spare one fits whatever file comes next.
+     *
+     * @param size How much of the buffer the stream uses
+     * @param bufferSize The configured buffer size, what a new direct buffer gets
+     */
+    private static ByteBuffer takeBuffer(int size, int bufferSize) {
+        if (size < DIRECT_BUFFER_THRESHOLD) {
+            return ByteBuffer.allocate(size);
+        }
+        ByteBuffer buffer = SPARE_BUFFER.get();
+        if (buffer != null && buffer.capacity() >= size) {
+            SPARE_BUFFER.remove();
+        } else {
+            buffer = ByteBuffer.allocateDirect(Math.max(size, bufferSize));
+        }
+        buffer.clear();
+        buffer.limit(size);
+        return buffer;
+    }
+    
+    /**
+     * Keeps a closed stream's buffer for the next stream this thread opens.
+     */
+    private static void giveBack(ByteBuffer buffer) {
+        if (buffer.isDirect()) {
+            SPARE_BUFFER.set(buffer);
+        }
+    }
+    
+    /**
+     * Reads through a direct buffer that is refilled with one syscall at a time.
+     */
+    private static final class BufferedChannelInput extends ChannelInput {
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        private final int size;
+        private long position;
+        private boolean endOfFile;
+        private boolean closed;
+        
+        BufferedChannelInput(FileChannel channel, ByteBuffer buffer) {
+            this.channel = channel;
+            this.buffer = buffer;
+            this.size = buffer.limit();
+            this.buffer.flip();
+        }
+        
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            position++;
+            return buffer.get() & 0xff;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            position += count;
+            return count;
+        }
+        
+        @Override
+        public long skip(long n) throws IOException {
+            ensureOpen();
+            if (n <= 0) {
+                return 0;
+            }
+            long skipped = Math.min(n, buffer.remaining());
+            buffer.position(buffer.position() + (int) skipped);
+            if (skipped < n) {
+                long channelPosition = channel.position();
+                long remaining = Math.max(0, channel.size() - channelPosition);
+                long more = Math.min(n - skipped, remaining);
+                channel.position(channelPosition + more);
+                skipped += more;
+            }
+            position += skipped;
+            return skipped;
+        }
+        
+        @Override
+        public int available() throws IOException {
+            ensureOpen();
+            return buffer.remaining();
+        }
+        
+        @Override
+        public long position() {
+            return position;
+        }
+        
+        // The buffer belongs to the next stream once this one is closed
+        private void ensureOpen() throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+        }
+        
+        private boolean fill() throws IOException {
+            ensureOpen();
+            if (buffer.hasRemaining()) {
+                return true;
+            }
+            if (endOfFile) {
+                return false;
+            }
+            buffer.clear();
+            buffer.limit(size);
+            int read;
+            do {
+                read = channel.read(buffer);
+            } while (read == 0);
+            buffer.flip();
+            if (read == -1) {
+                endOfFile = true;
+                return false;
+            }
+            return true;
+        }
+        
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                channel.close();
+            } finally {
+                giveBack(buffer);
+            }
+        }
+    }
+    
+    /**
+     * Reads straight out of the page cache through a memory mapping. Each mapping covers at most
+     * 1 GB and is only unmapped by the GC, not by close.
+     */
+    private static final class MappedInput extends ChannelInput {
+        private final FileChannel channel;
+        private final long size;
+        private MappedByteBuffer mapping;
+        private long mappingStart;
+        private long position;
+        
+        MappedInput(FileChannel channel, long size) {
+            this.channel = channel;
+            this.size = size;
+        }
+        
+        @Override
+        public int read() throws IOException {
+            if (!ensureMapped()) {
+                return -1;
+            }
+            position++;
+            return mapping.get() & 0xff;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!ensureMapped()) {
+                return -1;
+            }
+            int count = Math.min(len, mapping.remaining());
+            mapping.get(b, off, count);
+            position += count;
+            return count;
+        }
+        
+        @Override
+        public long skip(long n) {
+            long skipped = Math.max(0, Math.min(n, size - position));
+            position += skipped;
+            if (mapping != null && position < mappingStart + mapping.limit()) {
+                mapping.position((int) (position - mappingStart));
+            } else {
+                mapping = null;
+            }
+            return skipped;
+        }
+        
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, size - position);
+        }
+        
+        @Override
+        public long position() {
+            return position;
+        }
+        
+        private boolean ensureMapped() throws IOException {
+            if (mapping != null && mapping.hasRemaining()) {
+                return true;
+            }
+            if (position >= size) {
+                return false;
+            }
+            mappingStart = position;
+            mapping = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAX_MAPPING_SIZE, size - position));
+            return true;
+        }
+        
+        @Override
+        public void close() throws IOException {
+            mapping = null;
+            channel.close();
+        }
+    }
+    
+    /**
+     * Reads one range of a shared channel. Closing it doesn't close the channel.
+     */
+    private static final class RangeInput extends InputStream {
+        private final FileChannel channel;
+        private final long end;
+        private final ByteBuffer buffer;
+        private long position;
+        
+        RangeInput(FileChannel channel, long start, long end, int bufferSize) {
+            this.channel = channel;
+            this.position = start;
+            this.end = end;
+            this.buffer = ByteBuffer.allocate(bufferSize);
+            this.buffer.flip();
+        }
+        
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return buffer.get() & 0xff;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
+        
+        @Override
+        public long skip(long n) {
+            if (n <= 0) {
+                return 0;
+            }
+            long skipped = Math.min(n, buffer.remaining());
+            buffer.position(buffer.position() + (int) skipped);
+            long more = Math.min(n - skipped, end - position);
+            position += more;
+            return skipped + more;
+        }
+        
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+        
+        private boolean fill() throws IOException {
+            if (buffer.hasRemaining()) {
+                return true;
+            }
+            if (position >= end) {
+                return false;
+            }
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            int read;
+            do {
+                read = channel.read(buffer, position);
+            } while (read == 0);
+            buffer.flip();
+            if (read == -1) {
+                return false;
+            }
+            position += read;
+            return true;
+        }
+    }
+    
+    /**
+     * Collects writes in a direct buffer and hands them to the channel in big chunks.
+     */
+    private static final class BufferedChannelOutput extends OutputStream {
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        private final int size;
+        private boolean closed;
+        
+        BufferedChannelOutput(FileChannel channel, ByteBuffer buffer) {
+            this.channel = channel;
+            this.buffer = buffer;
+            this.size = buffer.limit();
+        }
+        
+        @Override
+        public void write(int b) throws IOException {
+            ensureOpen();
+            if (!buffer.hasRemaining()) {
+                drain();
+            }
+            buffer.put((byte) b);
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ensureOpen();
+            while (len > 0) {
+                if (!buffer.hasRemaining()) {
+                    drain();
+                }
+                int count = Math.min(len, buffer.remaining());
+                buffer.put(b, off, count);
+                off += count;
+                len -= count;
+            }
+        }
+        
+        @Override
+        public void flush() throws IOException {
+            // Wrappers flush again while closing, after this may already be closed
+            if (!closed) {
+                drain();
+            }
+        }
+        
+        private void ensureOpen() throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+        }
+        
+        private void drain() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+            buffer.limit(size);
+        }
+        
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                drain();
+            } finally {
+                try {
+                    channel.close();
+                } finally {
+                    giveBack(buffer);
+                }
+            }
+        }
+    }
+}
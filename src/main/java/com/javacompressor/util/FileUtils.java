@@ -2,10 +2,14 @@ package com.javacompressor.util;
 
 import com.javacompressor.compression.CompressionAlgorithm;
 import com.javacompressor.model.FileInfo;
+import com.javacompressor.model.FileManifest;
+import com.javacompressor.model.ProgressSnapshot;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.text.DecimalFormat;
 import java.util.Arrays;
 import java.util.HashSet;
@@ -20,52 +24,39 @@ public class FileUtils {
     // These are the extensions that we know are already compressed
     private static final Set<String> COMPRESSED_EXTENSIONS = new HashSet<>(Arrays.asList(
         "zip", "gz", "gzip", "bz2", "bzip2", "tar.gz", "tgz", "tar.bz2", "tbz2",
-        "7z", "rar", "jar", "war", "xz", "lzma", "lz", "z"
+        "7z", "rar", "jar", "war", "xz", "lzma", "lz", "lz4", "zst", "zstd", "z",
+        "tar.lz4", "tar.zst", "tar.xz", "jcz", "tar.jcz"
     ));
     
+    // Compressed tars, with the short forms people use for gzip and bzip2
+    private static final String[] TAR_SUFFIXES = {
+        ".tar.gz", ".tgz", ".tar.bz2", ".tbz2", ".tar.lz4", ".tar.zst", ".tar.xz", ".tar.jcz"
+    };
+    
     // Only supporting these compression types for now
     // TODO: Add support for 7z in a future version
     private static final Set<String> SUPPORTED_COMPRESS_EXTENSIONS = new HashSet<>(Arrays.asList(
-        "zip", "gz", "bz2"
+        "zip", "gz", "bz2", "lz4", "zst", "xz", "jcz"
     ));
     
     /**
      * Gets information about a file (size, type, etc)
+     * Directories get scanned once here and the manifest is kept for compression later
      */
-    public static FileInfo getFileInfo(File file) {
+    public static FileInfo getFileInfo(File file) throws IOException {
         if (file == null || !file.exists()) {
             throw new IllegalArgumentException("File does not exist");
         }
         
         String name = file.getName();
-        long size = file.isDirectory() ? calculateDirectorySize(file) : file.length();
         String type = getFileType(file);
         
-        return new FileInfo(file, name, size, type);
-    }
-    
-    /**
-     * Adds up the size of all files in a directory
-     */
-    private static long calculateDirectorySize(File directory) {
-        if (!directory.isDirectory()) {
-            return 0;
-        }
-        
-        long size = 0;
-        File[] files = directory.listFiles();
-        
-        if (files != null) {
-            for (File file : files) {
-                if (file.isFile()) {
-                    size += file.length();
-                } else {
-                    size += calculateDirectorySize(file);
-                }
-            }
+        if (file.isDirectory()) {
+            FileManifest manifest = DirectoryScanner.scan(file);
+            return new FileInfo(file, name, manifest.getTotalSize(), type, manifest);
         }
         
-        return size;
+        return new FileInfo(file, name, file.length(), type);
     }
     
     // Figure out if this is a directory or what kind of file it is
@@ -100,6 +91,35 @@ public class FileUtils {
         return df.format(size / Math.pow(1024, digitGroups)) + " " + units[digitGroups];
     }
     
+    /**
+     * Formats a duration in seconds like "1:05" or "2:03:10"
+     */
+    public static String formatDuration(long seconds) {
+        if (seconds < 0) {
+            return "--:--";
+        }
+        long hours = seconds / 3600;
+        long minutes = (seconds % 3600) / 60;
+        long secs = seconds % 60;
+        if (hours > 0) {
+            return String.format("%d:%02d:%02d", hours, minutes, secs);
+        }
+        return String.format("%d:%02d", minutes, secs);
+    }
+    
+    /**
+     * Describes a running operation, e.g. "42% - 118.5 MB/s - 1.2 GB -> 480 MB (39.2%) - 0:14 left"
+     */
+    public static String formatProgress(ProgressSnapshot progress) {
+        return String.format("%d%% - %s/s - %s -> %s (%.1f%%) - %s left",
+                             Math.round(progress.getFraction() * 100),
+                             formatFileSize((long) progress.getBytesPerSecond()),
+                             formatFileSize(progress.getBytesIn()),
+                             formatFileSize(progress.getBytesOut()),
+                             progress.getRatio() * 100,
+                             formatDuration(progress.getEtaSeconds()));
+    }
+    
     // Checks if a file is already compressed based on its extension
     public static boolean isCompressedFile(File file) {
         if (file == null || !file.isFile()) {
@@ -132,14 +152,16 @@ public class FileUtils {
         // List of extensions that are typically already compressed
         // Probably missing some, but these are the common ones
         Set<String> alreadyCompressedTypes = new HashSet<>(Arrays.asList(
-            // Images
-            "jpg", "jpeg", "png", "gif", "webp", "bmp", "tiff", "heic",
-            // Audio
-            "mp3", "aac", "ogg", "flac", "wav",
+            // Images (not bmp or tiff, those are usually raw pixels)
+            "jpg", "jpeg", "png", "gif", "webp", "heic",
+            // Audio (not wav, that's raw samples)
+            "mp3", "aac", "ogg", "flac",
             // Video
             "mp4", "avi", "mkv", "mov", "webm", "flv",
-            // Archives (already compressed)
-            "zip", "rar", "7z", "gz", "bz2", "tar", "tgz"
+            // Archives (already compressed; a plain tar isn't)
+            "zip", "rar", "7z", "gz", "bz2", "lz4", "zst", "xz", "jcz", "tgz",
+            // Zip files under another name
+            "jar", "apk", "docx", "xlsx", "pptx"
         ));
         
         return !alreadyCompressedTypes.contains(ext);
@@ -159,15 +181,55 @@ public class FileUtils {
     
     /**
      * Checks if we can use a particular algorithm on this file
-     * Currently only ZIP supports directories
+     * Everything works now, since directories go into a tar for anything but ZIP
      */
     public static boolean isSupportedForCompression(File file, CompressionAlgorithm algorithm) {
-        // Directories can only be compressed with ZIP
+        return file != null && algorithm != null;
+    }
+    
+    /**
+     * Gets the name of the compressed file, e.g. "notes.txt.gz", or "photos.tar.gz" for a directory
+     */
+    public static String getCompressedFileName(File file, CompressionAlgorithm algorithm) {
         if (file.isDirectory() && algorithm != CompressionAlgorithm.ZIP) {
-            return false;
+            return file.getName() + ".tar." + algorithm.getExtension();
         }
-        
-        return true;
+        return file.getName() + "." + algorithm.getExtension();
+    }
+    
+    /**
+     * Checks if a file is a compressed tar (.tar.gz, .tgz, .tar.bz2, .tbz2, .tar.lz4, .tar.zst, .tar.xz, .tar.jcz)
+     */
+    public static boolean isTarArchive(File file) {
+        return file != null && tarSuffixLength(file.getName().toLowerCase()) > 0;
+    }
+    
+    /**
+     * Works out where an archive entry goes below an output directory. Entry names come from the
+     * archive, so ones that would land outside of it (absolute paths, "../") are rejected.
+     *
+     * @param outputDirectory Where the archive is being extracted to
+     * @param entryName The entry's name in the archive
+     * @return The entry's path below the output directory
+     * @throws IOException If the entry points outside of the output directory
+     */
+    public static Path resolveEntry(File outputDirectory, String entryName) throws IOException {
+        Path root = outputDirectory.toPath().toAbsolutePath().normalize();
+        Path target = root.resolve(entryName).normalize();
+        if (!target.startsWith(root)) {
+            throw new IOException("Archive entry points outside the output directory: " + entryName);
+        }
+        return target;
+    }
+    
+    // Length of the tarball suffix on a (lower case) name, or 0 if it isn't a tarball
+    private static int tarSuffixLength(String name) {
+        for (String suffix : TAR_SUFFIXES) {
+            if (name.endsWith(suffix) && name.length() > suffix.length()) {
+                return suffix.length();
+            }
+        }
+        return 0;
     }
     
     // Figures out what algorithm to use for decompression based on the file extension
@@ -184,6 +246,14 @@ public class FileUtils {
             return CompressionAlgorithm.GZIP;
         } else if (name.endsWith(".bz2") || name.endsWith(".bzip2") || name.endsWith(".tbz2") || name.endsWith(".tar.bz2")) {
             return CompressionAlgorithm.BZIP2;
+        } else if (name.endsWith(".lz4")) {
+            return CompressionAlgorithm.LZ4;
+        } else if (name.endsWith(".zst") || name.endsWith(".zstd")) {
+            return CompressionAlgorithm.ZSTD;
+        } else if (name.endsWith(".xz")) {
+            return CompressionAlgorithm.XZ;
+        } else if (name.endsWith(".jcz")) {
+            return CompressionAlgorithm.CHUNKED;
         }
         
         // Default to ZIP
@@ -203,8 +273,11 @@ public class FileUtils {
         String parentPath = compressedFile.getParent();
         String baseName = fileName;
         
-        // Handle different compression formats
-        if (fileName.toLowerCase().endsWith(".zip") || 
+        // Handle different compression formats, tarballs first so "x.tar.gz" becomes "x" and not "x.tar"
+        int tarSuffix = tarSuffixLength(fileName.toLowerCase());
+        if (tarSuffix > 0) {
+            baseName = fileName.substring(0, fileName.length() - tarSuffix);
+        } else if (fileName.toLowerCase().endsWith(".zip") || 
             fileName.toLowerCase().endsWith(".jar") || 
             fileName.toLowerCase().endsWith(".war")) {
             baseName = fileName.substring(0, fileName.lastIndexOf('.'));
@@ -212,25 +285,21 @@ public class FileUtils {
             baseName = fileName.substring(0, fileName.lastIndexOf('.'));
         } else if (fileName.toLowerCase().endsWith(".bz2") || fileName.toLowerCase().endsWith(".bzip2")) {
             baseName = fileName.substring(0, fileName.lastIndexOf('.'));
-        } else if (fileName.toLowerCase().endsWith(".tar.gz") || fileName.toLowerCase().endsWith(".tgz")) {
+        } else if (fileName.toLowerCase().endsWith(".lz4")) {
             baseName = fileName.substring(0, fileName.lastIndexOf('.'));
-            if (baseName.toLowerCase().endsWith(".tar")) {
-                baseName = baseName.substring(0, baseName.length() - 4);
-            }
-        } else if (fileName.toLowerCase().endsWith(".tar.bz2") || fileName.toLowerCase().endsWith(".tbz2")) {
+        } else if (fileName.toLowerCase().endsWith(".zst") || fileName.toLowerCase().endsWith(".zstd")) {
+            baseName = fileName.substring(0, fileName.lastIndexOf('.'));
+        } else if (fileName.toLowerCase().endsWith(".xz") || fileName.toLowerCase().endsWith(".jcz")) {
             baseName = fileName.substring(0, fileName.lastIndexOf('.'));
-            if (baseName.toLowerCase().endsWith(".tar")) {
-                baseName = baseName.substring(0, baseName.length() - 4);
-            }
         }
         
-        // If it's a ZIP file, we'll decompress to a directory
-        if (fileName.toLowerCase().endsWith(".zip") || 
+        // ZIP files and tarballs are extracted into a directory
+        if (tarSuffix > 0 || fileName.toLowerCase().endsWith(".zip") || 
             fileName.toLowerCase().endsWith(".jar") || 
             fileName.toLowerCase().endsWith(".war")) {
             return (parentPath != null ? parentPath + File.separator : "") + baseName;
         } else {
-            // For GZIP and BZIP2, we'll decompress to a file
+            // For GZIP, BZIP2, LZ4, ZSTD, XZ and chunked files, we'll decompress to a file
             return (parentPath != null ? parentPath + File.separator : "") + baseName;
         }
     }
@@ -0,0 +1,26 @@
+package com.javacompressor.util;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream that flushes instead of closing the stream underneath. For compressors that can
+ * only be finished by closing them, when the caller still wants to use its stream (e.g. stdout).
+ */
+public class NonClosingOutputStream extends FilterOutputStream {
+    
+    public NonClosingOutputStream(OutputStream out) {
+        super(out);
+    }
+    
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+    }
+    
+    @Override
+    public void close() throws IOException {
+        out.flush();
+    }
+}
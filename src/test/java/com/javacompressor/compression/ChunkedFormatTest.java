@@ -0,0 +1,265 @@
+package com.javacompressor.compression;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Round trips through the .jcz container, and every way a damaged file has to be caught instead of
+ * decoding to the wrong bytes.
+ */
+class ChunkedFormatTest {
+    private static final int CHUNK_SIZE = ChunkedFormat.MIN_CHUNK_SIZE;
+    private static final int WORKERS = 4;
+    // Where the first chunk's fields are
+    private static final int FIRST_CHUNK = ChunkedFormat.HEADER_SIZE;
+    private static final int FIRST_CHUNK_LENGTH = FIRST_CHUNK + 1;
+    private static final int FIRST_CHUNK_CRC = FIRST_CHUNK + 9;
+    private static final int FIRST_CHUNK_DATA = FIRST_CHUNK + 13;
+    private static final int TRAILER_SIZE = 28;
+    
+    @TempDir
+    Path workDirectory;
+    
+    @ParameterizedTest
+    @EnumSource(value = CompressionAlgorithm.class, names = {"GZIP", "BZIP2", "LZ4", "ZSTD", "XZ"})
+    void roundTripsWithEveryCodec(CompressionAlgorithm codec) throws IOException {
+        byte[] data = content();
+        for (int workers : new int[] {1, WORKERS}) {
+            byte[] file = compress(codec, workers, data);
+            
+            assertArrayEquals(data, decompress(file, workers), "on " + workers + " thread(s)");
+            try (ChunkedFormat.Decoder decoder = new ChunkedFormat.Decoder(new ByteArrayInputStream(file))) {
+                assertArrayEquals(data, decoder.readAllBytes(), "through the decoder");
+            }
+        }
+    }
+    
+    @Test
+    void emptyInputHasNoChunks() throws IOException {
+        byte[] file = compress(CompressionAlgorithm.ZSTD, 1, new byte[0]);
+        
+        assertArrayEquals(new byte[0], decompress(file, 1));
+        try (FileChannel channel = open(file)) {
+            ChunkedFormat.Index index = ChunkedFormat.Index.read(channel);
+            assertEquals(0, index.getChunkCount());
+            assertEquals(0, index.getUncompressedSize());
+        }
+    }
+    
+    @Test
+    void indexFindsEveryChunk() throws IOException {
+        byte[] data = content();
+        try (FileChannel channel = open(compress(CompressionAlgorithm.LZ4, 1, data))) {
+            ChunkedFormat.Index index = ChunkedFormat.Index.read(channel);
+            
+            int chunks = (data.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+            assertEquals(chunks, index.getChunkCount());
+            assertEquals(data.length, index.getUncompressedSize());
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                long start = (long) chunk * CHUNK_SIZE;
+                assertEquals(start, index.getUncompressedOffset(chunk));
+                assertEquals(chunk, index.chunkAt(start));
+                assertEquals(chunk, index.chunkAt(Math.min(start + CHUNK_SIZE - 1, data.length - 1)));
+                int length = (int) Math.min(CHUNK_SIZE, data.length - start);
+                assertArrayEquals(Arrays.copyOfRange(data, (int) start, (int) start + length),
+                                  index.readChunk(channel, chunk).decode());
+            }
+        }
+    }
+    
+    @ParameterizedTest
+    @ValueSource(ints = {1, WORKERS})
+    void readsRanges(int workers) throws IOException {
+        byte[] data = content();
+        try (FileChannel channel = open(compress(CompressionAlgorithm.GZIP, workers, data))) {
+            ChunkedFormat.Index index = ChunkedFormat.Index.read(channel);
+            ParallelChunkedDecompressor decompressor = new ParallelChunkedDecompressor(workers);
+            long[][] ranges = {
+                {0, 1}, {0, data.length}, {CHUNK_SIZE - 1, 2}, {CHUNK_SIZE, CHUNK_SIZE}, {100, 3 * CHUNK_SIZE},
+                {data.length - 1, 10}, {data.length, 10}, {5, 0}
+            };
+            for (long[] range : ranges) {
+                ByteArrayOutputStream output = new ByteArrayOutputStream();
+                decompressor.readRange(channel, index, range[0], range[1], output, null);
+                int from = (int) Math.min(range[0], data.length);
+                int to = (int) Math.min(range[0] + range[1], data.length);
+                assertArrayEquals(Arrays.copyOfRange(data, from, to), output.toByteArray(),
+                                  range[0] + "+" + range[1]);
+            }
+        }
+    }
+    
+    @Test
+    void rejectsWrongHeader() throws IOException {
+        byte[] file = compress(CompressionAlgorithm.LZ4, 1, content());
+        
+        byte[] notOurs = file.clone();
+        notOurs[0] = 'X';
+        assertFails(notOurs, "Not a chunked file");
+        
+        byte[] badChunkSize = file.clone();
+        ByteBuffer.wrap(badChunkSize).putInt(4, CHUNK_SIZE - 1);
+        assertFails(badChunkSize, "Unsupported chunk size");
+        
+        assertFails(Arrays.copyOf(file, 3), "too short");
+    }
+    
+    @Test
+    void rejectsChunkWithWrongChecksum() throws IOException {
+        byte[] file = compress(CompressionAlgorithm.ZSTD, 1, content());
+        file[FIRST_CHUNK_CRC] ^= 0x01;
+        
+        assertStreamFails(file, "checksum mismatch");
+        assertIndexedReadFails(file, "checksum mismatch");
+    }
+    
+    @ParameterizedTest
+    @EnumSource(value = CompressionAlgorithm.class, names = {"GZIP", "BZIP2", "LZ4", "ZSTD", "XZ"})
+    void rejectsCorruptChunkData(CompressionAlgorithm codec) throws IOException {
+        byte[] file = compress(codec, 1, content());
+        // Well inside the first chunk's data, past any codec header
+        file[FIRST_CHUNK_DATA + 200] ^= 0x55;
+        
+        // Each codec notices in its own way; a bad CRC is the last line of defence
+        assertThrows(IOException.class, () -> decompress(file, 1));
+        assertThrows(IOException.class, () -> decompress(file, WORKERS));
+    }
+    
+    @Test
+    void rejectsChunkLengthsOutOfRange() throws IOException {
+        byte[] file = compress(CompressionAlgorithm.LZ4, 1, content());
+        ByteBuffer.wrap(file).putInt(FIRST_CHUNK_LENGTH, CHUNK_SIZE + 1);
+        
+        assertStreamFails(file, "lengths out of range");
+        assertIndexedReadFails(file, "lengths out of range");
+    }
+    
+    @Test
+    void rejectsShortStoredChunk() throws IOException {
+        // Noise gets stored; claim one byte more than the chunk holds
+        byte[] file = compress(CompressionAlgorithm.ZSTD, 1, TestData.incompressible(1000, 3));
+        ByteBuffer.wrap(file).putInt(FIRST_CHUNK_LENGTH, 1001);
+        
+        // Streaming notices the sizes don't add up at the index; a range read only has the chunk to go on
+        assertStreamFails(file, "index doesn't match");
+        assertIndexedReadFails(file, "decoded to 1000 bytes instead of 1001");
+    }
+    
+    @Test
+    void rejectsDamagedIndex() throws IOException {
+        byte[] file = compress(CompressionAlgorithm.LZ4, 1, content());
+        long indexOffset = ByteBuffer.wrap(file).getLong(file.length - TRAILER_SIZE);
+        
+        byte[] badEntry = file.clone();
+        badEntry[(int) indexOffset + 5] ^= 0x01;
+        assertStreamFails(badEntry, "index doesn't match");
+        assertIndexFails(badEntry, "index is damaged");
+        
+        byte[] badSize = file.clone();
+        ByteBuffer.wrap(badSize).putLong(file.length - TRAILER_SIZE + 8, content().length + 1L);
+        assertStreamFails(badSize, "index doesn't match");
+        
+        byte[] badCount = file.clone();
+        ByteBuffer.wrap(badCount).putInt(file.length - TRAILER_SIZE + 16, 1000);
+        assertIndexFails(badCount, "trailer is damaged");
+    }
+    
+    @Test
+    void rejectsTruncatedFile() throws IOException {
+        byte[] file = compress(CompressionAlgorithm.GZIP, 1, content());
+        long indexOffset = ByteBuffer.wrap(file).getLong(file.length - TRAILER_SIZE);
+        
+        for (long length : new long[] {0, ChunkedFormat.HEADER_SIZE, FIRST_CHUNK_DATA, file.length / 2, indexOffset,
+                                       indexOffset + 1, file.length - 1}) {
+            byte[] truncated = Arrays.copyOf(file, (int) length);
+            String cut = "cut at " + length;
+            assertThrows(IOException.class, () -> decompress(truncated, 1), cut);
+            assertThrows(IOException.class, () -> decompress(truncated, WORKERS), cut);
+            assertThrows(IOException.class, () -> {
+                try (FileChannel channel = open(truncated)) {
+                    ChunkedFormat.Index.read(channel);
+                }
+            }, cut);
+        }
+    }
+    
+    // Compressible text followed by noise, so some chunks get compressed and some get stored
+    private static byte[] content() {
+        byte[] text = TestData.compressible(3 * CHUNK_SIZE + 1000, 1);
+        byte[] noise = TestData.incompressible(CHUNK_SIZE + 123, 2);
+        byte[] data = Arrays.copyOf(text, text.length + noise.length);
+        System.arraycopy(noise, 0, data, text.length, noise.length);
+        return data;
+    }
+    
+    private static byte[] compress(CompressionAlgorithm codec, int workers, byte[] data) throws IOException {
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        new ParallelChunkedCompressor(codec, 6, CHUNK_SIZE, workers).compress(new ByteArrayInputStream(data), file,
+                                                                             null);
+        return file.toByteArray();
+    }
+    
+    private static byte[] decompress(byte[] file, int workers) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new ParallelChunkedDecompressor(workers).decompress(new ByteArrayInputStream(file), output, null);
+        return output.toByteArray();
+    }
+    
+    private FileChannel open(byte[] file) throws IOException {
+        Path path = Files.createTempFile(workDirectory, "chunked", ChunkedFormat.EXTENSION);
+        Files.write(path, file);
+        return FileChannel.open(path, StandardOpenOption.READ);
+    }
+    
+    private void assertFails(byte[] file, String message) {
+        assertStreamFails(file, message);
+        assertIndexFails(file, message);
+    }
+    
+    private static void assertStreamFails(byte[] file, String message) {
+        for (int workers : new int[] {1, WORKERS}) {
+            assertMessage(message, assertThrows(IOException.class, () -> decompress(file, workers)));
+        }
+    }
+    
+    private void assertIndexFails(byte[] file, String message) {
+        assertMessage(message, assertThrows(IOException.class, () -> {
+            try (FileChannel channel = open(file)) {
+                ChunkedFormat.Index.read(channel);
+            }
+        }));
+    }
+    
+    private void assertIndexedReadFails(byte[] file, String message) {
+        assertMessage(message, assertThrows(IOException.class, () -> {
+            try (FileChannel channel = open(file)) {
+                ChunkedFormat.Index index = ChunkedFormat.Index.read(channel);
+                new ParallelChunkedDecompressor(WORKERS).readRange(channel, index, 0, 10, new ByteArrayOutputStream(),
+                                                                   null);
+            }
+        }));
+    }
+    
+    private static void assertMessage(String expected, IOException e) {
+        assertTrue(e.getMessage() != null && e.getMessage().contains(expected),
+                   "expected \"" + expected + "\" in: " + e.getMessage());
+    }
+}
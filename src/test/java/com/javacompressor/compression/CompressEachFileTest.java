@@ -0,0 +1,88 @@
+package com.javacompressor.compression;
+
+import com.javacompressor.model.FileCompressionResult;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compressing every file on its own leaves alone what wouldn't get smaller, unless told otherwise.
+ */
+class CompressEachFileTest {
+    @TempDir
+    Path workDirectory;
+    
+    @Test
+    void skipsFilesThatLookCompressed() throws IOException {
+        writeFiles();
+        
+        List<FileCompressionResult> results = service(new CompressionOptions()).compressEachFile(
+                workDirectory.toFile(), CompressionAlgorithm.GZIP, 6, true, null);
+        
+        assertEquals(Set.of("app.log", "tiny.bin"), sources(results));
+        assertTrue(results.stream().allMatch(FileCompressionResult::isOriginalDeleted));
+        assertTrue(Files.exists(workDirectory.resolve("photo.jpg")));
+        assertTrue(Files.exists(workDirectory.resolve("noise.dat")));
+        assertFalse(Files.exists(workDirectory.resolve("old.gz.gz")));
+    }
+    
+    @Test
+    void compressesEverythingButArchivesWhenSkippingIsOff() throws IOException {
+        writeFiles();
+        CompressionOptions options = new CompressionOptions();
+        options.setSkipEntropy(8);
+        
+        List<FileCompressionResult> results = service(options).compressEachFile(
+                workDirectory.toFile(), CompressionAlgorithm.GZIP, 6, false, null);
+        
+        assertEquals(Set.of("app.log", "tiny.bin", "photo.jpg", "noise.dat"), sources(results));
+        assertTrue(Files.exists(workDirectory.resolve("noise.dat.gz")));
+    }
+    
+    @Test
+    void rejectsEntropyOutOfRange() {
+        CompressionOptions options = new CompressionOptions();
+        assertThrows(IllegalArgumentException.class, () -> options.setSkipEntropy(-0.1));
+        assertThrows(IllegalArgumentException.class, () -> options.setSkipEntropy(8.01));
+        assertThrows(IllegalArgumentException.class, () -> options.setSkipEntropy(Double.NaN));
+        
+        options.setSkipEntropy(7.5);
+        assertEquals(7.5, new CompressionOptions(options).getSkipEntropy());
+    }
+    
+    private void writeFiles() throws IOException {
+        TestData.write(workDirectory.resolve("app.log"), TestData.compressible(200_000, 1));
+        // Too small to sample, so it's compressed whatever it holds
+        TestData.write(workDirectory.resolve("tiny.bin"), TestData.incompressible(1000, 2));
+        // Skipped for its type, even though this one would compress
+        TestData.write(workDirectory.resolve("photo.jpg"), TestData.compressible(50_000, 3));
+        // No telling type, but the sample shows it's random
+        TestData.write(workDirectory.resolve("noise.dat"), TestData.incompressible(100_000, 4));
+        TestData.write(workDirectory.resolve("old.gz"), TestData.incompressible(10_000, 5));
+    }
+    
+    private static Set<String> sources(List<FileCompressionResult> results) {
+        Set<String> names = new TreeSet<>();
+        for (FileCompressionResult result : results) {
+            assertTrue(result.isSuccess(), result.getError());
+            names.add(result.getSourceFile().getName());
+        }
+        return names;
+    }
+    
+    private static CompressionService service(CompressionOptions options) {
+        options.setWorkerCount(4);
+        return new CompressionService(options);
+    }
+}
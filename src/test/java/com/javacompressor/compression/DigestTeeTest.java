@@ -0,0 +1,134 @@
+package com.javacompressor.compression;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * The manifest lists exactly the sources that were read to the end, with the digests of every byte
+ * of them, however the compressor read them.
+ */
+class DigestTeeTest {
+    private static final Set<DigestAlgorithm> SHA256 = EnumSet.of(DigestAlgorithm.SHA256);
+    
+    @TempDir
+    Path workDirectory;
+    
+    @Test
+    void digestsEveryChunkOfEverySource() throws IOException {
+        // Several full chunks each, so the recycled arrays get reused across entries
+        byte[][] sources = {new byte[0], TestData.incompressible(100, 1), TestData.compressible(1_300_000, 2),
+                            TestData.incompressible(700_001, 3)};
+        File manifestFile = workDirectory.resolve("sums").toFile();
+        try (DigestTee digests = new DigestTee(EnumSet.allOf(DigestAlgorithm.class))) {
+            for (int i = 0; i < sources.length; i++) {
+                try (InputStream in = digests.wrap("source" + i, new ByteArrayInputStream(sources[i]))) {
+                    in.transferTo(OutputStream.nullOutputStream());
+                }
+            }
+            assertEquals(sources.length, digests.write(manifestFile));
+        }
+        
+        List<String> shaLines = new ArrayList<>();
+        for (String line : Files.readAllLines(manifestFile.toPath())) {
+            if (line.startsWith("SHA256")) {
+                shaLines.add(line);
+            }
+        }
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < sources.length; i++) {
+            expected.add(line("source" + i, sources[i]));
+        }
+        assertEquals(expected, shaLines);
+    }
+    
+    @Test
+    void leavesOutSourcesThatWereNotReadToTheEnd() throws IOException {
+        byte[] data = TestData.compressible(600_000, 4);
+        File manifestFile = workDirectory.resolve("sums").toFile();
+        try (DigestTee digests = new DigestTee(SHA256)) {
+            try (InputStream in = digests.wrap("halfway", new ByteArrayInputStream(data))) {
+                in.readNBytes(data.length / 2);
+            }
+            // A reader that stops at a known size says so, and what comes after isn't digested
+            try (DigestTee.Source in = digests.wrap("known-size", new ByteArrayInputStream(data))) {
+                in.readNBytes(data.length / 2);
+                in.complete();
+                in.readNBytes(10);
+            }
+            try (InputStream in = digests.wrap("whole", new ByteArrayInputStream(data))) {
+                in.transferTo(OutputStream.nullOutputStream());
+            }
+            assertEquals(2, digests.write(manifestFile));
+        }
+        
+        assertEquals(List.of(line("known-size", Arrays.copyOf(data, data.length / 2)), line("whole", data)),
+                     Files.readAllLines(manifestFile.toPath()));
+    }
+    
+    @ParameterizedTest
+    @EnumSource(CompressionAlgorithm.class)
+    void compressorsReadTheWholeFile(CompressionAlgorithm algorithm) throws IOException {
+        byte[] data = TestData.compressible(3_000_000, 5);
+        File source = TestData.write(workDirectory.resolve("data.log"), data).toFile();
+        File output = workDirectory.resolve("data.log." + algorithm.getExtension()).toFile();
+        
+        service().compressFile(source, output, algorithm, 1, false, null);
+        
+        assertEquals(List.of(line("data.log", data)),
+                     Files.readAllLines(DigestTee.manifestFileFor(output).toPath()));
+    }
+    
+    @ParameterizedTest
+    @EnumSource(value = CompressionAlgorithm.class, names = {"ZIP", "ZSTD"})
+    void archivesDigestEveryFile(CompressionAlgorithm algorithm) throws IOException {
+        // ZIP reads each file to the end, the tarball stops at each file's size
+        byte[] first = TestData.compressible(400_000, 6);
+        byte[] second = TestData.incompressible(5_000, 7);
+        Path directory = workDirectory.resolve("dir");
+        TestData.write(directory.resolve("a.log"), first);
+        TestData.write(directory.resolve("sub/b.bin"), second);
+        File output = workDirectory.resolve("dir." + algorithm.getExtension()).toFile();
+        
+        service().compressFile(directory.toFile(), output, algorithm, 1, false, null);
+        
+        assertEquals(List.of(line("a.log", first), line("sub/b.bin", second)),
+                     Files.readAllLines(DigestTee.manifestFileFor(output).toPath()));
+    }
+    
+    private static String line(String name, byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            return "SHA256 (" + name + ") = " + HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    private static CompressionService service() {
+        CompressionOptions options = new CompressionOptions();
+        options.setParallel(true);
+        options.setWorkerCount(4);
+        options.setDigests(SHA256);
+        return new CompressionService(options);
+    }
+}
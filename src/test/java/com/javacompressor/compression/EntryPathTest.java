@@ -0,0 +1,116 @@
+package com.javacompressor.compression;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Entry names come from the archive, so extracting must never write outside the output directory.
+ */
+class EntryPathTest {
+    private static final byte[] CONTENT = "escaped".getBytes(StandardCharsets.US_ASCII);
+    
+    @TempDir
+    Path workDirectory;
+    
+    @ParameterizedTest
+    @ValueSource(ints = {1, 4})
+    void zipEntryCannotEscape(int workers) throws IOException {
+        File archive = zipWith("fine.txt", "../../escaped.txt");
+        Path output = workDirectory.resolve("a/b/output");
+        
+        assertThrows(IOException.class,
+                     () -> service(workers).decompressFile(archive, output.toFile(), CompressionAlgorithm.ZIP, null));
+        assertFalse(Files.exists(workDirectory.resolve("a/escaped.txt")));
+    }
+    
+    @Test
+    void zipEntryInsideIsExtracted() throws IOException {
+        File archive = zipWith("nested/../fine.txt");
+        Path output = workDirectory.resolve("output");
+        
+        service(1).decompressFile(archive, output.toFile(), CompressionAlgorithm.ZIP, null);
+        assertArrayEquals(CONTENT, Files.readAllBytes(output.resolve("fine.txt")));
+    }
+    
+    @ParameterizedTest
+    @ValueSource(ints = {1, 4})
+    void selectedEntryCannotEscape(int workers) throws IOException {
+        File archive = zipWith("fine.txt", "../escaped.txt");
+        Path output = workDirectory.resolve("output");
+        List<String> patterns = List.of("fine.txt", "../escaped.txt");
+        
+        assertThrows(IOException.class,
+                     () -> service(workers).extractEntries(archive, patterns, output.toFile(), null));
+        assertFalse(Files.exists(workDirectory.resolve("escaped.txt")));
+        // Nothing is written once one entry is refused
+        assertFalse(Files.exists(output.resolve("fine.txt")));
+    }
+    
+    @Test
+    void selectedEntryInsideIsExtracted() throws IOException {
+        File archive = zipWith("fine.txt", "../escaped.txt");
+        Path output = workDirectory.resolve("output");
+        
+        service(1).extractEntries(archive, List.of("fine.txt"), output.toFile(), null);
+        assertArrayEquals(CONTENT, Files.readAllBytes(output.resolve("fine.txt")));
+    }
+    
+    @Test
+    void tarEntryCannotEscape() throws IOException {
+        File archive = workDirectory.resolve("evil.tar.gz").toFile();
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream(
+                new GzipCompressorOutputStream(Files.newOutputStream(archive.toPath())))) {
+            TarArchiveEntry entry = new TarArchiveEntry("../escaped.txt", true);
+            entry.setSize(CONTENT.length);
+            tar.putArchiveEntry(entry);
+            tar.write(CONTENT);
+            tar.closeArchiveEntry();
+        }
+        Path output = workDirectory.resolve("output");
+        
+        assertThrows(IOException.class,
+                     () -> service(1).decompressFile(archive, output.toFile(), CompressionAlgorithm.GZIP, null));
+        assertFalse(Files.exists(workDirectory.resolve("escaped.txt")));
+    }
+    
+    /**
+     * Writes a ZIP with the given entry names as they are, which the ZIP writer allows.
+     */
+    File zipWith(String... names) throws IOException {
+        File archive = workDirectory.resolve("evil.zip").toFile();
+        try (ZipArchiveOutputStream zip = new ZipArchiveOutputStream(archive)) {
+            for (String name : names) {
+                zip.putArchiveEntry(new ZipArchiveEntry(name));
+                zip.write(CONTENT);
+                zip.closeArchiveEntry();
+            }
+        }
+        return archive;
+    }
+    
+    static CompressionService service(int workers) {
+        CompressionOptions options = new CompressionOptions();
+        options.setParallel(workers > 1);
+        options.setWorkerCount(workers);
+        return new CompressionService(options);
+    }
+}
@@ -0,0 +1,87 @@
+package com.javacompressor.compression;
+
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Ranges of a GZIP file come out right with or without a saved index, and reading one never
+ * writes anything next to the file.
+ */
+class GzipRangeTest {
+    private static final byte[] DATA = TestData.compressible(3_000_000, 7);
+    
+    @TempDir
+    Path workDirectory;
+    
+    @Test
+    void readingRangeLeavesNoIndexBehind() throws IOException {
+        File gzipFile = plainGzip();
+        
+        assertRanges(gzipFile);
+        assertFalse(indexFile(gzipFile).exists());
+    }
+    
+    @Test
+    void plainGzipHasOnlyOneCheckpoint() throws IOException {
+        File gzipFile = plainGzip();
+        
+        assertEquals(1, service().indexGzip(gzipFile, 0));
+        assertTrue(indexFile(gzipFile).exists());
+        assertRanges(gzipFile);
+    }
+    
+    @Test
+    void blockWiseGzipHasCheckpointsThroughout() throws IOException {
+        File source = TestData.write(workDirectory.resolve("data"), DATA).toFile();
+        File gzipFile = workDirectory.resolve("data.gz").toFile();
+        CompressionOptions options = new CompressionOptions();
+        options.setParallel(true);
+        options.setWorkerCount(4);
+        new CompressionService(options).compressFile(source, gzipFile, CompressionAlgorithm.GZIP, 6, false, null);
+        
+        // Indexed at 512 KB instead of the default 8 MB, so a 3 MB file gets several
+        assertTrue(service().indexGzip(gzipFile, 512 * 1024) > 1);
+        assertRanges(gzipFile);
+    }
+    
+    private File plainGzip() throws IOException {
+        File gzipFile = workDirectory.resolve("plain.gz").toFile();
+        try (OutputStream out = new GzipCompressorOutputStream(Files.newOutputStream(gzipFile.toPath()))) {
+            out.write(DATA);
+        }
+        return gzipFile;
+    }
+    
+    private static void assertRanges(File gzipFile) throws IOException {
+        long[][] ranges = {{0, 10}, {1_000_000, 70_000}, {-5000, -1}, {DATA.length - 1, 100}, {DATA.length, 10}};
+        for (long[] range : ranges) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            service().readGzipRange(gzipFile, range[0], range[1], output, null);
+            int from = (int) (range[0] < 0 ? DATA.length + range[0] : Math.min(range[0], DATA.length));
+            int to = (int) (range[1] < 0 ? DATA.length : Math.min(from + range[1], DATA.length));
+            assertArrayEquals(Arrays.copyOfRange(DATA, from, to), output.toByteArray(), range[0] + "+" + range[1]);
+        }
+    }
+    
+    private static File indexFile(File gzipFile) {
+        return GzipIndex.indexFileFor(gzipFile);
+    }
+    
+    private static CompressionService service() {
+        return new CompressionService(new CompressionOptions());
+    }
+}
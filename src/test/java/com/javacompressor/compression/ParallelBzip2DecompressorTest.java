@@ -0,0 +1,149 @@
+package com.javacompressor.compression;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * The block scanner has to find markers at any bit offset, notice when a marker turns up by chance
+ * inside a block, and carry on across the streams of a concatenated file.
+ */
+class ParallelBzip2DecompressorTest {
+    private static final long BLOCK_MAGIC = 0x314159265359L;
+    private static final long MAGIC_MASK = 0xffffffffffffL;
+    private static final int WORKERS = 4;
+    
+    // A block's header lists which byte values it uses as 16-bit bitmaps, one per range of 16 values.
+    // Data made of exactly these values gets the bitmaps 0x3141 0x5926 0x5359: a block marker.
+    private static final byte[] MARKER_SPELLING_VALUES = {
+        0x02, 0x03, 0x07, 0x09, 0x0f,
+        0x11, 0x13, 0x14, 0x17, 0x1a, 0x1d, 0x1e,
+        0x21, 0x23, 0x26, 0x27, 0x29, 0x2b, 0x2c, 0x2f
+    };
+    
+    @TempDir
+    Path workDirectory;
+    
+    @Test
+    void findsBlockMarkersAtEveryBitOffset() throws IOException {
+        // Blocks end wherever their Huffman codes do, so a few inputs cover all 8 shifts
+        Set<Integer> shiftsSeen = new TreeSet<>();
+        for (int seed = 0; seed < 40 && shiftsSeen.size() < 8; seed++) {
+            byte[] data = TestData.compressible(250_000 + seed * 7919, seed);
+            byte[] compressed = bzip2(1, data);
+            
+            assertArrayEquals(data, decompress(compressed), "seed " + seed);
+            for (long bit : markerBits(compressed)) {
+                shiftsSeen.add((int) (bit % 8));
+            }
+        }
+        assertEquals(Set.of(0, 1, 2, 3, 4, 5, 6, 7), shiftsSeen);
+    }
+    
+    @Test
+    void rejectsMarkerInsideBlockData() throws IOException {
+        byte[] compressed = bzip2(1, markerSpellingData(150_000));
+        
+        // Two blocks, each with its real marker and a false one in its bitmaps
+        assertEquals(4, markerBits(compressed).size());
+        assertThrows(ParallelBzip2Decompressor.UnsplittableInputException.class, () -> decompress(compressed));
+    }
+    
+    @Test
+    void fallsBackToOneThreadOnFalseMarker() throws IOException {
+        // The service only goes parallel for files bigger than a level 9 block
+        byte[] data = markerSpellingData(2_000_000);
+        File archive = Files.write(workDirectory.resolve("false-marker.bz2"), bzip2(9, data)).toFile();
+        File output = workDirectory.resolve("false-marker").toFile();
+        
+        new CompressionService(options()).decompressFile(archive, output, CompressionAlgorithm.BZIP2, null);
+        
+        assertArrayEquals(data, Files.readAllBytes(output.toPath()));
+    }
+    
+    @Test
+    void decodesConcatenatedStreams() throws IOException {
+        // Different levels too, since each stream has its own header
+        byte[] first = TestData.compressible(230_000, 1);
+        byte[] second = TestData.incompressible(10_000, 2);
+        byte[] third = TestData.compressible(120_000, 3);
+        ByteArrayOutputStream joined = new ByteArrayOutputStream();
+        joined.write(bzip2(1, first));
+        joined.write(bzip2(9, second));
+        joined.write(bzip2(2, third));
+        
+        byte[] expected = new byte[first.length + second.length + third.length];
+        System.arraycopy(first, 0, expected, 0, first.length);
+        System.arraycopy(second, 0, expected, first.length, second.length);
+        System.arraycopy(third, 0, expected, first.length + second.length, third.length);
+        assertArrayEquals(expected, decompress(joined.toByteArray()));
+    }
+    
+    @Test
+    void decodesEmptyStream() throws IOException {
+        assertArrayEquals(new byte[0], decompress(bzip2(9, new byte[0])));
+    }
+    
+    private static byte[] decompress(byte[] compressed) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new ParallelBzip2Decompressor(WORKERS).decompress(new ByteArrayInputStream(compressed), output, null);
+        return output.toByteArray();
+    }
+    
+    private static byte[] bzip2(int level, byte[] data) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (BZip2CompressorOutputStream out = new BZip2CompressorOutputStream(compressed, level)) {
+            out.write(data);
+        }
+        return compressed.toByteArray();
+    }
+    
+    private static byte[] markerSpellingData(int size) {
+        // No value follows itself: runs of four would add their length bytes to the bitmaps
+        Random random = new Random(size);
+        byte[] data = new byte[size];
+        int previous = 0;
+        for (int i = 0; i < data.length; i++) {
+            previous = (previous + 1 + random.nextInt(MARKER_SPELLING_VALUES.length - 1))
+                    % MARKER_SPELLING_VALUES.length;
+            data[i] = MARKER_SPELLING_VALUES[previous];
+        }
+        return data;
+    }
+    
+    /**
+     * Finds every bit offset of a block marker, the slow and obvious way.
+     */
+    private static Set<Long> markerBits(byte[] compressed) {
+        Set<Long> bits = new TreeSet<>();
+        long register = 0;
+        for (long bit = 0; bit < compressed.length * 8L; bit++) {
+            register = ((register << 1) | ((compressed[(int) (bit / 8)] >>> (7 - bit % 8)) & 1)) & MAGIC_MASK;
+            if (bit >= 47 && register == BLOCK_MAGIC) {
+                bits.add(bit - 47);
+            }
+        }
+        return bits;
+    }
+    
+    private static CompressionOptions options() {
+        CompressionOptions options = new CompressionOptions();
+        options.setParallel(true);
+        options.setWorkerCount(WORKERS);
+        return options;
+    }
+}
@@ -0,0 +1,113 @@
+package com.javacompressor.compression;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.compress.archivers.zip.ZipMethod;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Entries deflate on the workers and go into the archive in order, STORED when deflate didn't help.
+ * The one-thread path used for small directories has to come to the same result.
+ */
+class ParallelZipCreatorTest {
+    private static final int WORKERS = 4;
+    
+    @TempDir
+    Path workDirectory;
+    
+    @ParameterizedTest(name = "buffered on disk: {0}")
+    @ValueSource(booleans = {false, true})
+    void storesEntriesThatDeflateDoesNotShrink(boolean onDisk) throws IOException {
+        Map<String, byte[]> contents = contents();
+        
+        List<ParallelZipCreator.Source> sources = new ArrayList<>();
+        for (Map.Entry<String, byte[]> content : contents.entrySet()) {
+            File file = TestData.write(workDirectory.resolve("in").resolve(content.getKey()), content.getValue())
+                    .toFile();
+            sources.add(new ParallelZipCreator.Source(file, content.getKey(), file.length(), file.lastModified()));
+        }
+        
+        // Sampling is off, so every entry gets deflated first and the fallback has to catch the noise
+        long memoryLimit = onDisk ? 0 : 64L * 1024 * 1024;
+        ParallelZipCreator creator = new ParallelZipCreator(6, WORKERS, memoryLimit, 64L * 1024 * 1024, 64 * 1024, 0,
+                                                            false);
+        File archive = workDirectory.resolve("out.zip").toFile();
+        try (ZipArchiveOutputStream zipOutput = new ZipArchiveOutputStream(archive)) {
+            creator.write(sources, zipOutput, null, null);
+        }
+        
+        assertStoredWhereDeflateDidNotHelp(archive, contents);
+        assertEquals(3, creator.getStoredCount());
+    }
+    
+    @Test
+    void oneThreadPathStoresEntriesThatDeflateDoesNotShrink() throws IOException {
+        Map<String, byte[]> contents = contents();
+        Path directory = workDirectory.resolve("in");
+        for (Map.Entry<String, byte[]> content : contents.entrySet()) {
+            TestData.write(directory.resolve(content.getKey()), content.getValue());
+        }
+        CompressionOptions options = new CompressionOptions();
+        options.setParallel(false);
+        options.setZipStoreIncompressible(false);
+        
+        File archive = workDirectory.resolve("out.zip").toFile();
+        new CompressionService(options).compressFile(directory.toFile(), archive, CompressionAlgorithm.ZIP, 6, false,
+                                                     null);
+        
+        // The directory is scanned in name order
+        assertStoredWhereDeflateDidNotHelp(archive, new TreeMap<>(contents));
+    }
+    
+    private static Map<String, byte[]> contents() {
+        Map<String, byte[]> contents = new LinkedHashMap<>();
+        contents.put("empty.txt", new byte[0]);
+        contents.put("tiny.bin", TestData.incompressible(1, 1));
+        contents.put("text.txt", TestData.compressible(200_000, 2));
+        contents.put("noise.bin", TestData.incompressible(300_000, 3));
+        contents.put("more-text.txt", TestData.compressible(5_000, 4));
+        return contents;
+    }
+    
+    private static void assertStoredWhereDeflateDidNotHelp(File archive, Map<String, byte[]> contents)
+            throws IOException {
+        try (ZipFile zip = new ZipFile(archive)) {
+            List<String> names = new ArrayList<>();
+            for (ZipArchiveEntry entry : physicalOrder(zip)) {
+                names.add(entry.getName());
+                boolean shrinks = entry.getName().endsWith(".txt") && entry.getSize() > 0;
+                int expected = shrinks ? ZipMethod.DEFLATED.getCode() : ZipMethod.STORED.getCode();
+                assertEquals(expected, entry.getMethod(), entry.getName());
+                assertTrue(entry.getCompressedSize() <= entry.getSize(), entry.getName());
+                try (InputStream in = zip.getInputStream(entry)) {
+                    assertArrayEquals(contents.get(entry.getName()), in.readAllBytes(), entry.getName());
+                }
+            }
+            assertEquals(new ArrayList<>(contents.keySet()), names);
+        }
+    }
+    
+    private static List<ZipArchiveEntry> physicalOrder(ZipFile zip) {
+        List<ZipArchiveEntry> entries = new ArrayList<>();
+        zip.getEntriesInPhysicalOrder().asIterator().forEachRemaining(entries::add);
+        return entries;
+    }
+}
@@ -0,0 +1,94 @@
+package com.javacompressor.compression;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The sizes and CRCs in the central directory are only claims, so extracting has to hold entries to them.
+ */
+class ParallelZipExtractorTest {
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int CENTRAL_CRC = 16;
+    private static final int CENTRAL_SIZE = 24;
+    
+    @TempDir
+    Path workDirectory;
+    
+    @ParameterizedTest
+    @ValueSource(ints = {1, 4})
+    void smallEntryCannotInflateBeyondItsSize(int workers) throws IOException {
+        // 8 MB of zeros deflate to a few KB, and the directory says 100 bytes
+        File archive = zipWith(new byte[8 * 1024 * 1024]);
+        patchCentralDirectory(archive, CENTRAL_SIZE, 100);
+        
+        IOException e = assertThrows(IOException.class, () -> extract(archive, workers));
+        assertTrue(e.getMessage().contains("size mismatch"), e.getMessage());
+    }
+    
+    @ParameterizedTest
+    @ValueSource(ints = {1, 4})
+    void smallEntryMustMatchItsCrc(int workers) throws IOException {
+        File archive = zipWith(TestData.compressible(10_000, 1));
+        patchCentralDirectory(archive, CENTRAL_CRC, 0x12345678);
+        
+        IOException e = assertThrows(IOException.class, () -> extract(archive, workers));
+        assertTrue(e.getMessage().contains("CRC mismatch"), e.getMessage());
+    }
+    
+    @Test
+    void smallEntryIsExtracted() throws IOException {
+        byte[] content = TestData.compressible(10_000, 2);
+        File archive = zipWith(content);
+        
+        extract(archive, 1);
+        assertArrayEquals(content, Files.readAllBytes(workDirectory.resolve("output/entry.txt")));
+    }
+    
+    private File zipWith(byte[] content) throws IOException {
+        File archive = workDirectory.resolve("test.zip").toFile();
+        try (ZipArchiveOutputStream zip = new ZipArchiveOutputStream(archive)) {
+            zip.putArchiveEntry(new ZipArchiveEntry("entry.txt"));
+            zip.write(content);
+            zip.closeArchiveEntry();
+            // A second entry, so several workers actually get used
+            zip.putArchiveEntry(new ZipArchiveEntry("other.txt"));
+            zip.write(new byte[10]);
+            zip.closeArchiveEntry();
+        }
+        return archive;
+    }
+    
+    /**
+     * Overwrites a field of the first entry's central directory header.
+     */
+    private static void patchCentralDirectory(File archive, int field, int value) throws IOException {
+        byte[] bytes = Files.readAllBytes(archive.toPath());
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        int header = 0;
+        while (buffer.getInt(header) != CENTRAL_HEADER) {
+            header++;
+        }
+        buffer.putInt(header + field, value);
+        Files.write(archive.toPath(), bytes);
+    }
+    
+    private void extract(File archive, int workers) throws IOException {
+        File output = workDirectory.resolve("output").toFile();
+        EntryPathTest.service(workers).decompressFile(archive, output, CompressionAlgorithm.ZIP, null);
+    }
+}
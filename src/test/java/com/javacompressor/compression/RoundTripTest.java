@@ -0,0 +1,167 @@
+package com.javacompressor.compression;
+
+import com.javacompressor.util.FileUtils;
+import com.javacompressor.util.NonClosingOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compresses and decompresses every algorithm on one thread and on several, at the sizes where the
+ * parallel paths split their input: empty, one byte, and one byte either side of a block.
+ * The blocks are set as small as the options allow so the boundaries are cheap to hit.
+ */
+class RoundTripTest {
+    private static final int LEVEL = 1;
+    private static final int[] WORKER_COUNTS = {1, 4};
+    
+    @TempDir
+    Path workDirectory;
+    
+    static Stream<Arguments> fileCases() {
+        List<Arguments> cases = new ArrayList<>();
+        for (CompressionAlgorithm algorithm : CompressionAlgorithm.values()) {
+            int block = blockSize(algorithm);
+            for (int workers : WORKER_COUNTS) {
+                for (int size : new int[] {0, 1, block - 1, block, block + 1}) {
+                    cases.add(Arguments.of(algorithm, workers, size));
+                }
+            }
+        }
+        return cases.stream();
+    }
+    
+    static IntStream workerCounts() {
+        return IntStream.of(WORKER_COUNTS);
+    }
+    
+    static Stream<Arguments> directoryCases() {
+        List<Arguments> cases = new ArrayList<>();
+        for (CompressionAlgorithm algorithm : CompressionAlgorithm.values()) {
+            for (int workers : WORKER_COUNTS) {
+                cases.add(Arguments.of(algorithm, workers));
+            }
+        }
+        return cases.stream();
+    }
+    
+    @ParameterizedTest(name = "{0} on {1} thread(s), {2} bytes")
+    @MethodSource("fileCases")
+    void fileSurvivesRoundTrip(CompressionAlgorithm algorithm, int workers, int size) throws IOException {
+        byte[] data = TestData.compressible(size, size);
+        File input = TestData.write(workDirectory.resolve("input.txt"), data).toFile();
+        File archive = workDirectory.resolve("input.txt." + algorithm.getExtension()).toFile();
+        Path output = workDirectory.resolve("output");
+        CompressionService service = new CompressionService(options(workers));
+        
+        service.compressFile(input, archive, algorithm, LEVEL, false, null);
+        assertTrue(archive.isFile(), "no archive was written");
+        service.decompressFile(archive, output.toFile(), algorithm, null);
+        
+        Path restored = algorithm == CompressionAlgorithm.ZIP ? output.resolve(input.getName()) : output;
+        assertArrayEquals(data, Files.readAllBytes(restored));
+    }
+    
+    @ParameterizedTest(name = "{0} on {1} thread(s)")
+    @MethodSource("directoryCases")
+    void directorySurvivesRoundTrip(CompressionAlgorithm algorithm, int workers) throws IOException {
+        // Enough in total to cross the parallel ZIP threshold, with an empty file and a nested folder
+        Path source = workDirectory.resolve("tree");
+        List<Path> files = new ArrayList<>();
+        files.add(TestData.write(source.resolve("empty.txt"), new byte[0]));
+        for (int i = 0; i < 12; i++) {
+            String folder = i % 3 == 0 ? "nested/deeper/" : i % 2 == 0 ? "nested/" : "";
+            byte[] data = TestData.compressible(150_000, i);
+            files.add(TestData.write(source.resolve(folder + "file" + i + ".txt"), data));
+        }
+        files.add(TestData.write(source.resolve("noise.bin"), TestData.incompressible(70_000, 99)));
+        File archive = workDirectory.resolve(FileUtils.getCompressedFileName(source.toFile(), algorithm)).toFile();
+        Path output = workDirectory.resolve("output");
+        CompressionService service = new CompressionService(options(workers));
+        
+        service.compressFile(source.toFile(), archive, algorithm, LEVEL, true, null);
+        service.decompressFile(archive, output.toFile(), algorithm, null);
+        
+        Path restoredRoot = output.resolve(source.getFileName());
+        for (Path file : files) {
+            Path restored = restoredRoot.resolve(source.relativize(file));
+            assertTrue(Files.isRegularFile(restored), "missing after round trip: " + restored);
+            assertArrayEquals(Files.readAllBytes(file), Files.readAllBytes(restored), restored.toString());
+        }
+        try (Stream<Path> walk = Files.walk(restoredRoot)) {
+            assertEquals(files.size(), walk.filter(Files::isRegularFile).count(), "unexpected extra files");
+        }
+    }
+    
+    @ParameterizedTest(name = "on {0} thread(s)")
+    @MethodSource("workerCounts")
+    void concatenatedGzipMembersAreAllDecompressed(int workers) throws IOException {
+        // What cat a.gz b.gz or pigz --independent leave behind
+        byte[] first = TestData.compressible(100_000, 1);
+        byte[] second = TestData.compressible(50_000, 2);
+        Path archive = workDirectory.resolve("joined.txt.gz");
+        try (OutputStream out = Files.newOutputStream(archive)) {
+            for (byte[] member : new byte[][] {first, second}) {
+                GzipCompressorOutputStream gzip = new GzipCompressorOutputStream(new NonClosingOutputStream(out));
+                gzip.write(member);
+                gzip.close();
+            }
+        }
+        Path output = workDirectory.resolve("joined.txt");
+        
+        new CompressionService(options(workers)).decompressFile(archive.toFile(), output.toFile(),
+                                                               CompressionAlgorithm.GZIP, null);
+        
+        byte[] expected = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, expected, first.length, second.length);
+        assertArrayEquals(expected, Files.readAllBytes(output));
+    }
+    
+    /**
+     * Gets the size at which an algorithm's parallel path starts a new block, with the options below.
+     */
+    private static int blockSize(CompressionAlgorithm algorithm) {
+        switch (algorithm) {
+            case GZIP:
+                return 32 * 1024;
+            case BZIP2:
+                return ParallelBzip2Compressor.chunkSize(LEVEL);
+            case LZ4:
+            case CHUNKED:
+                return 64 * 1024;
+            case XZ:
+                return 1024 * 1024;
+            default:
+                // ZIP and ZSTD have no blocks of their own; just try something bigger than a read buffer
+                return 128 * 1024;
+        }
+    }
+    
+    private static CompressionOptions options(int workers) {
+        CompressionOptions options = new CompressionOptions();
+        options.setParallel(workers > 1);
+        options.setWorkerCount(workers);
+        options.setGzipBlockSize(blockSize(CompressionAlgorithm.GZIP));
+        options.setLz4FrameSize(blockSize(CompressionAlgorithm.LZ4));
+        options.setChunkSize(blockSize(CompressionAlgorithm.CHUNKED));
+        options.setXzBlockSize(blockSize(CompressionAlgorithm.XZ));
+        return options;
+    }
+}
@@ -0,0 +1,56 @@
+package com.javacompressor.compression;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Seeded inputs for the tests, so a failure can be reproduced byte for byte.
+ */
+final class TestData {
+    private static final String[] WORDS = {
+        "the", "quick", "brown", "fox", "jumps", "over", "lazy", "dog", "compress", "block", "stream",
+        "2024-01-15T10:32:11Z", "INFO", "WARN", "{\"id\":", "\"name\":", "null,", "true}", "\n"
+    };
+    
+    private TestData() {
+    }
+    
+    /**
+     * Gets text-like data that compresses a few times over, with some random bytes mixed in.
+     */
+    static byte[] compressible(int size, long seed) {
+        Random random = new Random(seed);
+        byte[] data = new byte[size];
+        int position = 0;
+        while (position < size) {
+            byte[] piece = random.nextInt(20) == 0
+                    ? randomBytes(random, 1 + random.nextInt(16))
+                    : (WORDS[random.nextInt(WORDS.length)] + " ").getBytes(StandardCharsets.US_ASCII);
+            int count = Math.min(piece.length, size - position);
+            System.arraycopy(piece, 0, data, position, count);
+            position += count;
+        }
+        return data;
+    }
+    
+    /**
+     * Gets data that doesn't compress at all.
+     */
+    static byte[] incompressible(int size, long seed) {
+        return randomBytes(new Random(seed), size);
+    }
+    
+    static Path write(Path file, byte[] data) throws IOException {
+        Files.createDirectories(file.getParent());
+        return Files.write(file, data);
+    }
+    
+    private static byte[] randomBytes(Random random, int size) {
+        byte[] bytes = new byte[size];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+}
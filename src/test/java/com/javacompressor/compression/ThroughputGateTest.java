@@ -0,0 +1,115 @@
+package com.javacompressor.compression;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * A coarse throughput floor for every algorithm, to catch an accidental slowdown of several times
+ * (a lost buffer, a parallel path that stopped being taken). It's slow, so it only runs with
+ * {@code mvn test -Pthroughput}. The benchmarks module has the precise, baseline-driven gate.
+ * <p>
+ * The size and floors can be changed with {@code -Dthroughput.megabytes=64} and
+ * {@code -Dthroughput.minMbps.GZIP=40}.
+ */
+@Tag("throughput")
+class ThroughputGateTest {
+    private static final double MEGABYTE = 1024.0 * 1024.0;
+    private static final int LEVEL = 6;
+    // Parallel has to beat one thread by this much, when there's more than one core to run on
+    private static final double MIN_PARALLEL_SPEEDUP = 1.3;
+    
+    @TempDir
+    static Path workDirectory;
+    
+    private static File input;
+    private static File warmUpInput;
+    private static byte[] data;
+    
+    @BeforeAll
+    static void createInput() throws IOException {
+        int megabytes = Integer.getInteger("throughput.megabytes", 32);
+        data = TestData.compressible(megabytes * 1024 * 1024, 42);
+        input = TestData.write(workDirectory.resolve("input.txt"), data).toFile();
+        warmUpInput = TestData.write(workDirectory.resolve("warm-up.txt"), TestData.compressible(1024 * 1024, 7))
+                .toFile();
+    }
+    
+    @ParameterizedTest
+    @EnumSource(CompressionAlgorithm.class)
+    void compressesFastEnough(CompressionAlgorithm algorithm) throws IOException {
+        double floor = Double.parseDouble(System.getProperty("throughput.minMbps." + algorithm.name(),
+                                                             String.valueOf(defaultFloor(algorithm))));
+        double mbps = roundTrip(algorithm, Runtime.getRuntime().availableProcessors());
+        assertTrue(mbps >= floor,
+                   String.format("%s compressed at %.1f MB/s, the floor is %.1f", algorithm.name(), mbps, floor));
+    }
+    
+    @ParameterizedTest
+    @EnumSource(value = CompressionAlgorithm.class, names = {"GZIP", "BZIP2", "LZ4", "XZ", "CHUNKED"})
+    void parallelBeatsOneThread(CompressionAlgorithm algorithm) throws IOException {
+        int cores = Runtime.getRuntime().availableProcessors();
+        assumeTrue(cores > 1, "only one core to run on");
+        
+        double single = roundTrip(algorithm, 1);
+        double parallel = roundTrip(algorithm, cores);
+        assertTrue(parallel >= single * MIN_PARALLEL_SPEEDUP,
+                   String.format("%s ran at %.1f MB/s on %d threads and %.1f MB/s on one", algorithm.name(),
+                                 parallel, cores, single));
+    }
+    
+    /**
+     * Compresses and decompresses the input, checks it came back intact and gets the compression MB/s.
+     */
+    private static double roundTrip(CompressionAlgorithm algorithm, int workers) throws IOException {
+        CompressionOptions options = new CompressionOptions();
+        options.setParallel(workers > 1);
+        options.setWorkerCount(workers);
+        CompressionService service = new CompressionService(options);
+        File archive = workDirectory.resolve("input.txt." + algorithm.getExtension()).toFile();
+        Path output = workDirectory.resolve("output-" + algorithm.name() + "-" + workers);
+        
+        // A first, untimed pass so the JIT has compiled the hot loops
+        service.compressFile(warmUpInput, archive, algorithm, LEVEL, false, null);
+        
+        long start = System.nanoTime();
+        service.compressFile(input, archive, algorithm, LEVEL, false, null);
+        long nanos = System.nanoTime() - start;
+        service.decompressFile(archive, output.toFile(), algorithm, null);
+        
+        Path restored = algorithm == CompressionAlgorithm.ZIP ? output.resolve(input.getName()) : output;
+        assertArrayEquals(data, Files.readAllBytes(restored));
+        return data.length / MEGABYTE / (nanos / 1e9);
+    }
+    
+    // Several times under what even a slow CI core does at level 6, so only a real regression trips them
+    private static double defaultFloor(CompressionAlgorithm algorithm) {
+        switch (algorithm) {
+            case LZ4:
+                return 30;
+            case ZSTD:
+            case CHUNKED:
+                return 10;
+            case GZIP:
+            case ZIP:
+                return 4;
+            case BZIP2:
+                return 1;
+            case XZ:
+                return 0.25;
+            default:
+                return 1;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.javacompressor.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Streams share one buffer per thread between them, so a closed stream must never touch it again and the
+ * next stream must only use as much of it as its own file needs.
+ */
+class FileChannelIOTest {
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    
+    @TempDir
+    Path workDirectory;
+    
+    @Test
+    void copiesFilesOfEverySizeThroughTheSpareBuffer() throws IOException {
+        // Sizes around the heap/direct cut-off and the buffer size, big ones after small and back
+        int[] sizes = {0, 1, 65_535, 65_536, 100_000, 3 * BUFFER_SIZE + 7, 70_000, BUFFER_SIZE, 200_000, 5};
+        for (int size : sizes) {
+            byte[] data = randomBytes(size);
+            File source = workDirectory.resolve("in-" + size).toFile();
+            File copy = workDirectory.resolve("out-" + size).toFile();
+            Files.write(source.toPath(), data);
+            
+            // Both streams open at once, so only one of them can have the spare
+            try (InputStream in = FileChannelIO.openInput(source, BUFFER_SIZE, 0);
+                 OutputStream out = FileChannelIO.openOutput(copy, BUFFER_SIZE)) {
+                in.transferTo(out);
+            }
+            assertArrayEquals(data, Files.readAllBytes(copy.toPath()), size + " bytes");
+        }
+    }
+    
+    @Test
+    void closedStreamsRefuseToBeUsed() throws IOException {
+        File file = workDirectory.resolve("data").toFile();
+        Files.write(file.toPath(), randomBytes(500_000));
+        
+        InputStream in = FileChannelIO.openInput(file, BUFFER_SIZE, 0);
+        in.read();
+        in.close();
+        in.close();
+        assertThrows(IOException.class, in::read);
+        assertThrows(IOException.class, () -> in.skip(10));
+        assertThrows(IOException.class, in::available);
+        
+        OutputStream out = FileChannelIO.openOutput(workDirectory.resolve("copy").toFile(), BUFFER_SIZE);
+        out.write(1);
+        out.close();
+        out.flush();
+        assertThrows(IOException.class, () -> out.write(2));
+        assertEquals(1, Files.size(workDirectory.resolve("copy")));
+    }
+    
+    private static byte[] randomBytes(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+}